@@ -52,6 +52,7 @@ enum Attribute {
     DEFAULT_WEB_MODULE(Constants.DEFAULT_WEB_MODULE),
     DEVELOPMENT(Constants.DEVELOPMENT),
     DIALOG_PENDING_REQUEST_CHECKING(Constants.DIALOG_PENDING_REQUEST_CHECKING),
+    DISPATCHER_SHARD_COUNT(Constants.DISPATCHER_SHARD_COUNT),
     DIRECTORY(Constants.DIRECTORY),
     DISABLED(Constants.DISABLED),
     DISPLAY_SOURCE_FRAGMENT(Constants.DISPLAY_SOURCE_FRAGMENT),
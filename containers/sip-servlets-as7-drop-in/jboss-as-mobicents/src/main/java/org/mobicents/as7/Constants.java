@@ -54,6 +54,7 @@ interface Constants {
     String DEFAULT_WEB_MODULE = "default-web-module";
     String DEVELOPMENT = "development";
     String DIALOG_PENDING_REQUEST_CHECKING = "dialog-pending-request-checking";
+    String DISPATCHER_SHARD_COUNT = "dispatcher-shard-count";
     String DIRECTORY = "directory";
     String DISABLED = "disabled";
     String DISPLAY_SOURCE_FRAGMENT = "display-source-fragment";
@@ -164,6 +164,13 @@ public class SipDefinition extends SimpleResourceDefinition {
                     .setFlags(AttributeAccess.Flag.RESTART_ALL_SERVICES)
                     .setDefaultValue(new ModelNode(-1))
                     .build();
+    protected static final SimpleAttributeDefinition DISPATCHER_SHARD_COUNT =
+            new SimpleAttributeDefinitionBuilder(Constants.DISPATCHER_SHARD_COUNT, ModelType.INT, true)
+                    .setAllowExpression(true)
+                    .setXmlName(Constants.DISPATCHER_SHARD_COUNT)
+                    .setFlags(AttributeAccess.Flag.RESTART_ALL_SERVICES)
+                    .setDefaultValue(new ModelNode(0))
+                    .build();
     protected static final SimpleAttributeDefinition MEMORY_THRESHOLD =
             new SimpleAttributeDefinitionBuilder(Constants.MEMORY_THRESHOLD, ModelType.INT, true)
                     .setAllowExpression(true)
@@ -220,6 +227,7 @@ public class SipDefinition extends SimpleResourceDefinition {
         registration.registerReadWriteAttribute(TIMER_D_INTERVAL, null, new ReloadRequiredWriteAttributeHandler(TIMER_D_INTERVAL));
         registration.registerReadWriteAttribute(DIALOG_PENDING_REQUEST_CHECKING, null, new ReloadRequiredWriteAttributeHandler(DIALOG_PENDING_REQUEST_CHECKING));
         registration.registerReadWriteAttribute(CANCELED_TIMER_TASKS_PURGE_PERIOD, null, new ReloadRequiredWriteAttributeHandler(CANCELED_TIMER_TASKS_PURGE_PERIOD));
+        registration.registerReadWriteAttribute(DISPATCHER_SHARD_COUNT, null, new ReloadRequiredWriteAttributeHandler(DISPATCHER_SHARD_COUNT));
         registration.registerReadWriteAttribute(MEMORY_THRESHOLD, null, new ReloadRequiredWriteAttributeHandler(MEMORY_THRESHOLD));
         registration.registerReadWriteAttribute(BACK_TO_NORMAL_MEMORY_THRESHOLD, null, new ReloadRequiredWriteAttributeHandler(BACK_TO_NORMAL_MEMORY_THRESHOLD));
         registration.registerReadWriteAttribute(OUTBOUND_PROXY, null, new ReloadRequiredWriteAttributeHandler(OUTBOUND_PROXY));
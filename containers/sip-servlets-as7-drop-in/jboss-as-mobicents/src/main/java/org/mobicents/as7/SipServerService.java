@@ -73,6 +73,7 @@ class SipServerService implements SipServer, Service<SipServer> {
  	final int timerDInterval;
  	final boolean dialogPendingRequestChecking;
  	final int canceledTimerTasksPurgePeriod;
+ 	final int dispatcherShardCount;
  	final int memoryThreshold;
  	final int backToNormalMemoryThreshold;
  	final String outboundProxy;
@@ -105,6 +106,7 @@ class SipServerService implements SipServer, Service<SipServer> {
     		int timerDInterval, 
     		boolean dialogPendingRequestChecking, 
     		int canceledTimerTasksPurgePeriod, 
+    		int dispatcherShardCount, 
     		int memoryThreshold,
     	 	int backToNormalMemoryThreshold,
     	 	String outboundProxy,
@@ -127,6 +129,7 @@ class SipServerService implements SipServer, Service<SipServer> {
         this.timerDInterval = timerDInterval;
         this.dialogPendingRequestChecking = dialogPendingRequestChecking;
         this.canceledTimerTasksPurgePeriod = canceledTimerTasksPurgePeriod;
+        this.dispatcherShardCount = dispatcherShardCount;
         this.memoryThreshold = memoryThreshold;
         this.backToNormalMemoryThreshold = backToNormalMemoryThreshold;
         this.outboundProxy = outboundProxy;
@@ -217,6 +220,7 @@ class SipServerService implements SipServer, Service<SipServer> {
         }
         sipService.setDialogPendingRequestChecking(dialogPendingRequestChecking);
         sipService.setCanceledTimerTasksPurgePeriod(canceledTimerTasksPurgePeriod);
+        sipService.setDispatcherShardCount(dispatcherShardCount);
         sipService.setMemoryThreshold(memoryThreshold);
         sipService.setBackToNormalMemoryThreshold(backToNormalMemoryThreshold);
         sipService.setCongestionControlPolicy(congestionControlPolicy);
@@ -98,6 +98,7 @@ class SipSubsystemAdd extends AbstractBoottimeAddStepHandler {
         SipDefinition.TIMER_D_INTERVAL.validateAndSet(operation, model);
         SipDefinition.DIALOG_PENDING_REQUEST_CHECKING.validateAndSet(operation, model);
         SipDefinition.CANCELED_TIMER_TASKS_PURGE_PERIOD.validateAndSet(operation, model);
+        SipDefinition.DISPATCHER_SHARD_COUNT.validateAndSet(operation, model);
         SipDefinition.MEMORY_THRESHOLD.validateAndSet(operation, model);
         SipDefinition.BACK_TO_NORMAL_MEMORY_THRESHOLD.validateAndSet(operation, model);
         SipDefinition.OUTBOUND_PROXY.validateAndSet(operation, model);
@@ -157,6 +158,9 @@ class SipSubsystemAdd extends AbstractBoottimeAddStepHandler {
         final ModelNode canceledTimerTasksPurgePeriodModel = SipDefinition.CANCELED_TIMER_TASKS_PURGE_PERIOD.resolveModelAttribute(context, fullModel);
         final int canceledTimerTasksPurgePeriod = canceledTimerTasksPurgePeriodModel.isDefined() ? canceledTimerTasksPurgePeriodModel.asInt() : -1;
         
+        final ModelNode dispatcherShardCountModel = SipDefinition.DISPATCHER_SHARD_COUNT.resolveModelAttribute(context, fullModel);
+        final int dispatcherShardCount = dispatcherShardCountModel.isDefined() ? dispatcherShardCountModel.asInt() : 0;
+        
         final ModelNode memoryThresholdModel = SipDefinition.MEMORY_THRESHOLD.resolveModelAttribute(context, fullModel);
         final int memoryThreshold = memoryThresholdModel.isDefined() ? memoryThresholdModel.asInt() : -1;
         
@@ -191,6 +195,7 @@ class SipSubsystemAdd extends AbstractBoottimeAddStepHandler {
         		timerDInterval, 
         		dialogPendingRequestChecking, 
         		canceledTimerTasksPurgePeriod, 
+        		dispatcherShardCount, 
         		memoryThreshold,
         		backToNormalMemoryThreshold,
         		outboundProxy,
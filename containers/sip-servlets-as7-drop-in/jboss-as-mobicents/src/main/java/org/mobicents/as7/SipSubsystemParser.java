@@ -90,6 +90,7 @@ class SipSubsystemParser implements XMLStreamConstants, XMLElementReader<List<Mo
         SipDefinition.TIMER_D_INTERVAL.marshallAsAttribute(node, false, writer);
         SipDefinition.DIALOG_PENDING_REQUEST_CHECKING.marshallAsAttribute(node, false, writer);
         SipDefinition.CANCELED_TIMER_TASKS_PURGE_PERIOD.marshallAsAttribute(node, false, writer);
+        SipDefinition.DISPATCHER_SHARD_COUNT.marshallAsAttribute(node, false, writer);
         SipDefinition.MEMORY_THRESHOLD.marshallAsAttribute(node, false, writer);
         SipDefinition.BACK_TO_NORMAL_MEMORY_THRESHOLD.marshallAsAttribute(node, false, writer);
         SipDefinition.OUTBOUND_PROXY.marshallAsAttribute(node, false, writer);
@@ -134,6 +135,7 @@ class SipSubsystemParser implements XMLStreamConstants, XMLElementReader<List<Mo
 	            case TIMER_D_INTERVAL:
 	            case DIALOG_PENDING_REQUEST_CHECKING:
 	            case CANCELED_TIMER_TASKS_PURGE_PERIOD:
+	            case DISPATCHER_SHARD_COUNT:
 	            case CONGESTION_CONTROL_INTERVAL:
 	            case CONGESTION_CONTROL_POLICY:
 	            case MEMORY_THRESHOLD:
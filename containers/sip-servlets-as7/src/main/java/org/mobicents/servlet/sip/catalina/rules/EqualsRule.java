@@ -49,4 +49,12 @@ public class EqualsRule extends RequestRule implements MatchingRule {
 	public String getExpression() {
 		return "(" + getVarName() + " == " + value + ")";
 	}
+
+	public String getExpectedValue() {
+		return value;
+	}
+
+	public boolean isIgnoreCase() {
+		return ignoreCase;
+	}
 }
@@ -0,0 +1,155 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.catalina;
+
+import org.mobicents.servlet.sip.core.MobicentsSipFactory;
+import org.mobicents.servlet.sip.core.session.DistributableSipManager;
+import org.mobicents.servlet.sip.core.session.MobicentsSipApplicationSession;
+import org.mobicents.servlet.sip.core.session.MobicentsSipApplicationSessionKey;
+import org.mobicents.servlet.sip.core.session.MobicentsSipSession;
+import org.mobicents.servlet.sip.core.session.MobicentsSipSessionKey;
+import org.mobicents.servlet.sip.core.session.ReplicatedSipManagerDelegate;
+import org.mobicents.servlet.sip.core.session.ReplicationTransport;
+
+/**
+ * {@link SipStandardManager} shipping the changes made to the sip sessions and sip application sessions 
+ * while processing each request, response or timer through a {@link ReplicationTransport}, 
+ * see {@link ReplicatedSipManagerDelegate}.<br/>
+ * It can be configured in the context.xml of a distributable application :
+ * <pre>
+ * &lt;Manager className="org.mobicents.servlet.sip.catalina.ReplicatedSipManager"
+ *     replicationTransportClassName="org.mobicents.servlet.sip.core.session.LoopbackReplicationTransport"/&gt;
+ * </pre>
+ * The sessions are only looked up locally, the transport being in charge of making the replicas available on the other nodes.
+ */
+public class ReplicatedSipManager extends SipStandardManager implements DistributableSipManager {
+
+	protected final static String NAME = "ReplicatedSipManager";
+
+	private final ReplicatedSipManagerDelegate replicatedSipManagerDelegate;
+
+	public ReplicatedSipManager() {
+		this(new ReplicatedSipManagerDelegate());
+	}
+
+	private ReplicatedSipManager(ReplicatedSipManagerDelegate replicatedSipManagerDelegate) {
+		super(replicatedSipManagerDelegate);
+		this.replicatedSipManagerDelegate = replicatedSipManagerDelegate;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public MobicentsSipApplicationSession getSipApplicationSession(final MobicentsSipApplicationSessionKey key, final boolean create, final boolean localOnly) {
+		return getSipApplicationSession(key, create);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public MobicentsSipSession getSipSession(final MobicentsSipSessionKey key, final boolean create, final MobicentsSipFactory sipFactoryImpl, final MobicentsSipApplicationSession sipApplicationSessionImpl, final boolean localOnly) {
+		return getSipSession(key, create, sipFactoryImpl, sipApplicationSessionImpl);
+	}
+
+	/**
+	 * Starts collecting the sessions changed by the current thread
+	 * @return true if a batch has been started, to be passed to {@link #endReplicationBatch(boolean)}
+	 */
+	public boolean startReplicationBatch() {
+		return replicatedSipManagerDelegate.startReplicationBatch();
+	}
+
+	/**
+	 * Ships the changes made to the sessions collected since the batch started
+	 */
+	public void endReplicationBatch(boolean batchStarted) {
+		replicatedSipManagerDelegate.endReplicationBatch(batchStarted);
+	}
+
+	/**
+	 * Also ships the changes made to the sessions outside of the processing of a request, response or timer
+	 */
+	@Override
+	public void backgroundProcess() {
+		super.backgroundProcess();
+		replicatedSipManagerDelegate.replicatePendingSessions();
+	}
+
+	public ReplicationTransport getReplicationTransport() {
+		return replicatedSipManagerDelegate.getReplicationTransport();
+	}
+
+	public void setReplicationTransport(ReplicationTransport replicationTransport) {
+		replicatedSipManagerDelegate.setReplicationTransport(replicationTransport);
+	}
+
+	/**
+	 * Return the class name of the transport the changes are shipped through.
+	 */
+	public String getReplicationTransportClassName() {
+		return replicatedSipManagerDelegate.getReplicationTransportClassName();
+	}
+
+	/**
+	 * Set the class name of the transport the changes are shipped through, 
+	 * the in-JVM LoopbackReplicationTransport by default.
+	 * 
+	 * @param replicationTransportClassName
+	 *            The new class name
+	 */
+	public void setReplicationTransportClassName(String replicationTransportClassName) {
+		String oldReplicationTransportClassName = getReplicationTransportClassName();
+		replicatedSipManagerDelegate.setReplicationTransportClassName(replicationTransportClassName);
+		support.firePropertyChange("replicationTransportClassName", oldReplicationTransportClassName, replicationTransportClassName);
+	}
+
+	public long getReplications() {
+		return replicatedSipManagerDelegate.getReplications();
+	}
+
+	public long getReplicatedSessions() {
+		return replicatedSipManagerDelegate.getReplicatedSessions();
+	}
+
+	public long getReplicatedBytes() {
+		return replicatedSipManagerDelegate.getReplicatedBytes();
+	}
+
+	public long getAverageReplicatedBytesPerCall() {
+		return replicatedSipManagerDelegate.getAverageReplicatedBytesPerCall();
+	}
+
+	public long getMaxReplicatedBytesPerCall() {
+		return replicatedSipManagerDelegate.getMaxReplicatedBytesPerCall();
+	}
+
+	public long getFailedReplications() {
+		return replicatedSipManagerDelegate.getFailedReplications();
+	}
+
+	public long getFailedSessionReplications() {
+		return replicatedSipManagerDelegate.getFailedSessionReplications();
+	}
+}
@@ -77,8 +77,15 @@ public class SipStandardManager extends StandardManager implements CatalinaSipMa
 	 * 
 	 */
 	public SipStandardManager() {
+		this(new SipStandardManagerDelegate());
+	}
+
+	/**
+	 * @param sipManagerDelegate the delegate managing the sip sessions, for the managers needing their own
+	 */
+	protected SipStandardManager(SipManagerDelegate sipManagerDelegate) {
 		super();
-		sipManagerDelegate = new SipStandardManagerDelegate();
+		this.sipManagerDelegate = sipManagerDelegate;
 	}
 
 	@Override
@@ -108,39 +115,6 @@ public class SipStandardManager extends StandardManager implements CatalinaSipMa
                 throw new IllegalStateException("error registering the mbean " + objectNameString, e);
             }
         }
-        /*
-        new java.util.Timer().scheduleAtFixedRate(new TimerTask() {
-			
-			@Override
-			public void run() {
-				try {
-				if(sipManagerDelegate != null) {
-					Iterator<MobicentsSipSession> sessions = sipManagerDelegate.getAllSipSessions();
-					while(sessions.hasNext()) {
-						SipSessionImpl session = (SipSessionImpl) sessions.next();
-						if(session.isReadyToInvalidate()) {
-							long idleTime = System.currentTimeMillis() - session.getLastAccessedTime();
-							if(idleTime > 2000) {
-								session.onTerminatedState();
-								
-								MobicentsSipApplicationSession sipApplicationSession =  session.getSipApplicationSession();
-								if(sipApplicationSession != null) {
-									if(sipApplicationSession.isValid() && sipApplicationSession.isReadyToInvalidate()) {				
-										sipApplicationSession.tryToInvalidate();
-									}		
-								}
-								if(logger.isInfoEnabled()) {
-									logger.info("Reaper thread cleaned up the folowing SIP session" + session.getId());
-								}
-							}
-						}
-					}
-				}
-				} catch (Throwable t) {
-					logger.warn("Error reaping inactive SIP sessions. You can ignore this warning as long as it doesn't happen too often", t);
-				}
-			}
-		}, 1000, 4000);*/
 	}
 	
 	@Override
@@ -528,6 +502,20 @@ public class SipStandardManager extends StandardManager implements CatalinaSipMa
 		this.sipManagerDelegate.setExpiredSipApplicationSessions(expiredSipApplicationSessions);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public void sipSessionExpired(int timeAlive) {
+		sipManagerDelegate.sipSessionExpired(timeAlive);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void sipApplicationSessionExpired(int timeAlive) {
+		sipManagerDelegate.sipApplicationSessionExpired(timeAlive);
+	}
+
 	/** 
      * For debugging: return a list of all session ids currently active
      *
@@ -562,6 +550,142 @@ public class SipStandardManager extends StandardManager implements CatalinaSipMa
 		return sipManagerDelegate.getNumberOfSipSessionCreationPerSecond();
 	}
 
+	/**
+	 * Return the maximum number of sessions keeping their attributes on the heap, or -1 for no limit.
+	 */
+	public int getMaxResidentSessionAttributes() {
+		return sipManagerDelegate.getMaxResidentSessionAttributes();
+	}
+
+	/**
+	 * Set the maximum number of sessions keeping their attributes on the heap, or -1 for no limit.
+	 * The attributes of the sessions idle for the longest time are paged out to the session state store.
+	 * 
+	 * @param maxResidentSessionAttributes
+	 *            The new maximum number of sessions
+	 */
+	public void setMaxResidentSessionAttributes(int maxResidentSessionAttributes) {
+		int oldMaxResidentSessionAttributes = sipManagerDelegate.getMaxResidentSessionAttributes();
+		sipManagerDelegate.setMaxResidentSessionAttributes(maxResidentSessionAttributes);
+		support.firePropertyChange("maxResidentSessionAttributes", Integer.valueOf(
+				oldMaxResidentSessionAttributes), Integer.valueOf(
+				sipManagerDelegate.getMaxResidentSessionAttributes()));
+	}
+
+	/**
+	 * Return the idle time in seconds after which the attributes of a session are swapped out, or -1 if they never are.
+	 */
+	public int getMaxIdleSwap() {
+		return sipManagerDelegate.getMaxIdleSwap();
+	}
+
+	/**
+	 * Set the idle time in seconds after which the attributes of a session are swapped out to the session state store, 
+	 * or -1 to never swap them out. They are swapped back in on the next request or timer accessing them.
+	 * Unless a session state store is set, they are swapped out to the local disk, or off heap if maxResidentSessionAttributes is set too.
+	 * 
+	 * @param maxIdleSwap
+	 *            The new idle time in seconds
+	 */
+	public void setMaxIdleSwap(int maxIdleSwap) {
+		int oldMaxIdleSwap = sipManagerDelegate.getMaxIdleSwap();
+		sipManagerDelegate.setMaxIdleSwap(maxIdleSwap);
+		support.firePropertyChange("maxIdleSwap", Integer.valueOf(
+				oldMaxIdleSwap), Integer.valueOf(
+				sipManagerDelegate.getMaxIdleSwap()));
+	}
+
+	public String getSessionStateStoreClassName() {
+		return sipManagerDelegate.getSessionStateStoreClassName();
+	}
+
+	/**
+	 * Set the class of the store the attributes of the idle sessions are paged out to
+	 * 
+	 * @param sessionStateStoreClassName
+	 *            a {@link org.mobicents.servlet.sip.core.session.SessionStateStore} implementation with a public no-arg constructor
+	 */
+	public void setSessionStateStoreClassName(String sessionStateStoreClassName) {
+		sipManagerDelegate.setSessionStateStoreClassName(sessionStateStoreClassName);
+	}
+
+	public int getNumberOfPagedOutSessionAttributes() {
+		return sipManagerDelegate.getNumberOfPagedOutSessionAttributes();
+	}
+
+	public long getPagedOutSessionAttributesSize() {
+		return sipManagerDelegate.getPagedOutSessionAttributesSize();
+	}
+
+	public long getSessionAttributesPageOuts() {
+		return sipManagerDelegate.getSessionAttributesPageOuts();
+	}
+
+	public long getSessionAttributesPageIns() {
+		return sipManagerDelegate.getSessionAttributesPageIns();
+	}
+
+	public int getNumberOfResidentSessionAttributes() {
+		return sipManagerDelegate.getNumberOfResidentSessionAttributes();
+	}
+
+	public long getSessionAttributesAveragePageInTime() {
+		return sipManagerDelegate.getSessionAttributesAveragePageInTime();
+	}
+
+	public long getSessionAttributesMaxPageInTime() {
+		return sipManagerDelegate.getSessionAttributesMaxPageInTime();
+	}
+
+	/**
+	 * Expires the http sessions and swaps out the sip sessions idle for too long
+	 */
+	@Override
+	public void processExpires() {
+		super.processExpires();
+		sipManagerDelegate.processMaxIdleSwaps();
+	}
+
+	/**
+	 * Also runs the sip session reaper on the next slice of the sip sessions
+	 */
+	@Override
+	public void backgroundProcess() {
+		super.backgroundProcess();
+		sipManagerDelegate.reapSipSessions();
+	}
+
+	/**
+	 * Return the maximum number of sip sessions looked at by each run of the reaper, or -1 if the reaper is disabled.
+	 */
+	public int getSipSessionReaperSliceSize() {
+		return sipManagerDelegate.getSipSessionReaperSliceSize();
+	}
+
+	/**
+	 * Set the maximum number of sip sessions looked at by each run of the reaper, or -1 to disable it.
+	 * The reaper runs on the background processing of the manager and cleans up the sip sessions 
+	 * ready to invalidate left behind, a pass over all the sip sessions being spread over several runs.
+	 * 
+	 * @param sipSessionReaperSliceSize
+	 *            The new number of sip sessions
+	 */
+	public void setSipSessionReaperSliceSize(int sipSessionReaperSliceSize) {
+		sipManagerDelegate.setSipSessionReaperSliceSize(sipSessionReaperSliceSize);
+	}
+
+	public long getReapedSipSessions() {
+		return sipManagerDelegate.getReapedSipSessions();
+	}
+
+	public double getNumberOfReapedSipSessionsPerSecond() {
+		return sipManagerDelegate.getNumberOfReapedSipSessionsPerSecond();
+	}
+
+	public long getSipSessionReaperScanLag() {
+		return sipManagerDelegate.getSipSessionReaperScanLag();
+	}
+
 	public void updateStats() {
 		sipManagerDelegate.updateStats();
 	}
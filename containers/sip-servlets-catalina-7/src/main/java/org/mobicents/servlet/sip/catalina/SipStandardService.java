@@ -72,6 +72,9 @@ import org.mobicents.servlet.sip.core.ExtendedListeningPoint;
 import org.mobicents.servlet.sip.core.MobicentsExtendedListeningPoint;
 import org.mobicents.servlet.sip.core.SipApplicationDispatcher;
 import org.mobicents.servlet.sip.core.message.OutboundProxy;
+import org.mobicents.servlet.sip.core.timers.ProxyTimerServiceImpl;
+import org.mobicents.servlet.sip.core.timers.StandardSipApplicationSessionTimerService;
+import org.mobicents.servlet.sip.core.timers.TimerServiceImpl;
 import org.mobicents.servlet.sip.message.Servlet3SipServletMessageFactory;
 import org.mobicents.servlet.sip.startup.StaticServiceHolder;
 
@@ -117,16 +120,35 @@ public class SipStandardService extends StandardService implements CatalinaSipSe
 	protected OutboundProxy outboundProxy;
 	protected long congestionControlCheckingInterval = 30000;
 	private int canceledTimerTasksPurgePeriod = 0;
+	// the sip application session timer service implementation used by each sip application
+	private String sipApplicationSessionTimerServiceClassName = StandardSipApplicationSessionTimerService.class.getName();
+	// the servlet timer service implementation used by each sip application and its number of threads
+	private String timerServiceClassName = TimerServiceImpl.class.getName();
+	private int timerServiceThreadPoolSize = TimerServiceImpl.SCHEDULER_THREAD_POOL_DEFAULT_SIZE;
+	// the proxy branch timer service implementation used by each sip application
+	private String proxyTimerServiceClassName = ProxyTimerServiceImpl.class.getName();
 	// base timer interval for jain sip tx 
 	private int baseTimerInterval = 500;
 	private int t2Interval = 4000;
 	private int t4Interval = 5000;
 	private int timerDInterval = 32000;
 	protected int dispatcherThreadPoolSize = 15;
+	// 0 means the messages are dispatched to the shared thread pool of dispatcherThreadPoolSize threads 
+	protected int dispatcherShardCount = 0;
 	private boolean md5ContactUserPart = false;
 	
 	protected String concurrencyControlMode = ConcurrencyControlMode.SipApplicationSession.toString();
 	protected String congestionControlPolicy = CongestionControlPolicy.ErrorResponse.toString();
+	// the congestion control engine throttling the initial requests in addition to the queue and memory thresholds, none by default
+	protected String congestionControlEngineClassName;
+	// per source rate limiting of the initial requests, 0 means disabled
+	protected int sourceRateLimit = 0;
+	protected int sourceRateLimitBurst = 0;
+	protected String sourceRateLimitKey = "SourceAddress";
+	// the generator of the ids created by the container, the default one if null
+	protected String idGeneratorClassName;
+	// Legacy or Compact, format in which the messages and proxies are externalized for replication and passivation
+	protected String externalizationFormat = "Legacy";
 	protected String additionalParameterableHeaders;
 	protected boolean bypassResponseExecutor = true;
 	protected boolean bypassRequestExecutor = true;
@@ -271,12 +293,19 @@ public class SipStandardService extends StandardService implements CatalinaSipSe
 		sipApplicationDispatcher.setBackToNormalMemoryThreshold(backToNormalMemoryThreshold);
 		sipApplicationDispatcher.setCongestionControlCheckingInterval(getCongestionControlCheckingInterval());
 		sipApplicationDispatcher.setCongestionControlPolicyByName(getCongestionControlPolicy());
+		sipApplicationDispatcher.setCongestionControlEngineClassName(getCongestionControlEngineClassName());
+		sipApplicationDispatcher.setSourceRateLimit(sourceRateLimit);
+		sipApplicationDispatcher.setSourceRateLimitBurst(sourceRateLimitBurst);
+		sipApplicationDispatcher.setSourceRateLimitKey(sourceRateLimitKey);
+		sipApplicationDispatcher.setIdGeneratorClassName(idGeneratorClassName);
+		sipApplicationDispatcher.setExternalizationFormat(externalizationFormat);
 		sipApplicationDispatcher.setQueueSize(getSipMessageQueueSize());
 		sipApplicationDispatcher.setBackToNormalQueueSize(backToNormalSipMessageQueueSize);
 		sipApplicationDispatcher.setGatherStatistics(gatherStatistics);
 		sipApplicationDispatcher.setConcurrencyControlMode(ConcurrencyControlMode.valueOf(getConcurrencyControlMode()));		
 		sipApplicationDispatcher.setBypassRequestExecutor(bypassRequestExecutor);
 		sipApplicationDispatcher.setBypassResponseExecutor(bypassResponseExecutor);		
+		sipApplicationDispatcher.setDispatcherShardCount(dispatcherShardCount);
 		sipApplicationDispatcher.setSipStack(sipStack);
 		sipApplicationDispatcher.init();
 		// Tomcat specific loading case where the connectors are added even before the service is initialized
@@ -668,8 +697,9 @@ public class SipStandardService extends StandardService implements CatalinaSipSe
 	}
 
 	/**
-	 * ConcurrencyControl control mode is SipSession, AppSession or None
+	 * ConcurrencyControl control mode is SipSession, AppSession, SipSessionSerial, SipApplicationSessionSerial or None
 	 * Specifies the isolation level of concurrently executing requests.
+	 * The serial modes queue the messages per session instead of blocking the processing threads on the session lock.
 	 * 
 	 * @return
 	 */
@@ -678,8 +708,9 @@ public class SipStandardService extends StandardService implements CatalinaSipSe
 	}
 
 	/**
-	 * ConcurrencyControl control mode is SipSession, AppSession or None
+	 * ConcurrencyControl control mode is SipSession, AppSession, SipSessionSerial, SipApplicationSessionSerial or None
 	 * Specifies the isolation level of concurrently executing requests.
+	 * The serial modes queue the messages per session instead of blocking the processing threads on the session lock.
 	 * 
 	 * @return
 	 */
@@ -773,6 +804,106 @@ public class SipStandardService extends StandardService implements CatalinaSipSe
 		return congestionControlPolicy;
 	}
 
+	/**
+	 * Class name of the congestion control engine sampling the load of the container and throttling
+	 * the initial requests in addition to the queue size and memory thresholds.
+	 * By default no engine is used.
+	 * 
+	 * @return the congestion control engine class name
+	 */
+	public String getCongestionControlEngineClassName() {
+		return congestionControlEngineClassName;
+	}
+
+	/**
+	 * Class name of the congestion control engine sampling the load of the container and throttling
+	 * the initial requests in addition to the queue size and memory thresholds.
+	 * By default no engine is used.
+	 * 
+	 * @param congestionControlEngineClassName the congestion control engine class name
+	 */
+	public void setCongestionControlEngineClassName(String congestionControlEngineClassName) {
+		this.congestionControlEngineClassName = congestionControlEngineClassName;
+	}
+
+	/**
+	 * Number of initial requests per second accepted from a single source, the requests above are
+	 * rejected with a 503 Service Unavailable carrying a Retry-After header before any transaction is created.
+	 * 0 (the default) disables the rate limiting.
+	 * 
+	 * @return the number of initial requests per second accepted from a source
+	 */
+	public int getSourceRateLimit() {
+		return sourceRateLimit;
+	}
+
+	/**
+	 * Number of initial requests per second accepted from a single source, the requests above are
+	 * rejected with a 503 Service Unavailable carrying a Retry-After header before any transaction is created.
+	 * 0 (the default) disables the rate limiting.
+	 * 
+	 * @param sourceRateLimit the number of initial requests per second accepted from a source
+	 */
+	public void setSourceRateLimit(int sourceRateLimit) {
+		this.sourceRateLimit = sourceRateLimit;
+	}
+
+	/**
+	 * @return the number of initial requests a single source can send at once, the source rate limit is used if 0
+	 */
+	public int getSourceRateLimitBurst() {
+		return sourceRateLimitBurst;
+	}
+
+	/**
+	 * @param sourceRateLimitBurst the number of initial requests a single source can send at once, the source rate limit is used if 0
+	 */
+	public void setSourceRateLimitBurst(int sourceRateLimitBurst) {
+		this.sourceRateLimitBurst = sourceRateLimitBurst;
+	}
+
+	/**
+	 * @return what identifies the source of a request for the rate limiting, SourceAddress (the default) or FromDomain
+	 */
+	public String getSourceRateLimitKey() {
+		return sourceRateLimitKey;
+	}
+
+	/**
+	 * @param sourceRateLimitKey what identifies the source of a request for the rate limiting, SourceAddress (the default) or FromDomain
+	 */
+	public void setSourceRateLimitKey(String sourceRateLimitKey) {
+		this.sourceRateLimitKey = sourceRateLimitKey;
+	}
+
+	/**
+	 * @return the class name of the generator of the ids created by the container, null for the default one
+	 */
+	public String getIdGeneratorClassName() {
+		return idGeneratorClassName;
+	}
+
+	/**
+	 * @param idGeneratorClassName the class name of the generator of the ids created by the container
+	 */
+	public void setIdGeneratorClassName(String idGeneratorClassName) {
+		this.idGeneratorClassName = idGeneratorClassName;
+	}
+
+	/**
+	 * @return the format in which the messages and proxies are externalized, Legacy or Compact
+	 */
+	public String getExternalizationFormat() {
+		return externalizationFormat;
+	}
+
+	/**
+	 * @param externalizationFormat the format in which the messages and proxies are externalized, Legacy or Compact
+	 */
+	public void setExternalizationFormat(String externalizationFormat) {
+		this.externalizationFormat = externalizationFormat;
+	}
+
 
 	/**
 	 * @param congestionControlCheckingInterval the congestionControlCheckingInterval to set
@@ -919,6 +1050,32 @@ public class SipStandardService extends StandardService implements CatalinaSipSe
 		this.dispatcherThreadPoolSize = dispatcherThreadPoolSize;
 	}
 	
+	/**
+	 * Number of single threaded shards the SIP messages are dispatched to, selected by Call-ID or sip application session.
+	 * 0 (the default) means the messages are dispatched to the shared thread pool.
+	 * The shards are only used if bypassRequestExecutor and/or bypassResponseExecutor are set to false.
+	 * In the SipSession and SipApplicationSession concurrency control modes, a shard waits for the semaphore of the session 
+	 * when it is held by another thread, an application thread or a timer by example, delaying the other calls of the shard meanwhile.
+	 * 
+	 * @return the number of shards
+	 */
+	public int getDispatcherShardCount() {
+		return dispatcherShardCount;
+	}
+
+	/**
+	 * Number of single threaded shards the SIP messages are dispatched to, selected by Call-ID or sip application session.
+	 * 0 (the default) means the messages are dispatched to the shared thread pool.
+	 * The shards are only used if bypassRequestExecutor and/or bypassResponseExecutor are set to false.
+	 * In the SipSession and SipApplicationSession concurrency control modes, a shard waits for the semaphore of the session 
+	 * when it is held by another thread, an application thread or a timer by example, delaying the other calls of the shard meanwhile.
+	 * 
+	 * @param dispatcherShardCount the number of shards
+	 */
+	public void setDispatcherShardCount(int dispatcherShardCount) {
+		this.dispatcherShardCount = dispatcherShardCount;
+	}
+	
 	public int getCanceledTimerTasksPurgePeriod() {
 		return canceledTimerTasksPurgePeriod;
 	}
@@ -927,6 +1084,74 @@ public class SipStandardService extends StandardService implements CatalinaSipSe
 		this.canceledTimerTasksPurgePeriod = purgePeriod;
 	}
 
+	/**
+	 * @return the class name of the timer service expiring the sip application sessions
+	 */
+	public String getSipApplicationSessionTimerServiceClassName() {
+		return sipApplicationSessionTimerServiceClassName;
+	}
+
+	/**
+	 * Set the class name of the timer service expiring the sip application sessions of each sip application.
+	 * It should implement org.mobicents.servlet.sip.core.timers.SipApplicationSessionTimerService and have a no arg constructor,
+	 * org.mobicents.servlet.sip.core.timers.TimingWheelSipApplicationSessionTimerService
+	 * can be used to lower the cost of scheduling and cancelling the expiration timers when there is a lot of sessions.
+	 * @param sipApplicationSessionTimerServiceClassName the sip application session timer service class name
+	 */
+	public void setSipApplicationSessionTimerServiceClassName(
+			String sipApplicationSessionTimerServiceClassName) {
+		this.sipApplicationSessionTimerServiceClassName = sipApplicationSessionTimerServiceClassName;
+	}
+
+	/**
+	 * @return the class name of the timer service running the servlet timers
+	 */
+	public String getTimerServiceClassName() {
+		return timerServiceClassName;
+	}
+
+	/**
+	 * Set the class name of the timer service running the servlet timers of each sip application.
+	 * It should implement org.mobicents.servlet.sip.core.timers.SipServletTimerService and have a constructor taking the sip service,
+	 * org.mobicents.servlet.sip.core.timers.TimingWheelTimerServiceImpl can be used for applications arming several timers per call.
+	 * @param timerServiceClassName the servlet timer service class name
+	 */
+	public void setTimerServiceClassName(String timerServiceClassName) {
+		this.timerServiceClassName = timerServiceClassName;
+	}
+
+	/**
+	 * @return the number of threads running the servlet timers of each sip application
+	 */
+	public int getTimerServiceThreadPoolSize() {
+		return timerServiceThreadPoolSize;
+	}
+
+	/**
+	 * @param timerServiceThreadPoolSize the number of threads running the servlet timers of each sip application
+	 */
+	public void setTimerServiceThreadPoolSize(int timerServiceThreadPoolSize) {
+		this.timerServiceThreadPoolSize = timerServiceThreadPoolSize;
+	}
+
+	/**
+	 * @return the class name of the timer service running the proxy branch timers
+	 */
+	public String getProxyTimerServiceClassName() {
+		return proxyTimerServiceClassName;
+	}
+
+	/**
+	 * Set the class name of the timer service running the proxy branch timers of each sip application.
+	 * It should implement org.mobicents.servlet.sip.core.timers.ProxyTimerService and have a no arg constructor,
+	 * org.mobicents.servlet.sip.core.timers.ProxyTimerServiceImpl, the single threaded implementation, is the default one,
+	 * org.mobicents.servlet.sip.core.timers.TimingWheelProxyTimerServiceImpl fires the timers from a pool of threads.
+	 * @param proxyTimerServiceClassName the proxy timer service class name
+	 */
+	public void setProxyTimerServiceClassName(String proxyTimerServiceClassName) {
+		this.proxyTimerServiceClassName = proxyTimerServiceClassName;
+	}
+
 
 	/**
 	 * @deprecated
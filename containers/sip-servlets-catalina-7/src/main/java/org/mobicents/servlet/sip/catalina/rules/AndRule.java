@@ -42,6 +42,10 @@ public class AndRule implements MatchingRule {
        criteria.add(c); 
     }
     
+    public List<MatchingRule> getCriteria() {
+        return criteria;
+    }
+    
     public boolean matches(SipServletRequest request) {
         for (MatchingRule rule : criteria) {
             if (!rule.matches(request)) 
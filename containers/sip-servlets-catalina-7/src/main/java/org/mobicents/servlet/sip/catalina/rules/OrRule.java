@@ -23,6 +23,7 @@
 package org.mobicents.servlet.sip.catalina.rules;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import javax.servlet.sip.SipServletRequest;
 
@@ -41,6 +42,10 @@ public class OrRule implements MatchingRule {
        criteria.add(c); 
     }
     
+    public List<MatchingRule> getCriteria() {
+        return criteria;
+    }
+    
     public boolean matches(SipServletRequest request) {
         for (MatchingRule rule : criteria) {
             if (rule.matches(request)) { 
@@ -23,7 +23,9 @@
 package org.mobicents.servlet.sip.catalina.rules;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
 
 import javax.servlet.sip.SipServletRequest;
@@ -47,6 +49,10 @@ import org.mobicents.servlet.sip.core.descriptor.MatchingRule;
  */
 public abstract class RequestRule implements MatchingRule {
     
+	// values already extracted from the request being matched by the current thread, see SipServletMappingIndex
+	private static final ThreadLocal<Map<String, String>> extractedValues = new ThreadLocal<Map<String, String>>();
+	private static final String NULL_VALUE = new String();
+	
 	private String varName;
     private List<Extractor> extractors;
     
@@ -99,6 +105,20 @@ public abstract class RequestRule implements MatchingRule {
     }
     
     public String getValue(SipServletRequest request) {
+    	final Map<String, String> values = extractedValues.get();
+    	if (values == null) {
+    		return extractValue(request);
+    	}
+    	String value = values.get(varName);
+    	if (value == null) {
+    		value = extractValue(request);
+    		values.put(varName, value != null ? value : NULL_VALUE);
+    		return value;
+    	}
+    	return value == NULL_VALUE ? null : value;
+    }
+    
+    private String extractValue(SipServletRequest request) {
     	Object o = request;
 		for (Extractor e : extractors) {
 			o = e.extract(o);
@@ -112,4 +132,17 @@ public abstract class RequestRule implements MatchingRule {
     public String getVarName() {
     	return varName;
     }
+    
+    /**
+     * Until {@link #stopCachingValues()} is called, the values extracted by the rules evaluated by the current thread
+     * are cached by var name, so that the rules of several mappings testing the same var extract it only once.
+     * The current thread must only evaluate rules against a single request in between.
+     */
+    static void startCachingValues() {
+    	extractedValues.set(new HashMap<String, String>(8));
+    }
+    
+    static void stopCachingValues() {
+    	extractedValues.remove();
+    }
 }
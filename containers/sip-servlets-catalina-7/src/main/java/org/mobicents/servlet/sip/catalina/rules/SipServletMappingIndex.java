@@ -0,0 +1,341 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.catalina.rules;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.servlet.sip.SipServletRequest;
+
+import org.apache.log4j.Logger;
+import org.mobicents.servlet.sip.core.descriptor.MatchingRule;
+import org.mobicents.servlet.sip.core.descriptor.MobicentsSipServletMapping;
+
+/**
+ * Index of the sip servlet mappings of an application, built once the mappings are deployed, so that finding the mapping
+ * of an initial request doesn't evaluate the rules of all the mappings in turn.<br/>
+ * The rule of each mapping is analysed to find a var, such as request.method or request.uri.host, that has to be equal
+ * to one of a few values for the rule to match, and the mapping is indexed by these values in a hash table per var.
+ * When several vars qualify, the one with the most distinct values over all the mappings is used. The mappings whose rule
+ * doesn't constrain any var that way are kept in a residual list.<br/>
+ * To find the mapping of a request, every indexed var is extracted once from the request and only the rules of the mappings
+ * indexed by its value and of the residual mappings are evaluated, in the order the mappings have been declared in,
+ * so that the mapping found is the same as with a linear evaluation. The values extracted from the request while evaluating
+ * the rules are cached, see {@link RequestRule#startCachingValues()}.<br/>
+ * The index is immutable, a new one has to be built when the mappings change.
+ */
+public class SipServletMappingIndex {
+
+	private static final Logger logger = Logger.getLogger(SipServletMappingIndex.class);
+	private static final int[] NO_MAPPINGS = new int[0];
+
+	private final MobicentsSipServletMapping[] mappings;
+	private final IndexedVar[] indexedVars;
+	// positions of the mappings that are not indexed, in ascending order
+	private final int[] residualMappings;
+
+	public SipServletMappingIndex(List<MobicentsSipServletMapping> sipServletMappings) {
+		mappings = sipServletMappings.toArray(new MobicentsSipServletMapping[sipServletMappings.size()]);
+		// the constraints each mapping could be indexed by, and the distinct values per var to pick the most selective one
+		final List<List<List<EqualsRule>>> constraintsByMapping = new ArrayList<List<List<EqualsRule>>>(mappings.length);
+		final Map<String, Set<String>> valuesByVar = new HashMap<String, Set<String>>();
+		for (MobicentsSipServletMapping mapping : mappings) {
+			final List<List<EqualsRule>> constraints = new ArrayList<List<EqualsRule>>();
+			if(mapping.getMatchingRule() != null) {
+				collectConstraints(mapping.getMatchingRule(), constraints);
+			}
+			for (List<EqualsRule> constraint : constraints) {
+				final String varName = constraint.get(0).getVarName();
+				Set<String> values = valuesByVar.get(varName);
+				if(values == null) {
+					values = new HashSet<String>();
+					valuesByVar.put(varName, values);
+				}
+				for (EqualsRule equalsRule : constraint) {
+					values.add(equalsRule.getExpectedValue());
+				}
+			}
+			constraintsByMapping.add(constraints);
+		}
+
+		final Map<String, IndexedVarBuilder> indexedVarBuilders = new LinkedHashMap<String, IndexedVarBuilder>();
+		final List<Integer> residualMappings = new ArrayList<Integer>();
+		for (int position = 0; position < mappings.length; position++) {
+			List<EqualsRule> selectedConstraint = null;
+			int selectedConstraintValues = 0;
+			for (List<EqualsRule> constraint : constraintsByMapping.get(position)) {
+				final int values = valuesByVar.get(constraint.get(0).getVarName()).size();
+				if(values > selectedConstraintValues) {
+					selectedConstraint = constraint;
+					selectedConstraintValues = values;
+				}
+			}
+			if(selectedConstraint == null) {
+				residualMappings.add(position);
+				continue;
+			}
+			final String varName = selectedConstraint.get(0).getVarName();
+			IndexedVarBuilder indexedVarBuilder = indexedVarBuilders.get(varName);
+			if(indexedVarBuilder == null) {
+				indexedVarBuilder = new IndexedVarBuilder(selectedConstraint.get(0));
+				indexedVarBuilders.put(varName, indexedVarBuilder);
+			}
+			for (EqualsRule equalsRule : selectedConstraint) {
+				indexedVarBuilder.add(equalsRule, position);
+			}
+		}
+		indexedVars = new IndexedVar[indexedVarBuilders.size()];
+		int i = 0;
+		for (IndexedVarBuilder indexedVarBuilder : indexedVarBuilders.values()) {
+			indexedVars[i++] = indexedVarBuilder.build();
+		}
+		this.residualMappings = toArray(residualMappings);
+		if(logger.isDebugEnabled()) {
+			logger.debug(mappings.length + " sip servlet mappings indexed by " + indexedVarBuilders.keySet() + ", " +
+					this.residualMappings.length + " residual mappings");
+		}
+	}
+
+	/**
+	 * @param request the initial request to find the mapping of
+	 * @return the first mapping, in the order they have been declared in, whose rule matches the request, null if none matches
+	 */
+	public MobicentsSipServletMapping findSipServletMapping(SipServletRequest request) {
+		RequestRule.startCachingValues();
+		try {
+			// each list holds mapping positions in ascending order, they are merged to evaluate the candidates in the declaration order
+			final int[][] candidates = new int[indexedVars.length * 2 + 1][];
+			int lists = 0;
+			candidates[lists++] = residualMappings;
+			for (IndexedVar indexedVar : indexedVars) {
+				lists = indexedVar.addCandidates(request, candidates, lists);
+			}
+			final int[] heads = new int[lists];
+			int lastEvaluatedPosition = -1;
+			while(true) {
+				int position = -1;
+				int list = -1;
+				for (int i = 0; i < lists; i++) {
+					if(heads[i] < candidates[i].length && (position == -1 || candidates[i][heads[i]] < position)) {
+						position = candidates[i][heads[i]];
+						list = i;
+					}
+				}
+				if(list == -1) {
+					return null;
+				}
+				heads[list]++;
+				if(position == lastEvaluatedPosition) {
+					// indexed under several values of the request
+					continue;
+				}
+				lastEvaluatedPosition = position;
+				final MobicentsSipServletMapping mapping = mappings[position];
+				if(mapping.getMatchingRule().matches(request)) {
+					return mapping;
+				}
+				if(logger.isDebugEnabled()) {
+					logger.debug("Following mapping rule didn't match : servletName => " +
+							mapping.getServletName() + " | expression = "+
+							mapping.getMatchingRule().getExpression());
+				}
+			}
+		} finally {
+			RequestRule.stopCachingValues();
+		}
+	}
+
+	/**
+	 * Adds to the constraints the lists of equalities on a same var of which one at least has to hold for the rule to match
+	 */
+	private static void collectConstraints(MatchingRule rule, List<List<EqualsRule>> constraints) {
+		if(rule instanceof EqualsRule) {
+			final EqualsRule equalsRule = (EqualsRule) rule;
+			if(isIndexable(equalsRule)) {
+				final List<EqualsRule> constraint = new ArrayList<EqualsRule>(1);
+				constraint.add(equalsRule);
+				constraints.add(constraint);
+			}
+		} else if(rule instanceof AndRule) {
+			for (MatchingRule criterion : ((AndRule) rule).getCriteria()) {
+				collectConstraints(criterion, constraints);
+			}
+		} else if(rule instanceof OrRule) {
+			// one of the criteria at least has to match, so they all have to constrain the same var
+			final List<MatchingRule> criteria = ((OrRule) rule).getCriteria();
+			if(criteria.isEmpty()) {
+				return;
+			}
+			final List<List<List<EqualsRule>>> constraintsByCriterion = new ArrayList<List<List<EqualsRule>>>(criteria.size());
+			for (MatchingRule criterion : criteria) {
+				final List<List<EqualsRule>> criterionConstraints = new ArrayList<List<EqualsRule>>();
+				collectConstraints(criterion, criterionConstraints);
+				if(criterionConstraints.isEmpty()) {
+					return;
+				}
+				constraintsByCriterion.add(criterionConstraints);
+			}
+			for (List<EqualsRule> firstCriterionConstraint : constraintsByCriterion.get(0)) {
+				final List<EqualsRule> constraint = mergeConstraints(constraintsByCriterion, firstCriterionConstraint.get(0).getVarName());
+				if(constraint != null) {
+					constraints.add(constraint);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the union of the constraints of all the criteria on the given var, null if a criterion doesn't constrain it
+	 */
+	private static List<EqualsRule> mergeConstraints(List<List<List<EqualsRule>>> constraintsByCriterion, String varName) {
+		final List<EqualsRule> mergedConstraint = new ArrayList<EqualsRule>();
+		for (List<List<EqualsRule>> criterionConstraints : constraintsByCriterion) {
+			List<EqualsRule> criterionConstraint = null;
+			for (List<EqualsRule> constraint : criterionConstraints) {
+				if(constraint.get(0).getVarName().equals(varName)) {
+					criterionConstraint = constraint;
+					break;
+				}
+			}
+			if(criterionConstraint == null) {
+				return null;
+			}
+			mergedConstraint.addAll(criterionConstraint);
+		}
+		return mergedConstraint;
+	}
+
+	// case insensitive equality is only indexed for ascii values, for which it amounts to comparing the lower case values
+	private static boolean isIndexable(EqualsRule equalsRule) {
+		return equalsRule.getExpectedValue() != null && (!equalsRule.isIgnoreCase() || isAscii(equalsRule.getExpectedValue()));
+	}
+
+	private static boolean isAscii(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			if(value.charAt(i) >= 0x80) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int[] toArray(List<Integer> positions) {
+		if(positions.isEmpty()) {
+			return NO_MAPPINGS;
+		}
+		final int[] array = new int[positions.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = positions.get(i);
+		}
+		return array;
+	}
+
+	private static final class IndexedVar {
+		// used to extract the value of the var from the request
+		private final RequestRule rule;
+		private final Map<String, int[]> mappingsByValue;
+		private final Map<String, int[]> mappingsByLowerCaseValue;
+		private final int[] ignoreCaseMappings;
+
+		private IndexedVar(RequestRule rule, Map<String, int[]> mappingsByValue, Map<String, int[]> mappingsByLowerCaseValue, int[] ignoreCaseMappings) {
+			this.rule = rule;
+			this.mappingsByValue = mappingsByValue;
+			this.mappingsByLowerCaseValue = mappingsByLowerCaseValue;
+			this.ignoreCaseMappings = ignoreCaseMappings;
+		}
+
+		private int addCandidates(SipServletRequest request, int[][] candidates, int lists) {
+			final String value = rule.getValue(request);
+			if(value == null) {
+				return lists;
+			}
+			final int[] mappings = mappingsByValue.get(value);
+			if(mappings != null) {
+				candidates[lists++] = mappings;
+			}
+			if(ignoreCaseMappings.length > 0) {
+				if(isAscii(value)) {
+					final int[] lowerCaseMappings = mappingsByLowerCaseValue.get(value.toLowerCase(Locale.ENGLISH));
+					if(lowerCaseMappings != null) {
+						candidates[lists++] = lowerCaseMappings;
+					}
+				} else {
+					// some non ascii characters are equal to ascii ones ignoring the case
+					candidates[lists++] = ignoreCaseMappings;
+				}
+			}
+			return lists;
+		}
+	}
+
+	private static final class IndexedVarBuilder {
+		private final RequestRule rule;
+		private final Map<String, List<Integer>> mappingsByValue = new HashMap<String, List<Integer>>();
+		private final Map<String, List<Integer>> mappingsByLowerCaseValue = new HashMap<String, List<Integer>>();
+		private final List<Integer> ignoreCaseMappings = new ArrayList<Integer>();
+
+		private IndexedVarBuilder(RequestRule rule) {
+			this.rule = rule;
+		}
+
+		// mappings are added in ascending order of position
+		private void add(EqualsRule equalsRule, int position) {
+			if(equalsRule.isIgnoreCase()) {
+				add(mappingsByLowerCaseValue, equalsRule.getExpectedValue().toLowerCase(Locale.ENGLISH), position);
+				if(ignoreCaseMappings.isEmpty() || ignoreCaseMappings.get(ignoreCaseMappings.size() - 1) != position) {
+					ignoreCaseMappings.add(position);
+				}
+			} else {
+				add(mappingsByValue, equalsRule.getExpectedValue(), position);
+			}
+		}
+
+		private static void add(Map<String, List<Integer>> mappingsByValue, String value, int position) {
+			List<Integer> positions = mappingsByValue.get(value);
+			if(positions == null) {
+				positions = new ArrayList<Integer>(1);
+				mappingsByValue.put(value, positions);
+			}
+			if(positions.isEmpty() || positions.get(positions.size() - 1) != position) {
+				positions.add(position);
+			}
+		}
+
+		private IndexedVar build() {
+			return new IndexedVar(rule, toArrays(mappingsByValue), toArrays(mappingsByLowerCaseValue), toArray(ignoreCaseMappings));
+		}
+
+		private static Map<String, int[]> toArrays(Map<String, List<Integer>> mappingsByValue) {
+			final Map<String, int[]> arrays = new HashMap<String, int[]>(mappingsByValue.size() * 2);
+			for (Entry<String, List<Integer>> entry : mappingsByValue.entrySet()) {
+				arrays.put(entry.getKey(), toArray(entry.getValue()));
+			}
+			return arrays;
+		}
+	}
+}
@@ -19,6 +19,7 @@
 package org.mobicents.servlet.sip.startup;
 
 import java.io.File;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -68,11 +69,13 @@ import org.mobicents.servlet.sip.annotations.DefaultSipInstanceManager;
 import org.mobicents.servlet.sip.catalina.CatalinaSipContext;
 import org.mobicents.servlet.sip.catalina.CatalinaSipListenersHolder;
 import org.mobicents.servlet.sip.catalina.CatalinaSipManager;
+import org.mobicents.servlet.sip.catalina.ReplicatedSipManager;
 import org.mobicents.servlet.sip.catalina.SARDirContext;
 import org.mobicents.servlet.sip.catalina.SipSecurityConstraint;
 import org.mobicents.servlet.sip.catalina.SipServletImpl;
 import org.mobicents.servlet.sip.catalina.SipStandardManager;
 import org.mobicents.servlet.sip.catalina.annotations.SipInstanceManager;
+import org.mobicents.servlet.sip.catalina.rules.SipServletMappingIndex;
 import org.mobicents.servlet.sip.catalina.security.SipSecurityUtils;
 import org.mobicents.servlet.sip.catalina.security.authentication.DigestAuthenticator;
 import org.mobicents.servlet.sip.core.MobicentsSipServlet;
@@ -98,6 +101,7 @@ import org.mobicents.servlet.sip.core.timers.SipApplicationSessionTimerService;
 import org.mobicents.servlet.sip.core.timers.SipServletTimerService;
 import org.mobicents.servlet.sip.core.timers.StandardSipApplicationSessionTimerService;
 import org.mobicents.servlet.sip.core.timers.TimerServiceImpl;
+import org.mobicents.servlet.sip.core.timers.TimingWheelProxyTimerServiceImpl;
 import org.mobicents.servlet.sip.dns.MobicentsDNSResolver;
 import org.mobicents.servlet.sip.listener.SipConnectorListener;
 import org.mobicents.servlet.sip.message.SipFactoryFacade;
@@ -163,6 +167,10 @@ public class SipStandardContext extends StandardContext implements CatalinaSipCo
      * application.
      */
     protected transient List<MobicentsSipServletMapping> sipServletMappings = new ArrayList<MobicentsSipServletMapping>();
+    /**
+     * Index of the sip servlet mappings, built when the context starts and rebuilt when the mappings change afterwards
+     */
+    protected transient volatile SipServletMappingIndex sipServletMappingIndex = null;
     
     protected transient SipApplicationDispatcher sipApplicationDispatcher = null;
     
@@ -236,14 +244,14 @@ public class SipStandardContext extends StandardContext implements CatalinaSipCo
 			sipSessionsUtil = new SipSessionsUtilImpl(this);
 		}
 		if(timerService == null) {			
-			timerService = new TimerServiceImpl(sipApplicationDispatcher.getSipService());			
+			timerService = createSipServletTimerService();			
 		}
 		if(proxyTimerService == null) {			
-			proxyTimerService = new ProxyTimerServiceImpl();			
+			proxyTimerService = createProxyTimerService();			
 		}
 		
 		if(sasTimerService == null || !sasTimerService.isStarted()) {
-			sasTimerService = new StandardSipApplicationSessionTimerService();
+			sasTimerService = createSipApplicationSessionTimerService();
 		}
 		//needed when restarting applications through the tomcat manager 
 		this.getServletContext().setAttribute(javax.servlet.sip.SipServlet.SIP_FACTORY,
@@ -265,6 +273,92 @@ public class SipStandardContext extends StandardContext implements CatalinaSipCo
 				new MobicentsDNSResolver(sipApplicationDispatcher.getDNSServerLocator()));
 	}
 
+	/**
+	 * Instantiate the sip application session timer service from the class name configured on the sip service
+	 * @return the sip application session timer service of this context
+	 * @throws LifecycleException if the configured class cannot be instantiated
+	 */
+	protected SipApplicationSessionTimerService createSipApplicationSessionTimerService() throws LifecycleException {
+		String sasTimerServiceClassName = null;
+		if(sipApplicationDispatcher.getSipService() != null) {
+			sasTimerServiceClassName = sipApplicationDispatcher.getSipService().getSipApplicationSessionTimerServiceClassName();
+		}
+		if(sasTimerServiceClassName == null || sasTimerServiceClassName.equals(StandardSipApplicationSessionTimerService.class.getName())) {
+			return new StandardSipApplicationSessionTimerService();
+		}
+		if(logger.isDebugEnabled()) {
+			logger.debug("Using " + sasTimerServiceClassName + " as sip application session timer service for " + getApplicationName());
+		}
+		try {
+			return (SipApplicationSessionTimerService) Class.forName(sasTimerServiceClassName).newInstance();
+		} catch (InstantiationException e) {
+			throw new LifecycleException("Impossible to load the Sip Application Session Timer Service", e);
+		} catch (IllegalAccessException e) {
+			throw new LifecycleException("Impossible to load the Sip Application Session Timer Service", e);
+		} catch (ClassNotFoundException e) {
+			throw new LifecycleException("Impossible to load the Sip Application Session Timer Service", e);
+		} catch (ClassCastException e) {
+			throw new LifecycleException("Sip Application Session Timer Service defined does not implement " + SipApplicationSessionTimerService.class.getName(), e);
+		}
+	}
+
+	/**
+	 * Instantiate the servlet timer service from the class name configured on the sip service
+	 * @return the servlet timer service of this context
+	 * @throws LifecycleException if the configured class cannot be instantiated
+	 */
+	protected SipServletTimerService createSipServletTimerService() throws LifecycleException {
+		final SipService sipService = sipApplicationDispatcher.getSipService();
+		final String timerServiceClassName = sipService.getTimerServiceClassName();
+		if(timerServiceClassName == null || timerServiceClassName.equals(TimerServiceImpl.class.getName())) {
+			return new TimerServiceImpl(sipService);
+		}
+		if(logger.isDebugEnabled()) {
+			logger.debug("Using " + timerServiceClassName + " as servlet timer service for " + getApplicationName());
+		}
+		try {
+			return (SipServletTimerService) Class.forName(timerServiceClassName).getConstructor(SipService.class).newInstance(sipService);
+		} catch (InstantiationException e) {
+			throw new LifecycleException("Impossible to load the Servlet Timer Service", e);
+		} catch (IllegalAccessException e) {
+			throw new LifecycleException("Impossible to load the Servlet Timer Service", e);
+		} catch (ClassNotFoundException e) {
+			throw new LifecycleException("Impossible to load the Servlet Timer Service", e);
+		} catch (NoSuchMethodException e) {
+			throw new LifecycleException("Servlet Timer Service defined does not have a constructor taking a " + SipService.class.getName(), e);
+		} catch (InvocationTargetException e) {
+			throw new LifecycleException("Impossible to create the Servlet Timer Service", e.getCause());
+		} catch (ClassCastException e) {
+			throw new LifecycleException("Servlet Timer Service defined does not implement " + SipServletTimerService.class.getName(), e);
+		}
+	}
+
+	/**
+	 * Instantiate the proxy timer service from the class name configured on the sip service
+	 * @return the proxy timer service of this context
+	 * @throws LifecycleException if the configured class cannot be instantiated
+	 */
+	protected ProxyTimerService createProxyTimerService() throws LifecycleException {
+		final String proxyTimerServiceClassName = sipApplicationDispatcher.getSipService().getProxyTimerServiceClassName();
+		if(proxyTimerServiceClassName == null || proxyTimerServiceClassName.equals(ProxyTimerServiceImpl.class.getName())) {
+			return new ProxyTimerServiceImpl();
+		}
+		if(logger.isDebugEnabled()) {
+			logger.debug("Using " + proxyTimerServiceClassName + " as proxy timer service for " + getApplicationName());
+		}
+		try {
+			return (ProxyTimerService) Class.forName(proxyTimerServiceClassName).newInstance();
+		} catch (InstantiationException e) {
+			throw new LifecycleException("Impossible to load the Proxy Timer Service", e);
+		} catch (IllegalAccessException e) {
+			throw new LifecycleException("Impossible to load the Proxy Timer Service", e);
+		} catch (ClassNotFoundException e) {
+			throw new LifecycleException("Impossible to load the Proxy Timer Service", e);
+		} catch (ClassCastException e) {
+			throw new LifecycleException("Proxy Timer Service defined does not implement " + ProxyTimerService.class.getName(), e);
+		}
+	}
+
 	/**
 	 * @throws Exception
 	 */
@@ -438,6 +532,8 @@ public class SipStandardContext extends StandardContext implements CatalinaSipCo
 			}
 			sipSecurityUtils = new SipSecurityUtils(this);
 			sipDigestAuthenticator = new DigestAuthenticator(sipApplicationDispatcher.getSipFactory().getHeaderFactory());
+			// the mappings are indexed before the application can receive requests
+			sipServletMappingIndex = new SipServletMappingIndex(sipServletMappings);
 			//JSR 289 Section 2.1.1 Step 3.Invoke SipApplicationRouter.applicationDeployed() for this application.
 			//called implicitly within sipApplicationDispatcher.addSipApplication
 			sipApplicationDispatcher.addSipApplication(applicationName, this);
@@ -602,6 +698,7 @@ public class SipStandardContext extends StandardContext implements CatalinaSipCo
 		sipListeners.deallocateServletsActingAsListeners();
 		sipApplicationListeners.clear();
 		sipServletMappings.clear();
+		sipServletMappingIndex = null;
 		childrenMap.clear();
 		childrenMapByClassName.clear();
 		if(sipApplicationDispatcher != null) {
@@ -967,6 +1064,61 @@ public class SipStandardContext extends StandardContext implements CatalinaSipCo
 	public ProxyTimerService getProxyTimerService() {
 		return proxyTimerService;
 	}
+
+	/**
+	 * @return the number of proxy timers scheduled by the proxy timer service of this context, 
+	 * -1 if the proxy timer service doesn't record it
+	 */
+	public long getNumberOfScheduledProxyTimers() {
+		if(proxyTimerService instanceof TimingWheelProxyTimerServiceImpl) {
+			return ((TimingWheelProxyTimerServiceImpl) proxyTimerService).getNumberOfScheduledTimers();
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of proxy timers fired by the proxy timer service of this context, 
+	 * -1 if the proxy timer service doesn't record it
+	 */
+	public long getNumberOfFiredProxyTimers() {
+		if(proxyTimerService instanceof TimingWheelProxyTimerServiceImpl) {
+			return ((TimingWheelProxyTimerServiceImpl) proxyTimerService).getNumberOfFiredTimers();
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of proxy timers cancelled before firing by the proxy timer service of this context, 
+	 * -1 if the proxy timer service doesn't record it
+	 */
+	public long getNumberOfCancelledProxyTimers() {
+		if(proxyTimerService instanceof TimingWheelProxyTimerServiceImpl) {
+			return ((TimingWheelProxyTimerServiceImpl) proxyTimerService).getNumberOfCancelledTimers();
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the average time in milliseconds between the time a proxy timer of this context was due and the time it fired, 
+	 * -1 if the proxy timer service doesn't record it
+	 */
+	public long getAverageProxyTimerFiringLag() {
+		if(proxyTimerService instanceof TimingWheelProxyTimerServiceImpl) {
+			return ((TimingWheelProxyTimerServiceImpl) proxyTimerService).getAverageFiringLag();
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the maximum time in milliseconds between the time a proxy timer of this context was due and the time it fired, 
+	 * -1 if the proxy timer service doesn't record it
+	 */
+	public long getMaxProxyTimerFiringLag() {
+		if(proxyTimerService instanceof TimingWheelProxyTimerServiceImpl) {
+			return ((TimingWheelProxyTimerServiceImpl) proxyTimerService).getMaxFiringLag();
+		}
+		return -1;
+	}
 	
 	/**
      * Get naming context full name.
@@ -1045,6 +1197,9 @@ public class SipStandardContext extends StandardContext implements CatalinaSipCo
 	 */
 	public void addSipServletMapping(MobicentsSipServletMapping sipServletMapping) {
 		sipServletMappings.add(sipServletMapping);
+		if(sipServletMappingIndex != null) {
+			sipServletMappingIndex = new SipServletMappingIndex(sipServletMappings);
+		}
 		isMainServlet = false;
 		if(servletHandler == null) {
 			servletHandler = sipServletMapping.getServletName();
@@ -1064,16 +1219,12 @@ public class SipStandardContext extends StandardContext implements CatalinaSipCo
 		if(logger.isDebugEnabled()) {
 			logger.debug("Checking sip Servlet Mapping for following request : " + sipServletRequest);
 		}
-		for (MobicentsSipServletMapping sipServletMapping : sipServletMappings) {
-			if(sipServletMapping.getMatchingRule().matches(sipServletRequest)) {
-				return sipServletMapping;
-			} else {
-				logger.debug("Following mapping rule didn't match : servletName => " + 
-						sipServletMapping.getServletName() + " | expression = "+ 
-						sipServletMapping.getMatchingRule().getExpression());
-			}
+		final SipServletMappingIndex sipServletMappingIndex = this.sipServletMappingIndex;
+		if(sipServletMappingIndex == null) {
+			// the context hasn't started
+			return null;
 		}
-		return null;
+		return sipServletMappingIndex.findSipServletMapping(sipServletRequest);
 	}
 	
 	/**
@@ -1081,6 +1232,9 @@ public class SipStandardContext extends StandardContext implements CatalinaSipCo
 	 */
 	public void removeSipServletMapping(MobicentsSipServletMapping sipServletMapping) {
 		sipServletMappings.remove(sipServletMapping);
+		if(sipServletMappingIndex != null) {
+			sipServletMappingIndex = new SipServletMappingIndex(sipServletMappings);
+		}
 	}
 
 	/**
@@ -1276,6 +1430,10 @@ public class SipStandardContext extends StandardContext implements CatalinaSipCo
 					}
 				}
 				break;
+			case SipSessionSerial:
+			case SipApplicationSessionSerial:
+				// nothing to acquire, the tasks of a session are queued and run one at a time by the dispatcher serial executor
+				break;
 			case None:
 				break;
 		}		
@@ -1324,6 +1482,10 @@ public class SipStandardContext extends StandardContext implements CatalinaSipCo
 					}
 				}
 				break;
+			case SipSessionSerial:
+			case SipApplicationSessionSerial:
+				// nothing to release, see enterSipApp
+				break;
 			case None:
 				break;
 		}		
@@ -1382,13 +1544,18 @@ public class SipStandardContext extends StandardContext implements CatalinaSipCo
 	 */
 	@Override
 	public boolean enterSipAppHa(boolean startCacheActivity) {
-		// we don't support ha features, so nothing to do here
+		// only the replicated manager tracks the changes made to the sessions
+		if(getManager() instanceof ReplicatedSipManager) {
+			return ((ReplicatedSipManager) getManager()).startReplicationBatch();
+		}
 		return false;
 	}
 
 	@Override
 	public void exitSipAppHa(MobicentsSipServletRequest request, MobicentsSipServletResponse response, boolean batchStarted) {
-		// we don't support ha features, so nothing to do here
+		if(getManager() instanceof ReplicatedSipManager) {
+			((ReplicatedSipManager) getManager()).endReplicationBatch(batchStarted);
+		}
 	}
 	
 	/**
@@ -31,5 +31,9 @@ public enum ConcurrencyControlMode {
 	Transaction,
 	SipSession,
 	SipApplicationSession,
-	None
+	None,
+	// same isolation as SipSession and SipApplicationSession but instead of blocking the processing thread on the session lock, 
+	// the messages are queued per session and processed one after the other by the container thread pool
+	SipSessionSerial,
+	SipApplicationSessionSerial
 }
@@ -27,14 +27,18 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.io.StringReader;
 import java.text.ParseException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -44,10 +48,10 @@ import javax.servlet.sip.ar.SipApplicationRouter;
 import javax.servlet.sip.ar.SipApplicationRouterInfo;
 import javax.servlet.sip.ar.SipApplicationRoutingDirective;
 import javax.servlet.sip.ar.SipApplicationRoutingRegion;
-import javax.servlet.sip.ar.SipRouteModifier;
 import javax.servlet.sip.ar.SipTargetedRequestInfo;
 
 import org.apache.log4j.Logger;
+import org.mobicents.servlet.sip.router.DefaultApplicationRouterConfiguration.MethodRoutes;
 
 /**
  * Implementation of the default application router as defined per JSR 289 Appendix C
@@ -172,35 +176,41 @@ import org.apache.log4j.Logger;
  * 
  * </p>
  */
-public class DefaultApplicationRouter implements SipApplicationRouter, ManageableApplicationRouter{	
-	private static final String DIRECTION_PARAMETER = "DIRECTION";
-	private static final String REGEX_PARAMETER = "REGEX";
-	private static final String REGEX_POPPED_ROUTE_PARAMETER = "REGEX_POPPED_ROUTE";
-	private static final String DIRECTION_OUTBOUND = "OUTBOUND";
-	private static final String DIRECTION_INBOUND = "INBOUND";
+public class DefaultApplicationRouter implements SipApplicationRouter, ReloadableApplicationRouter{	
 	//	the logger
 	private static Logger log = Logger.getLogger(DefaultApplicationRouter.class);
-	//the prefix used in the dar configuration file to specify the subscriber URI to use
-	//when reusing the information from one header
-	private static final String DAR_SUSCRIBER_PREFIX = "DAR:";
 	private static final String FROM = "From";
 	private static final String TO = "To";
-	private static final int DAR_SUSCRIBER_PREFIX_LENGTH = DAR_SUSCRIBER_PREFIX.length();
-	private static final String METHOD_WILDCARD = "ALL";
-	//the parser for the properties file
+	// interval in milliseconds at which the configuration file is checked for changes, disabled if not positive
+	public static final String DAR_RELOAD_INTERVAL = "org.mobicents.servlet.sip.DAR_RELOAD_INTERVAL";
+	//the parser for the properties file, only used to locate it, each load using a parser of its own
 	private DefaultApplicationRouterParser defaultApplicationRouterParser;
-	//Applications deployed within the container
-	Set<String> containerDeployedApplicationNames = null;
-	//List of applications defined in the defautl application router properties file
-	Map<String, List<? extends SipApplicationRouterInfo>> defaultSipApplicationRouterInfos;
+	//Applications deployed within the container, replaced by an updated copy on each deployment 
+	//so that the routing threads never lock
+	volatile Set<String> containerDeployedApplicationNames = null;
+	//compiled snapshot of the applications defined in the default application router properties file, 
+	//replaced as a whole on each configuration change so that the routing threads never lock
+	private volatile DefaultApplicationRouterConfiguration configuration;
+	//last modification time and size of the configuration file when it was last loaded
+	private volatile long darConfigurationFileLastModified;
+	private volatile long darConfigurationFileLength;
+	//last modification time and size of the modified configuration file seen by the previous check, 
+	//only loaded once they didn't change for a whole check interval, so that a file still being written isn't loaded
+	private long modifiedDarConfigurationFileLastModified;
+	private long modifiedDarConfigurationFileLength;
+	//checks the configuration file for changes in the background
+	private ScheduledExecutorService configurationReloader;
+	private final AtomicLong configurationReloads = new AtomicLong();
+	private final AtomicLong rejectedConfigurations = new AtomicLong();
+	private volatile long configurationReloadLatency;
 	
 	/**
 	 * Default Constructor
 	 */
 	public DefaultApplicationRouter() {
-		containerDeployedApplicationNames = new HashSet<String>();
+		containerDeployedApplicationNames = Collections.emptySet();
 		defaultApplicationRouterParser = new DefaultApplicationRouterParser();
-		defaultSipApplicationRouterInfos = new ConcurrentHashMap<String, List<? extends SipApplicationRouterInfo>>();
+		configuration = new DefaultApplicationRouterConfiguration(new Properties(), new HashMap<String, List<? extends SipApplicationRouterInfo>>());
 	}
 	
 	/**
@@ -208,8 +218,10 @@ public class DefaultApplicationRouter implements SipApplicationRouter, Manageabl
 	 */
 	public void applicationDeployed(List<String> newlyDeployedApplicationNames) {
 		init();
-		synchronized (containerDeployedApplicationNames) {
-			containerDeployedApplicationNames.addAll(newlyDeployedApplicationNames);	
+		synchronized (this) {
+			final Set<String> deployedApplicationNames = new HashSet<String>(containerDeployedApplicationNames);
+			deployedApplicationNames.addAll(newlyDeployedApplicationNames);
+			containerDeployedApplicationNames = Collections.unmodifiableSet(deployedApplicationNames);
 		}		
 	}
 
@@ -218,18 +230,22 @@ public class DefaultApplicationRouter implements SipApplicationRouter, Manageabl
 	 */
 	public void applicationUndeployed(List<String> undeployedApplicationNames) {
 		init();
-		synchronized (containerDeployedApplicationNames) {
-			containerDeployedApplicationNames.removeAll(undeployedApplicationNames);
+		synchronized (this) {
+			final Set<String> deployedApplicationNames = new HashSet<String>(containerDeployedApplicationNames);
+			deployedApplicationNames.removeAll(undeployedApplicationNames);
+			containerDeployedApplicationNames = Collections.unmodifiableSet(deployedApplicationNames);
 		}
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
-	public void destroy() {
-		synchronized (containerDeployedApplicationNames) {
-			containerDeployedApplicationNames.clear();			
+	public synchronized void destroy() {
+		if(configurationReloader != null) {
+			configurationReloader.shutdownNow();
+			configurationReloader = null;
 		}
+		containerDeployedApplicationNames = Collections.emptySet();
 	}
 
 	/**
@@ -245,20 +261,18 @@ public class DefaultApplicationRouter implements SipApplicationRouter, Manageabl
 		// besides the declaration of the application order as specified in JSR 289 - Appendix C
 		SipApplicationRouterInfo sipApplicationRouterInfo = null;
 		if(initialRequest != null) {	
+			// the same snapshot is used for the method and the wildcard entries
+			final DefaultApplicationRouterConfiguration configuration = this.configuration;
 			if(log.isDebugEnabled()) {
 				log.debug(this + " checking for next application for request " + initialRequest 
 						+ " , region=" + region + " , directive=" + directive + 
-						", targetedRequestInfo="+ targetedRequestInfo + ", stateinfo=" + stateInfo + " with following dar " + defaultApplicationRouterParser.getProperties());
+						", targetedRequestInfo="+ targetedRequestInfo + ", stateinfo=" + stateInfo);
 			}
-			List<? extends SipApplicationRouterInfo> defaultSipApplicationRouterInfoList = 
-				defaultSipApplicationRouterInfos.get(initialRequest.getMethod());		
 			sipApplicationRouterInfo = getNextApplication(initialRequest, stateInfo,
-						defaultSipApplicationRouterInfoList);			
+					configuration.getMethodRoutes(initialRequest.getMethod()));			
 			if(sipApplicationRouterInfo == null) {
-				defaultSipApplicationRouterInfoList = 
-					defaultSipApplicationRouterInfos.get(METHOD_WILDCARD);
 				sipApplicationRouterInfo = getNextApplication(initialRequest, stateInfo,
-						defaultSipApplicationRouterInfoList);	
+						configuration.getMethodRoutes(DefaultApplicationRouterConfiguration.METHOD_WILDCARD));	
 			}
 			if(sipApplicationRouterInfo != null) {
 				return sipApplicationRouterInfo;
@@ -266,30 +280,13 @@ public class DefaultApplicationRouter implements SipApplicationRouter, Manageabl
 		}
 		return new SipApplicationRouterInfo(null,null,null,null,null,null);
 	}
-	
-	/*
-	 * This method is checking if the application that initiated the request is currently configured to be called for this method.
-	 * Apps that initiate request may not be in the list.
-	 */
-	private DefaultSipApplicationRouterInfo getFirstRequestApplicationEntry(List<? extends SipApplicationRouterInfo> defaultSipApplicationRouterInfoList, SipServletRequest initialRequest) {
-		SipSession sipSession = initialRequest.getSession(false);
-		if(sipSession != null) {
-			String appName = sipSession.getApplicationSession().getApplicationName();
-			Iterator<? extends SipApplicationRouterInfo> iterator = defaultSipApplicationRouterInfoList.iterator();
-			while(iterator.hasNext()) {
-				DefaultSipApplicationRouterInfo next = (DefaultSipApplicationRouterInfo)iterator.next();
-				if(next.getApplicationName().equals(appName)) return next;
-			}
-		}
-		return null;
-	}
 
 	private SipApplicationRouterInfo getNextApplication(
 			SipServletRequest initialRequest,
 			Serializable stateInfo,
-			List<? extends SipApplicationRouterInfo> defaultSipApplicationRouterInfoList) {
+			MethodRoutes methodRoutes) {
 		
-		if(defaultSipApplicationRouterInfoList != null && defaultSipApplicationRouterInfoList.size() > 0) {
+		if(methodRoutes != null && methodRoutes.infos.length > 0) {
 			int previousAppOrder = 0; 
 			if(stateInfo != null) {					
 				previousAppOrder = (Integer) stateInfo;
@@ -297,123 +294,82 @@ public class DefaultApplicationRouter implements SipApplicationRouter, Manageabl
 					log.debug("The previous app order was : " + previousAppOrder);
 				}
 			}
-			ListIterator<? extends SipApplicationRouterInfo> defaultSipApplicationRouterInfoIt = defaultSipApplicationRouterInfoList.listIterator(previousAppOrder++);
-			while (defaultSipApplicationRouterInfoIt.hasNext() ) {
-				
-				/*
-				 *  Fix for http://code.google.com/p/mobicents/issues/detail?id=987 Issue 987
-				 *  
-				 *  INBOUND and OUTBOUND request routing logic is as follows:
-				 *  Determine if the request was initiated by the previous application by either see the application missing in the DAR
-				 *  or by looking at the DIRECTION hint in the optional parameters. If the request was initiated by the app then we will
-				 *  call only applications without INBOUND direction. All applications without hint will be called to keep backward compatibility.
-				 */
-				DefaultSipApplicationRouterInfo defaultSipApplicationRouterInfo = (DefaultSipApplicationRouterInfo) defaultSipApplicationRouterInfoIt.next();
-				
-				/*
-				 * This method is checking if the application that initiated the request is currently configured to be called for this method.
-				 * Apps that initiate request may not be in the list thus params must be assumed for them.
-				 */
-				DefaultSipApplicationRouterInfo requestSipApplicationRouterInfo = (DefaultSipApplicationRouterInfo) getFirstRequestApplicationEntry(defaultSipApplicationRouterInfoList, initialRequest);
-				
-				String currentDirection = defaultSipApplicationRouterInfo.getOptionalParameters().get(DIRECTION_PARAMETER);
-				String requestDirection = null;
-				if(requestSipApplicationRouterInfo != null) {
-					requestDirection = requestSipApplicationRouterInfo.getOptionalParameters().get(DIRECTION_PARAMETER);
-				} else {
-					if(initialRequest.getSession(false) != null) {
-						// If this request comes from outside (was not initiated by some app) the session will be null,
-						// thus if it's not null we can assume the request already has a session and was initiated by
-						// the application...
-						requestDirection = DIRECTION_OUTBOUND;
-					}
-				}
-				
-				if(DIRECTION_OUTBOUND.equalsIgnoreCase(requestDirection)) { // If the request was initiated by the previous app or the previous app has out marker
-					if(DIRECTION_INBOUND.equalsIgnoreCase(currentDirection)) { // but the new application is handling only INBOUND request
-						if(log.isDebugEnabled()) {
-							log.debug(defaultSipApplicationRouterInfo.getApplicationName() + " will not be called because we are routing the request out and the application has 'DIRECTION=INBOUND' hint.");
-						}
-						continue; // .. then just don't call the application
-					}
-				}
+			final SipSession initialSession = initialRequest.getSession(false);
+			String initialAppName = null;
+			if(initialSession != null) {
+				initialAppName = initialSession.getApplicationSession().getApplicationName();
+			}
+			/*
+			 *  Fix for http://code.google.com/p/mobicents/issues/detail?id=987 Issue 987
+			 *  
+			 *  INBOUND and OUTBOUND request routing logic is as follows:
+			 *  Determine if the request was initiated by the previous application by either see the application missing in the DAR
+			 *  or by looking at the DIRECTION hint in the optional parameters. If the request was initiated by the app then we will
+			 *  call only applications without INBOUND direction. All applications without hint will be called to keep backward compatibility.
+			 *  If this request comes from outside (was not initiated by some app) the session will be null.
+			 *  The applications with the INBOUND hint are skipped through the precomputed candidates.
+			 */
+			final boolean routedOut = initialSession != null && methodRoutes.isRoutedOut(initialAppName);
+			for (int i = methodRoutes.nextCandidate(previousAppOrder, routedOut); i < methodRoutes.infos.length; 
+					i = methodRoutes.nextCandidate(i + 1, routedOut)) {
+				final DefaultSipApplicationRouterInfo defaultSipApplicationRouterInfo = methodRoutes.infos[i];
 				
-				String regEx = defaultSipApplicationRouterInfo.getOptionalParameters().get(REGEX_PARAMETER);
-				if(regEx != null) {
-					Pattern pattern = Pattern.compile(regEx);
+				final Pattern pattern = methodRoutes.regexes[i];
+				if(pattern != null) {
 					Matcher matcher = pattern.matcher(initialRequest.toString());
 					if(matcher.find()) {
 						if(log.isDebugEnabled()) {
-							log.debug("initialRequest " + initialRequest + " matching regex pattern " + regEx +
+							log.debug("initialRequest " + initialRequest + " matching regex pattern " + pattern +
 			                   "begin index " + matcher.start() + " and ending at index " + matcher.end() + " for application " + defaultSipApplicationRouterInfo.getApplicationName());
 						}						
 					} else {
 						if(log.isDebugEnabled()) {
-							log.debug("initialRequest " + initialRequest + " not matching regex pattern " + regEx +
+							log.debug("initialRequest " + initialRequest + " not matching regex pattern " + pattern +
 			                   " skipping application " + defaultSipApplicationRouterInfo.getApplicationName());
 						}
 						continue; // pattern not matching, just don't call the application
 					}
 				}
 				// https://code.google.com/p/sipservlets/issues/detail?id=43
-				String regExPoppedRoute = defaultSipApplicationRouterInfo.getOptionalParameters().get(REGEX_POPPED_ROUTE_PARAMETER);
-                if(regExPoppedRoute != null) {
-                    Pattern pattern = Pattern.compile(regExPoppedRoute);
-                    Matcher matcher = pattern.matcher(initialRequest.getPoppedRoute().toString());
+				final Pattern poppedRoutePattern = methodRoutes.poppedRouteRegexes[i];
+                if(poppedRoutePattern != null) {
+                    Matcher matcher = poppedRoutePattern.matcher(initialRequest.getPoppedRoute().toString());
                     if(matcher.find()) {
                         if(log.isDebugEnabled()) {
-                            log.debug("initialRequest Popped Route" + initialRequest.getPoppedRoute() + " matching regex pattern " + regExPoppedRoute +
+                            log.debug("initialRequest Popped Route" + initialRequest.getPoppedRoute() + " matching regex pattern " + poppedRoutePattern +
                                "begin index " + matcher.start() + " and ending at index " + matcher.end() + " for application " + defaultSipApplicationRouterInfo.getApplicationName());
                         }                       
                     } else {
                         if(log.isDebugEnabled()) {
-                            log.debug("initialRequest Popped Route" + initialRequest.getPoppedRoute() + " matching regex pattern " + regExPoppedRoute +
+                            log.debug("initialRequest Popped Route" + initialRequest.getPoppedRoute() + " matching regex pattern " + poppedRoutePattern +
                                " skipping application " + defaultSipApplicationRouterInfo.getApplicationName());
                         }
                         continue; // pattern not matching, just don't call the application
                     }
                 }
 				
-				boolean isApplicationPresentInContainer = false;
-				synchronized (containerDeployedApplicationNames) {
-					if(containerDeployedApplicationNames.contains(defaultSipApplicationRouterInfo.getApplicationName())) {
-						isApplicationPresentInContainer = true;
-						if(log.isDebugEnabled()) {
-							log.debug(defaultSipApplicationRouterInfo.getApplicationName() + " is present in the container.");
-						}
-					}
+				final boolean isApplicationPresentInContainer = 
+					containerDeployedApplicationNames.contains(defaultSipApplicationRouterInfo.getApplicationName());
+				if(isApplicationPresentInContainer && log.isDebugEnabled()) {
+					log.debug(defaultSipApplicationRouterInfo.getApplicationName() + " is present in the container.");
 				}
 				if(log.isDebugEnabled()) {
 					log.debug("Route Modifier : " + defaultSipApplicationRouterInfo.getRouteModifier());
-					log.debug("Previous App Name : " + ((SipApplicationRouterInfo)defaultSipApplicationRouterInfoList.listIterator(previousAppOrder).previous()).getNextApplicationName());
-					log.debug("Previous App Route Region : " + ((SipApplicationRouterInfo)defaultSipApplicationRouterInfoList.listIterator(previousAppOrder).previous()).getRoutingRegion());
+					log.debug("Previous App Name : " + methodRoutes.infos[previousAppOrder].getNextApplicationName());
+					log.debug("Previous App Route Region : " + methodRoutes.routingRegions[previousAppOrder]);
 					log.debug("Current App Name : " + defaultSipApplicationRouterInfo.getNextApplicationName());
-					log.debug("Current App Route Region : " + defaultSipApplicationRouterInfo.getRoutingRegion());
+					log.debug("Current App Route Region : " + methodRoutes.routingRegions[i]);
 				}
 				//if application is deployed in the container or if the intention is to route outside even if the application is not deployed
-				if(isApplicationPresentInContainer || !SipRouteModifier.NO_ROUTE.equals(defaultSipApplicationRouterInfo.getRouteModifier())) {
+				if(isApplicationPresentInContainer || methodRoutes.routed[i]) {
 					//prevents to route twice in a row to the same application with the same routing region 
-					SipSession initialSession = initialRequest.getSession(false);
-					String initialAppName = null;
-					String initialRoutingRegion = null;
-					String defaultSipApplicationRouterAppName = null;
-					String defaultSipApplicationRouterRoutingRegion = null;
-					
-					if(initialSession != null) {
-						initialAppName = initialRequest.getSession(false).getApplicationSession().getApplicationName();
-						initialRoutingRegion = ((SipApplicationRouterInfo)defaultSipApplicationRouterInfoList.listIterator(previousAppOrder).previous()).getRoutingRegion().toString();
-						defaultSipApplicationRouterAppName = defaultSipApplicationRouterInfo.getApplicationName();
-						defaultSipApplicationRouterRoutingRegion = defaultSipApplicationRouterInfo.getRoutingRegion().toString();
-					}
 					if(initialSession == null || 
-									!defaultSipApplicationRouterAppName.equals(initialAppName) || 
+									!defaultSipApplicationRouterInfo.getApplicationName().equals(initialAppName) || 
 											// https://code.google.com/p/sipservlets/issues/detail?id=273 allowing to route to the same app with different routing regions
-											((defaultSipApplicationRouterAppName.equals(initialAppName) && 
-													!(initialRoutingRegion.equals(defaultSipApplicationRouterRoutingRegion))))) {
+											!methodRoutes.routingRegions[previousAppOrder].equals(methodRoutes.routingRegions[i])) {
 						String subscriberIdentity = defaultSipApplicationRouterInfo.getSubscriberIdentity();
-						if(subscriberIdentity.indexOf(DAR_SUSCRIBER_PREFIX) != -1) {
-							String headerName = subscriberIdentity.substring(
-									DAR_SUSCRIBER_PREFIX_LENGTH);
+						final String headerName = methodRoutes.subscriberHeaders[i];
+						if(headerName != null) {
 							if(FROM.equalsIgnoreCase(headerName)) {
 								subscriberIdentity = initialRequest.getFrom().getURI().toString();
 							} else if(TO.equalsIgnoreCase(headerName)) {
@@ -440,13 +396,121 @@ public class DefaultApplicationRouter implements SipApplicationRouter, Manageabl
 	 * load the configuration file as defined in appendix C of JSR289
 	 */
 	public void init() {		
-		defaultApplicationRouterParser.init();		
 		try {
-			defaultSipApplicationRouterInfos = defaultApplicationRouterParser.parse();
+			load();
 		} catch (ParseException e) {
 			log.fatal("Impossible to parse the default application router configuration file",e);
 			throw new IllegalArgumentException("Impossible to parse the default application router configuration file",e);
 		}
+		startConfigurationReloader();
+	}
+
+	/**
+	 * Loads, parses and compiles the configuration file, then makes it active
+	 * @throws ParseException if the configuration file can't be parsed, the current configuration staying active
+	 */
+	private synchronized void load() throws ParseException {
+		final long start = System.nanoTime();
+		final DefaultApplicationRouterParser parser = new DefaultApplicationRouterParser();
+		final DefaultApplicationRouterConfiguration newConfiguration;
+		try {
+			// taken before loading, so that a change made meanwhile is loaded on the next check
+			final File darConfigurationFile = parser.getDarConfigurationFile();
+			final long lastModified = darConfigurationFile.lastModified();
+			final long length = darConfigurationFile.length();
+			parser.init();
+			newConfiguration = compile(parser, parser.parse());
+			darConfigurationFileLastModified = lastModified;
+			darConfigurationFileLength = length;
+		} catch (ParseException e) {
+			rejectedConfigurations.incrementAndGet();
+			throw e;
+		} catch (RuntimeException e) {
+			rejectedConfigurations.incrementAndGet();
+			throw e;
+		}
+		activate(newConfiguration, start);
+	}
+
+	/**
+	 * Compiles the entries just parsed along with a copy of the properties they have been parsed from
+	 */
+	private DefaultApplicationRouterConfiguration compile(DefaultApplicationRouterParser parser, 
+			Map<String, List<? extends SipApplicationRouterInfo>> sipApplicationRouterInfos) {
+		final Properties properties = new Properties();
+		properties.putAll(parser.getProperties());
+		return new DefaultApplicationRouterConfiguration(properties, sipApplicationRouterInfos);
+	}
+
+	/**
+	 * Makes the configuration active for the requests routed from now on
+	 */
+	private void activate(DefaultApplicationRouterConfiguration newConfiguration, long start) {
+		configuration = newConfiguration;
+		configurationReloads.incrementAndGet();
+		configurationReloadLatency = (System.nanoTime() - start) / 1000;
+	}
+
+	/**
+	 * Starts checking the configuration file for changes if the DAR_RELOAD_INTERVAL system property is set
+	 */
+	private synchronized void startConfigurationReloader() {
+		final long reloadInterval = Long.getLong(DAR_RELOAD_INTERVAL, -1);
+		if(configurationReloader != null || reloadInterval <= 0) {
+			return;
+		}
+		configurationReloader = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				final Thread thread = new Thread(runnable, "DefaultApplicationRouterReloader");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		configurationReloader.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				reloadIfModified();
+			}
+		}, reloadInterval, reloadInterval, TimeUnit.MILLISECONDS);
+		if(log.isInfoEnabled()) {
+			log.info("Checking the default application router configuration file for changes every " + reloadInterval + " ms");
+		}
+	}
+
+	/**
+	 * Reloads the configuration file if it has been modified since it was last loaded, 
+	 * once its modification time and size are the same as on the previous check.
+	 * If the new configuration is not valid, the current one stays active.
+	 */
+	void reloadIfModified() {
+		final long lastModified;
+		final long length;
+		try {
+			final File darConfigurationFile = defaultApplicationRouterParser.getDarConfigurationFile();
+			lastModified = darConfigurationFile.lastModified();
+			length = darConfigurationFile.length();
+		} catch (IllegalArgumentException e) {
+			return;
+		}
+		if(lastModified == 0L || (lastModified == darConfigurationFileLastModified && length == darConfigurationFileLength)) {
+			return;
+		}
+		if(lastModified != modifiedDarConfigurationFileLastModified || length != modifiedDarConfigurationFileLength) {
+			// possibly still being written, loaded on the next check if it didn't change meanwhile
+			modifiedDarConfigurationFileLastModified = lastModified;
+			modifiedDarConfigurationFileLength = length;
+			return;
+		}
+		try {
+			load();
+			if(log.isInfoEnabled()) {
+				log.info("Reloaded the default application router configuration file in " + configurationReloadLatency + " microseconds");
+			}
+		} catch (Exception e) {
+			// not loaded again until it changes
+			darConfigurationFileLastModified = lastModified;
+			darConfigurationFileLength = length;
+			log.error("Rejected the modified default application router configuration file, the previous configuration stays active", e);
+		}
 	}
 
 	/*
@@ -475,10 +539,15 @@ public class DefaultApplicationRouter implements SipApplicationRouter, Manageabl
 		} else if(configuration instanceof Properties) {
 			properties = (Properties) configuration;
 		}
+		final long start = System.nanoTime();
 		try {
-			defaultSipApplicationRouterInfos = 
-				this.defaultApplicationRouterParser.parse(properties);
+			final DefaultApplicationRouterParser parser = new DefaultApplicationRouterParser();
+			activate(compile(parser, parser.parse(properties)), start);
 		} catch (ParseException e1) {
+			rejectedConfigurations.incrementAndGet();
+			throw new IllegalArgumentException("Failed to parse the new DAR properties", e1);
+		} catch (RuntimeException e1) {
+			rejectedConfigurations.incrementAndGet();
 			throw new IllegalArgumentException("Failed to parse the new DAR properties", e1);
 		}
 		
@@ -513,21 +582,45 @@ public class DefaultApplicationRouter implements SipApplicationRouter, Manageabl
 			}
 		}
 		
+		// already active, no need for the reloader to load it again
+		darConfigurationFileLastModified = configFile.lastModified();
+		darConfigurationFileLength = configFile.length();
 		log.info("Stored DAR configuration in " + configFile.getAbsolutePath());
 	}
 
 	/* (non-Javadoc)
 	 * @see org.mobicents.servlet.sip.router.ManageableApplicationRouter#getCurrentConfiguration()
 	 */
-	public synchronized Object getCurrentConfiguration() {
-		return defaultApplicationRouterParser.getProperties();
+	public Object getCurrentConfiguration() {
+		return configuration.getProperties();
 	}
 	
 	/* (non-Javadoc)
 	 * @see org.mobicents.servlet.sip.router.ManageableApplicationRouter#getCurrentConfiguration()
 	 */
-	public synchronized Map<String, List<? extends SipApplicationRouterInfo>> getConfiguration() {
-		return defaultSipApplicationRouterInfos;
+	public Map<String, List<? extends SipApplicationRouterInfo>> getConfiguration() {
+		return configuration.getSipApplicationRouterInfos();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.router.ReloadableApplicationRouter#getConfigurationReloads()
+	 */
+	public long getConfigurationReloads() {
+		return configurationReloads.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.router.ReloadableApplicationRouter#getConfigurationReloadLatency()
+	 */
+	public long getConfigurationReloadLatency() {
+		return configurationReloadLatency;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.router.ReloadableApplicationRouter#getRejectedConfigurations()
+	 */
+	public long getRejectedConfigurations() {
+		return rejectedConfigurations.get();
 	}
 
 }
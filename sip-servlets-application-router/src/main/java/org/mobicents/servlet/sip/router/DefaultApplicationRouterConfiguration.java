@@ -0,0 +1,162 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.router;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.servlet.sip.ar.SipApplicationRouterInfo;
+import javax.servlet.sip.ar.SipRouteModifier;
+
+/**
+ * Immutable snapshot of the default application router configuration, compiled when it is loaded 
+ * so that selecting the next application doesn't have to scan and reinterpret the parsed entries on each initial request :
+ * <ul>
+ * <li>the regular expressions of the entries are compiled once,</li>
+ * <li>for each originating application, the direction of its first entry is indexed by application name,</li>
+ * <li>for each entry, the next entry eligible for requests routed out by an application, i.e. not marked DIRECTION=INBOUND, is precomputed,
+ * so the candidates are found without walking the entries they skip.</li>
+ * </ul>
+ * A new snapshot is built and swapped as a whole whenever the configuration changes, the routing threads reading it without locking.
+ */
+final class DefaultApplicationRouterConfiguration {
+
+	static final String DIRECTION_PARAMETER = "DIRECTION";
+	static final String REGEX_PARAMETER = "REGEX";
+	static final String REGEX_POPPED_ROUTE_PARAMETER = "REGEX_POPPED_ROUTE";
+	static final String DIRECTION_OUTBOUND = "OUTBOUND";
+	static final String DIRECTION_INBOUND = "INBOUND";
+	static final String METHOD_WILDCARD = "ALL";
+	//the prefix used in the dar configuration file to specify the subscriber URI to use
+	//when reusing the information from one header
+	private static final String DAR_SUSCRIBER_PREFIX = "DAR:";
+
+	private final Properties properties;
+	private final Map<String, List<? extends SipApplicationRouterInfo>> sipApplicationRouterInfos;
+	private final Map<String, MethodRoutes> methodRoutes;
+
+	DefaultApplicationRouterConfiguration(Properties properties, Map<String, List<? extends SipApplicationRouterInfo>> sipApplicationRouterInfos) {
+		this.properties = properties;
+		this.sipApplicationRouterInfos = Collections.unmodifiableMap(sipApplicationRouterInfos);
+		methodRoutes = new HashMap<String, MethodRoutes>();
+		for (Map.Entry<String, List<? extends SipApplicationRouterInfo>> entry : sipApplicationRouterInfos.entrySet()) {
+			methodRoutes.put(entry.getKey(), new MethodRoutes(entry.getValue()));
+		}
+	}
+
+	Properties getProperties() {
+		return properties;
+	}
+
+	Map<String, List<? extends SipApplicationRouterInfo>> getSipApplicationRouterInfos() {
+		return sipApplicationRouterInfos;
+	}
+
+	/**
+	 * @return the compiled entries for the method, null if the configuration has none
+	 */
+	MethodRoutes getMethodRoutes(String method) {
+		return methodRoutes.get(method);
+	}
+
+	/**
+	 * The compiled entries of one SIP method, in the order of the configuration
+	 */
+	static final class MethodRoutes {
+		final DefaultSipApplicationRouterInfo[] infos;
+		// the routing region of each entry, as compared to the one of the previous application
+		final String[] routingRegions;
+		final boolean[] inbound;
+		final Pattern[] regexes;
+		final Pattern[] poppedRouteRegexes;
+		// the header to take the subscriber identity from, null if it is given as is
+		final String[] subscriberHeaders;
+		final boolean[] routed;
+		// index of the first entry not marked DIRECTION=INBOUND at or after each index
+		final int[] nextNotInbound;
+		// applications whose first entry isn't marked DIRECTION=OUTBOUND, the requests they initiate
+		// can be routed to the entries marked DIRECTION=INBOUND 
+		final Set<String> notOutboundApplicationNames;
+
+		MethodRoutes(List<? extends SipApplicationRouterInfo> sipApplicationRouterInfos) {
+			final int size = sipApplicationRouterInfos.size();
+			infos = new DefaultSipApplicationRouterInfo[size];
+			routingRegions = new String[size];
+			inbound = new boolean[size];
+			regexes = new Pattern[size];
+			poppedRouteRegexes = new Pattern[size];
+			subscriberHeaders = new String[size];
+			routed = new boolean[size];
+			nextNotInbound = new int[size + 1];
+			notOutboundApplicationNames = new HashSet<String>();
+			final Set<String> applicationNames = new HashSet<String>();
+			for (int i = 0; i < size; i++) {
+				final DefaultSipApplicationRouterInfo info = (DefaultSipApplicationRouterInfo) sipApplicationRouterInfos.get(i);
+				final Map<String, String> optionalParameters = info.getOptionalParameters();
+				infos[i] = info;
+				routingRegions[i] = info.getRoutingRegion().toString();
+				final String direction = optionalParameters.get(DIRECTION_PARAMETER);
+				inbound[i] = DIRECTION_INBOUND.equalsIgnoreCase(direction);
+				final String regex = optionalParameters.get(REGEX_PARAMETER);
+				regexes[i] = regex == null ? null : Pattern.compile(regex);
+				final String poppedRouteRegex = optionalParameters.get(REGEX_POPPED_ROUTE_PARAMETER);
+				poppedRouteRegexes[i] = poppedRouteRegex == null ? null : Pattern.compile(poppedRouteRegex);
+				final String subscriberIdentity = info.getSubscriberIdentity();
+				if(subscriberIdentity.indexOf(DAR_SUSCRIBER_PREFIX) != -1) {
+					subscriberHeaders[i] = subscriberIdentity.substring(DAR_SUSCRIBER_PREFIX.length());
+				}
+				routed[i] = !SipRouteModifier.NO_ROUTE.equals(info.getRouteModifier());
+				// only the first entry of an application gives the direction of the requests it initiates
+				if(applicationNames.add(info.getApplicationName()) && !DIRECTION_OUTBOUND.equalsIgnoreCase(direction)) {
+					notOutboundApplicationNames.add(info.getApplicationName());
+				}
+			}
+			nextNotInbound[size] = size;
+			for (int i = size - 1; i >= 0; i--) {
+				nextNotInbound[i] = inbound[i] ? nextNotInbound[i + 1] : i;
+			}
+		}
+
+		/**
+		 * @param originatingApplicationName the application having initiated the request, null if it comes from outside
+		 * @return true if the entries marked DIRECTION=INBOUND have to be skipped
+		 */
+		boolean isRoutedOut(String originatingApplicationName) {
+			// the applications initiating requests without being in the list are assumed to route them out
+			return originatingApplicationName != null && !notOutboundApplicationNames.contains(originatingApplicationName);
+		}
+
+		/**
+		 * @return the index of the first candidate at or after the index, the number of entries if there is none
+		 */
+		int nextCandidate(int index, boolean routedOut) {
+			if(index >= infos.length) {
+				return infos.length;
+			}
+			return routedOut ? nextNotInbound[index] : index;
+		}
+	}
+}
@@ -71,6 +71,14 @@ public class DefaultApplicationRouterParser {
 	 */
 	public void init() {
 		//load the configuration file
+		load(getDarConfigurationFile());
+	}
+
+	/**
+	 * @return the configuration file defined by the system property "javax.servlet.sip.dar"
+	 * @throws IllegalArgumentException if the location of the configuration file is not valid
+	 */
+	public File getDarConfigurationFile() {
 		String darConfigurationFileLocation = getDarConfigurationFileLocation();
 		if(log.isDebugEnabled()) {
 			log.debug("Default Application Router file Location : "+darConfigurationFileLocation);
@@ -90,7 +98,16 @@ public class DefaultApplicationRouterParser {
 		} catch (URISyntaxException e) {
 			//if the uri contains space this will fail, so getting the path will work
 			darConfigurationFile = new File(url.getPath());
-		}				
+		}
+		return darConfigurationFile;
+	}
+
+	/**
+	 * Loads the configuration file in the properties of this parser
+	 * @throws IllegalArgumentException if anything goes wrong when trying to load the configuration file
+	 */
+	private void load(File darConfigurationFile) {
+		String darConfigurationFileLocation = darConfigurationFile.getPath();
 		FileInputStream fis = null;
 		try {
 			fis = new FileInputStream(darConfigurationFile);
@@ -26,6 +26,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 
 import javax.servlet.sip.SipURI;
@@ -39,6 +40,8 @@ import org.mobicents.ext.javax.sip.dns.DNSServerLocator;
 import org.mobicents.javax.servlet.CongestionControlPolicy;
 import org.mobicents.servlet.sip.annotation.ConcurrencyControlMode;
 import org.mobicents.servlet.sip.core.message.MobicentsSipServletRequest;
+import org.mobicents.servlet.sip.core.session.MobicentsSipApplicationSessionKey;
+import org.mobicents.servlet.sip.core.session.MobicentsSipSessionKey;
 
 /**
  * 
@@ -184,6 +187,25 @@ public interface SipApplicationDispatcher extends SipListenerExt {
 	void setBypassResponseExecutor(boolean bypassResponseExecutor);
 	boolean isBypassResponseExecutor();
 	
+	void setDispatcherShardCount(int dispatcherShardCount);
+	int getDispatcherShardCount();
+	
+	void setCongestionControlEngineClassName(String congestionControlEngineClassName);
+	String getCongestionControlEngineClassName();
+	
+	void setSourceRateLimit(int sourceRateLimit);
+	int getSourceRateLimit();
+	void setSourceRateLimitBurst(int sourceRateLimitBurst);
+	int getSourceRateLimitBurst();
+	void setSourceRateLimitKey(String sourceRateLimitKey);
+	String getSourceRateLimitKey();
+	
+	void setIdGeneratorClassName(String idGeneratorClassName);
+	String getIdGeneratorClassName();
+	
+	void setExternalizationFormat(String externalizationFormat);
+	String getExternalizationFormat();
+	
 	void setBaseTimerInterval(int baseTimerInterval);
 	int getBaseTimerInterval();
 	void setT2Interval(int t2Interval);
@@ -198,6 +220,13 @@ public interface SipApplicationDispatcher extends SipListenerExt {
 		
 	void setGatherStatistics(boolean gatherStatistics);	
 	boolean isGatherStatistics();
+	/**
+	 * Records the time elapsed between the reception of a request and the return of the servlet it has been dispatched to,
+	 * does nothing if the statistics are not gathered
+	 * @param method the method of the request
+	 * @param processingTime the processing time in nanoseconds
+	 */
+	void updateRequestProcessingTime(String method, long processingTime);
 	
 	void setBackToNormalMemoryThreshold(
 			int backToNormalMemoryThreshold);
@@ -207,6 +236,21 @@ public interface SipApplicationDispatcher extends SipListenerExt {
 	int getBackToNormalQueueSize();
 
 	ExecutorService getAsynchronousExecutor();
+	/**
+	 * @return the executors of the dispatcher shards, an empty array if the messages are not sharded
+	 */
+	ExecutorService[] getDispatcherShardExecutors();
+	/**
+	 * Returns the executor to use to process a task on the given sessions depending on the concurrency control mode of the application.
+	 * For the serial concurrency control modes, the executor queues the task behind the other tasks of the same session,
+	 * a task without sip session key, such as a servlet timer, being queued on its sip application session in both serial modes,
+	 * otherwise it is the asynchronous executor. 
+	 * @param sipContext the application the sessions belong to
+	 * @param sipApplicationSessionKey the key of the sip application session the task will work on, can be null
+	 * @param sipSessionKey the key of the sip session the task will work on, can be null
+	 * @return the executor to use
+	 */
+	Executor getConcurrencyModelExecutor(SipContext sipContext, MobicentsSipApplicationSessionKey sipApplicationSessionKey, MobicentsSipSessionKey sipSessionKey);
 
 	void setSipStack(SipStack sipStack);
 	SipStack getSipStack();
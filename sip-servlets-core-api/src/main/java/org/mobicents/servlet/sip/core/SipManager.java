@@ -290,6 +290,22 @@ public interface SipManager {
    * @param expiredSessions Number of sessions that have expired
    */
   public void setExpiredSipApplicationSessions(int expiredSipApplicationSessions);
+
+  /**
+   * Updates the number of sip sessions that have expired, their longest and average alive times,
+   * without locking the manager so that concurrent invalidations don't wait for each other.
+   *
+   * @param timeAlive time (in seconds) the sip session had been alive
+   */
+  public void sipSessionExpired(int timeAlive);
+
+  /**
+   * Updates the number of sip application sessions that have expired, their longest and average alive times,
+   * without locking the manager so that concurrent invalidations don't wait for each other.
+   *
+   * @param timeAlive time (in seconds) the sip application session had been alive
+   */
+  public void sipApplicationSessionExpired(int timeAlive);
   
   /**
    * Gets the number of sip application sessions per seconds that have been created.
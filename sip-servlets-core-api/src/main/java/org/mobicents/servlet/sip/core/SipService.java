@@ -64,6 +64,10 @@ public interface SipService {
 	public OutboundProxy getOutboundProxy();
 	public int getDispatcherThreadPoolSize();
 	public int getCanceledTimerTasksPurgePeriod();
+	public String getSipApplicationSessionTimerServiceClassName();
+	public String getTimerServiceClassName();
+	public int getTimerServiceThreadPoolSize();
+	public String getProxyTimerServiceClassName();
 	public SipConnector[] findSipConnectors();
 	public boolean isDialogPendingRequestChecking();
 	public boolean isMd5ContactUserPart();
@@ -0,0 +1,45 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.router;
+
+/**
+ * This interface exposes the statistics of an Application Router reloading its configuration
+ * when it changes, on top of the methods to reconfigure it dynamically.
+ *
+ */
+
+public interface ReloadableApplicationRouter extends ManageableApplicationRouter {
+
+	/**
+	 * @return the number of configurations loaded and made active in the AR since it started
+	 */
+	long getConfigurationReloads();
+
+	/**
+	 * @return the time in microseconds it took to load, validate and make active the last configuration
+	 */
+	long getConfigurationReloadLatency();
+
+	/**
+	 * @return the number of configurations rejected because they were not valid, the AR keeping
+	 * the previous configuration active
+	 */
+	long getRejectedConfigurations();
+}
@@ -29,6 +29,8 @@ import java.security.NoSuchAlgorithmException;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Priority;
+import org.mobicents.servlet.sip.core.IdGenerator;
+import org.mobicents.servlet.sip.core.ThreadLocalIdGenerator;
 
 /**
  * Generic utils not related to SIP.
@@ -38,6 +40,20 @@ import org.apache.log4j.Priority;
  */
 public class GenericUtils {
 	
+	// MessageDigest.getInstance looks up the security providers on every call
+	private static final ThreadLocal<MessageDigest> shaDigests = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("SHA");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalArgumentException("The SHA Algorithm could not be found", e);
+			}
+		}
+	};
+	
+	private static volatile IdGenerator idGenerator = new ThreadLocalIdGenerator();
+	
 	/**
 	 * Convert byte array to string
 	 * 
@@ -75,17 +91,30 @@ public class GenericUtils {
 	 * @return
 	 */
 	public static String hashString(String input) {
-		MessageDigest md;
-		try {
-			md = MessageDigest.getInstance("SHA");
-		} catch (NoSuchAlgorithmException e) {
-			throw new IllegalArgumentException("The SHA Algorithm could not be found", e);
+		final MessageDigest md = shaDigests.get();
+		md.reset();
+		final byte[] digest = md.digest(input.getBytes());
+		// only the first 8 hex characters are kept
+		final char[] hashed = new char[8];
+		for (int i = 0; i < 4; i++) {
+			hashed[2 * i] = Character.forDigit((digest[i] >>> 4) & 0x0F, 16);
+			hashed[2 * i + 1] = Character.forDigit(digest[i] & 0x0F, 16);
 		}
-		byte[] bytes = input.getBytes();
-		md.update(bytes);
-		String hashed =  convertToHex(md.digest());
-		hashed = reduceHash(hashed, 8);
-		return hashed;
+		return new String(hashed);
+	}
+	
+	/**
+	 * @return the generator of the ids created by the container
+	 */
+	public static IdGenerator getIdGenerator() {
+		return idGenerator;
+	}
+	
+	/**
+	 * @param idGenerator the generator of the ids created by the container
+	 */
+	public static void setIdGenerator(IdGenerator idGenerator) {
+		GenericUtils.idGenerator = idGenerator;
 	}
 	
 	public static String makeStackTrace() {
@@ -45,7 +45,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.UUID;
 
 import javax.sip.InvalidArgumentException;
 import javax.sip.ListeningPoint;
@@ -540,7 +539,7 @@ public final class JainSipUtils {
 	 */
 	public static String createBranch(String appSessionId, String appname) {
 	    // https://code.google.com/p/sipservlets/issues/detail?id=269
-		return createBranch(appSessionId, appname, UUID.randomUUID().toString());
+		return createBranch(appSessionId, appname, GenericUtils.getIdGenerator().generateId());
     }
 	
 	public static String createBranch(String appSessionId, String appname, String random) {
@@ -59,6 +59,13 @@ public class SipURIImpl extends URIImpl implements SipURI {
 		this.isModifiable = isModifiable;
 	}
 
+	/**
+	 * @return the rule defining whether this uri can be modified
+	 */
+	public ModifiableRule getModifiableRule() {
+		return isModifiable;
+	}
+
 	public javax.sip.address.SipURI getSipURI() {
 		return (javax.sip.address.SipURI) super.uri;
 
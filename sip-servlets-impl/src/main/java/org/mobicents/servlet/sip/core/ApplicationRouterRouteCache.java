@@ -0,0 +1,103 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core;
+
+import java.text.ParseException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sip.header.RouteHeader;
+
+import org.mobicents.servlet.sip.message.SipFactoryImpl;
+
+/**
+ * Cache of the Route headers parsed from the routes returned by the application router.<br/>
+ * The routes of the default application router are static strings taken from its configuration, 
+ * so instead of parsing them again on each initial request, each route is parsed once and the request gets a copy of the parsed header.
+ * The application router decisions themselves aren't cached, since they depend on the request 
+ * (regular expressions on its content, subscriber identity taken from its headers, application having initiated it).
+ * The number of routes cached is bounded so that an application router returning routes computed per request doesn't fill up the heap,
+ * the routes past the bound being parsed each time.
+ */
+public class ApplicationRouterRouteCache {
+
+	public static final int DEFAULT_MAX_ROUTES = 1024;
+
+	private final int maxRoutes;
+	private final ConcurrentMap<String, RouteHeader> routeHeaders = new ConcurrentHashMap<String, RouteHeader>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public ApplicationRouterRouteCache() {
+		this(DEFAULT_MAX_ROUTES);
+	}
+
+	public ApplicationRouterRouteCache(int maxRoutes) {
+		this.maxRoutes = maxRoutes;
+	}
+
+	/**
+	 * @param route a route returned by the application router
+	 * @return a new Route header for the route, that the caller is free to modify
+	 * @throws ParseException if the route isn't a valid Route header value
+	 */
+	public RouteHeader createRouteHeader(String route) throws ParseException {
+		RouteHeader routeHeader = routeHeaders.get(route);
+		if(routeHeader == null) {
+			misses.incrementAndGet();
+			routeHeader = (RouteHeader) SipFactoryImpl.headerFactory.createHeader(RouteHeader.NAME, route);
+			if(routeHeaders.size() < maxRoutes) {
+				routeHeaders.putIfAbsent(route, routeHeader);
+			}
+		} else {
+			hits.incrementAndGet();
+		}
+		return (RouteHeader) routeHeader.clone();
+	}
+
+	/**
+	 * Drops the routes cached, to be called when the application router configuration changes
+	 */
+	public void clear() {
+		routeHeaders.clear();
+	}
+
+	public int getSize() {
+		return routeHeaders.size();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the ratio of the routes found in the cache, between 0 and 1
+	 */
+	public double getHitRate() {
+		final long hits = this.hits.get();
+		final long lookups = hits + misses.get();
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+}
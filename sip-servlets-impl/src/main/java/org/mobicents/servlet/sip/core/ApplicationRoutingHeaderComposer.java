@@ -29,6 +29,9 @@ import org.apache.log4j.Logger;
  * of the outgoing request.When the container acts as UAS/B2BUA the AR must be stored in the to-tag
  * of the outgoing request. The string looks like this:
  * uniqueValue_serverId_appname1_appGeneratedApplicationSessionId
+ * <br/>
+ * As the tag of every subsequent request is parsed, it is scanned in place rather than split,
+ * and the tags are built in a buffer of the current thread with a random generator of its own.
  * 
  * @author vralev
  * @author <A HREF="mailto:jean.deruelle@gmail.com">Jean Deruelle</A> 
@@ -38,62 +41,140 @@ public class ApplicationRoutingHeaderComposer {
 	private static final Logger logger = Logger.getLogger(ApplicationRoutingHeaderComposer.class
 			.getCanonicalName());
 	
-	private static final Random RANDOM = new Random();
-	private static final String TOKEN_SEPARATOR = "_";
+	private static final char TOKEN_SEPARATOR = '_';
+	private static final int RANDOM_VALUE_DIGITS = 8;
+	private static final int RANDOM_VALUE_BOUND = 100000000;
 	
-	private final static String reduceRandomValue(String str, int maxChars) {
-		int len = str.length();
-		if(len > maxChars) {
-			return str.substring(len-maxChars, len);
-		} else {
-			return str;
+	private static final ThreadLocal<TagBuilder> tagBuilders = new ThreadLocal<TagBuilder>() {
+		@Override
+		protected TagBuilder initialValue() {
+			return new TagBuilder();
 		}
-	}
+	};
+
 	public final static String randomString() {
-		long randValue = Math.abs(RANDOM.nextInt(1211111) ^ System.nanoTime());
-		return reduceRandomValue(String.valueOf(randValue), 8);
+		final TagBuilder tagBuilder = tagBuilders.get();
+		tagBuilder.length = 0;
+		tagBuilder.appendRandomValue();
+		return tagBuilder.toString();
 	}
 
 	
 	public final static String[] getAppNameAndSessionId(SipApplicationDispatcher sipApplicationDispatcher, String text) {
 		String[] tuple = new String[3];
-		if(text != null) {					
-			final String[] tokens = text.split(TOKEN_SEPARATOR);
-		
-			// If there is no AR in the string, generate a uniqueValue for the tag
-			// and it will be stored for later.
-			if(tokens.length > 2) {				
-				// Otherwise extract the uniqueValue from the tag string, it's the first token.
-				final String hashedAppName = tokens[2];
-				if(sipApplicationDispatcher.getApplicationServerIdHash().equalsIgnoreCase(tokens[1])) {
-					String appName = sipApplicationDispatcher.getApplicationNameFromHash(hashedAppName);
-					if(appName == null) 
-						throw new IllegalArgumentException("The hash doesn't correspond to any app name: " + hashedAppName);
-					tuple[0] = tokens[1];
-					tuple[1] = appName;				
-					tuple[2] = tokens[3];
-				} else {
-					tuple[0] = tokens[1];
-					tuple[1] = null;				
-					tuple[2] = null;
+		// If there is no AR in the string, there are less than 3 tokens
+		// (the empty tokens at the end not being counted, as with String.split)
+		if(text != null && hasToken(text, 2)) {
+			final int serverIdStart = text.indexOf(TOKEN_SEPARATOR) + 1;
+			final int serverIdEnd = text.indexOf(TOKEN_SEPARATOR, serverIdStart);
+			final String applicationServerIdHash = sipApplicationDispatcher.getApplicationServerIdHash();
+			tuple[0] = text.substring(serverIdStart, serverIdEnd);
+			if(applicationServerIdHash.length() == serverIdEnd - serverIdStart && 
+					applicationServerIdHash.regionMatches(true, 0, text, serverIdStart, serverIdEnd - serverIdStart)) {
+				final String hashedAppName = token(text, serverIdEnd + 1);
+				String appName = sipApplicationDispatcher.getApplicationNameFromHash(hashedAppName);
+				if(appName == null) 
+					throw new IllegalArgumentException("The hash doesn't correspond to any app name: " + hashedAppName);
+				tuple[1] = appName;
+				if(hasToken(text, 3)) {
+					tuple[2] = token(text, text.indexOf(TOKEN_SEPARATOR, serverIdEnd + 1) + 1);
 				}
 			}
 		}		
 		return tuple;
 	}		
+
+	/**
+	 * @return true if the text has a non empty token after the given number of separators
+	 */
+	private static boolean hasToken(String text, int separators) {
+		int index = -1;
+		for (int i = 0; i < separators; i++) {
+			index = text.indexOf(TOKEN_SEPARATOR, index + 1);
+			if(index < 0) {
+				return false;
+			}
+		}
+		for (int i = index + 1; i < text.length(); i++) {
+			if(text.charAt(i) != TOKEN_SEPARATOR) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the token starting at the given index, up to the next separator
+	 */
+	private static String token(String text, int start) {
+		final int end = text.indexOf(TOKEN_SEPARATOR, start);
+		return text.substring(start, end < 0 ? text.length() : end);
+	}
 	
 	public final static String getHash(SipApplicationDispatcher sipApplicationDispatcher, String  applicationName,  String applicationId) {
-		String text = randomString() + TOKEN_SEPARATOR;
+		final TagBuilder tagBuilder = tagBuilders.get();
+		tagBuilder.length = 0;
+		tagBuilder.appendRandomValue();
+		tagBuilder.append(TOKEN_SEPARATOR);
 		// https://code.google.com/p/sipservlets/issues/detail?id=237
-		text += sipApplicationDispatcher.getApplicationServerIdHash() + TOKEN_SEPARATOR;
-		text += sipApplicationDispatcher.getHashFromApplicationName(applicationName);
+		tagBuilder.append(sipApplicationDispatcher.getApplicationServerIdHash());
+		tagBuilder.append(TOKEN_SEPARATOR);
+		tagBuilder.append(sipApplicationDispatcher.getHashFromApplicationName(applicationName));
 		if(applicationId != null && applicationId.length() > 0) {
-			text = text + TOKEN_SEPARATOR + applicationId; 
+			tagBuilder.append(TOKEN_SEPARATOR);
+			tagBuilder.append(applicationId);
 		}
+		final String text = tagBuilder.toString();
 		if(logger.isDebugEnabled()) {
 			logger.debug("tag will be equal to " + text);
 		}
 		return text;
 	}
 
+	/**
+	 * Buffer of a thread to build the tags in, along with its random generator
+	 */
+	private static final class TagBuilder {
+		private final Random random = new Random();
+		private char[] chars = new char[128];
+		private int length;
+
+		private void appendRandomValue() {
+			int value = random.nextInt(RANDOM_VALUE_BOUND);
+			ensureCapacity(RANDOM_VALUE_DIGITS);
+			for (int i = length + RANDOM_VALUE_DIGITS - 1; i >= length; i--) {
+				chars[i] = (char) ('0' + value % 10);
+				value /= 10;
+			}
+			length += RANDOM_VALUE_DIGITS;
+		}
+
+		private void append(char c) {
+			ensureCapacity(1);
+			chars[length++] = c;
+		}
+
+		private void append(String value) {
+			if(value == null) {
+				value = "null";
+			}
+			ensureCapacity(value.length());
+			value.getChars(0, value.length(), chars, length);
+			length += value.length();
+		}
+
+		private void ensureCapacity(int extraLength) {
+			if(length + extraLength > chars.length) {
+				final char[] newChars = new char[Math.max(chars.length * 2, length + extraLength)];
+				System.arraycopy(chars, 0, newChars, 0, length);
+				chars = newChars;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return new String(chars, 0, length);
+		}
+	}
+
 }
@@ -0,0 +1,223 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Message statistics of the {@link SipApplicationDispatcherImpl}.<br/>
+ * The counters are {@link StripedCounters} indexed by the position of the method in the list of supported methods
+ * and by the class of the response status code, so that counting a message neither looks up nor contends on a shared counter.
+ * Requests with a method not supported by the container are counted in a separate map, limited to
+ * {@link #MAX_OTHER_METHODS} methods so that random methods can't make it grow indefinitely.<br/>
+ * The time elapsed between the reception of a request and the return of the servlet it has been dispatched to
+ * is recorded in a histogram per method, whose buckets are given by {@link #PROCESSING_TIME_BUCKETS}.
+ */
+public class DispatcherStatistics {
+
+	public static final String[] RESPONSES_PER_CLASS_OF_SC =
+		{"1XX", "2XX", "3XX", "4XX", "5XX", "6XX", "7XX", "8XX", "9XX"};
+	// upper bounds in milliseconds of the processing time buckets, the last bucket of the histograms holds the longer times
+	public static final long[] PROCESSING_TIME_BUCKETS =
+		{1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+	public static final int MAX_OTHER_METHODS = 64;
+	private static final String OTHER_METHODS = "OTHER";
+
+	private final String[] methods;
+	private final Map<String, Integer> methodIndexes;
+	// one counter per supported method + one for the other methods
+	private final StripedCounters requestsProcessedByMethod;
+	private final ConcurrentMap<String, AtomicLong> otherRequestsProcessedByMethod = new ConcurrentHashMap<String, AtomicLong>();
+	// one counter per class of status code + one for the invalid status codes
+	private final StripedCounters responsesProcessedByStatusCode;
+	// per method, the counts of the buckets + the total time in nanoseconds
+	private final StripedCounters[] processingTimesByMethod;
+
+	/**
+	 * @param methods the methods supported by the container
+	 */
+	public DispatcherStatistics(String[] methods) {
+		this.methods = methods.clone();
+		final Map<String, Integer> methodIndexes = new HashMap<String, Integer>();
+		for (int i = 0; i < methods.length; i++) {
+			methodIndexes.put(methods[i], i);
+		}
+		this.methodIndexes = Collections.unmodifiableMap(methodIndexes);
+		requestsProcessedByMethod = new StripedCounters(methods.length + 1);
+		responsesProcessedByStatusCode = new StripedCounters(RESPONSES_PER_CLASS_OF_SC.length + 1);
+		processingTimesByMethod = new StripedCounters[methods.length + 1];
+		for (int i = 0; i < processingTimesByMethod.length; i++) {
+			processingTimesByMethod[i] = new StripedCounters(PROCESSING_TIME_BUCKETS.length + 2);
+		}
+	}
+
+	public void requestProcessed(String method) {
+		final Integer methodIndex = methodIndexes.get(method);
+		if(methodIndex != null) {
+			requestsProcessedByMethod.increment(methodIndex);
+			return;
+		}
+		requestsProcessedByMethod.increment(methods.length);
+		AtomicLong requestsProcessed = otherRequestsProcessedByMethod.get(method);
+		if(requestsProcessed == null && otherRequestsProcessedByMethod.size() < MAX_OTHER_METHODS) {
+			requestsProcessed = new AtomicLong(0);
+			final AtomicLong existingRequestsProcessed = otherRequestsProcessedByMethod.putIfAbsent(method, requestsProcessed);
+			if(existingRequestsProcessed != null) {
+				requestsProcessed = existingRequestsProcessed;
+			}
+		}
+		if(requestsProcessed != null) {
+			requestsProcessed.incrementAndGet();
+		}
+	}
+
+	public void responseProcessed(int statusCode) {
+		final int classOfSc = statusCode / 100;
+		if(classOfSc >= 1 && classOfSc <= RESPONSES_PER_CLASS_OF_SC.length) {
+			responsesProcessedByStatusCode.increment(classOfSc - 1);
+		} else {
+			responsesProcessedByStatusCode.increment(RESPONSES_PER_CLASS_OF_SC.length);
+		}
+	}
+
+	/**
+	 * @param method the method of the request
+	 * @param processingTime the time in nanoseconds elapsed between the reception of the request and the return of the servlet
+	 */
+	public void requestProcessingTime(String method, long processingTime) {
+		if(processingTime < 0) {
+			return;
+		}
+		final Integer methodIndex = methodIndexes.get(method);
+		final StripedCounters processingTimes = processingTimesByMethod[methodIndex != null ? methodIndex : methods.length];
+		final long processingTimeInMillis = TimeUnit.NANOSECONDS.toMillis(processingTime);
+		int bucket = 0;
+		while(bucket < PROCESSING_TIME_BUCKETS.length && processingTimeInMillis >= PROCESSING_TIME_BUCKETS[bucket]) {
+			bucket++;
+		}
+		processingTimes.increment(bucket);
+		processingTimes.add(PROCESSING_TIME_BUCKETS.length + 1, processingTime);
+	}
+
+	public long getRequestsProcessed() {
+		return requestsProcessedByMethod.total();
+	}
+
+	public long getRequestsProcessedByMethod(String method) {
+		final Integer methodIndex = methodIndexes.get(method);
+		if(methodIndex != null) {
+			return requestsProcessedByMethod.sum(methodIndex);
+		}
+		final AtomicLong requestsProcessed = otherRequestsProcessedByMethod.get(method);
+		if(requestsProcessed != null) {
+			return requestsProcessed.get();
+		}
+		return 0;
+	}
+
+	/**
+	 * @return a snapshot of the number of requests processed per method
+	 */
+	public Map<String, AtomicLong> getRequestsProcessedByMethod() {
+		final Map<String, AtomicLong> snapshot = new ConcurrentHashMap<String, AtomicLong>();
+		final long[] sums = requestsProcessedByMethod.sums();
+		for (int i = 0; i < methods.length; i++) {
+			snapshot.put(methods[i], new AtomicLong(sums[i]));
+		}
+		for (Entry<String, AtomicLong> entry : otherRequestsProcessedByMethod.entrySet()) {
+			snapshot.put(entry.getKey(), new AtomicLong(entry.getValue().get()));
+		}
+		return snapshot;
+	}
+
+	public long getResponsesProcessed() {
+		return responsesProcessedByStatusCode.total();
+	}
+
+	public long getResponsesProcessedByStatusCode(String statusCode) {
+		for (int i = 0; i < RESPONSES_PER_CLASS_OF_SC.length; i++) {
+			if(RESPONSES_PER_CLASS_OF_SC[i].equals(statusCode)) {
+				return responsesProcessedByStatusCode.sum(i);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return a snapshot of the number of responses processed per class of status code
+	 */
+	public Map<String, AtomicLong> getResponsesProcessedByStatusCode() {
+		final Map<String, AtomicLong> snapshot = new ConcurrentHashMap<String, AtomicLong>();
+		final long[] sums = responsesProcessedByStatusCode.sums();
+		for (int i = 0; i < RESPONSES_PER_CLASS_OF_SC.length; i++) {
+			snapshot.put(RESPONSES_PER_CLASS_OF_SC[i], new AtomicLong(sums[i]));
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @return for each method a request has been processed for, the number of requests per processing time bucket
+	 */
+	public Map<String, long[]> getRequestProcessingTimeHistogramByMethod() {
+		final Map<String, long[]> histograms = new TreeMap<String, long[]>();
+		for (int i = 0; i < processingTimesByMethod.length; i++) {
+			final long[] sums = processingTimesByMethod[i].sums();
+			final long[] histogram = new long[PROCESSING_TIME_BUCKETS.length + 1];
+			System.arraycopy(sums, 0, histogram, 0, histogram.length);
+			if(count(histogram) > 0) {
+				histograms.put(i < methods.length ? methods[i] : OTHER_METHODS, histogram);
+			}
+		}
+		return histograms;
+	}
+
+	/**
+	 * @return for each method a request has been processed for, the average processing time in microseconds
+	 */
+	public Map<String, Long> getAverageRequestProcessingTimeByMethod() {
+		final Map<String, Long> averages = new TreeMap<String, Long>();
+		for (int i = 0; i < processingTimesByMethod.length; i++) {
+			final long[] sums = processingTimesByMethod[i].sums();
+			final long count = count(sums);
+			if(count > 0) {
+				averages.put(i < methods.length ? methods[i] : OTHER_METHODS,
+						TimeUnit.NANOSECONDS.toMicros(sums[PROCESSING_TIME_BUCKETS.length + 1] / count));
+			}
+		}
+		return averages;
+	}
+
+	// number of requests in the buckets of a histogram
+	private static long count(long[] processingTimes) {
+		long count = 0;
+		for (int i = 0; i <= PROCESSING_TIME_BUCKETS.length; i++) {
+			count += processingTimes[i];
+		}
+		return count;
+	}
+}
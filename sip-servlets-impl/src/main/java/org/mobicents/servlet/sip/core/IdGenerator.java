@@ -0,0 +1,55 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core;
+
+/**
+ * Generates the ids created by the container for every initial request : the sip application session ids,
+ * the branch ids, the tags and the servlet timer ids, as well as the id of the sip application sessions
+ * whose key is given by a {@link javax.servlet.sip.annotation.SipApplicationKey} method.<br/>
+ * The sip application session ids must not be predictable from the other ids, which are sent on the wire.<br/>
+ * The generator in use is set on the {@link SipApplicationDispatcher} and available through
+ * {@link org.mobicents.servlet.sip.GenericUtils#getIdGenerator()}.
+ * Implementations must be thread safe and provide a public no-arg constructor.
+ */
+public interface IdGenerator {
+
+	/**
+	 * @return a new id unique across the nodes of a cluster, formatted as a UUID, used for the branches and the servlet timers
+	 */
+	String generateId();
+
+	/**
+	 * @return a new id unique across the nodes of a cluster, formatted as a UUID, that can not be guessed 
+	 * from the ids previously generated by this generator
+	 */
+	String generateApplicationSessionId();
+
+	/**
+	 * @return a new random tag, only meant to be unique within a dialog
+	 */
+	String generateTag();
+
+	/**
+	 * The id must only depend on the key, so that all the nodes of a cluster compute the same id for the same key
+	 * @param applicationKey the key returned by the {@link javax.servlet.sip.annotation.SipApplicationKey} method of an application
+	 * @return the id of the sip application session of the key
+	 */
+	String hashApplicationKey(String applicationKey);
+}
@@ -0,0 +1,184 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Executor running the tasks submitted for a given key (a sip session or sip application session key) one at a time
+ * and in submission order, on top of a shared executor.<br/>
+ * Each key gets a mailbox that is scheduled on the shared executor only when it has pending tasks,
+ * so no thread of the shared executor is ever blocked waiting for a session to be released
+ * as is the case with the semaphore based concurrency control modes.
+ * Mailboxes are removed as soon as they are drained so that the number of mailboxes stays bounded by the number of
+ * sessions having work in progress.
+ */
+public class SessionSerialExecutor {
+	private static final Logger logger = Logger.getLogger(SessionSerialExecutor.class);
+
+	// maximum number of tasks a mailbox runs before giving back its thread to the shared executor
+	public static final int DEFAULT_MAX_TASKS_PER_RUN = 16;
+
+	private final Executor executor;
+	private final int maxTasksPerRun;
+	private final ConcurrentMap<Object, Mailbox> mailboxes = new ConcurrentHashMap<Object, Mailbox>();
+
+	public SessionSerialExecutor(Executor executor) {
+		this(executor, DEFAULT_MAX_TASKS_PER_RUN);
+	}
+
+	public SessionSerialExecutor(Executor executor, int maxTasksPerRun) {
+		if(executor == null) {
+			throw new IllegalArgumentException("the executor cannot be null");
+		}
+		if(maxTasksPerRun < 1) {
+			throw new IllegalArgumentException("maxTasksPerRun should be at least 1");
+		}
+		this.executor = executor;
+		this.maxTasksPerRun = maxTasksPerRun;
+	}
+
+	/**
+	 * Queue the task in the mailbox of the given key.
+	 * The task will run after all tasks previously submitted for the same key have completed.
+	 * @param key the session key the task is serialized against
+	 * @param task the task to run
+	 */
+	public void execute(Object key, Runnable task) {
+		if(key == null) {
+			executor.execute(task);
+			return;
+		}
+		while(true) {
+			Mailbox mailbox = mailboxes.get(key);
+			if(mailbox == null) {
+				mailbox = new Mailbox(key);
+				Mailbox existingMailbox = mailboxes.putIfAbsent(key, mailbox);
+				if(existingMailbox != null) {
+					mailbox = existingMailbox;
+				}
+			}
+			if(mailbox.offer(task)) {
+				return;
+			}
+			// the mailbox was retired concurrently, make sure it is not in the map anymore and retry with a new one
+			mailboxes.remove(key, mailbox);
+		}
+	}
+
+	/**
+	 * Gives an executor view bound to the given key
+	 * @param key the session key the tasks will be serialized against
+	 * @return an executor queuing all its tasks to the mailbox of the key
+	 */
+	public Executor getExecutor(final Object key) {
+		return new Executor() {
+			public void execute(Runnable task) {
+				SessionSerialExecutor.this.execute(key, task);
+			}
+		};
+	}
+
+	/**
+	 * @return the number of keys having tasks queued or running
+	 */
+	public int getNumberOfActiveMailboxes() {
+		return mailboxes.size();
+	}
+
+	/**
+	 * @return the number of tasks queued or running for all keys
+	 */
+	public int getNumberOfPendingTasks() {
+		int pendingTasks = 0;
+		for (Mailbox mailbox : mailboxes.values()) {
+			pendingTasks += Math.max(0, mailbox.pending.get());
+		}
+		return pendingTasks;
+	}
+
+	/**
+	 * Tasks queued for a single key.
+	 * The pending counter is incremented before a task is queued and decremented once it has run,
+	 * the producer moving it from 0 to 1 is responsible for scheduling the mailbox on the shared executor.
+	 * A drained mailbox is retired by moving the counter to -1 so that late producers go to a new mailbox.
+	 */
+	private final class Mailbox implements Runnable {
+		private final Object key;
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+		private final AtomicInteger pending = new AtomicInteger(0);
+
+		Mailbox(Object key) {
+			this.key = key;
+		}
+
+		boolean offer(Runnable task) {
+			int previousPending;
+			do {
+				previousPending = pending.get();
+				if(previousPending < 0) {
+					return false;
+				}
+			} while (!pending.compareAndSet(previousPending, previousPending + 1));
+			tasks.offer(task);
+			if(previousPending == 0) {
+				executor.execute(this);
+			}
+			return true;
+		}
+
+		public void run() {
+			int tasksRun = 0;
+			while(true) {
+				Runnable task = tasks.poll();
+				while(task == null) {
+					// a producer incremented the counter but didn't queue its task yet
+					Thread.yield();
+					task = tasks.poll();
+				}
+				try {
+					task.run();
+				} catch (Throwable t) {
+					logger.error("Unexpected exception while running a serialized task for " + key, t);
+				}
+				tasksRun++;
+				if(pending.decrementAndGet() == 0) {
+					if(pending.compareAndSet(0, -1)) {
+						mailboxes.remove(key, this);
+					}
+					// if the CAS failed, a new task came in and its producer already scheduled this mailbox again
+					return;
+				}
+				if(tasksRun >= maxTasksPerRun) {
+					// give a chance to the other sessions
+					executor.execute(this);
+					return;
+				}
+			}
+		}
+	}
+}
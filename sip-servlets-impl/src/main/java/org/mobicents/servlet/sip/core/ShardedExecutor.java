@@ -0,0 +1,140 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Set of single threaded executors, each with its own queue.<br/>
+ * A task is always executed by the shard selected from the hash of its key (Call-ID or sip application session key),
+ * so all the messages of a given call are processed in order by the same thread
+ * and producers only contend on the queue of the shard they target instead of a single queue shared by all the threads.<br/>
+ * A shard runs its tasks one at a time, so a task blocking, on the semaphore of a session held by an application 
+ * or timer thread in the SipSession and SipApplicationSession concurrency control modes by example, 
+ * delays the other tasks of the shard until it returns.
+ */
+public class ShardedExecutor {
+	private static final Logger logger = Logger.getLogger(ShardedExecutor.class);
+
+	private final ThreadPoolExecutor[] shards;
+
+	public ShardedExecutor(int numberOfShards, final int threadPriority) {
+		if(numberOfShards < 1) {
+			throw new IllegalArgumentException("the number of shards should be at least 1");
+		}
+		shards = new ThreadPoolExecutor[numberOfShards];
+		for (int i = 0; i < numberOfShards; i++) {
+			final int shardIndex = i;
+			shards[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable pRunnable) {
+					Thread thread = new Thread(pRunnable, String.format("%s-%d",
+							"MSS-Executor-Shard", shardIndex));
+					thread.setPriority(threadPriority);
+					return thread;
+				}
+			});
+			shards[i].setRejectedExecutionHandler(new RejectedExecutionHandler(){
+				public void rejectedExecution(Runnable r,
+						ThreadPoolExecutor executor) {
+					logger.warn("Executor job was rejected by shard " + shardIndex + " " + r.toString());
+				}
+			});
+			shards[i].prestartAllCoreThreads();
+		}
+	}
+
+	/**
+	 * Execute the task on the shard of the given key
+	 * @param shardKey the key to select the shard from, if null the first shard is used
+	 * @param task the task to execute
+	 */
+	public void execute(Object shardKey, Runnable task) {
+		getExecutor(shardKey).execute(task);
+	}
+
+	/**
+	 * @param shardKey the key to select the shard from, if null the first shard is used
+	 * @return the executor of the shard for the given key
+	 */
+	public Executor getExecutor(Object shardKey) {
+		return shards[getShardIndex(shardKey)];
+	}
+
+	/**
+	 * @param shardKey the key to select the shard from
+	 * @return the index of the shard for the given key
+	 */
+	public int getShardIndex(Object shardKey) {
+		if(shardKey == null) {
+			return 0;
+		}
+		int hash = shardKey.hashCode();
+		// spread the high bits since the String hashes of the keys tend to differ only in their low bits
+		hash ^= (hash >>> 16);
+		return (hash & 0x7fffffff) % shards.length;
+	}
+
+	public int getNumberOfShards() {
+		return shards.length;
+	}
+
+	/**
+	 * @return the single threaded executor of each shard
+	 */
+	public ThreadPoolExecutor[] getShards() {
+		return shards.clone();
+	}
+
+	/**
+	 * @return the number of tasks waiting in the queue of each shard
+	 */
+	public int[] getQueueSizes() {
+		int[] queueSizes = new int[shards.length];
+		for (int i = 0; i < shards.length; i++) {
+			queueSizes[i] = shards[i].getQueue().size();
+		}
+		return queueSizes;
+	}
+
+	/**
+	 * @return the number of tasks waiting in the queues of all shards
+	 */
+	public int getNumberOfPendingTasks() {
+		int pendingTasks = 0;
+		for (ThreadPoolExecutor shard : shards) {
+			pendingTasks += shard.getQueue().size();
+		}
+		return pendingTasks;
+	}
+
+	public void shutdownNow() {
+		for (ThreadPoolExecutor shard : shards) {
+			shard.shutdownNow();
+		}
+	}
+}
@@ -32,6 +32,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -39,6 +40,8 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ScheduledFuture;
@@ -82,7 +85,6 @@ import javax.sip.Transaction;
 import javax.sip.TransactionAlreadyExistsException;
 import javax.sip.TransactionTerminatedEvent;
 import javax.sip.TransactionUnavailableException;
-import javax.sip.address.Address;
 import javax.sip.address.URI;
 import javax.sip.header.CSeqHeader;
 import javax.sip.header.Header;
@@ -103,21 +105,24 @@ import org.mobicents.javax.servlet.ContainerListener;
 import org.mobicents.servlet.sip.GenericUtils;
 import org.mobicents.servlet.sip.JainSipUtils;
 import org.mobicents.servlet.sip.SipConnector;
-import org.mobicents.servlet.sip.address.AddressImpl;
-import org.mobicents.servlet.sip.address.AddressImpl.ModifiableRule;
 import org.mobicents.servlet.sip.annotation.ConcurrencyControlMode;
 import org.mobicents.servlet.sip.core.b2bua.MobicentsB2BUAHelper;
+import org.mobicents.servlet.sip.core.congestion.CongestionControlEngine;
+import org.mobicents.servlet.sip.core.congestion.SourceRateLimiter;
 import org.mobicents.servlet.sip.core.dispatchers.MessageDispatcher;
 import org.mobicents.servlet.sip.core.dispatchers.MessageDispatcherFactory;
 import org.mobicents.servlet.sip.core.message.MobicentsSipServletRequest;
 import org.mobicents.servlet.sip.core.proxy.MobicentsProxy;
 import org.mobicents.servlet.sip.core.session.DistributableSipManager;
 import org.mobicents.servlet.sip.core.session.MobicentsSipApplicationSession;
+import org.mobicents.servlet.sip.core.session.MobicentsSipApplicationSessionKey;
 import org.mobicents.servlet.sip.core.session.MobicentsSipSession;
 import org.mobicents.servlet.sip.core.session.MobicentsSipSessionKey;
 import org.mobicents.servlet.sip.core.session.SessionManagerUtil;
 import org.mobicents.servlet.sip.core.session.SipApplicationSessionKey;
 import org.mobicents.servlet.sip.listener.SipConnectorListener;
+import org.mobicents.servlet.sip.message.CompactExternalizer;
+import org.mobicents.servlet.sip.message.ExternalizationFormat;
 import org.mobicents.servlet.sip.message.SipFactoryImpl;
 import org.mobicents.servlet.sip.message.SipServletMessageImpl;
 import org.mobicents.servlet.sip.message.SipServletRequestImpl;
@@ -148,9 +153,6 @@ public class SipApplicationDispatcherImpl implements SipApplicationDispatcher, S
 	private static final String[] RFC_SUPPORTED = 
 		{"3261", "3428", "2976", "3265", "3311", "3903", "3515", "3262", "3489", "3327", "3911", "5626", "4916"};
 
-	private static final String[] RESPONSES_PER_CLASS_OF_SC = 
-		{"1XX", "2XX", "3XX", "4XX", "5XX", "6XX", "7XX", "8XX", "9XX"};
-	
 	/**
 	 * Timer task that will gather information about congestion control 
 	 * @author <A HREF="mailto:jean.deruelle@gmail.com">Jean Deruelle</A>
@@ -186,6 +188,8 @@ public class SipApplicationDispatcherImpl implements SipApplicationDispatcher, S
 	//the sip application router responsible for the routing logic of sip messages to
 	//sip servlet applications
 	private SipApplicationRouter sipApplicationRouter = null;
+	// the routes returned by the application router, parsed once
+	private final ApplicationRouterRouteCache applicationRouterRouteCache = new ApplicationRouterRouteCache();
 	//map of applications deployed
 	private Map<String, SipContext> applicationDeployed = null;
 	//map hashes to app names
@@ -204,20 +208,7 @@ public class SipApplicationDispatcherImpl implements SipApplicationDispatcher, S
 	
 	// stats
 	private boolean gatherStatistics = true;
-	private static AtomicLong requestsProcessed = new AtomicLong(0);
-	private static AtomicLong responsesProcessed = new AtomicLong(0);
-	static final Map<String, AtomicLong> requestsProcessedByMethod = new ConcurrentHashMap<String, AtomicLong>();
-	static {
-		for (String method : METHODS_SUPPORTED) {
-			requestsProcessedByMethod.put(method, new AtomicLong(0));
-		}
-	}
-	static final Map<String, AtomicLong> responsesProcessedByStatusCode = new ConcurrentHashMap<String, AtomicLong>();
-	static {
-		for (String classOfSc : RESPONSES_PER_CLASS_OF_SC) {
-			responsesProcessedByStatusCode.put(classOfSc, new AtomicLong(0));
-		}
-	}
+	private static final DispatcherStatistics statistics = new DispatcherStatistics(METHODS_SUPPORTED);
 	// congestion control
 	private boolean memoryToHigh = false;	
 	private double maxMemory;
@@ -229,6 +220,15 @@ public class SipApplicationDispatcherImpl implements SipApplicationDispatcher, S
 	protected transient ScheduledFuture congestionControlTimerFuture;
 	private CongestionControlPolicy congestionControlPolicy;
 	private int numberOfMessagesInQueue;
+	private String congestionControlEngineClassName;
+	private CongestionControlEngine congestionControlEngine;
+	// per source rate limiting of the initial requests, disabled if the rate is 0
+	private int sourceRateLimit;
+	private int sourceRateLimitBurst;
+	private String sourceRateLimitKey = SourceRateLimiter.SourceKey.SourceAddress.toString();
+	// the generator of the ids created by the container, the default one if null
+	private String idGeneratorClassName;
+	private SourceRateLimiter sourceRateLimiter;
 	private double percentageOfMemoryUsed;	
 	private int queueSize;
 	private int backToNormalQueueSize;
@@ -247,6 +247,11 @@ public class SipApplicationDispatcherImpl implements SipApplicationDispatcher, S
 	// This executor is used for async things that don't need to wait on session executors, like CANCEL requests
 	// or when the container is configured to execute every request ASAP without waiting on locks (no concurrency control)
 	private ThreadPoolExecutor asynchronousExecutor = null;
+	// This executor queues the tasks per session on top of the asynchronousExecutor for the serial concurrency control modes
+	private SessionSerialExecutor sessionSerialExecutor = null;
+	// number of single threaded shards the messages are dispatched to depending on their Call-ID or app session, 0 means the asynchronousExecutor is used
+	private int dispatcherShardCount = 0;
+	private ShardedExecutor shardedExecutor = null;
 	
 	// fatcory for dispatching SIP messages
 	private MessageDispatcherFactory messageDispatcherFactory;
@@ -334,6 +339,27 @@ public class SipApplicationDispatcherImpl implements SipApplicationDispatcher, S
 		congestionControlThreadPool = new ScheduledThreadPoolExecutor(2,
 				new ThreadPoolExecutor.CallerRunsPolicy());
 		congestionControlThreadPool.prestartAllCoreThreads();	
+		if(congestionControlEngineClassName != null && congestionControlEngineClassName.trim().length() > 0) {
+			try {
+				congestionControlEngine = (CongestionControlEngine) Class.forName(congestionControlEngineClassName.trim()).newInstance();
+			} catch (Exception e) {
+				throw new IllegalArgumentException("Impossible to load the congestion control engine " + congestionControlEngineClassName, e);
+			}
+		}
+		if(idGeneratorClassName != null && idGeneratorClassName.trim().length() > 0) {
+			try {
+				GenericUtils.setIdGenerator((IdGenerator) Class.forName(idGeneratorClassName.trim()).newInstance());
+			} catch (Exception e) {
+				throw new IllegalArgumentException("Impossible to load the id generator " + idGeneratorClassName, e);
+			}
+		}
+		if(sourceRateLimit > 0) {
+			sourceRateLimiter = new SourceRateLimiter(SourceRateLimiter.SourceKey.valueOf(sourceRateLimitKey), 
+					sourceRateLimit, sourceRateLimitBurst, SourceRateLimiter.DEFAULT_CAPACITY);
+			if(logger.isInfoEnabled()) {
+				logger.info("Limiting the initial requests to " + sourceRateLimit + " per second per " + sourceRateLimitKey);
+			}
+		}
 		logger.info("AsynchronousThreadPoolExecutor size is " + sipService.getDispatcherThreadPoolSize());		
 		asynchronousExecutor = new ThreadPoolExecutor(sipService.getDispatcherThreadPoolSize(), 64, 90, TimeUnit.SECONDS,
 				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
@@ -355,6 +381,18 @@ public class SipApplicationDispatcherImpl implements SipApplicationDispatcher, S
 			}
 			
 		});
+		sessionSerialExecutor = new SessionSerialExecutor(asynchronousExecutor);
+		if(dispatcherShardCount > 0) {
+			logger.info("Dispatching messages to " + dispatcherShardCount + " shards keyed by Call-ID");
+			shardedExecutor = new ShardedExecutor(dispatcherShardCount, ((SipStackImpl)sipStack).getThreadPriority());
+			if(bypassRequestExecutor && bypassResponseExecutor) {
+				logger.warn("Dispatcher shards are configured but both bypassRequestExecutor and bypassResponseExecutor are true, the shards will not be used to process the SIP messages");
+			}
+			if(ConcurrencyControlMode.SipSession.equals(concurrencyControlMode) || ConcurrencyControlMode.SipApplicationSession.equals(concurrencyControlMode)) {
+				logger.info("The dispatcher shards wait for the semaphore of a session held by an application or timer thread, " +
+						"delaying the other calls of the shard meanwhile, the SipSessionSerial and SipApplicationSessionSerial concurrency control modes never wait");
+			}
+		}
 	}
 	/**
 	 * {@inheritDoc}
@@ -380,6 +418,13 @@ public class SipApplicationDispatcherImpl implements SipApplicationDispatcher, S
 		 		logger.info("No Congestion control background task started since the checking interval is equals to " + congestionControlCheckingInterval + " milliseconds.");
 		 	}
 		}
+		if(congestionControlEngine != null) {
+			congestionControlEngine.start(this, congestionControlThreadPool, new CongestionControlEngine.Listener() {
+				public void congestionControlStateChanged(boolean congested, CongestionControlEvent congestionControlEvent) {
+					callbackCongestionControlListener(congested, congestionControlEvent);
+				}
+			});
+		}
 		Version.printVersion();
 		// outbound interfaces set here and not in sipstandardcontext because
 		// depending on jboss or tomcat context can be started before or after
@@ -418,8 +463,14 @@ public class SipApplicationDispatcherImpl implements SipApplicationDispatcher, S
 		} finally {
 			statusLock.unlock();
 		}
+		if(congestionControlEngine != null) {
+			congestionControlEngine.stop();
+		}
 		congestionControlThreadPool.shutdownNow();
-		asynchronousExecutor.shutdownNow();						
+		asynchronousExecutor.shutdownNow();
+		if(shardedExecutor != null) {
+			shardedExecutor.shutdownNow();
+		}
 		sipApplicationRouter.destroy();
 		
 		stopSipStack();				
@@ -577,7 +628,11 @@ public class SipApplicationDispatcherImpl implements SipApplicationDispatcher, S
 	 * Gives the number of pending messages in all queues for all concurrency control modes.
 	 */
 	public int getNumberOfPendingMessages() {
-		return this.asynchronousExecutor.getQueue().size();
+		int size = this.asynchronousExecutor.getQueue().size();
+		if(shardedExecutor != null) {
+			size += shardedExecutor.getNumberOfPendingTasks();
+		}
+		return size;
 //		int size = 0;
 //		Iterator<SipContext> applicationsIterator = this.applicationDeployed
 //				.values().iterator();
@@ -670,6 +725,7 @@ public class SipApplicationDispatcherImpl implements SipApplicationDispatcher, S
 	 * @see javax.sip.SipListener#processRequest(javax.sip.RequestEvent)
 	 */
 	public void processRequest(RequestEvent requestEvent) {			
+		final long receivedTime = System.nanoTime();
 		final SipProvider sipProvider = (SipProvider)requestEvent.getSource();
 		ServerTransaction requestTransaction =  requestEvent.getServerTransaction();
 		final Dialog dialog = requestEvent.getDialog();
@@ -682,23 +738,21 @@ public class SipApplicationDispatcherImpl implements SipApplicationDispatcher, S
 				.getHeader(RouteHeader.NAME);
 		
 		// congestion control is done here only if we drop messages to avoid generating STX 
-		if(CongestionControlPolicy.DropMessage.equals(congestionControlPolicy) && controlCongestion(request, null, dialog, routeHeader, sipProvider)) {
+		if(CongestionControlPolicy.DropMessage.equals(congestionControlPolicy) && isRequestThrottled(requestMethod, dialog, routeHeader)) {
+			logger.error("dropping request, memory is too high or too many messages present in queues");
 			return;
 		}
-		
-		if((rejectSipMessages || memoryToHigh) && CongestionControlPolicy.DropMessage.equals(congestionControlPolicy)) {
-			String method = requestEvent.getRequest().getMethod();
-			boolean goodMethod = method.equals(Request.ACK) || method.equals(Request.PRACK) || method.equals(Request.BYE) || method.equals(Request.CANCEL) || method.equals(Request.UPDATE) || method.equals(Request.INFO);
-			if(logger.isDebugEnabled()) {
-				logger.debug("congestion control good method " + goodMethod + ", dialog "  + dialog + " routeHeader " + routeHeader);
-			}
-			if(!goodMethod) {
-				if(dialog == null && (routeHeader == null || ((Parameters)routeHeader.getAddress().getURI()).getParameter(MessageDispatcher.RR_PARAM_PROXY_APP) == null)) { 
-					logger.error("dropping request, memory is too high or too many messages present in queues");
-					return;
+		// per source rate limiting is done before the server transaction is created so that a flooding source doesn't cost any transaction
+		if(sourceRateLimiter != null && isInitialRequestCandidate(requestMethod, dialog, routeHeader)) {
+			final int retryAfter = sourceRateLimiter.tryAcquire(request);
+			if(retryAfter > 0) {
+				if(logger.isDebugEnabled()) {
+					logger.debug("rejecting request, its source exceeded the rate limit, retry after " + retryAfter + " seconds " + request);
 				}
+				MessageDispatcher.sendErrorResponse(Response.SERVICE_UNAVAILABLE, null, request, sipProvider, retryAfter);
+				return;
 			}
-		}	
+		}
 		
 		try {
 			if(logger.isDebugEnabled()) {
@@ -729,47 +783,21 @@ public class SipApplicationDispatcherImpl implements SipApplicationDispatcher, S
 				logger.debug("Dialog ref "  + dialog);				
 			}
 			
-			final SipServletRequestImpl sipServletRequest = (SipServletRequestImpl) sipFactoryImpl.getMobicentsSipServletMessageFactory().createSipServletRequest(
-						request,
-						null,
-						transaction,
-						dialog,
-						JainSipUtils.DIALOG_CREATING_METHODS.contains(requestMethod));			
 			updateRequestStatistics(request);
-			// Check if the request is meant for me. If so, strip the topmost
-			// Route header.
 			
-			//Popping the router header if it's for the container as
-			//specified in JSR 289 - Section 15.8
-			if(!isRouteExternal(routeHeader)) {
-				request.removeFirst(RouteHeader.NAME);
-				sipServletRequest.setPoppedRoute(routeHeader);
-				final Parameters poppedAddress = (Parameters)routeHeader.getAddress().getURI();
-				if(poppedAddress.getParameter(MessageDispatcher.RR_PARAM_PROXY_APP) != null || 
-						// Issue 2850 :	Use Request-URI custom Mobicents parameters to route request for misbehaving agents, workaround for Cisco-SIPGateway/IOS-12.x user agent 
-						(request.getRequestURI() instanceof javax.sip.address.SipURI && ((Parameters)request.getRequestURI()).getParameter(MessageDispatcher.RR_PARAM_PROXY_APP) != null)) {
-					if(logger.isDebugEnabled()) {
-						logger.debug("the request is for a proxy application, thus it is a subsequent request ");
-					}
-					sipServletRequest.setRoutingState(RoutingState.SUBSEQUENT);
-				}
-				if(transaction != null) {
-					TransactionApplicationData transactionApplicationData = (TransactionApplicationData)transaction.getApplicationData();
-					if(transactionApplicationData != null && transactionApplicationData.getInitialPoppedRoute() == null) {				
-						transactionApplicationData.setInitialPoppedRoute(new AddressImpl(routeHeader.getAddress(), null, ModifiableRule.NotModifiable));
-					}
-				}
-			}							
-			if(logger.isDebugEnabled()) {
-				logger.debug("Routing State " + sipServletRequest.getRoutingState());
+			// congestion control is done here so that the STX is created and a response can be generated back
+			// but before the sip servlet request is created so that rejected requests don't allocate it
+			if(isRequestThrottled(requestMethod, dialog, routeHeader)) {
+				rejectThrottledRequest(request, transaction, dialog, routeHeader, sipProvider);
+				return;
+			}
+			
+			final SipServletRequestImpl sipServletRequest = createReceivedSipServletRequest(request, transaction, dialog, routeHeader);
+			if(gatherStatistics) {
+				sipServletRequest.setReceivedTime(receivedTime);
 			}
 			
 			try {
-				// congestion control is done here so that the STX is created and a response can be generated back
-				// and that 
-				if(controlCongestion(request, sipServletRequest, dialog, routeHeader, sipProvider)) {
-					return;
-				}
 				messageDispatcherFactory.getRequestDispatcher(sipServletRequest, this).
 					dispatchMessage(sipProvider, sipServletRequest);
 			} catch (DispatcherException e) {
@@ -822,68 +850,131 @@ public class SipApplicationDispatcherImpl implements SipApplicationDispatcher, S
 		}
 	}
 
-	private boolean controlCongestion(Request request, SipServletRequestImpl sipServletRequest, Dialog dialog, RouteHeader routeHeader, SipProvider sipProvider) {
-		if(rejectSipMessages || memoryToHigh) {
-			String method = request.getMethod();
-			boolean goodMethod = method.equals(Request.ACK) || method.equals(Request.PRACK) || method.equals(Request.BYE) || method.equals(Request.CANCEL) || method.equals(Request.UPDATE) || method.equals(Request.INFO);
-			if(logger.isDebugEnabled()) {
-				logger.debug("congestion control good method " + goodMethod + ", dialog "  + dialog + " routeHeader " + routeHeader);
-			}
-			if(!goodMethod) {
-				if(dialog == null && (routeHeader == null || ((Parameters)routeHeader.getAddress().getURI()).getParameter(MessageDispatcher.RR_PARAM_PROXY_APP) == null)) {
-					if(CongestionControlPolicy.DropMessage.equals(congestionControlPolicy)) {
-						logger.error("dropping request, memory is too high or too many messages present in queues");
-						return true;
-					}
-					SipServletResponse sipServletResponse = null;
-					String message = null;
-					if(rejectSipMessages) {
-						message = "Number of pending messages in the queues : " + numberOfMessagesInQueue + " > to the queue Size : " + queueSize;
-					} else if (memoryToHigh) {
-						message = "Memory used: " + percentageOfMemoryUsed + "% > to the memory threshold : " + memoryThreshold + "%";
-					}
-					final CongestionControlEvent congestionControlEvent = new CongestionControlEvent(
-							org.mobicents.javax.servlet.CongestionControlEvent.Reason.Memory, message);
-					
-					for (SipContext sipContext : applicationDeployed.values()) {
-						final ContainerListener containerListener = 
-							sipContext.getListeners().getContainerListener();
-						
-						if(containerListener != null) {
-							final ClassLoader oldClassLoader = Thread.currentThread().getContextClassLoader();						
-							try {				
-								sipContext.enterSipContext();							
-								try {				
-									sipServletResponse = containerListener.onRequestThrottled(sipServletRequest, congestionControlEvent);
-								} catch (Throwable t) {
-									logger.error("ContainerListener threw exception", t);
-								}
-							} finally {		
-								sipContext.exitSipContext(oldClassLoader);
-							}
-							
-							if(sipServletResponse != null) {
-								// container listener generated a response, we send it
-								try{
-									((ServerTransaction)sipServletRequest.getTransaction()).sendResponse(((SipServletResponseImpl)sipServletResponse).getResponse());
-//									sipServletResponse.send();
-								} catch (Exception e) {
-									logger.error("Problem while sending the error response " + sipServletResponse + " to the following request "
-											+ request.toString(), e);
-								}
-								return true;
-							}
-						}
+	/**
+	 * Decides from the jain sip request only whether it should be throttled because of congestion,
+	 * so that no sip servlet request is created for the requests that are going to be rejected or dropped.
+	 * Only initial requests are throttled, either because the queue size or memory thresholds are reached
+	 * or because the congestion control engine decides to shed them.
+	 */
+	boolean isRequestThrottled(String method, Dialog dialog, RouteHeader routeHeader) {
+		final boolean thresholdReached = rejectSipMessages || memoryToHigh;
+		if((thresholdReached || congestionControlEngine != null) && isInitialRequestCandidate(method, dialog, routeHeader)) {
+			return thresholdReached || congestionControlEngine.isInitialRequestThrottled();
+		}
+		return false;
+	}
+	
+	/**
+	 * @return true if the request is not part of a dialog established through the container, 
+	 * only those requests are subject to congestion control and rate limiting
+	 */
+	private boolean isInitialRequestCandidate(String method, Dialog dialog, RouteHeader routeHeader) {
+		boolean goodMethod = method.equals(Request.ACK) || method.equals(Request.PRACK) || method.equals(Request.BYE) || method.equals(Request.CANCEL) || method.equals(Request.UPDATE) || method.equals(Request.INFO);
+		if(logger.isDebugEnabled()) {
+			logger.debug("congestion control good method " + goodMethod + ", dialog "  + dialog + " routeHeader " + routeHeader);
+		}
+		return !goodMethod && dialog == null && (routeHeader == null || ((Parameters)routeHeader.getAddress().getURI()).getParameter(MessageDispatcher.RR_PARAM_PROXY_APP) == null);
+	}
+	
+	/**
+	 * Rejects a request throttled because of congestion, the sip servlet request is only created
+	 * if an application implements the container listener and needs to be called back
+	 */
+	private void rejectThrottledRequest(Request request, ServerTransaction transaction, Dialog dialog, RouteHeader routeHeader, SipProvider sipProvider) {
+		SipServletResponse sipServletResponse = null;
+		CongestionControlEvent congestionControlEvent = null;
+		if(rejectSipMessages) {
+			congestionControlEvent = new CongestionControlEvent(org.mobicents.javax.servlet.CongestionControlEvent.Reason.Queue, 
+					"Number of pending messages in the queues : " + numberOfMessagesInQueue + " > to the queue Size : " + queueSize);
+		} else if (memoryToHigh) {
+			congestionControlEvent = new CongestionControlEvent(org.mobicents.javax.servlet.CongestionControlEvent.Reason.Memory, 
+					"Memory used: " + percentageOfMemoryUsed + "% > to the memory threshold : " + memoryThreshold + "%");
+		} else if (congestionControlEngine != null) {
+			congestionControlEvent = congestionControlEngine.getCongestionControlEvent();
+		}
+		if(congestionControlEvent == null) {
+			congestionControlEvent = new CongestionControlEvent(org.mobicents.javax.servlet.CongestionControlEvent.Reason.Queue, null);
+		}
+		
+		SipServletRequestImpl sipServletRequest = null;
+		for (SipContext sipContext : applicationDeployed.values()) {
+			final ContainerListener containerListener = 
+				sipContext.getListeners().getContainerListener();
+			
+			if(containerListener != null) {
+				if(sipServletRequest == null) {
+					sipServletRequest = createReceivedSipServletRequest(request, transaction, dialog, routeHeader);
+				}
+				final ClassLoader oldClassLoader = Thread.currentThread().getContextClassLoader();						
+				try {				
+					sipContext.enterSipContext();							
+					try {				
+						sipServletResponse = containerListener.onRequestThrottled(sipServletRequest, congestionControlEvent);
+					} catch (Throwable t) {
+						logger.error("ContainerListener threw exception", t);
 					}
-					// no application implements the container listener or the container listener didn't generate any responses so we send back a generic one.
-					if(sipServletResponse == null) {
-						MessageDispatcher.sendErrorResponse(Response.SERVICE_UNAVAILABLE, (ServerTransaction) sipServletRequest.getTransaction(), request, sipProvider);
-						return true;
+				} finally {		
+					sipContext.exitSipContext(oldClassLoader);
+				}
+				
+				if(sipServletResponse != null) {
+					// container listener generated a response, we send it
+					try{
+						transaction.sendResponse(((SipServletResponseImpl)sipServletResponse).getResponse());
+					} catch (Exception e) {
+						logger.error("Problem while sending the error response " + sipServletResponse + " to the following request "
+								+ request.toString(), e);
 					}
+					return;
 				}
 			}
 		}
-		return false;
+		// no application implements the container listener or the container listener didn't generate any responses so we send back a generic one.
+		// the thresholds are only checked again after the checking interval while the congestion control engine adapts continuously
+		final int retryAfter = (rejectSipMessages || memoryToHigh) ? (int) Math.max(1, congestionControlCheckingInterval / 1000) : 1;
+		MessageDispatcher.sendErrorResponse(Response.SERVICE_UNAVAILABLE, transaction, request, sipProvider, retryAfter);
+	}
+	
+	/**
+	 * Wraps a received jain sip request into the sip servlet request handed over to the applications
+	 * and pops the topmost route header if it is meant for the container
+	 */
+	private SipServletRequestImpl createReceivedSipServletRequest(Request request, ServerTransaction transaction, Dialog dialog, RouteHeader routeHeader) {
+		final SipServletRequestImpl sipServletRequest = (SipServletRequestImpl) sipFactoryImpl.getMobicentsSipServletMessageFactory().createSipServletRequest(
+					request,
+					null,
+					transaction,
+					dialog,
+					JainSipUtils.DIALOG_CREATING_METHODS.contains(request.getMethod()));
+		// Check if the request is meant for me. If so, strip the topmost
+		// Route header.
+		
+		//Popping the router header if it's for the container as
+		//specified in JSR 289 - Section 15.8
+		if(!isRouteExternal(routeHeader)) {
+			request.removeFirst(RouteHeader.NAME);
+			// the popped route address is only created if the application asks for it
+			sipServletRequest.setPoppedRoute(routeHeader);
+			final Parameters poppedAddress = (Parameters)routeHeader.getAddress().getURI();
+			if(poppedAddress.getParameter(MessageDispatcher.RR_PARAM_PROXY_APP) != null || 
+					// Issue 2850 :	Use Request-URI custom Mobicents parameters to route request for misbehaving agents, workaround for Cisco-SIPGateway/IOS-12.x user agent 
+					(request.getRequestURI() instanceof javax.sip.address.SipURI && ((Parameters)request.getRequestURI()).getParameter(MessageDispatcher.RR_PARAM_PROXY_APP) != null)) {
+				if(logger.isDebugEnabled()) {
+					logger.debug("the request is for a proxy application, thus it is a subsequent request ");
+				}
+				sipServletRequest.setRoutingState(RoutingState.SUBSEQUENT);
+			}
+			if(transaction != null) {
+				TransactionApplicationData transactionApplicationData = (TransactionApplicationData)transaction.getApplicationData();
+				if(transactionApplicationData != null && !transactionApplicationData.hasInitialPoppedRoute()) {				
+					transactionApplicationData.setInitialPoppedRouteHeader(routeHeader);
+				}
+			}
+		}							
+		if(logger.isDebugEnabled()) {
+			logger.debug("Routing State " + sipServletRequest.getRoutingState());
+		}
+		return sipServletRequest;
 	}
 	
 	/**
@@ -891,14 +982,7 @@ public class SipApplicationDispatcherImpl implements SipApplicationDispatcher, S
 	 */
 	private void updateRequestStatistics(final Request request) {
 		if(gatherStatistics) {
-			requestsProcessed.incrementAndGet();
-			final String method = request.getMethod();
-			final AtomicLong requestsProcessed = requestsProcessedByMethod.get(method);
-			if(requestsProcessed == null) {
-				requestsProcessedByMethod.put(method, new AtomicLong());
-			} else {
-				requestsProcessed.incrementAndGet();
-			}
+			statistics.requestProcessed(request.getMethod());
 		}
 	}
 	
@@ -907,38 +991,17 @@ public class SipApplicationDispatcherImpl implements SipApplicationDispatcher, S
 	 */
 	private void updateResponseStatistics(final Response response) {
 		if(gatherStatistics) {
-			responsesProcessed.incrementAndGet();	
-			final int statusCode = response.getStatusCode();
-			int statusCodeDiv = statusCode / 100;
-			switch (statusCodeDiv) {
-				case 1:
-					responsesProcessedByStatusCode.get("1XX").incrementAndGet();
-					break;
-				case 2:
-					responsesProcessedByStatusCode.get("2XX").incrementAndGet();
-					break;
-				case 3:
-					responsesProcessedByStatusCode.get("3XX").incrementAndGet();
-					break;
-				case 4:
-					responsesProcessedByStatusCode.get("4XX").incrementAndGet();
-					break;
-				case 5:
-					responsesProcessedByStatusCode.get("5XX").incrementAndGet();
-					break;
-				case 6:
-					responsesProcessedByStatusCode.get("6XX").incrementAndGet();
-					break;
-				case 7:
-					responsesProcessedByStatusCode.get("7XX").incrementAndGet();
-					break;
-				case 8:
-					responsesProcessedByStatusCode.get("8XX").incrementAndGet();
-					break;
-				case 9:
-					responsesProcessedByStatusCode.get("9XX").incrementAndGet();
-					break;
-			}			
+			statistics.responseProcessed(response.getStatusCode());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.SipApplicationDispatcher#updateRequestProcessingTime(java.lang.String, long)
+	 */
+	public void updateRequestProcessingTime(String method, long processingTime) {
+		if(gatherStatistics) {
+			statistics.requestProcessingTime(method, processingTime);
 		}
 	}
 
@@ -1713,13 +1776,12 @@ public class SipApplicationDispatcherImpl implements SipApplicationDispatcher, S
 			// ROUTE modifier indicates that SipApplicationRouterInfo.getRoute() returns a valid route,
 			// it is up to container to decide whether it is external or internal.
 			if(SipRouteModifier.ROUTE.equals(sipRouteModifier)) {						
-				final Address routeAddress = SipFactoryImpl.addressFactory.createAddress(routes[0]);
-				final RouteHeader applicationRouterInfoRouteHeader = SipFactoryImpl.headerFactory.createRouteHeader(routeAddress);									
+				final RouteHeader applicationRouterInfoRouteHeader = applicationRouterRouteCache.createRouteHeader(routes[0]);									
 				if(isRouteExternal(applicationRouterInfoRouteHeader)) {				
 					// push all of the routes on the Route header stack of the request and 
 					// send the request externally
 					for (int i = routes.length-1 ; i >= 0; i--) {
-						RouteHeader routeHeader = (RouteHeader) SipFactoryImpl.headerFactory.createHeader(RouteHeader.NAME, routes[i]);
+						RouteHeader routeHeader = i == 0 ? applicationRouterInfoRouteHeader : applicationRouterRouteCache.createRouteHeader(routes[i]);
 						URI routeURI = routeHeader.getAddress().getURI();
 						if(routeURI.isSipURI()) {
 							((javax.sip.address.SipURI)routeURI).setLrParam();
@@ -1736,7 +1798,7 @@ public class SipApplicationDispatcherImpl implements SipApplicationDispatcher, S
 				// push all of the routes on the Route header stack of the request and 
 				// send the request externally
 				for (int i = routes.length-1 ; i >= 0; i--) {
-					routeHeader = SipFactoryImpl.headerFactory.createHeader(RouteHeader.NAME, routes[i]);
+					routeHeader = applicationRouterRouteCache.createRouteHeader(routes[i]);
 					request.addHeader(routeHeader);
 				}
 			}
@@ -1750,6 +1812,36 @@ public class SipApplicationDispatcherImpl implements SipApplicationDispatcher, S
 	public ThreadPoolExecutor getAsynchronousExecutor() {
 		return asynchronousExecutor;
 	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.SipApplicationDispatcher#getConcurrencyModelExecutor(org.mobicents.servlet.sip.core.SipContext, org.mobicents.servlet.sip.core.session.MobicentsSipApplicationSessionKey, org.mobicents.servlet.sip.core.session.MobicentsSipSessionKey)
+	 */
+	public Executor getConcurrencyModelExecutor(SipContext sipContext, MobicentsSipApplicationSessionKey sipApplicationSessionKey, MobicentsSipSessionKey sipSessionKey) {
+		if(sipContext != null) {
+			if(ConcurrencyControlMode.SipSessionSerial.equals(sipContext.getConcurrencyControlMode()) && sipSessionKey != null) {
+				return sessionSerialExecutor.getExecutor(sipSessionKey);
+			}
+			// the tasks on the sip application session only, such as its timers, are serialized on the sip application session in both serial modes
+			if(MessageDispatcher.isSerialConcurrencyControlMode(sipContext) && sipApplicationSessionKey != null) {
+				return sessionSerialExecutor.getExecutor(sipApplicationSessionKey);
+			}
+		}
+		if(shardedExecutor != null) {
+			// all the sessions of an app session, the legs of a B2BUA by example, go to the same shard
+			if(sipApplicationSessionKey != null) {
+				return shardedExecutor.getExecutor(sipApplicationSessionKey);
+			}
+			if(sipSessionKey != null) {
+				return shardedExecutor.getExecutor(sipSessionKey.getCallId());
+			}
+		}
+		return asynchronousExecutor;
+	}
+	
+	public SessionSerialExecutor getSessionSerialExecutor() {
+		return sessionSerialExecutor;
+	}
 
 	/**
 	 * Serialize the state info in memory and deserialize it and return the new object. 
@@ -1905,6 +1997,7 @@ public class SipApplicationDispatcherImpl implements SipApplicationDispatcher, S
 		if(this.sipApplicationRouter instanceof ManageableApplicationRouter) {
 			ManageableApplicationRouter router = (ManageableApplicationRouter) this.sipApplicationRouter;
 			router.configure(configuration);
+			applicationRouterRouteCache.clear();
 		} else {
 			throw new RuntimeException("This application router is not manageable");
 		}
@@ -1923,6 +2016,7 @@ public class SipApplicationDispatcherImpl implements SipApplicationDispatcher, S
 		if(this.sipApplicationRouter instanceof ManageableApplicationRouter) {
 			ManageableApplicationRouter router = (ManageableApplicationRouter) this.sipApplicationRouter;
 			router.configure(configuration);
+			applicationRouterRouteCache.clear();
 		} else {
 			throw new RuntimeException("This application router is not manageable");
 		}
@@ -1961,47 +2055,63 @@ public class SipApplicationDispatcherImpl implements SipApplicationDispatcher, S
 	 * @return the requestsProcessed
 	 */
 	public long getRequestsProcessed() {
-		return requestsProcessed.get();
+		return statistics.getRequestsProcessed();
 	}
 	
 	/**
 	 * @return the requestsProcessedByMethod
 	 */
 	public Map<String, AtomicLong> getRequestsProcessedByMethod() {		
-		return requestsProcessedByMethod;
+		return statistics.getRequestsProcessedByMethod();
 	}
 
 	/**
 	 * @return the responsesProcessedByStatusCode
 	 */
 	public Map<String, AtomicLong> getResponsesProcessedByStatusCode() {		
-		return responsesProcessedByStatusCode;
+		return statistics.getResponsesProcessedByStatusCode();
 	}
 	
 	/**
 	 * @return the requestsProcessed
 	 */
 	public long getRequestsProcessedByMethod(String method) {
-		AtomicLong requestsProcessed = requestsProcessedByMethod.get(method);
-		if(requestsProcessed != null) {
-			return requestsProcessed.get();
-		}
-		return 0;
+		return statistics.getRequestsProcessedByMethod(method);
 	}
 	
 	public long getResponsesProcessedByStatusCode(String statusCode) {
-		AtomicLong responsesProcessed = responsesProcessedByStatusCode.get(statusCode);
-		if(responsesProcessed != null) {
-			return responsesProcessed.get();
-		}
-		return 0;
+		return statistics.getResponsesProcessedByStatusCode(statusCode);
 	}
 	
 	/**
 	 * @return the requestsProcessed
 	 */
 	public long getResponsesProcessed() {
-		return responsesProcessed.get();
+		return statistics.getResponsesProcessed();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.SipApplicationDispatcherImplMBean#getRequestProcessingTimeHistogramByMethod()
+	 */
+	public Map<String, long[]> getRequestProcessingTimeHistogramByMethod() {
+		return statistics.getRequestProcessingTimeHistogramByMethod();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.SipApplicationDispatcherImplMBean#getRequestProcessingTimeHistogramBuckets()
+	 */
+	public long[] getRequestProcessingTimeHistogramBuckets() {
+		return DispatcherStatistics.PROCESSING_TIME_BUCKETS.clone();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.SipApplicationDispatcherImplMBean#getAverageRequestProcessingTimeByMethod()
+	 */
+	public Map<String, Long> getAverageRequestProcessingTimeByMethod() {
+		return statistics.getAverageRequestProcessingTimeByMethod();
 	}
 
 	/**
@@ -2138,6 +2248,191 @@ public class SipApplicationDispatcherImpl implements SipApplicationDispatcher, S
 		return bypassResponseExecutor;
 	}
 
+	/**
+	 * @param dispatcherShardCount the number of single threaded shards to dispatch the messages to, 0 to use the shared thread pool
+	 */
+	public void setDispatcherShardCount(int dispatcherShardCount) {
+		if(dispatcherShardCount < 0) {
+			throw new IllegalArgumentException("It's forbidden to set the Dispatcher Shard Count to a negative value");
+		}
+		this.dispatcherShardCount = dispatcherShardCount;
+		if(logger.isInfoEnabled()) {
+			logger.info("Dispatcher Shard Count set to " + this.dispatcherShardCount);
+		}
+	}
+
+	/**
+	 * @return the dispatcherShardCount
+	 */
+	public int getDispatcherShardCount() {
+		return dispatcherShardCount;
+	}
+
+	/**
+	 * @param congestionControlEngineClassName the class name of the {@link CongestionControlEngine} throttling the initial requests
+	 * in addition to the queue size and memory thresholds, null or empty for none
+	 */
+	public void setCongestionControlEngineClassName(String congestionControlEngineClassName) {
+		this.congestionControlEngineClassName = congestionControlEngineClassName;
+		if(logger.isInfoEnabled()) {
+			logger.info("Congestion Control Engine set to " + congestionControlEngineClassName);
+		}
+	}
+
+	/**
+	 * @return the congestionControlEngineClassName
+	 */
+	public String getCongestionControlEngineClassName() {
+		return congestionControlEngineClassName;
+	}
+
+	/**
+	 * @param sourceRateLimit the number of initial requests per second accepted from a source, 0 to disable the rate limiting
+	 */
+	public void setSourceRateLimit(int sourceRateLimit) {
+		if(sourceRateLimit < 0) {
+			throw new IllegalArgumentException("It's forbidden to set the Source Rate Limit to a negative value");
+		}
+		this.sourceRateLimit = sourceRateLimit;
+		if(logger.isInfoEnabled()) {
+			logger.info("Source Rate Limit set to " + sourceRateLimit);
+		}
+	}
+
+	/**
+	 * @return the sourceRateLimit
+	 */
+	public int getSourceRateLimit() {
+		return sourceRateLimit;
+	}
+
+	/**
+	 * @param sourceRateLimitBurst the number of initial requests a source can send at once, the rate limit is used if 0
+	 */
+	public void setSourceRateLimitBurst(int sourceRateLimitBurst) {
+		this.sourceRateLimitBurst = sourceRateLimitBurst;
+	}
+
+	/**
+	 * @return the sourceRateLimitBurst
+	 */
+	public int getSourceRateLimitBurst() {
+		return sourceRateLimitBurst;
+	}
+
+	/**
+	 * @param sourceRateLimitKey what identifies the source of a request, SourceAddress or FromDomain
+	 */
+	public void setSourceRateLimitKey(String sourceRateLimitKey) {
+		this.sourceRateLimitKey = SourceRateLimiter.SourceKey.valueOf(sourceRateLimitKey).toString();
+	}
+
+	/**
+	 * @return the sourceRateLimitKey
+	 */
+	public String getSourceRateLimitKey() {
+		return sourceRateLimitKey;
+	}
+
+	/**
+	 * @param idGeneratorClassName the class name of the {@link IdGenerator} of the ids created by the container,
+	 * null or empty for the default one
+	 */
+	public void setIdGeneratorClassName(String idGeneratorClassName) {
+		this.idGeneratorClassName = idGeneratorClassName;
+		if(logger.isInfoEnabled()) {
+			logger.info("Id Generator set to " + idGeneratorClassName);
+		}
+	}
+
+	/**
+	 * @return the idGeneratorClassName
+	 */
+	public String getIdGeneratorClassName() {
+		return idGeneratorClassName;
+	}
+
+	/**
+	 * @param externalizationFormat the name of the {@link ExternalizationFormat} in which the messages and proxies are externalized,
+	 * null or empty for the legacy one
+	 */
+	public void setExternalizationFormat(String externalizationFormat) {
+		if(externalizationFormat == null || externalizationFormat.trim().length() == 0) {
+			CompactExternalizer.setFormat(ExternalizationFormat.Legacy);
+		} else {
+			CompactExternalizer.setFormat(ExternalizationFormat.valueOf(externalizationFormat.trim()));
+		}
+		if(logger.isInfoEnabled()) {
+			logger.info("Externalization format set to " + CompactExternalizer.getFormat());
+		}
+	}
+
+	/**
+	 * @return the name of the format in which the messages and proxies are externalized
+	 */
+	public String getExternalizationFormat() {
+		return CompactExternalizer.getFormat().toString();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.SipApplicationDispatcherImplMBean#getNumberOfRequestsRejectedBySourceRateLimit()
+	 */
+	public long getNumberOfRequestsRejectedBySourceRateLimit() {
+		if(sourceRateLimiter == null) {
+			return 0;
+		}
+		return sourceRateLimiter.getNumberOfRejectedRequests();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.SipApplicationDispatcherImplMBean#getApplicationRouterRouteCacheHits()
+	 */
+	public long getApplicationRouterRouteCacheHits() {
+		return applicationRouterRouteCache.getHits();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.SipApplicationDispatcherImplMBean#getApplicationRouterRouteCacheHitRate()
+	 */
+	public double getApplicationRouterRouteCacheHitRate() {
+		return applicationRouterRouteCache.getHitRate();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.SipApplicationDispatcherImplMBean#getRequestsRejectedBySource()
+	 */
+	public Map<String, Long> getRequestsRejectedBySource() {
+		if(sourceRateLimiter == null) {
+			return new HashMap<String, Long>();
+		}
+		return sourceRateLimiter.getRejectedRequestsBySource();
+	}
+	
+	/**
+	 * @return the number of messages waiting in the queue of each dispatcher shard, an empty array if the messages are not sharded
+	 */
+	public int[] getDispatcherShardQueueSizes() {
+		if(shardedExecutor == null) {
+			return new int[0];
+		}
+		return shardedExecutor.getQueueSizes();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.SipApplicationDispatcher#getDispatcherShardExecutors()
+	 */
+	public ExecutorService[] getDispatcherShardExecutors() {
+		if(shardedExecutor == null) {
+			return new ExecutorService[0];
+		}
+		return shardedExecutor.getShards();
+	}
+
 	/**
 	 * @param baseTimerInterval the baseTimerInterval to set
 	 */
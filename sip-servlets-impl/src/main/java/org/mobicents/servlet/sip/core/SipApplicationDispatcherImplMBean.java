@@ -22,6 +22,8 @@
 
 package org.mobicents.servlet.sip.core;
 
+import java.util.Map;
+
 
 
 
@@ -34,4 +36,41 @@ package org.mobicents.servlet.sip.core;
 
 public interface SipApplicationDispatcherImplMBean extends SipApplicationDispatcher {
 
+	int[] getDispatcherShardQueueSizes();
+
+	/**
+	 * @return for each method, the number of requests whose processing time, from reception to servlet return,
+	 * falls in each bucket of {@link #getRequestProcessingTimeHistogramBuckets()}, the last bucket holding the longer times
+	 */
+	Map<String, long[]> getRequestProcessingTimeHistogramByMethod();
+
+	/**
+	 * @return the upper bounds in milliseconds of the request processing time buckets
+	 */
+	long[] getRequestProcessingTimeHistogramBuckets();
+
+	/**
+	 * @return for each method, the average processing time of the requests in microseconds
+	 */
+	Map<String, Long> getAverageRequestProcessingTimeByMethod();
+
+	/**
+	 * @return the number of initial requests rejected because their source exceeded the source rate limit
+	 */
+	long getNumberOfRequestsRejectedBySourceRateLimit();
+
+	/**
+	 * @return the number of routes returned by the application router found already parsed
+	 */
+	long getApplicationRouterRouteCacheHits();
+
+	/**
+	 * @return the ratio of the routes returned by the application router found already parsed, between 0 and 1
+	 */
+	double getApplicationRouterRouteCacheHitRate();
+
+	/**
+	 * @return for each source currently tracked by the source rate limiter, the number of initial requests rejected
+	 */
+	Map<String, Long> getRequestsRejectedBySource();
 }
@@ -0,0 +1,123 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed number of counters striped across threads.<br/>
+ * Each thread updates the counters of the stripe its id hashes to, every stripe starting on its own cache line,
+ * so that threads incrementing the same counter concurrently don't invalidate each other's cache lines.
+ * Reading a counter sums it over all the stripes, it is therefore meant for counters updated much more often than read,
+ * such as the message statistics of the container.
+ */
+public class StripedCounters {
+
+	// 64 bytes cache lines
+	private static final int CACHE_LINE_LONGS = 8;
+	private static final int MAX_STRIPES = 64;
+	private static final int STRIPE_BITS;
+	static {
+		final int targetStripes = Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors() * 2);
+		int stripeBits = 1;
+		while((1 << stripeBits) < targetStripes) {
+			stripeBits++;
+		}
+		STRIPE_BITS = stripeBits;
+	}
+	private static final int STRIPES = 1 << STRIPE_BITS;
+
+	private final int width;
+	private final int stripeLength;
+	private final AtomicLongArray cells;
+
+	/**
+	 * @param width the number of counters
+	 */
+	public StripedCounters(int width) {
+		if(width <= 0) {
+			throw new IllegalArgumentException("width must be greater than 0 : " + width);
+		}
+		this.width = width;
+		this.stripeLength = ((width + CACHE_LINE_LONGS - 1) / CACHE_LINE_LONGS) * CACHE_LINE_LONGS;
+		// the first cache line is left empty so that the first stripe doesn't share its line with the array header
+		this.cells = new AtomicLongArray(CACHE_LINE_LONGS + STRIPES * stripeLength);
+	}
+
+	public void increment(int index) {
+		add(index, 1);
+	}
+
+	public void add(int index, long delta) {
+		if(index < 0 || index >= width) {
+			throw new IndexOutOfBoundsException("index " + index + " out of [0, " + width + "[");
+		}
+		cells.getAndAdd(CACHE_LINE_LONGS + stripeIndex() * stripeLength + index, delta);
+	}
+
+	/**
+	 * @return the value of the counter at the given index, summed over all the stripes
+	 */
+	public long sum(int index) {
+		if(index < 0 || index >= width) {
+			throw new IndexOutOfBoundsException("index " + index + " out of [0, " + width + "[");
+		}
+		long sum = 0;
+		for (int i = CACHE_LINE_LONGS + index; i < cells.length(); i += stripeLength) {
+			sum += cells.get(i);
+		}
+		return sum;
+	}
+
+	/**
+	 * @return the values of all the counters, summed over all the stripes
+	 */
+	public long[] sums() {
+		final long[] sums = new long[width];
+		for (int stripe = 0; stripe < STRIPES; stripe++) {
+			final int offset = CACHE_LINE_LONGS + stripe * stripeLength;
+			for (int index = 0; index < width; index++) {
+				sums[index] += cells.get(offset + index);
+			}
+		}
+		return sums;
+	}
+
+	/**
+	 * @return the sum of all the counters
+	 */
+	public long total() {
+		long total = 0;
+		for (long sum : sums()) {
+			total += sum;
+		}
+		return total;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	private static int stripeIndex() {
+		final long threadId = Thread.currentThread().getId();
+		// fibonacci hashing so that consecutive thread ids end up in different stripes
+		return ((int) (threadId ^ (threadId >>> 32)) * 0x9E3779B9) >>> (32 - STRIPE_BITS);
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+import org.mobicents.servlet.sip.GenericUtils;
+
+/**
+ * Default {@link IdGenerator}.<br/>
+ * Instead of {@link java.util.UUID#randomUUID()}, whose threads all contend on a shared {@link SecureRandom},
+ * each thread draws its ids from its own xorshift128+ generator, seeded once from a {@link SecureRandom},
+ * and formats them in a buffer of its own, so that generating an id only allocates the resulting string.
+ * The ids keep the format of version 4 UUIDs with 122 random bits.<br/>
+ * The state of a xorshift128+ generator can be recovered from a few of its outputs, which are seen on the wire in the branches,
+ * so the sip application session ids are drawn instead from a {@link SecureRandom} of each thread, seeded from the shared one.<br/>
+ * The ids of the application keys are the ones the container has always computed, the truncated SHA-1 hash of the key,
+ * so that they stay the same across the nodes of a cluster running different versions and in the sessions already persisted.
+ */
+public class ThreadLocalIdGenerator implements IdGenerator {
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private static final SecureRandom seeds = new SecureRandom();
+
+	private static final ThreadLocal<Generator> generators = new ThreadLocal<Generator>() {
+		@Override
+		protected Generator initialValue() {
+			long seed0;
+			long seed1;
+			synchronized (seeds) {
+				seed0 = seeds.nextLong();
+				seed1 = seeds.nextLong();
+			}
+			if((seed0 | seed1) == 0) {
+				seed1 = 1;
+			}
+			return new Generator(seed0, seed1);
+		}
+	};
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.IdGenerator#generateId()
+	 */
+	public String generateId() {
+		final Generator generator = generators.get();
+		return formatUuid(generator.nextLong(), generator.nextLong(), generator.chars);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.IdGenerator#generateApplicationSessionId()
+	 */
+	public String generateApplicationSessionId() {
+		final Generator generator = generators.get();
+		final SecureRandom secureRandom = generator.getSecureRandom();
+		return formatUuid(secureRandom.nextLong(), secureRandom.nextLong(), generator.chars);
+	}
+
+	private static String formatUuid(long random0, long random1, char[] chars) {
+		// version 4 and IETF variant bits, as in java.util.UUID
+		final long mostSigBits = (random0 & ~0xf000L) | 0x4000L;
+		final long leastSigBits = (random1 & 0x3fffffffffffffffL) | 0x8000000000000000L;
+		formatHex(mostSigBits >>> 32, chars, 0, 8);
+		chars[8] = '-';
+		formatHex(mostSigBits >>> 16, chars, 9, 4);
+		chars[13] = '-';
+		formatHex(mostSigBits, chars, 14, 4);
+		chars[18] = '-';
+		formatHex(leastSigBits >>> 48, chars, 19, 4);
+		chars[23] = '-';
+		formatHex(leastSigBits, chars, 24, 12);
+		return new String(chars);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.IdGenerator#generateTag()
+	 */
+	public String generateTag() {
+		final Generator generator = generators.get();
+		formatHex(generator.nextLong(), generator.chars, 0, 8);
+		return new String(generator.chars, 0, 8);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.IdGenerator#hashApplicationKey(java.lang.String)
+	 */
+	public String hashApplicationKey(String applicationKey) {
+		return GenericUtils.hashString(applicationKey);
+	}
+
+	/**
+	 * Writes the given number of lowest hex digits of the value in the chars
+	 */
+	protected static void formatHex(long value, char[] chars, int offset, int digits) {
+		for (int i = offset + digits - 1; i >= offset; i--) {
+			chars[i] = HEX_DIGITS[(int) value & 0xf];
+			value >>>= 4;
+		}
+	}
+
+	private static final class Generator {
+		private long s0;
+		private long s1;
+		private final char[] chars = new char[36];
+		// created on first use, only the threads creating sip application sessions need one
+		private SecureRandom secureRandom;
+
+		private Generator(long s0, long s1) {
+			this.s0 = s0;
+			this.s1 = s1;
+		}
+
+		private SecureRandom getSecureRandom() {
+			if(secureRandom == null) {
+				final byte[] seed = new byte[32];
+				synchronized (seeds) {
+					seeds.nextBytes(seed);
+				}
+				try {
+					// the default algorithm of the platform may read from a source shared by all the threads
+					secureRandom = SecureRandom.getInstance("SHA1PRNG");
+				} catch (NoSuchAlgorithmException e) {
+					secureRandom = new SecureRandom();
+				}
+				secureRandom.setSeed(seed);
+			}
+			return secureRandom;
+		}
+
+		// xorshift128+
+		private long nextLong() {
+			long x = s0;
+			final long y = s1;
+			s0 = y;
+			x ^= x << 23;
+			s1 = x ^ y ^ (x >>> 17) ^ (y >>> 26);
+			return s1 + y;
+		}
+	}
+}
@@ -0,0 +1,316 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.congestion;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.mobicents.javax.servlet.CongestionControlEvent;
+import org.mobicents.javax.servlet.CongestionControlEvent.Reason;
+import org.mobicents.servlet.sip.core.SipApplicationDispatcher;
+
+/**
+ * Congestion control engine sampling the load of the container every {@link #DEFAULT_SAMPLING_INTERVAL} ms
+ * and admitting the initial requests with a probability adjusted to the load.<br/>
+ * Two signals are sampled :
+ * <ul>
+ * <li>the queue delay of the executors of the dispatcher, the asynchronous executor and the dispatcher shards if any, 
+ * measured by a probe task going through the queue of each of them, the longest delay being retained.
+ * As in CoDel, the executors are considered overloaded when the queue delay stays above the target delay for a whole interval,
+ * so that a short burst doesn't trigger the congestion control</li>
+ * <li>the ratio of the sampling interval spent in garbage collection</li>
+ * </ul>
+ * While one of them is overloaded, the admission probability is decreased multiplicatively, and it is increased additively
+ * otherwise (AIMD), so that the container sheds just enough initial requests instead of flapping between accepting
+ * and rejecting all of them. Requests within a dialog are never throttled by the engine.<br/>
+ * The saturation of the executors, the ratio of their threads busy, is sampled as well : while it is above 
+ * {@link #MAX_EXECUTOR_SATURATION} with tasks waiting in their queues, a queue delay going back under the target doesn't end 
+ * the interval it has been above the target since, and the admission probability isn't increased.
+ */
+public class AdaptiveCongestionControlEngine implements CongestionControlEngine {
+
+	private static final Logger logger = Logger.getLogger(AdaptiveCongestionControlEngine.class);
+
+	public static final long DEFAULT_SAMPLING_INTERVAL = 100;
+	public static final long DEFAULT_TARGET_QUEUE_DELAY = 50;
+	public static final long DEFAULT_QUEUE_DELAY_INTERVAL = 500;
+	public static final double DEFAULT_MAX_GC_TIME_RATIO = 0.3;
+	public static final double DECREASE_FACTOR = 0.9;
+	public static final double INCREASE_STEP = 0.02;
+	public static final double MIN_ADMISSION_PROBABILITY = 0.05;
+	public static final double MAX_EXECUTOR_SATURATION = 0.9;
+
+	private static final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+		@Override
+		protected Random initialValue() {
+			return new Random();
+		}
+	};
+
+	private final long samplingInterval;
+	private final long targetQueueDelay;
+	private final long queueDelayInterval;
+	private final double maxGcTimeRatio;
+
+	private SipApplicationDispatcher sipApplicationDispatcher;
+	private Listener listener;
+	private ScheduledFuture<?> samplingFuture;
+
+	private volatile double admissionProbability = 1;
+	private volatile CongestionControlEvent congestionControlEvent;
+	private volatile double executorSaturation;
+	private volatile int queuedTasks;
+	// the fields below are only accessed by the sampling task
+	private final Map<ExecutorService, Probe> probes = new IdentityHashMap<ExecutorService, Probe>();
+	private long queueDelay;
+	private long queueDelayAboveTargetSince;
+	private double gcTimeRatio;
+	private long lastSampleTime;
+	private long lastGcTime;
+
+	public AdaptiveCongestionControlEngine() {
+		this(DEFAULT_SAMPLING_INTERVAL, DEFAULT_TARGET_QUEUE_DELAY, DEFAULT_QUEUE_DELAY_INTERVAL, DEFAULT_MAX_GC_TIME_RATIO);
+	}
+
+	/**
+	 * @param samplingInterval the interval in milliseconds between two samples of the load
+	 * @param targetQueueDelay the queue delay in milliseconds above which the executor may be overloaded
+	 * @param queueDelayInterval the time in milliseconds the queue delay has to stay above the target for the executor to be overloaded
+	 * @param maxGcTimeRatio the ratio of time spent in garbage collection above which the container is overloaded
+	 */
+	public AdaptiveCongestionControlEngine(long samplingInterval, long targetQueueDelay, long queueDelayInterval, double maxGcTimeRatio) {
+		if(samplingInterval <= 0) {
+			throw new IllegalArgumentException("samplingInterval must be greater than 0 : " + samplingInterval);
+		}
+		this.samplingInterval = samplingInterval;
+		this.targetQueueDelay = TimeUnit.MILLISECONDS.toNanos(targetQueueDelay);
+		this.queueDelayInterval = TimeUnit.MILLISECONDS.toNanos(queueDelayInterval);
+		this.maxGcTimeRatio = maxGcTimeRatio;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.congestion.CongestionControlEngine#start(org.mobicents.servlet.sip.core.SipApplicationDispatcher, java.util.concurrent.ScheduledExecutorService, org.mobicents.servlet.sip.core.congestion.CongestionControlEngine.Listener)
+	 */
+	public void start(SipApplicationDispatcher sipApplicationDispatcher, ScheduledExecutorService scheduler, Listener listener) {
+		this.sipApplicationDispatcher = sipApplicationDispatcher;
+		this.listener = listener;
+		lastSampleTime = System.nanoTime();
+		lastGcTime = getTotalGcTime();
+		samplingFuture = scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					sample();
+				} catch (Throwable t) {
+					logger.error("Unexpected exception while sampling the load of the container", t);
+				}
+			}
+		}, samplingInterval, samplingInterval, TimeUnit.MILLISECONDS);
+		if(logger.isInfoEnabled()) {
+			logger.info("Adaptive congestion control engine started, sampling every " + samplingInterval + " ms with a target queue delay of " +
+					TimeUnit.NANOSECONDS.toMillis(targetQueueDelay) + " ms and a max gc time ratio of " + maxGcTimeRatio);
+		}
+	}
+
+	public void stop() {
+		if(samplingFuture != null) {
+			samplingFuture.cancel(false);
+			samplingFuture = null;
+		}
+		admissionProbability = 1;
+		congestionControlEvent = null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.congestion.CongestionControlEngine#isInitialRequestThrottled()
+	 */
+	public boolean isInitialRequestThrottled() {
+		final double admissionProbability = this.admissionProbability;
+		return admissionProbability < 1 && random.get().nextDouble() >= admissionProbability;
+	}
+
+	public CongestionControlEvent getCongestionControlEvent() {
+		return congestionControlEvent;
+	}
+
+	/**
+	 * @return the probability for an initial request to be admitted
+	 */
+	public double getAdmissionProbability() {
+		return admissionProbability;
+	}
+
+	/**
+	 * @return the ratio of the threads of the executors of the dispatcher busy at the last sample
+	 */
+	public double getExecutorSaturation() {
+		return executorSaturation;
+	}
+
+	/**
+	 * @return the number of tasks waiting in the queues of the executors of the dispatcher at the last sample
+	 */
+	public int getQueuedTasks() {
+		return queuedTasks;
+	}
+
+	void sample() {
+		final long now = System.nanoTime();
+		final List<ExecutorService> executors = new ArrayList<ExecutorService>();
+		executors.add(sipApplicationDispatcher.getAsynchronousExecutor());
+		executors.addAll(Arrays.asList(sipApplicationDispatcher.getDispatcherShardExecutors()));
+		// executor saturation and queue depth, sampled before the probes are queued
+		int busyThreads = 0;
+		int threads = 0;
+		int queuedTasks = 0;
+		for (ExecutorService executor : executors) {
+			if(executor instanceof ThreadPoolExecutor) {
+				final ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor) executor;
+				busyThreads += threadPoolExecutor.getActiveCount();
+				threads += Math.max(threadPoolExecutor.getCorePoolSize(), threadPoolExecutor.getPoolSize());
+				queuedTasks += threadPoolExecutor.getQueue().size();
+			}
+		}
+		executorSaturation = threads > 0 ? Math.min(1, busyThreads / (double) threads) : 0;
+		this.queuedTasks = queuedTasks;
+		final boolean executorSaturated = executorSaturation > MAX_EXECUTOR_SATURATION && queuedTasks > 0;
+		// queue delay, the longest one of the executors
+		queueDelay = 0;
+		for (ExecutorService executor : executors) {
+			Probe probe = probes.get(executor);
+			if(probe == null) {
+				probe = new Probe();
+				probes.put(executor, probe);
+			}
+			queueDelay = Math.max(queueDelay, probe.sample(executor, now));
+		}
+		// the executors gone, after a restart of the dispatcher for instance
+		probes.keySet().retainAll(executors);
+		final boolean queueOverloaded;
+		if(queueDelay > targetQueueDelay) {
+			if(queueDelayAboveTargetSince == 0) {
+				queueDelayAboveTargetSince = now;
+			}
+			queueOverloaded = now - queueDelayAboveTargetSince >= queueDelayInterval;
+		} else if(executorSaturated && queueDelayAboveTargetSince != 0) {
+			// a probe lucky enough to go through quickly while the executors are still saturated doesn't end the interval
+			queueOverloaded = now - queueDelayAboveTargetSince >= queueDelayInterval;
+		} else {
+			queueDelayAboveTargetSince = 0;
+			queueOverloaded = false;
+		}
+		// garbage collection
+		final long gcTime = getTotalGcTime();
+		final long elapsedTime = TimeUnit.NANOSECONDS.toMillis(now - lastSampleTime);
+		gcTimeRatio = elapsedTime > 0 ? (gcTime - lastGcTime) / (double) elapsedTime : 0;
+		lastGcTime = gcTime;
+		lastSampleTime = now;
+		final boolean gcOverloaded = gcTimeRatio > maxGcTimeRatio;
+
+		final double previousAdmissionProbability = admissionProbability;
+		double newAdmissionProbability = previousAdmissionProbability;
+		if(queueOverloaded || gcOverloaded) {
+			newAdmissionProbability = Math.max(MIN_ADMISSION_PROBABILITY, previousAdmissionProbability * DECREASE_FACTOR);
+			congestionControlEvent = new CongestionControlEvent(queueOverloaded ? Reason.Queue : Reason.Memory, getStateMessage(newAdmissionProbability));
+		} else if(previousAdmissionProbability < 1 && !executorSaturated) {
+			newAdmissionProbability = Math.min(1, previousAdmissionProbability + INCREASE_STEP);
+		}
+		admissionProbability = newAdmissionProbability;
+		if(logger.isDebugEnabled() && newAdmissionProbability != previousAdmissionProbability) {
+			logger.debug(getStateMessage(newAdmissionProbability));
+		}
+		if(previousAdmissionProbability == 1 && newAdmissionProbability < 1) {
+			logger.warn("Congestion control started : " + getStateMessage(newAdmissionProbability));
+			listener.congestionControlStateChanged(true, congestionControlEvent);
+		} else if(previousAdmissionProbability < 1 && newAdmissionProbability == 1) {
+			logger.warn("Congestion control stopped : " + getStateMessage(newAdmissionProbability));
+			final CongestionControlEvent congestionControlEvent = this.congestionControlEvent;
+			this.congestionControlEvent = null;
+			listener.congestionControlStateChanged(false, new CongestionControlEvent(
+					congestionControlEvent != null ? congestionControlEvent.getReason() : Reason.Queue, getStateMessage(newAdmissionProbability)));
+		}
+	}
+
+	private String getStateMessage(double admissionProbability) {
+		return "queue delay " + TimeUnit.NANOSECONDS.toMillis(queueDelay) + " ms (target " + TimeUnit.NANOSECONDS.toMillis(targetQueueDelay) +
+			" ms), gc time ratio " + gcTimeRatio + " (max " + maxGcTimeRatio + "), executor saturation " + executorSaturation +
+			", queued tasks " + queuedTasks + ", initial requests admission probability " + admissionProbability;
+	}
+
+	private static long getTotalGcTime() {
+		long gcTime = 0;
+		final List<GarbageCollectorMXBean> garbageCollectorMXBeans = ManagementFactory.getGarbageCollectorMXBeans();
+		for (GarbageCollectorMXBean garbageCollectorMXBean : garbageCollectorMXBeans) {
+			final long collectionTime = garbageCollectorMXBean.getCollectionTime();
+			if(collectionTime > 0) {
+				gcTime += collectionTime;
+			}
+		}
+		return gcTime;
+	}
+
+	/**
+	 * Task going through the queue of an executor to measure its queue delay
+	 */
+	private static final class Probe implements Runnable {
+		// System.nanoTime() at which the probe has been queued, 0 if it is not waiting in the queue
+		private volatile long queuedTime;
+		private volatile long lastQueueDelay;
+
+		public void run() {
+			lastQueueDelay = System.nanoTime() - queuedTime;
+			queuedTime = 0;
+		}
+
+		/**
+		 * @return the queue delay of the executor, the probe being queued again if it went through
+		 */
+		private long sample(ExecutorService executor, long now) {
+			final long queuedTime = this.queuedTime;
+			if(queuedTime != 0) {
+				// the previous probe is still waiting in the queue, the queue delay is at least the time it has been waiting
+				return Math.max(lastQueueDelay, now - queuedTime);
+			}
+			final long queueDelay = lastQueueDelay;
+			this.queuedTime = now;
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				// the executor is stopping
+				this.queuedTime = 0;
+			}
+			return queueDelay;
+		}
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.congestion;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.mobicents.javax.servlet.CongestionControlEvent;
+import org.mobicents.servlet.sip.core.SipApplicationDispatcher;
+
+/**
+ * Congestion control engine plugged into the sip application dispatcher in addition to the
+ * queue size and memory thresholds checked by the congestion control background task.<br/>
+ * The engine is only asked about initial requests, requests within a dialog are always let through
+ * so that established calls can complete. The throttled requests are handled according to the
+ * {@link org.mobicents.javax.servlet.CongestionControlPolicy} of the container.<br/>
+ * Implementations must provide a public no-arg constructor.
+ */
+public interface CongestionControlEngine {
+
+	/**
+	 * Notified by the engine when the container enters or leaves congestion
+	 */
+	interface Listener {
+		void congestionControlStateChanged(boolean congested, CongestionControlEvent congestionControlEvent);
+	}
+
+	/**
+	 * Starts sampling the load of the container
+	 * @param sipApplicationDispatcher the dispatcher whose load is sampled
+	 * @param scheduler the scheduler to use to sample the load
+	 * @param listener the listener to notify of the congestion state changes
+	 */
+	void start(SipApplicationDispatcher sipApplicationDispatcher, ScheduledExecutorService scheduler, Listener listener);
+
+	void stop();
+
+	/**
+	 * Called for every initial request received by the container, so it must be cheap
+	 * @return true if the initial request should be throttled
+	 */
+	boolean isInitialRequestThrottled();
+
+	/**
+	 * @return the event describing the current congestion, passed to the applications for the throttled requests
+	 */
+	CongestionControlEvent getCongestionControlEvent();
+}
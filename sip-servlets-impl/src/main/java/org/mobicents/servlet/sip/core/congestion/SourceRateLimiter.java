@@ -0,0 +1,324 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.congestion;
+
+import gov.nist.javax.sip.message.SIPRequest;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sip.address.SipURI;
+import javax.sip.header.FromHeader;
+import javax.sip.message.Request;
+
+/**
+ * Token bucket rate limiter of the initial requests received from a given source,
+ * the source being either the address the request has been received from or the domain of its From header.<br/>
+ * The buckets are kept in a fixed size open addressing table of primitive arrays keyed by a 64 bits hash of the source,
+ * so that a flood of requests from spoofed addresses neither allocates nor grows the heap : when the probed slots
+ * of a source are all taken, the least recently used one is reused. The table is split in segments, each guarded by its own lock.<br/>
+ * So that a source doesn't get a full bucket back by having its slot reused, the tokens left to a source evicted before 
+ * its bucket refilled are kept in a second table, with one slot per hash, until the source comes back or a source 
+ * with fewer tokens left is evicted to the same slot.<br/>
+ * IPv4 addresses mapped to IPv6 addresses, as reported by dual stack sockets, are the same source as the IPv4 addresses.<br/>
+ * The number of requests rejected is kept per source, the name of the source only being created on its first rejection.
+ */
+public class SourceRateLimiter {
+
+	public enum SourceKey {
+		SourceAddress, FromDomain
+	}
+
+	public static final int DEFAULT_CAPACITY = 65536;
+	private static final int SEGMENTS = 64;
+	private static final int MAX_PROBES = 8;
+	// tokens are counted in thousandths so that slow rates refill smoothly
+	private static final long TOKEN = 1000;
+	private static final long EMPTY = 0;
+
+	private final SourceKey sourceKey;
+	private final long rate;
+	private final long burst;
+	private final int segmentSize;
+	private final Object[] locks;
+	private final long[] keys;
+	private final long[] tokens;
+	private final long[] lastRefillTimes;
+	private final long[] rejectedRequests;
+	private final String[] sources;
+	// sources evicted before their bucket refilled
+	private final long[] evictedKeys;
+	private final long[] evictedTokens;
+	private final long[] evictionTimes;
+	private final AtomicLong totalRejectedRequests = new AtomicLong(0);
+
+	/**
+	 * @param sourceKey what identifies the source of a request
+	 * @param rate the number of requests per second allowed per source
+	 * @param burst the number of requests a source can send at once, the rate is used if lower than or equal to 0
+	 * @param capacity the max number of sources tracked at once, rounded up to a power of 2
+	 */
+	public SourceRateLimiter(SourceKey sourceKey, int rate, int burst, int capacity) {
+		if(rate <= 0) {
+			throw new IllegalArgumentException("rate must be greater than 0 : " + rate);
+		}
+		this.sourceKey = sourceKey;
+		this.rate = rate;
+		this.burst = burst > 0 ? burst : rate;
+		int tableSize = SEGMENTS * MAX_PROBES;
+		while(tableSize < capacity) {
+			tableSize <<= 1;
+		}
+		segmentSize = tableSize / SEGMENTS;
+		locks = new Object[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++) {
+			locks[i] = new Object();
+		}
+		keys = new long[tableSize];
+		tokens = new long[tableSize];
+		lastRefillTimes = new long[tableSize];
+		rejectedRequests = new long[tableSize];
+		sources = new String[tableSize];
+		evictedKeys = new long[tableSize];
+		evictedTokens = new long[tableSize];
+		evictionTimes = new long[tableSize];
+	}
+
+	/**
+	 * Takes a token from the bucket of the source of the request
+	 * @param request the request received
+	 * @return 0 if the request is admitted, otherwise the number of seconds after which the source can retry
+	 */
+	public int tryAcquire(Request request) {
+		final long key = getKey(request);
+		if(key == EMPTY) {
+			// unknown source
+			return 0;
+		}
+		final long now = System.nanoTime();
+		final long hash = mix(key);
+		final int segment = (int) (hash >>> 58) & (SEGMENTS - 1);
+		final int segmentStart = segment * segmentSize;
+		final int firstProbe = (int) hash & (segmentSize - 1);
+		synchronized (locks[segment]) {
+			int slot = -1;
+			int leastRecentlyUsedSlot = -1;
+			for (int probe = 0; probe < MAX_PROBES; probe++) {
+				final int candidate = segmentStart + ((firstProbe + probe) & (segmentSize - 1));
+				if(keys[candidate] == key) {
+					slot = candidate;
+					break;
+				}
+				if(keys[candidate] == EMPTY) {
+					leastRecentlyUsedSlot = candidate;
+					break;
+				}
+				if(leastRecentlyUsedSlot == -1 || lastRefillTimes[candidate] - lastRefillTimes[leastRecentlyUsedSlot] < 0) {
+					leastRecentlyUsedSlot = candidate;
+				}
+			}
+			if(slot == -1) {
+				// new source, or a source evicted by others since its last request
+				slot = leastRecentlyUsedSlot;
+				long initialTokens = burst * TOKEN;
+				final int evictedSlot = segmentStart + firstProbe;
+				if(evictedKeys[evictedSlot] == key) {
+					initialTokens = refill(evictedTokens[evictedSlot], now - evictionTimes[evictedSlot]);
+					evictedKeys[evictedSlot] = EMPTY;
+				}
+				if(keys[slot] != EMPTY) {
+					evict(segmentStart, slot, now);
+				}
+				keys[slot] = key;
+				tokens[slot] = initialTokens;
+				lastRefillTimes[slot] = now;
+				rejectedRequests[slot] = 0;
+				sources[slot] = null;
+			} else if(now - lastRefillTimes[slot] > 0) {
+				// refill, rate tokens per second
+				tokens[slot] = refill(tokens[slot], now - lastRefillTimes[slot]);
+				lastRefillTimes[slot] = now;
+			}
+			if(tokens[slot] >= TOKEN) {
+				tokens[slot] -= TOKEN;
+				return 0;
+			}
+			rejectedRequests[slot]++;
+			if(sources[slot] == null) {
+				sources[slot] = getSource(request);
+			}
+			totalRejectedRequests.incrementAndGet();
+			// time for the missing fraction of token to be refilled, rounded up to the second
+			final long missingTokens = TOKEN - tokens[slot];
+			return (int) Math.max(1, (missingTokens + rate * TOKEN - 1) / (rate * TOKEN));
+		}
+	}
+
+	/**
+	 * Keeps the tokens left to the source of the slot about to be reused, unless its bucket is full 
+	 * or a source with fewer tokens left has been evicted to the same slot
+	 */
+	private void evict(int segmentStart, int slot, long now) {
+		final long tokensLeft = refill(tokens[slot], now - lastRefillTimes[slot]);
+		if(tokensLeft >= burst * TOKEN) {
+			return;
+		}
+		final int evictedSlot = segmentStart + ((int) mix(keys[slot]) & (segmentSize - 1));
+		if(evictedKeys[evictedSlot] == EMPTY || refill(evictedTokens[evictedSlot], now - evictionTimes[evictedSlot]) > tokensLeft) {
+			evictedKeys[evictedSlot] = keys[slot];
+			evictedTokens[evictedSlot] = tokensLeft;
+			evictionTimes[evictedSlot] = now;
+		}
+	}
+
+	/**
+	 * @return the tokens in a bucket once refilled at rate tokens per second for the elapsed time, up to burst tokens
+	 */
+	private long refill(long tokens, long elapsedTime) {
+		final long maxTokens = burst * TOKEN;
+		if(elapsedTime <= 0) {
+			return tokens;
+		}
+		if(elapsedTime >= burst * 1000000000L / rate) {
+			return maxTokens;
+		}
+		return Math.min(maxTokens, tokens + elapsedTime * rate * TOKEN / 1000000000L);
+	}
+
+	/**
+	 * @return the number of requests rejected since the limiter has been created
+	 */
+	public long getNumberOfRejectedRequests() {
+		return totalRejectedRequests.get();
+	}
+
+	/**
+	 * @return for each source currently tracked that got requests rejected, the number of requests rejected
+	 */
+	public Map<String, Long> getRejectedRequestsBySource() {
+		final Map<String, Long> rejectedRequestsBySource = new HashMap<String, Long>();
+		for (int segment = 0; segment < SEGMENTS; segment++) {
+			synchronized (locks[segment]) {
+				final int segmentEnd = (segment + 1) * segmentSize;
+				for (int slot = segment * segmentSize; slot < segmentEnd; slot++) {
+					if(keys[slot] != EMPTY && rejectedRequests[slot] > 0 && sources[slot] != null) {
+						final Long rejectedRequestsFromSameSource = rejectedRequestsBySource.get(sources[slot]);
+						rejectedRequestsBySource.put(sources[slot], rejectedRequests[slot] +
+								(rejectedRequestsFromSameSource != null ? rejectedRequestsFromSameSource : 0));
+					}
+				}
+			}
+		}
+		return rejectedRequestsBySource;
+	}
+
+	public SourceKey getSourceKey() {
+		return sourceKey;
+	}
+
+	/**
+	 * @return the key of the source of the request, {@link #EMPTY} if the source is unknown
+	 */
+	private long getKey(Request request) {
+		long key;
+		if(SourceKey.SourceAddress.equals(sourceKey)) {
+			final InetAddress remoteAddress = ((SIPRequest) request).getRemoteAddress();
+			if(remoteAddress == null) {
+				return EMPTY;
+			}
+			if(remoteAddress instanceof Inet4Address) {
+				// the hash code of an IPv4 address is the address itself, the bit distinguishes it from a hashed IPv6 address and from an empty slot
+				key = (remoteAddress.hashCode() & 0xffffffffL) | (1L << 32);
+			} else {
+				final byte[] address = remoteAddress.getAddress();
+				if(isIPv4Mapped(address)) {
+					key = (((address[12] & 0xffL) << 24) | ((address[13] & 0xff) << 16) | ((address[14] & 0xff) << 8) | (address[15] & 0xff)) | (1L << 32);
+				} else {
+					key = 0;
+					for (int i = 0; i < address.length; i++) {
+						key = key * 31 + (address[i] & 0xff);
+					}
+				}
+			}
+		} else {
+			final String domain = getFromDomain(request);
+			if(domain == null) {
+				return EMPTY;
+			}
+			// FNV-1a, case insensitive
+			key = 0xcbf29ce484222325L;
+			for (int i = 0; i < domain.length(); i++) {
+				key ^= Character.toLowerCase(domain.charAt(i));
+				key *= 0x100000001b3L;
+			}
+		}
+		return key == EMPTY ? 1 : key;
+	}
+
+	private String getSource(Request request) {
+		if(SourceKey.SourceAddress.equals(sourceKey)) {
+			final InetAddress remoteAddress = ((SIPRequest) request).getRemoteAddress();
+			if(remoteAddress == null) {
+				return null;
+			}
+			final byte[] address = remoteAddress.getAddress();
+			if(isIPv4Mapped(address)) {
+				return (address[12] & 0xff) + "." + (address[13] & 0xff) + "." + (address[14] & 0xff) + "." + (address[15] & 0xff);
+			}
+			return remoteAddress.getHostAddress();
+		}
+		final String domain = getFromDomain(request);
+		return domain != null ? domain.toLowerCase() : null;
+	}
+
+	private static String getFromDomain(Request request) {
+		final FromHeader fromHeader = (FromHeader) request.getHeader(FromHeader.NAME);
+		if(fromHeader != null && fromHeader.getAddress().getURI() instanceof SipURI) {
+			return ((SipURI) fromHeader.getAddress().getURI()).getHost();
+		}
+		return null;
+	}
+
+	// ::ffff:a.b.c.d
+	private static boolean isIPv4Mapped(byte[] address) {
+		if(address.length != 16 || address[10] != (byte) 0xff || address[11] != (byte) 0xff) {
+			return false;
+		}
+		for (int i = 0; i < 10; i++) {
+			if(address[i] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// spreads the bits of the key over the 64 bits
+	private static long mix(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+}
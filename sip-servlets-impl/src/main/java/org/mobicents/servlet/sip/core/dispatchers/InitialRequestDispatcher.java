@@ -444,10 +444,11 @@ public class InitialRequestDispatcher extends RequestDispatcher {
 		handleSipOutbound(sipServletRequest);
 		
 		// if the flag is set we bypass the executor. This flag should be made deprecated 
-		if(sipApplicationDispatcher.isBypassRequestExecutor() || ConcurrencyControlMode.Transaction.equals((sipContext.getConcurrencyControlMode()))) {
+		// the serial concurrency control modes never bypass the executor since it is what guarantees the ordering of messages in the session
+		if(!isSerialConcurrencyControlMode(sipContext) && (sipApplicationDispatcher.isBypassRequestExecutor() || ConcurrencyControlMode.Transaction.equals((sipContext.getConcurrencyControlMode())))) {
 			dispatchTask.dispatchAndHandleExceptions();
 		} else {
-			getConcurrencyModelExecutorService(sipContext, sipServletRequest).execute(dispatchTask);
+			getConcurrencyModelExecutor(sipContext, sipServletRequest).execute(dispatchTask);
 		}
 
 	}
@@ -22,6 +22,7 @@ package org.mobicents.servlet.sip.core.dispatchers;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 
 import javax.servlet.Servlet;
@@ -35,6 +36,7 @@ import javax.sip.message.Request;
 import javax.sip.message.Response;
 
 import org.apache.log4j.Logger;
+import org.mobicents.servlet.sip.annotation.ConcurrencyControlMode;
 import org.mobicents.servlet.sip.core.DispatcherException;
 import org.mobicents.servlet.sip.core.MobicentsSipServlet;
 import org.mobicents.servlet.sip.core.SipApplicationDispatcher;
@@ -137,9 +139,26 @@ public abstract class MessageDispatcher {
 	public static void sendErrorResponse(int errorCode,
 			ServerTransaction transaction, Request request,
 			SipProvider sipProvider) {
+		sendErrorResponse(errorCode, transaction, request, sipProvider, 0);
+	}
+	
+	/**
+	 * 
+	 * @param errorCode
+	 * @param transaction the server transaction, the response is sent statelessly if null
+	 * @param request
+	 * @param sipProvider
+	 * @param retryAfter the number of seconds to put in a Retry-After header, no header is added if lower than or equal to 0
+	 */
+	public static void sendErrorResponse(int errorCode,
+			ServerTransaction transaction, Request request,
+			SipProvider sipProvider, int retryAfter) {
 		try{
 			Response response=SipFactoryImpl.messageFactory.createResponse
 	        	(errorCode,request);			
+			if(retryAfter > 0) {
+				response.setHeader(SipFactoryImpl.headerFactory.createRetryAfterHeader(retryAfter));
+			}
 	        if (transaction!=null) {
 	        	transaction.sendResponse(response);
 	        } else { 
@@ -369,6 +388,7 @@ public abstract class MessageDispatcher {
 				} finally {			
 					sipServletImpl.deallocate(servlet);
 				}
+				updateRequestProcessingTime(sipContext, request);
 			} finally {
 				sipContext.exitSipContext(oldClassLoader);
 			}
@@ -414,6 +434,18 @@ public abstract class MessageDispatcher {
 		}
 	}
 	
+	/**
+	 * Records the time elapsed between the reception of the request and the return of the servlet
+	 */
+	private static void updateRequestProcessingTime(SipContext sipContext, MobicentsSipServletRequest request) {
+		if(request instanceof SipServletRequestImpl) {
+			final long receivedTime = ((SipServletRequestImpl) request).getReceivedTime();
+			if(receivedTime != 0) {
+				sipContext.getSipApplicationDispatcher().updateRequestProcessingTime(request.getMethod(), System.nanoTime() - receivedTime);
+			}
+		}
+	}
+	
 	public static void callServlet(MobicentsSipServletResponse response) throws ServletException, IOException {		
 		final MobicentsSipSession session = response.getSipSession();
 		
@@ -497,9 +529,40 @@ public abstract class MessageDispatcher {
 	 * 
 	 * @param sipServletMessage the request you put here must have app and sip session associated
 	 * @return
+	 * @see #getConcurrencyModelExecutor(SipContext, SipServletMessageImpl) for the executor keeping the order of the serial concurrency control modes
 	 */
 	public final ExecutorService getConcurrencyModelExecutorService(
 			SipContext sipContext, SipServletMessageImpl sipServletMessage) {
 			return this.sipApplicationDispatcher.getAsynchronousExecutor();
 	}
+	
+	/**
+	 * This method return an Executor depending on the current concurrency strategy. 
+	 * For the SipSessionSerial and SipApplicationSessionSerial modes it returns an executor queuing the messages per session,
+	 * otherwise the threadpool executor returned by getConcurrencyModelExecutorService
+	 * 
+	 * @param sipServletMessage the request you put here must have app and sip session associated
+	 * @return
+	 */
+	public final Executor getConcurrencyModelExecutor(
+			SipContext sipContext, SipServletMessageImpl sipServletMessage) {
+		final MobicentsSipSession sipSession = sipServletMessage.getSipSession();
+		if(sipSession == null) {
+			return this.sipApplicationDispatcher.getAsynchronousExecutor();
+		}
+		return this.sipApplicationDispatcher.getConcurrencyModelExecutor(sipContext, sipSession.getSipApplicationSession().getKey(), sipSession.getKey());
+	}
+	
+	/**
+	 * Checks if the application uses one of the serial concurrency control modes. In that case the messages should always go through
+	 * the executor returned by getConcurrencyModelExecutor, even if the bypass executor flags are set, so that they are processed in order
+	 * with the other tasks of the session 
+	 * @param sipContext the application
+	 * @return true if the concurrency control mode of the application is SipSessionSerial or SipApplicationSessionSerial
+	 */
+	public static boolean isSerialConcurrencyControlMode(SipContext sipContext) {
+		final ConcurrencyControlMode concurrencyControlMode = sipContext.getConcurrencyControlMode();
+		return ConcurrencyControlMode.SipSessionSerial.equals(concurrencyControlMode) || 
+			ConcurrencyControlMode.SipApplicationSessionSerial.equals(concurrencyControlMode);
+	}
 }
@@ -508,10 +508,11 @@ public class ResponseDispatcher extends MessageDispatcher {
 			// the tx serialization is preserved
 			sipContext.enterSipApp(session.getSipApplicationSession(), session, false, true);
 			// if the flag is set we bypass the executor, the bypassExecutor flag should be made deprecated 
-			if(sipApplicationDispatcher.isBypassResponseExecutor() || ConcurrencyControlMode.Transaction.equals((sipContext.getConcurrencyControlMode()))) {
+			// the serial concurrency control modes never bypass the executor since it is what guarantees the ordering of messages in the session
+			if(!isSerialConcurrencyControlMode(sipContext) && (sipApplicationDispatcher.isBypassResponseExecutor() || ConcurrencyControlMode.Transaction.equals((sipContext.getConcurrencyControlMode())))) {
 				dispatchTask.dispatchAndHandleExceptions();
 			} else {				
-				getConcurrencyModelExecutorService(sipContext, sipServletMessage).execute(dispatchTask);				
+				getConcurrencyModelExecutor(sipContext, sipServletMessage).execute(dispatchTask);				
 			}
 		} else {
 			// No sessions here and no servlets called, no need for asynchronicity
@@ -358,7 +358,8 @@ public class SubsequentRequestDispatcher extends RequestDispatcher {
 		// END of validation for http://code.google.com/p/mobicents/issues/detail?id=766
 		
 		// if the flag is set we bypass the executor. This flag should be made deprecated 
-		if(sipApplicationDispatcher.isBypassRequestExecutor() || ConcurrencyControlMode.Transaction.equals((sipContext.getConcurrencyControlMode()))) {
+		// the serial concurrency control modes never bypass the executor since it is what guarantees the ordering of messages in the session
+		if(!isSerialConcurrencyControlMode(sipContext) && (sipApplicationDispatcher.isBypassRequestExecutor() || ConcurrencyControlMode.Transaction.equals((sipContext.getConcurrencyControlMode())))) {
 			dispatchTask.setBatchStarted(batchStarted);
 			dispatchTask.dispatchAndHandleExceptions();
 		} else {
@@ -368,7 +369,7 @@ public class SubsequentRequestDispatcher extends RequestDispatcher {
 			if(logger.isDebugEnabled()) {
 				logger.debug("We are just before executor with sipAppSession=" + sipApplicationSession + " and sipSession=" + sipSession + " for " + sipServletMessage);
 			}
-			getConcurrencyModelExecutorService(sipContext, sipServletMessage).execute(dispatchTask);
+			getConcurrencyModelExecutor(sipContext, sipServletMessage).execute(dispatchTask);
 			if(logger.isDebugEnabled()) {
 				logger.debug("We are just after executor with sipAppSession=" + sipApplicationSession + " and sipSession=" + sipSession + " for " + sipServletMessage);
 			}
@@ -0,0 +1,362 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.session;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * {@link SessionStateStore} appending the states to a file on the local disk, meant for the sessions 
+ * passivated after being idle for a while, so that they don't take any memory besides their index entry.<br/>
+ * The states are only ever appended to the file, the space of the ones loaded back or removed being reclaimed 
+ * by a thread of the store rewriting the live states to a new file once they take less than a third of it, 
+ * the store being only locked to copy the states appended meanwhile and to switch to the new file.
+ * The file is created in the directory given by the {@value #DIRECTORY_PROPERTY} system property, 
+ * the temporary directory by default, and is deleted once empty, when the store is cleared 
+ * or by a single shutdown hook for all the stores when the JVM exits, since the handles of the states don't outlive the sessions.
+ */
+public class FileSessionStateStore implements SessionStateStore {
+
+	private static final Logger logger = Logger.getLogger(FileSessionStateStore.class);
+
+	public static final String DIRECTORY_PROPERTY = "org.mobicents.servlet.sip.SESSION_STATE_STORE_DIRECTORY";
+
+	// files smaller than this are never compacted
+	private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+
+	// the files of all the stores not deleted yet, deleted by a single hook on shutdown
+	private static final Set<File> openFiles = Collections.synchronizedSet(new HashSet<File>());
+	private static boolean shutdownHookAdded;
+
+	private final File directory;
+	private File file;
+	private FileChannel channel;
+	private long position;
+	private long handles;
+	private long sizeInBytes;
+	// handle -> offset and length of the state in the file
+	private final Map<Long, long[]> states = new HashMap<Long, long[]>();
+	private boolean compacting;
+	// created on the first compaction
+	private ExecutorService compactionExecutor;
+	private final Runnable compactionTask = new Runnable() {
+		public void run() {
+			try {
+				compact();
+			} finally {
+				synchronized (FileSessionStateStore.this) {
+					compacting = false;
+				}
+			}
+		}
+	};
+
+	public FileSessionStateStore() {
+		this(new File(System.getProperty(DIRECTORY_PROPERTY, System.getProperty("java.io.tmpdir"))));
+	}
+
+	public FileSessionStateStore(File directory) {
+		this.directory = directory;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.session.SessionStateStore#store(byte[])
+	 */
+	public synchronized long store(byte[] state) throws IOException {
+		if(channel == null) {
+			file = createFile(directory);
+			channel = new RandomAccessFile(file, "rw").getChannel();
+			position = 0;
+		}
+		write(channel, ByteBuffer.wrap(state), position);
+		final long handle = ++handles;
+		states.put(handle, new long[] {position, state.length});
+		position += state.length;
+		sizeInBytes += state.length;
+		return handle;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.session.SessionStateStore#load(long)
+	 */
+	public synchronized byte[] load(long handle) throws IOException {
+		final long[] location = states.remove(handle);
+		if(location == null) {
+			return null;
+		}
+		sizeInBytes -= location[1];
+		final ByteBuffer state = ByteBuffer.allocate((int) location[1]);
+		try {
+			read(channel, state, location[0]);
+		} finally {
+			compactIfNeeded();
+		}
+		return state.array();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.session.SessionStateStore#remove(long)
+	 */
+	public synchronized void remove(long handle) {
+		final long[] location = states.remove(handle);
+		if(location != null) {
+			sizeInBytes -= location[1];
+			compactIfNeeded();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.session.SessionStateStore#size()
+	 */
+	public synchronized int size() {
+		return states.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.session.SessionStateStore#getSizeInBytes()
+	 */
+	public synchronized long getSizeInBytes() {
+		return sizeInBytes;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.session.SessionStateStore#clear()
+	 */
+	public synchronized void clear() {
+		states.clear();
+		sizeInBytes = 0;
+		closeFile();
+		if(compactionExecutor != null) {
+			compactionExecutor.shutdownNow();
+			compactionExecutor = null;
+		}
+	}
+
+	/**
+	 * @return the size of the file, including the space of the states no longer stored
+	 */
+	public synchronized long getFileSize() {
+		return position;
+	}
+
+	private void compactIfNeeded() {
+		if(states.isEmpty()) {
+			// nothing to keep, start over with a new file
+			closeFile();
+			return;
+		}
+		if(compacting || !isCompactionNeeded()) {
+			return;
+		}
+		if(compactionExecutor == null) {
+			compactionExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					final Thread thread = new Thread(runnable, "FileSessionStateStore-Compaction");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		try {
+			compactionExecutor.execute(compactionTask);
+			compacting = true;
+		} catch (RejectedExecutionException e) {
+			// the store has been cleared
+		}
+	}
+
+	private boolean isCompactionNeeded() {
+		return position >= MIN_COMPACTION_SIZE && sizeInBytes * 3 <= position;
+	}
+
+	/**
+	 * Rewrites the live states to a new file, the states being copied without holding the lock of the store
+	 * since they are never overwritten in the current file
+	 */
+	void compact() {
+		final FileChannel sourceChannel;
+		final long previousSize;
+		// location -> offset and length of the live states when the compaction starts
+		final Map<long[], long[]> snapshot = new IdentityHashMap<long[], long[]>();
+		synchronized (this) {
+			if(channel == null || !isCompactionNeeded()) {
+				return;
+			}
+			sourceChannel = channel;
+			previousSize = position;
+			for (long[] location : states.values()) {
+				snapshot.put(location, new long[] {location[0], location[1]});
+			}
+		}
+		File compactedFile = null;
+		FileChannel compactedChannel = null;
+		try {
+			compactedFile = createFile(directory);
+			compactedChannel = new RandomAccessFile(compactedFile, "rw").getChannel();
+			long compactedPosition = 0;
+			for (long[] copy : snapshot.values()) {
+				transfer(sourceChannel, copy[0], copy[1], compactedChannel);
+				// the copy now holds the offset in the new file
+				copy[0] = compactedPosition;
+				compactedPosition += copy[1];
+			}
+			synchronized (this) {
+				if(channel != sourceChannel) {
+					// cleared or emptied meanwhile
+					throw new IOException("The session state store has been closed during its compaction");
+				}
+				// the states stored during the copy are copied with the lock held
+				final List<long[]> appendedStates = new ArrayList<long[]>();
+				for (long[] location : states.values()) {
+					final long[] copy = snapshot.get(location);
+					if(copy == null) {
+						appendedStates.add(location);
+					}
+				}
+				for (long[] location : appendedStates) {
+					transfer(channel, location[0], location[1], compactedChannel);
+					location[0] = compactedPosition;
+					compactedPosition += location[1];
+				}
+				for (long[] location : states.values()) {
+					final long[] copy = snapshot.get(location);
+					if(copy != null) {
+						location[0] = copy[0];
+					}
+				}
+				closeFile();
+				file = compactedFile;
+				channel = compactedChannel;
+				position = compactedPosition;
+				if(logger.isDebugEnabled()) {
+					logger.debug("Compacted the session state store from " + previousSize + " to " + position + " bytes");
+				}
+			}
+		} catch (IOException e) {
+			// the states can still be read from the current file, the offsets are only updated on success
+			if(sourceChannel.isOpen()) {
+				logger.error("Couldn't compact the session state store", e);
+			}
+			if(compactedChannel != null) {
+				try {
+					compactedChannel.close();
+				} catch (IOException ignore) {
+				}
+			}
+			if(compactedFile != null) {
+				deleteFile(compactedFile);
+			}
+		}
+	}
+
+	// appends the state to the target
+	private static void transfer(FileChannel source, long offset, long length, FileChannel target) throws IOException {
+		long transferred = 0;
+		while (transferred < length) {
+			final long count = source.transferTo(offset + transferred, length - transferred, target);
+			if(count <= 0) {
+				throw new IOException("Unexpected end of the session state store");
+			}
+			transferred += count;
+		}
+	}
+
+	private static File createFile(File directory) throws IOException {
+		final File file = File.createTempFile("sip-sessions", ".store", directory);
+		synchronized (openFiles) {
+			if(!shutdownHookAdded) {
+				Runtime.getRuntime().addShutdownHook(new Thread("FileSessionStateStore-Cleanup") {
+					@Override
+					public void run() {
+						synchronized (openFiles) {
+							for (File openFile : openFiles) {
+								openFile.delete();
+							}
+							openFiles.clear();
+						}
+					}
+				});
+				shutdownHookAdded = true;
+			}
+			openFiles.add(file);
+		}
+		return file;
+	}
+
+	private static void deleteFile(File file) {
+		openFiles.remove(file);
+		if(!file.delete() && logger.isDebugEnabled()) {
+			logger.debug("Couldn't delete the session state store " + file);
+		}
+	}
+
+	private void closeFile() {
+		if(channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.warn("Couldn't close the session state store " + file, e);
+			}
+			deleteFile(file);
+		}
+		channel = null;
+		file = null;
+		position = 0;
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			final int read = channel.read(buffer, position);
+			if(read < 0) {
+				throw new IOException("Unexpected end of the session state store");
+			}
+			position += read;
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.session;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Default {@link ReplicationTransport}, applying the deltas to replicas kept in the same JVM.<br/>
+ * It doesn't make the sessions highly available by itself but allows to run an application with replication enabled
+ * without a cluster, and to check what would be shipped to the other nodes, until a transport to a cluster is plugged in.
+ */
+public class LoopbackReplicationTransport implements ReplicationTransport {
+
+	// application name -> session key -> replicated attributes
+	private final ConcurrentHashMap<String, ConcurrentHashMap<String, Map<String, Object>>> replicas = 
+		new ConcurrentHashMap<String, ConcurrentHashMap<String, Map<String, Object>>>();
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.session.ReplicationTransport#replicate(java.lang.String, byte[])
+	 */
+	public void replicate(String applicationName, byte[] delta) throws IOException {
+		final ConcurrentHashMap<String, Map<String, Object>> applicationReplicas = getApplicationReplicas(applicationName);
+		try {
+			for (SessionDelta sessionDelta : SessionDelta.read(delta, Thread.currentThread().getContextClassLoader())) {
+				if(sessionDelta.isInvalidated()) {
+					applicationReplicas.remove(sessionDelta.getKey());
+					continue;
+				}
+				Map<String, Object> replica = applicationReplicas.get(sessionDelta.getKey());
+				if(replica == null) {
+					replica = new ConcurrentHashMap<String, Object>();
+					final Map<String, Object> existingReplica = applicationReplicas.putIfAbsent(sessionDelta.getKey(), replica);
+					if(existingReplica != null) {
+						replica = existingReplica;
+					}
+				}
+				replica.putAll(sessionDelta.getSetAttributes());
+				for (String removedAttribute : sessionDelta.getRemovedAttributes()) {
+					replica.remove(removedAttribute);
+				}
+			}
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Couldn't read the delta of the application " + applicationName + " : " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return a copy of the attributes replicated for the session, null if the session isn't replicated 
+	 */
+	public Map<String, Object> getReplica(String applicationName, String sessionKey) {
+		final Map<String, Object> replica = getApplicationReplicas(applicationName).get(sessionKey);
+		return replica == null ? null : new HashMap<String, Object>(replica);
+	}
+
+	/**
+	 * @return the number of sessions replicated for the application
+	 */
+	public int getNumberOfReplicas(String applicationName) {
+		return getApplicationReplicas(applicationName).size();
+	}
+
+	private ConcurrentHashMap<String, Map<String, Object>> getApplicationReplicas(String applicationName) {
+		// ConcurrentHashMap doesn't allow null keys
+		final String name = applicationName == null ? "" : applicationName;
+		ConcurrentHashMap<String, Map<String, Object>> applicationReplicas = replicas.get(name);
+		if(applicationReplicas == null) {
+			applicationReplicas = new ConcurrentHashMap<String, Map<String, Object>>();
+			final ConcurrentHashMap<String, Map<String, Object>> existingReplicas = replicas.putIfAbsent(name, applicationReplicas);
+			if(existingReplicas != null) {
+				applicationReplicas = existingReplicas;
+			}
+		}
+		return applicationReplicas;
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.session;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Default {@link SessionStateStore}, keeping each state in a direct buffer outside of the java heap
+ * so that the states of the idle sessions are neither scanned nor copied by the garbage collector.
+ * The memory is released when the state is loaded back or removed.
+ */
+public class OffHeapSessionStateStore implements SessionStateStore {
+
+	private final ConcurrentHashMap<Long, ByteBuffer> states = new ConcurrentHashMap<Long, ByteBuffer>();
+	private final AtomicLong handles = new AtomicLong();
+	private final AtomicLong sizeInBytes = new AtomicLong();
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.session.SessionStateStore#store(byte[])
+	 */
+	public long store(byte[] state) {
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(state.length);
+		buffer.put(state);
+		buffer.flip();
+		final long handle = handles.incrementAndGet();
+		states.put(handle, buffer);
+		sizeInBytes.addAndGet(state.length);
+		return handle;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.session.SessionStateStore#load(long)
+	 */
+	public byte[] load(long handle) {
+		final ByteBuffer buffer = states.remove(handle);
+		if(buffer == null) {
+			return null;
+		}
+		final byte[] state = new byte[buffer.remaining()];
+		buffer.get(state);
+		sizeInBytes.addAndGet(-state.length);
+		return state;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.session.SessionStateStore#remove(long)
+	 */
+	public void remove(long handle) {
+		final ByteBuffer buffer = states.remove(handle);
+		if(buffer != null) {
+			sizeInBytes.addAndGet(-buffer.capacity());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.session.SessionStateStore#size()
+	 */
+	public int size() {
+		return states.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.session.SessionStateStore#getSizeInBytes()
+	 */
+	public long getSizeInBytes() {
+		return sizeInBytes.get();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.session.SessionStateStore#clear()
+	 */
+	public void clear() {
+		states.clear();
+		sizeInBytes.set(0);
+	}
+}
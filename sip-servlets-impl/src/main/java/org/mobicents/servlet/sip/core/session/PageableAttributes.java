@@ -0,0 +1,83 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.session;
+
+import java.util.Map;
+
+/**
+ * Session whose attributes can be paged out of the heap by a {@link SessionAttributesPager}.
+ * The attributes fields are only changed by the pager, holding the monitor of the session.
+ */
+interface PageableAttributes {
+
+	/**
+	 * @return the attributes on the heap, null if they have been paged out or never created
+	 */
+	Map<String, Object> getResidentAttributes();
+
+	void setResidentAttributes(Map<String, Object> attributes);
+
+	/**
+	 * @return a new empty map to hold the attributes, fitting the concurrency control mode of the application
+	 */
+	Map<String, Object> newAttributeMap();
+
+	/**
+	 * @return the handle of the attributes in the store of the pager, -1 if they are not paged out
+	 */
+	long getPagedOutAttributes();
+
+	void setPagedOutAttributes(long handle);
+
+	/**
+	 * @return true if the attributes have been accessed since the last call
+	 */
+	boolean clearAttributesAccessed();
+
+	/**
+	 * @return true if the session is still valid
+	 */
+	boolean isValidInternal();
+
+	/**
+	 * @return the last time the session was accessed
+	 */
+	long getLastAccessedTime();
+
+	/**
+	 * @return true if the session is idle and doesn't share its attributes with other sessions
+	 */
+	boolean isAttributesPageable();
+
+	/**
+	 * @return the class loader of the application, to deserialize the attributes paged back in
+	 */
+	ClassLoader getAttributesClassLoader();
+
+	/**
+	 * Notifies the activation listeners that the attributes are about to be paged out
+	 */
+	void passivate();
+
+	/**
+	 * Notifies the activation listeners that the attributes have been paged back in
+	 */
+	void activate();
+}
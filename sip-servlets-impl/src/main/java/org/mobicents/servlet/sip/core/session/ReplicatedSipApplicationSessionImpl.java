@@ -0,0 +1,70 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.session;
+
+import java.io.IOException;
+
+import org.mobicents.servlet.sip.core.SipContext;
+
+/**
+ * Sip application session tracking the changes to replicate, created by the {@link ReplicatedSipManagerDelegate}
+ */
+class ReplicatedSipApplicationSessionImpl extends SipApplicationSessionImpl implements ReplicatedSession {
+
+	private final transient SessionDeltaTracker deltaTracker;
+
+	ReplicatedSipApplicationSessionImpl(SipApplicationSessionKey key, SipContext sipContext, ReplicatedSipManagerDelegate manager) {
+		super(key, sipContext);
+		deltaTracker = new SessionDeltaTracker(manager, SessionDelta.SIP_APPLICATION_SESSION);
+		deltaTracker.sessionCreated(this);
+	}
+
+	@Override
+	public void setAttribute(String key, Object attribute) {
+		super.setAttribute(key, attribute);
+		deltaTracker.attributeChanged(this, key, attribute);
+	}
+
+	@Override
+	public void removeAttribute(String name, boolean byPassValidCheck) {
+		super.removeAttribute(name, byPassValidCheck);
+		if(name != null && isValidInternal()) {
+			deltaTracker.attributeChanged(this, name, null);
+		}
+	}
+
+	@Override
+	public void invalidate(boolean bypassCheck) {
+		final boolean wasValid = isValidInternal();
+		super.invalidate(bypassCheck);
+		if(wasValid) {
+			deltaTracker.sessionInvalidated(this);
+		}
+	}
+
+	public SessionDeltaTracker.Changes takeChanges() throws IOException {
+		// the values are taken from the tracker so that the attributes paged out are not paged back in
+		return deltaTracker.takeChanges(getKey().toString(), getLastAccessedTime());
+	}
+
+	public void restoreChanges(SessionDeltaTracker.Changes changes) {
+		deltaTracker.restoreChanges(this, changes);
+	}
+}
@@ -0,0 +1,251 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.mobicents.servlet.sip.core.SipContext;
+import org.mobicents.servlet.sip.message.SipFactoryImpl;
+
+/**
+ * Manager delegate replicating the changes made to the sessions through a {@link ReplicationTransport}.<br/>
+ * The sessions it creates track the attributes set or removed and their invalidation. 
+ * The sessions changed while processing a request, a response or a timer are collected in a batch started by 
+ * {@link #startReplicationBatch()} when the application is entered and only their changes, 
+ * the {@link SessionDelta}s, are shipped together by {@link #endReplicationBatch(boolean)} when it is exited.
+ * The sessions changed outside of a batch, by an application thread for instance, are shipped with the next batch 
+ * or by {@link #replicatePendingSessions()}, called by the background processing of the manager, whichever comes first.<br/>
+ * The changes that couldn't be shipped are given back to their sessions : a session whose changes can't be serialized 
+ * is shipped again on its next change, and the sessions of a delta the transport failed to ship are retried by the next replication.
+ */
+public class ReplicatedSipManagerDelegate extends SipStandardManagerDelegate {
+
+	private static final Logger logger = Logger.getLogger(ReplicatedSipManagerDelegate.class);
+
+	private volatile ReplicationTransport replicationTransport = new LoopbackReplicationTransport();
+
+	// sessions changed by the current thread since its batch started
+	private final ThreadLocal<Set<ReplicatedSession>> batches = new ThreadLocal<Set<ReplicatedSession>>();
+	// sessions changed outside of a batch
+	private final ConcurrentLinkedQueue<ReplicatedSession> pendingSessions = new ConcurrentLinkedQueue<ReplicatedSession>();
+
+	private final AtomicLong replications = new AtomicLong();
+	private final AtomicLong replicatedSessions = new AtomicLong();
+	private final AtomicLong replicatedBytes = new AtomicLong();
+	private final AtomicLong maxReplicatedBytes = new AtomicLong();
+	private final AtomicLong failedReplications = new AtomicLong();
+	private final AtomicLong failedSessionReplications = new AtomicLong();
+
+	@Override
+	protected SipSessionImpl newSipSessionImpl(SipSessionKey key, SipFactoryImpl sipFactoryImpl, MobicentsSipApplicationSession mobicentsSipApplicationSession) {
+		return new ReplicatedSipSessionImpl(key, sipFactoryImpl, mobicentsSipApplicationSession, this);
+	}
+
+	@Override
+	protected SipApplicationSessionImpl newSipApplicationSessionImpl(SipApplicationSessionKey key, SipContext sipContext) {
+		return new ReplicatedSipApplicationSessionImpl(key, sipContext, this);
+	}
+
+	/**
+	 * Starts collecting the sessions changed by the current thread, unless a batch has already been started
+	 * @return true if a batch has been started, to be passed to {@link #endReplicationBatch(boolean)}
+	 */
+	public boolean startReplicationBatch() {
+		if(batches.get() != null) {
+			return false;
+		}
+		batches.set(new LinkedHashSet<ReplicatedSession>());
+		return true;
+	}
+
+	/**
+	 * Ships the changes made to the sessions collected since the batch started
+	 * @param batchStarted the value returned by {@link #startReplicationBatch()}, nothing is done if false
+	 */
+	public void endReplicationBatch(boolean batchStarted) {
+		if(!batchStarted) {
+			return;
+		}
+		final Set<ReplicatedSession> batch = batches.get();
+		batches.remove();
+		if(batch == null) {
+			return;
+		}
+		ReplicatedSession pendingSession = null;
+		while ((pendingSession = pendingSessions.poll()) != null) {
+			batch.add(pendingSession);
+		}
+		if(batch.isEmpty()) {
+			return;
+		}
+		replicate(new ArrayList<ReplicatedSession>(batch));
+	}
+
+	/**
+	 * Ships the changes made to the sessions outside of a batch since they were last replicated, 
+	 * to be called periodically so that they don't wait for the next request, response or timer of the application
+	 * @return the number of sessions replicated
+	 */
+	public int replicatePendingSessions() {
+		final List<ReplicatedSession> sessions = new ArrayList<ReplicatedSession>();
+		ReplicatedSession pendingSession = null;
+		while ((pendingSession = pendingSessions.poll()) != null) {
+			sessions.add(pendingSession);
+		}
+		if(!sessions.isEmpty()) {
+			replicate(sessions);
+		}
+		return sessions.size();
+	}
+
+	/**
+	 * Called by the sessions on their first change since they were last replicated
+	 */
+	void sessionDirty(ReplicatedSession session) {
+		final Set<ReplicatedSession> batch = batches.get();
+		if(batch != null) {
+			batch.add(session);
+		} else {
+			pendingSessions.add(session);
+		}
+	}
+
+	private void replicate(List<ReplicatedSession> dirtySessions) {
+		final String applicationName = container == null ? null : container.getApplicationName();
+		final List<ReplicatedSession> sessions = new ArrayList<ReplicatedSession>(dirtySessions.size());
+		final List<SessionDeltaTracker.Changes> changes = new ArrayList<SessionDeltaTracker.Changes>(dirtySessions.size());
+		final List<byte[]> sessionDeltas = new ArrayList<byte[]>(dirtySessions.size());
+		for (ReplicatedSession session : dirtySessions) {
+			try {
+				final SessionDeltaTracker.Changes sessionChanges = session.takeChanges();
+				sessions.add(session);
+				changes.add(sessionChanges);
+				sessionDeltas.add(sessionChanges.getDelta());
+			} catch (IOException e) {
+				// the changes are kept by the session, the other sessions are still shipped
+				failedSessionReplications.incrementAndGet();
+				logger.error("Couldn't serialize the changes made to a session of the application " + applicationName, e);
+			}
+		}
+		if(sessions.isEmpty()) {
+			return;
+		}
+		final byte[] delta;
+		try {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final DataOutputStream out = new DataOutputStream(bytes);
+			SessionDelta.write(out, sessionDeltas);
+			out.close();
+			delta = bytes.toByteArray();
+			replicationTransport.replicate(applicationName, delta);
+		} catch (IOException e) {
+			failedReplications.incrementAndGet();
+			logger.error("Couldn't replicate the changes made to " + sessions.size() + " sessions of the application " + applicationName + 
+					", they will be shipped again with the next replication", e);
+			for (int i = 0; i < sessions.size(); i++) {
+				sessions.get(i).restoreChanges(changes.get(i));
+			}
+			return;
+		}
+		replications.incrementAndGet();
+		replicatedSessions.addAndGet(sessions.size());
+		replicatedBytes.addAndGet(delta.length);
+		long max = maxReplicatedBytes.get();
+		while (delta.length > max && !maxReplicatedBytes.compareAndSet(max, delta.length)) {
+			max = maxReplicatedBytes.get();
+		}
+		if(logger.isDebugEnabled()) {
+			logger.debug("Replicated " + delta.length + " bytes of changes made to " + sessions.size() + " sessions of the application " + applicationName);
+		}
+	}
+
+	public ReplicationTransport getReplicationTransport() {
+		return replicationTransport;
+	}
+
+	public void setReplicationTransport(ReplicationTransport replicationTransport) {
+		this.replicationTransport = replicationTransport;
+	}
+
+	/**
+	 * @param replicationTransportClassName the class name of the {@link ReplicationTransport}, it must have a public no-arg constructor
+	 */
+	public void setReplicationTransportClassName(String replicationTransportClassName) {
+		try {
+			replicationTransport = (ReplicationTransport) Class.forName(replicationTransportClassName).newInstance();
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Couldn't instantiate the replication transport " + replicationTransportClassName, e);
+		}
+	}
+
+	public String getReplicationTransportClassName() {
+		return replicationTransport.getClass().getName();
+	}
+
+	/**
+	 * @return the number of deltas shipped, one per request, response or timer having changed sessions
+	 */
+	public long getReplications() {
+		return replications.get();
+	}
+
+	public long getReplicatedSessions() {
+		return replicatedSessions.get();
+	}
+
+	public long getReplicatedBytes() {
+		return replicatedBytes.get();
+	}
+
+	/**
+	 * @return the average size in bytes of the deltas shipped
+	 */
+	public long getAverageReplicatedBytesPerCall() {
+		final long replications = this.replications.get();
+		return replications == 0 ? 0 : replicatedBytes.get() / replications;
+	}
+
+	/**
+	 * @return the size in bytes of the biggest delta shipped
+	 */
+	public long getMaxReplicatedBytesPerCall() {
+		return maxReplicatedBytes.get();
+	}
+
+	public long getFailedReplications() {
+		return failedReplications.get();
+	}
+
+	/**
+	 * @return the number of times the changes made to a session couldn't be serialized, an attribute not being serializable for instance
+	 */
+	public long getFailedSessionReplications() {
+		return failedSessionReplications.get();
+	}
+}
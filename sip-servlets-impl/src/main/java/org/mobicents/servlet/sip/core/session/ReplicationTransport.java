@@ -0,0 +1,38 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.session;
+
+import java.io.IOException;
+
+/**
+ * Ships the changes made to the sessions of an application to the other nodes of the cluster, 
+ * see {@link ReplicatedSipManagerDelegate}.
+ * Implementations must be thread safe and provide a public no-arg constructor.
+ */
+public interface ReplicationTransport {
+
+	/**
+	 * Called by the thread that processed the request, response or timer that changed the sessions
+	 * @param applicationName the name of the application the sessions belong to
+	 * @param delta the changes made to the sessions, to be read with {@link SessionDelta#read(byte[], ClassLoader)}
+	 * @throws IOException if the delta couldn't be shipped
+	 */
+	void replicate(String applicationName, byte[] delta) throws IOException;
+}
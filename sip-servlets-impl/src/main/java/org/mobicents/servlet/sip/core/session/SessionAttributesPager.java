@@ -0,0 +1,484 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps at most a given number of sessions with their attributes on the heap, the hot set, 
+ * and pages the attributes of the other ones out to a {@link SessionStateStore}.<br/>
+ * The sessions are only paged out when they are idle, and only their attributes which make most of the state
+ * of long lived sessions such as registrations or subscriptions : dialogs, transactions and timers stay on the heap.
+ * The attributes are paged back in on the next access to them, the {@link javax.servlet.sip.SipSessionActivationListener}s 
+ * and {@link javax.servlet.sip.SipApplicationSessionActivationListener}s being notified through passivate() and activate().<br/>
+ * The sessions to page out are chosen with the clock algorithm : the resident sessions are queued 
+ * and the ones accessed since their last turn are given a second chance, so that only sessions 
+ * left idle for a full round of the queue are paged out. They are paged out by a thread of the pager rather than by 
+ * the thread making a session resident, so that the passivation listeners of other sessions don't run on a request thread.<br/>
+ * The attributes are changed through {@link #putAttribute(PageableAttributes, String, Object)} and 
+ * {@link #removeAttribute(PageableAttributes, String)}, under the monitor of the session which is also held 
+ * while they are serialized and released, so that no change can be lost to a page out.
+ * Independently of the size of the hot set, the manager can also swap out the attributes of the sessions 
+ * idle for longer than a given time, see {@link SipManagerDelegate#setMaxIdleSwap(int)}. The resident sessions are then 
+ * also queued by their last access, so that only the sessions idle for long enough are looked at.
+ */
+public class SessionAttributesPager {
+
+	private static final Logger logger = Logger.getLogger(SessionAttributesPager.class);
+
+	private final SessionStateStore store;
+	private final int maxResidentSessions;
+	// the resident sessions ordered by their last access known to the pager, null if idle sessions are not swapped out
+	private final PriorityQueue<IdleSession> idleSessions;
+
+	private final ConcurrentLinkedQueue<PageableAttributes> residentSessions = new ConcurrentLinkedQueue<PageableAttributes>();
+	private final AtomicInteger numberOfResidentSessions = new AtomicInteger();
+	private final AtomicBoolean evicting = new AtomicBoolean();
+	// created on the first eviction, so that the pagers replaced while configuring the manager don't start a thread
+	private ExecutorService evictionExecutor;
+	private final Runnable evictionTask = new Runnable() {
+		public void run() {
+			try {
+				evict();
+			} catch (Throwable t) {
+				logger.error("Couldn't page out the attributes of the sessions", t);
+			} finally {
+				evicting.set(false);
+			}
+		}
+	};
+	private final AtomicLong numberOfPageOuts = new AtomicLong();
+	private final AtomicLong numberOfPageIns = new AtomicLong();
+	private final AtomicLong totalPageInTime = new AtomicLong();
+	private final AtomicLong maxPageInTime = new AtomicLong();
+
+	/**
+	 * @param store the store to page the attributes out to
+	 * @param maxResidentSessions the maximum number of sessions keeping their attributes on the heap, 
+	 * -1 to only page out the ones swapped out explicitly
+	 */
+	public SessionAttributesPager(SessionStateStore store, int maxResidentSessions) {
+		this(store, maxResidentSessions, false);
+	}
+
+	/**
+	 * @param store the store to page the attributes out to
+	 * @param maxResidentSessions the maximum number of sessions keeping their attributes on the heap, 
+	 * -1 to only page out the ones swapped out explicitly
+	 * @param swapIdleSessions true to queue the resident sessions for {@link #swapOutIdleSessions(long)}
+	 */
+	public SessionAttributesPager(SessionStateStore store, int maxResidentSessions, boolean swapIdleSessions) {
+		this.store = store;
+		this.maxResidentSessions = maxResidentSessions;
+		this.idleSessions = swapIdleSessions ? new PriorityQueue<IdleSession>() : null;
+	}
+
+	/**
+	 * @return the attributes of the session, paged back in or created if needed
+	 */
+	Map<String, Object> getAttributes(PageableAttributes session) {
+		Map<String, Object> attributes;
+		boolean pagedIn = false;
+		synchronized (session) {
+			attributes = session.getResidentAttributes();
+			if(attributes != null) {
+				return attributes;
+			}
+			final long handle = session.getPagedOutAttributes();
+			if(handle < 0) {
+				attributes = session.newAttributeMap();
+			} else {
+				attributes = pageIn(session, handle);
+				session.setPagedOutAttributes(-1);
+				pagedIn = true;
+			}
+			session.setResidentAttributes(attributes);
+		}
+		if(pagedIn) {
+			session.activate();
+		}
+		if(idleSessions != null && session.isValidInternal()) {
+			queueIdleSession(session, session.getLastAccessedTime());
+		}
+		if(maxResidentSessions >= 0 && session.isValidInternal()) {
+			residentSessions.add(session);
+			if(numberOfResidentSessions.incrementAndGet() > maxResidentSessions) {
+				scheduleEviction();
+			}
+		}
+		return attributes;
+	}
+
+	/**
+	 * Sets an attribute of the session, paging them back in if needed
+	 * @return the previous value of the attribute
+	 */
+	Object putAttribute(PageableAttributes session, String name, Object value) {
+		while (true) {
+			final Map<String, Object> attributes = getAttributes(session);
+			synchronized (session) {
+				// otherwise they have been paged out again since they were paged in, and the change would be lost
+				if(session.getResidentAttributes() == attributes) {
+					return attributes.put(name, value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes an attribute of the session, paging them back in if needed
+	 * @return the value of the attribute removed
+	 */
+	Object removeAttribute(PageableAttributes session, String name) {
+		while (true) {
+			final Map<String, Object> attributes = getAttributes(session);
+			synchronized (session) {
+				if(session.getResidentAttributes() == attributes) {
+					return attributes.remove(name);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Releases the attributes of the session paged out, if any, to be called on invalidation
+	 */
+	void release(PageableAttributes session) {
+		synchronized (session) {
+			final long handle = session.getPagedOutAttributes();
+			if(handle >= 0) {
+				store.remove(handle);
+				session.setPagedOutAttributes(-1);
+			}
+		}
+	}
+
+	/**
+	 * Pages out the attributes of an idle session regardless of the size of the hot set
+	 * @return true if the attributes have been paged out, false if they are in use or already paged out
+	 */
+	boolean swapOut(PageableAttributes session) {
+		if(session.getResidentAttributes() == null || !session.isAttributesPageable()) {
+			return false;
+		}
+		// only the accesses made from now on will cancel the swap
+		session.clearAttributesAccessed();
+		return pageOut(session);
+	}
+
+	/**
+	 * Swaps out the attributes of the sessions not accessed since the given time, only the sessions queued 
+	 * with an older access being looked at
+	 * @param idleSince the time before which the sessions have to be last accessed
+	 * @return the number of sessions swapped out
+	 */
+	int swapOutIdleSessions(long idleSince) {
+		if(idleSessions == null) {
+			return 0;
+		}
+		int swapped = 0;
+		while (true) {
+			final IdleSession idleSession;
+			synchronized (idleSessions) {
+				idleSession = idleSessions.peek();
+				if(idleSession == null || idleSession.lastAccessedTime >= idleSince) {
+					return swapped;
+				}
+				idleSessions.poll();
+			}
+			final PageableAttributes session = idleSession.session;
+			if(!session.isValidInternal() || session.getResidentAttributes() == null) {
+				// invalidated or already paged out, it will be queued again when paged in
+				continue;
+			}
+			final long lastAccessedTime = session.getLastAccessedTime();
+			if(lastAccessedTime >= idleSince) {
+				// accessed since it was queued
+				queueIdleSession(session, lastAccessedTime);
+			} else if(swapOut(session)) {
+				swapped++;
+			} else {
+				// in use, looked at again once idle for as long
+				queueIdleSession(session, System.currentTimeMillis());
+			}
+		}
+	}
+
+	private void queueIdleSession(PageableAttributes session, long lastAccessedTime) {
+		synchronized (idleSessions) {
+			idleSessions.add(new IdleSession(session, lastAccessedTime));
+		}
+	}
+
+	private void scheduleEviction() {
+		if(!evicting.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			getEvictionExecutor().execute(evictionTask);
+		} catch (RejectedExecutionException e) {
+			// the pager has been cleared
+			evicting.set(false);
+		}
+	}
+
+	private synchronized ExecutorService getEvictionExecutor() {
+		if(evictionExecutor == null) {
+			evictionExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					final Thread thread = new Thread(runnable, "SessionAttributesPager");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return evictionExecutor;
+	}
+
+	/**
+	 * Pages out the attributes of the sessions left idle for a full round of the hot set until it fits its maximum size, 
+	 * the sessions in use being looked at once at most
+	 */
+	void evict() {
+		for (int scans = numberOfResidentSessions.get(); scans > 0 && numberOfResidentSessions.get() > maxResidentSessions; scans--) {
+			final PageableAttributes session = residentSessions.poll();
+			if(session == null) {
+				return;
+			}
+			numberOfResidentSessions.decrementAndGet();
+			if(!session.isValidInternal() || session.getResidentAttributes() == null) {
+				// invalidated or already paged out, it will be queued again when paged in
+				continue;
+			}
+			if(session.clearAttributesAccessed() || !session.isAttributesPageable() || !pageOut(session)) {
+				residentSessions.add(session);
+				numberOfResidentSessions.incrementAndGet();
+			}
+		}
+	}
+
+	private boolean pageOut(PageableAttributes session) {
+		final Map<String, Object> attributes = session.getResidentAttributes();
+		if(attributes == null) {
+			return true;
+		}
+		session.passivate();
+		boolean pagedOut = false;
+		// the attributes are changed under the monitor of the session, so they can't change between the check, 
+		// their serialization and their release
+		synchronized (session) {
+			if(!session.clearAttributesAccessed() && session.getResidentAttributes() == attributes && session.isValidInternal()) {
+				long handle = -1;
+				try {
+					if(!attributes.isEmpty()) {
+						handle = store.store(serialize(attributes));
+					}
+					session.setResidentAttributes(null);
+					session.setPagedOutAttributes(handle);
+					pagedOut = true;
+				} catch (IOException e) {
+					if(logger.isDebugEnabled()) {
+						logger.debug("Attributes of the session " + session + " can't be paged out", e);
+					}
+				}
+			}
+		}
+		if(!pagedOut) {
+			session.activate();
+			return false;
+		}
+		numberOfPageOuts.incrementAndGet();
+		if(logger.isDebugEnabled()) {
+			logger.debug("Paged out the attributes of the session " + session);
+		}
+		return true;
+	}
+
+	private Map<String, Object> pageIn(PageableAttributes session, long handle) {
+		final long start = System.nanoTime();
+		final Map<String, Object> attributes = session.newAttributeMap();
+		try {
+			final byte[] state = store.load(handle);
+			if(state == null) {
+				logger.error("The attributes of the session " + session + " are missing from the store, they are lost");
+				return attributes;
+			}
+			deserialize(state, session.getAttributesClassLoader(), attributes);
+		} catch (Exception e) {
+			logger.error("The attributes of the session " + session + " couldn't be paged in, they are lost", e);
+			attributes.clear();
+		}
+		final long pageInTime = System.nanoTime() - start;
+		totalPageInTime.addAndGet(pageInTime);
+		long max = maxPageInTime.get();
+		while (pageInTime > max && !maxPageInTime.compareAndSet(max, pageInTime)) {
+			max = maxPageInTime.get();
+		}
+		numberOfPageIns.incrementAndGet();
+		if(logger.isDebugEnabled()) {
+			logger.debug("Paged in the attributes of the session " + session);
+		}
+		return attributes;
+	}
+
+	static byte[] serialize(Map<String, Object> attributes) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ObjectOutputStream out = new ObjectOutputStream(bytes);
+		// snapshot so that the count written matches the entries
+		final Object[] entries = attributes.entrySet().toArray();
+		out.writeInt(entries.length);
+		for (Object entry : entries) {
+			out.writeObject(((Entry<?, ?>) entry).getKey());
+			out.writeObject(((Entry<?, ?>) entry).getValue());
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	static void deserialize(byte[] state, ClassLoader classLoader, Map<String, Object> attributes) throws IOException, ClassNotFoundException {
+		final ObjectInputStream in = new ApplicationObjectInputStream(new ByteArrayInputStream(state), classLoader);
+		final int size = in.readInt();
+		for (int i = 0; i < size; i++) {
+			final String key = (String) in.readObject();
+			attributes.put(key, in.readObject());
+		}
+		in.close();
+	}
+
+	/**
+	 * Removes all the attributes paged out, to be called once the sessions have been removed
+	 */
+	public void clear() {
+		synchronized (this) {
+			if(evictionExecutor != null) {
+				evictionExecutor.shutdownNow();
+				evictionExecutor = null;
+			}
+		}
+		residentSessions.clear();
+		numberOfResidentSessions.set(0);
+		if(idleSessions != null) {
+			synchronized (idleSessions) {
+				idleSessions.clear();
+			}
+		}
+		store.clear();
+	}
+
+	public SessionStateStore getStore() {
+		return store;
+	}
+
+	public int getMaxResidentSessions() {
+		return maxResidentSessions;
+	}
+
+	/**
+	 * @return the number of sessions of the hot set, 0 if its size isn't bounded
+	 */
+	public int getNumberOfResidentSessions() {
+		return numberOfResidentSessions.get();
+	}
+
+	/**
+	 * @return the number of sessions with their attributes paged out
+	 */
+	public int getNumberOfPagedOutSessions() {
+		return store.size();
+	}
+
+	public long getNumberOfPageOuts() {
+		return numberOfPageOuts.get();
+	}
+
+	public long getNumberOfPageIns() {
+		return numberOfPageIns.get();
+	}
+
+	/**
+	 * @return the average time taken to page the attributes of a session back in, in microseconds
+	 */
+	public long getAveragePageInTime() {
+		final long numberOfPageIns = this.numberOfPageIns.get();
+		return numberOfPageIns == 0 ? 0 : totalPageInTime.get() / numberOfPageIns / 1000;
+	}
+
+	/**
+	 * @return the longest time taken to page the attributes of a session back in, in microseconds
+	 */
+	public long getMaxPageInTime() {
+		return maxPageInTime.get() / 1000;
+	}
+
+	private static final class IdleSession implements Comparable<IdleSession> {
+		private final PageableAttributes session;
+		private final long lastAccessedTime;
+
+		private IdleSession(PageableAttributes session, long lastAccessedTime) {
+			this.session = session;
+			this.lastAccessedTime = lastAccessedTime;
+		}
+
+		public int compareTo(IdleSession idleSession) {
+			return lastAccessedTime < idleSession.lastAccessedTime ? -1 : (lastAccessedTime > idleSession.lastAccessedTime ? 1 : 0);
+		}
+	}
+
+	// resolves the classes of the attributes with the class loader of the application
+	static final class ApplicationObjectInputStream extends ObjectInputStream {
+		private final ClassLoader classLoader;
+
+		ApplicationObjectInputStream(InputStream in, ClassLoader classLoader) throws IOException {
+			super(in);
+			this.classLoader = classLoader;
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			if(classLoader != null) {
+				try {
+					return Class.forName(desc.getName(), false, classLoader);
+				} catch (ClassNotFoundException e) {
+					// falls back on the default resolution, for the primitive types by example
+				}
+			}
+			return super.resolveClass(desc);
+		}
+	}
+}
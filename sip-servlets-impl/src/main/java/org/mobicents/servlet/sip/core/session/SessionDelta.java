@@ -0,0 +1,181 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.mobicents.servlet.sip.message.CompactExternalizer;
+
+/**
+ * Changes made to a sip session or sip application session since it was last replicated : 
+ * the attributes set or removed, whether it has just been created or invalidated, and its last accessed time.<br/>
+ * A delta is made of the changes to all the sessions of an application made while processing a request, 
+ * a response or a timer, each attribute changed being written once with the value it was last set to.
+ * The changes of each session are serialized on their own, so that a session whose attributes can't be serialized
+ * doesn't prevent the changes of the other sessions from being shipped.
+ */
+public class SessionDelta {
+
+	public static final byte SIP_APPLICATION_SESSION = 0;
+	public static final byte SIP_SESSION = 1;
+
+	private static final byte CREATED = 1;
+	private static final byte INVALIDATED = 2;
+
+	private final byte type;
+	private final String key;
+	private final boolean created;
+	private final boolean invalidated;
+	private final long lastAccessedTime;
+	private final Map<String, Object> setAttributes = new HashMap<String, Object>();
+	private final Set<String> removedAttributes = new HashSet<String>();
+
+	private SessionDelta(byte type, String key, boolean created, boolean invalidated, long lastAccessedTime) {
+		this.type = type;
+		this.key = key;
+		this.created = created;
+		this.invalidated = invalidated;
+		this.lastAccessedTime = lastAccessedTime;
+	}
+
+	/**
+	 * Serializes the changes of a session
+	 * @param changedAttributes the attributes set since the last replication with their value, null for the ones removed
+	 * @return the changes serialized, to be shipped in a delta built by {@link #write(DataOutput, List)}
+	 */
+	static byte[] write(byte type, String key, boolean created, boolean invalidated, long lastAccessedTime, 
+			Map<String, Object> changedAttributes) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ObjectOutputStream out = new ObjectOutputStream(bytes);
+		write(out, type, key, created, invalidated, lastAccessedTime, changedAttributes);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Writes a delta made of the serialized changes of several sessions
+	 */
+	static void write(DataOutput out, List<byte[]> sessionDeltas) throws IOException {
+		CompactExternalizer.writeVersion(out);
+		out.writeInt(sessionDeltas.size());
+		for (byte[] sessionDelta : sessionDeltas) {
+			out.writeInt(sessionDelta.length);
+			out.write(sessionDelta);
+		}
+	}
+
+	private static void write(ObjectOutputStream out, byte type, String key, boolean created, boolean invalidated, long lastAccessedTime, 
+			Map<String, Object> changedAttributes) throws IOException {
+		out.writeByte(type);
+		CompactExternalizer.writeString(out, key);
+		out.writeByte((created ? CREATED : 0) | (invalidated ? INVALIDATED : 0));
+		out.writeLong(lastAccessedTime);
+		if(invalidated) {
+			out.writeInt(0);
+			return;
+		}
+		out.writeInt(changedAttributes.size());
+		for (Map.Entry<String, Object> changedAttribute : changedAttributes.entrySet()) {
+			CompactExternalizer.writeString(out, changedAttribute.getKey());
+			// null if the attribute has been removed
+			out.writeObject(changedAttribute.getValue());
+		}
+	}
+
+	/**
+	 * @param delta the delta shipped by the {@link ReplicationTransport}
+	 * @param classLoader the class loader of the application, to read the attributes
+	 * @return the changes to each session
+	 */
+	public static List<SessionDelta> read(byte[] delta, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+		final DataInputStream deltaIn = new DataInputStream(new ByteArrayInputStream(delta));
+		CompactExternalizer.readVersion(deltaIn);
+		final int size = deltaIn.readInt();
+		final List<SessionDelta> sessionDeltas = new ArrayList<SessionDelta>(size);
+		for (int i = 0; i < size; i++) {
+			final byte[] serializedSessionDelta = new byte[deltaIn.readInt()];
+			deltaIn.readFully(serializedSessionDelta);
+			final ObjectInputStream in = new SessionAttributesPager.ApplicationObjectInputStream(new ByteArrayInputStream(serializedSessionDelta), classLoader);
+			final byte type = in.readByte();
+			final String key = CompactExternalizer.readString(in);
+			final byte flags = in.readByte();
+			final SessionDelta sessionDelta = new SessionDelta(type, key, (flags & CREATED) != 0, (flags & INVALIDATED) != 0, in.readLong());
+			final int attributes = in.readInt();
+			for (int j = 0; j < attributes; j++) {
+				final String name = CompactExternalizer.readString(in);
+				final Object value = in.readObject();
+				if(value == null) {
+					sessionDelta.removedAttributes.add(name);
+				} else {
+					sessionDelta.setAttributes.put(name, value);
+				}
+			}
+			in.close();
+			sessionDeltas.add(sessionDelta);
+		}
+		return sessionDeltas;
+	}
+
+	/**
+	 * @return {@link #SIP_APPLICATION_SESSION} or {@link #SIP_SESSION}
+	 */
+	public byte getType() {
+		return type;
+	}
+
+	/**
+	 * @return the key of the session, as returned by its toString method
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	public boolean isCreated() {
+		return created;
+	}
+
+	public boolean isInvalidated() {
+		return invalidated;
+	}
+
+	public long getLastAccessedTime() {
+		return lastAccessedTime;
+	}
+
+	public Map<String, Object> getSetAttributes() {
+		return setAttributes;
+	}
+
+	public Set<String> getRemovedAttributes() {
+		return removedAttributes;
+	}
+}
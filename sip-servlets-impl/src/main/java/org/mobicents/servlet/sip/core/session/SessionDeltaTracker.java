@@ -0,0 +1,152 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.session;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tracks the changes made to a session since it was last replicated and registers it 
+ * to the {@link ReplicatedSipManagerDelegate} on the first one.
+ * Only setting or removing an attribute makes it dirty, the value replicated being the one last set, 
+ * so an attribute value changed in place has to be set again to be replicated.<br/>
+ * The changes are taken from the tracker when they are serialized and given back to it if they couldn't be shipped,
+ * so that they are not lost.
+ */
+final class SessionDeltaTracker {
+
+	private final ReplicatedSipManagerDelegate manager;
+	private final byte type;
+	// name -> value last set, null if removed
+	private final Map<String, Object> changedAttributes = new LinkedHashMap<String, Object>();
+	private boolean created = true;
+	private boolean invalidated;
+	private boolean dirty;
+
+	SessionDeltaTracker(ReplicatedSipManagerDelegate manager, byte type) {
+		this.manager = manager;
+		this.type = type;
+	}
+
+	/**
+	 * to be called once the session has been created
+	 */
+	void sessionCreated(ReplicatedSession session) {
+		markDirty(session);
+	}
+
+	/**
+	 * @param value the value set, null if the attribute has been removed
+	 */
+	void attributeChanged(ReplicatedSession session, String name, Object value) {
+		synchronized (this) {
+			if(invalidated) {
+				return;
+			}
+			changedAttributes.put(name, value);
+		}
+		markDirty(session);
+	}
+
+	void sessionInvalidated(ReplicatedSession session) {
+		synchronized (this) {
+			invalidated = true;
+			changedAttributes.clear();
+		}
+		markDirty(session);
+	}
+
+	private void markDirty(ReplicatedSession session) {
+		synchronized (this) {
+			if(dirty) {
+				return;
+			}
+			dirty = true;
+		}
+		manager.sessionDirty(session);
+	}
+
+	/**
+	 * Serializes the changes made since the last call and takes them from the tracker.
+	 * If they can't be serialized, they are given back to the tracker and will be shipped with the next change of the session
+	 * @return the changes, to be given back through {@link #restoreChanges(ReplicatedSession, Changes)} if they couldn't be shipped
+	 */
+	Changes takeChanges(String key, long lastAccessedTime) throws IOException {
+		final Changes changes;
+		synchronized (this) {
+			changes = new Changes(created, invalidated, new LinkedHashMap<String, Object>(changedAttributes));
+			created = false;
+			changedAttributes.clear();
+			dirty = false;
+		}
+		try {
+			changes.delta = SessionDelta.write(type, key, changes.created, changes.invalidated, lastAccessedTime, changes.changedAttributes);
+		} catch (IOException e) {
+			synchronized (this) {
+				merge(changes);
+			}
+			throw e;
+		}
+		return changes;
+	}
+
+	/**
+	 * Gives back changes taken from the tracker that couldn't be shipped, the session being registered again to the manager
+	 */
+	void restoreChanges(ReplicatedSession session, Changes changes) {
+		synchronized (this) {
+			merge(changes);
+		}
+		markDirty(session);
+	}
+
+	// the changes made since they were taken win over them
+	private void merge(Changes changes) {
+		if(invalidated) {
+			return;
+		}
+		created |= changes.created;
+		final Map<String, Object> newerChangedAttributes = new LinkedHashMap<String, Object>(changedAttributes);
+		changedAttributes.clear();
+		changedAttributes.putAll(changes.changedAttributes);
+		changedAttributes.putAll(newerChangedAttributes);
+	}
+
+	/**
+	 * Changes taken from a tracker, along with their serialized form, see {@link SessionDelta}
+	 */
+	static final class Changes {
+		private final boolean created;
+		private final boolean invalidated;
+		private final Map<String, Object> changedAttributes;
+		private byte[] delta;
+
+		private Changes(boolean created, boolean invalidated, Map<String, Object> changedAttributes) {
+			this.created = created;
+			this.invalidated = invalidated;
+			this.changedAttributes = changedAttributes;
+		}
+
+		byte[] getDelta() {
+			return delta;
+		}
+	}
+}
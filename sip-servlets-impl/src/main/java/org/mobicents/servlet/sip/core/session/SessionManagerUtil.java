@@ -20,7 +20,8 @@
 package org.mobicents.servlet.sip.core.session;
 
 import java.text.ParseException;
-import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.sip.header.CallIdHeader;
 import javax.sip.header.FromHeader;
@@ -49,6 +50,9 @@ public class SessionManagerUtil {
 	public final static String TAG_PARAMETER_NAME = "tag";
 	// https://code.google.com/p/sipservlets/issues/detail?id=264 replaced colon by semicolon as semicolon is not allowed in CallID  
 	public final static String SESSION_KEY_SEPARATOR = ";";
+	// the names of parsed keys come from the outside so the number of application names shared is bounded
+	private final static int MAX_APPLICATION_NAMES = 1024;
+	private final static ConcurrentMap<String, String> applicationNames = new ConcurrentHashMap<String, String>();
 	
 	/**
 	 * Computes the sip session key from the input parameters. The sip session
@@ -128,26 +132,21 @@ public class SessionManagerUtil {
 	public static SipApplicationSessionKey parseSipApplicationSessionKey(
 			String sipApplicationKey) throws ParseException {
 				
-		int indexOfComma = sipApplicationKey.indexOf(SESSION_KEY_SEPARATOR);
+		final int indexOfComma = sipApplicationKey.indexOf(SESSION_KEY_SEPARATOR);
 		if(indexOfComma == -1) {
 			throw new ParseException("The comma could not be found in the following key " + sipApplicationKey, 0);
 		}
 		
-		String appGeneratedKey = null;
-		String uuid = sipApplicationKey.substring(0, indexOfComma);
-		String leftover = sipApplicationKey.substring(indexOfComma + 1, sipApplicationKey.length());
-		indexOfComma = leftover.indexOf(SESSION_KEY_SEPARATOR);
-		SipApplicationSessionKey sipApplicationSessionKey = null;
-		if(indexOfComma != -1) {
-			appGeneratedKey = uuid;
-			uuid = leftover.substring(0, indexOfComma);
-			String applicationName = leftover.substring(indexOfComma + 1, leftover.length());
-			sipApplicationSessionKey = getSipApplicationSessionKey(applicationName, uuid, appGeneratedKey);
-		} else {
-			String applicationName = leftover;
-			sipApplicationSessionKey = getSipApplicationSessionKey(applicationName, uuid, null);
-		}	
-		return sipApplicationSessionKey;
+		final int indexOfSecondComma = sipApplicationKey.indexOf(SESSION_KEY_SEPARATOR, indexOfComma + 1);
+		if(indexOfSecondComma != -1) {
+			final String appGeneratedKey = sipApplicationKey.substring(0, indexOfComma);
+			final String uuid = sipApplicationKey.substring(indexOfComma + 1, indexOfSecondComma);
+			final String applicationName = sipApplicationKey.substring(indexOfSecondComma + 1);
+			return getSipApplicationSessionKey(applicationName, uuid, appGeneratedKey);
+		}
+		final String uuid = sipApplicationKey.substring(0, indexOfComma);
+		final String applicationName = sipApplicationKey.substring(indexOfComma + 1);
+		return getSipApplicationSessionKey(applicationName, uuid, null);
 	}
 	
 	/**
@@ -170,22 +169,19 @@ public class SessionManagerUtil {
 		if(indexOfRightParenthesis == -1) {
 			throw new ParseException("The right parenthesis could not be found in the following key " + sipSessionKey, 0);
 		}
-		String sipSessionKeyToParse = sipSessionKey.substring(indexOfLeftParenthesis+1, indexOfRightParenthesis);
 		if(logger.isDebugEnabled()) {
-			logger.debug("sipSession key to parse " + sipSessionKeyToParse );
+			logger.debug("sipSession key to parse " + sipSessionKey.substring(indexOfLeftParenthesis+1, indexOfRightParenthesis));
+		}
+		final String[] tokens = new String[5];
+		final int tokenCount = tokenize(sipSessionKey, indexOfLeftParenthesis + 1, indexOfRightParenthesis, tokens);
+		if(tokenCount < 4) {
+			throw new ParseException("The following key has only " + tokenCount + " components " + sipSessionKey, 0);
 		}
-		StringTokenizer stringTokenizer = new StringTokenizer(sipSessionKeyToParse, SESSION_KEY_SEPARATOR);		
-		String fromTag = stringTokenizer.nextToken();
-		String toTag = null;
-		if(stringTokenizer.countTokens() == 4) {
+		if(tokenCount == 5) {
 			// Issue 2365 : to tag needed for getApplicationSession().getSipSession(<sessionId>) to return forked session and not the parent one
-			toTag = stringTokenizer.nextToken();
+			return new SipSessionKey(tokens[0], tokens[1], tokens[2], tokens[3], tokens[4]);
 		}
-		String callId = stringTokenizer.nextToken();
-		String applicationSessionId = stringTokenizer.nextToken();
-		String applicationName = stringTokenizer.nextToken();
-		
-		return new SipSessionKey(fromTag, toTag, callId, applicationSessionId, applicationName);
+		return new SipSessionKey(tokens[0], null, tokens[1], tokens[2], tokens[3]);
 	}
 	
 	
@@ -202,11 +198,54 @@ public class SessionManagerUtil {
 		if(logger.isDebugEnabled()) {
 			logger.debug("sipSession ha key to parse " + sipSessionKey );
 		}
-		StringTokenizer stringTokenizer = new StringTokenizer(sipSessionKey, SESSION_KEY_SEPARATOR);
-		String fromTag = stringTokenizer.nextToken();
-		String callId = stringTokenizer.nextToken();
+		final String[] tokens = new String[2];
+		if(tokenize(sipSessionKey, 0, sipSessionKey.length(), tokens) < 2) {
+			throw new ParseException("The following ha key has less than 2 components " + sipSessionKey, 0);
+		}
 		
-		return new SipSessionKey(fromTag, null, callId, sipAppSessionId, sipApplicationName);
+		return new SipSessionKey(tokens[0], null, tokens[1], sipAppSessionId, sipApplicationName);
+	}
+	
+	/**
+	 * Splits the given range of the key on the separator in a single pass, skipping the empty components.
+	 * @param tokens filled with the first components of the key
+	 * @return the number of components of the key, which may be greater than the length of tokens
+	 */
+	static int tokenize(String key, int start, int end, String[] tokens) {
+		int tokenCount = 0;
+		int tokenStart = start;
+		while(tokenStart < end) {
+			int tokenEnd = key.indexOf(SESSION_KEY_SEPARATOR, tokenStart);
+			if(tokenEnd == -1 || tokenEnd > end) {
+				tokenEnd = end;
+			}
+			if(tokenEnd > tokenStart) {
+				if(tokenCount < tokens.length) {
+					tokens[tokenCount] = key.substring(tokenStart, tokenEnd);
+				}
+				tokenCount++;
+			}
+			tokenStart = tokenEnd + SESSION_KEY_SEPARATOR.length();
+		}
+		return tokenCount;
+	}
+	
+	/**
+	 * @return the instance of the application name shared by all the session keys of the application
+	 */
+	static String internApplicationName(String applicationName) {
+		if(applicationName == null) {
+			return null;
+		}
+		final String sharedApplicationName = applicationNames.get(applicationName);
+		if(sharedApplicationName != null) {
+			return sharedApplicationName;
+		}
+		if(applicationNames.size() >= MAX_APPLICATION_NAMES) {
+			return applicationName;
+		}
+		final String existingApplicationName = applicationNames.putIfAbsent(applicationName, applicationName);
+		return existingApplicationName != null ? existingApplicationName : applicationName;
 	}
 
 	public static String getSipSessionHaKey(SipSessionKey key) {
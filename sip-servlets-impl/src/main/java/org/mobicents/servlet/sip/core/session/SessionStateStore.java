@@ -0,0 +1,64 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.session;
+
+import java.io.IOException;
+
+/**
+ * Storage for the serialized state of the sessions paged out of the heap by the {@link SessionAttributesPager}.
+ * Each stored state is identified by the handle returned when storing it.
+ * Implementations must be thread safe and provide a public no-arg constructor.
+ */
+public interface SessionStateStore {
+
+	/**
+	 * @param state the serialized state to keep
+	 * @return the handle to load or remove the state
+	 * @throws IOException if the state couldn't be stored
+	 */
+	long store(byte[] state) throws IOException;
+
+	/**
+	 * Loads the state stored under the handle and removes it from the store
+	 * @return the state or null if there is none for this handle
+	 * @throws IOException if the state couldn't be read back, it is removed from the store nonetheless
+	 */
+	byte[] load(long handle) throws IOException;
+
+	/**
+	 * Removes the state stored under the handle, if any
+	 */
+	void remove(long handle);
+
+	/**
+	 * @return the number of states currently stored
+	 */
+	int size();
+
+	/**
+	 * @return the number of bytes taken by the states currently stored
+	 */
+	long getSizeInBytes();
+
+	/**
+	 * Removes all the states stored and releases the resources of the store
+	 */
+	void clear();
+}
@@ -78,11 +78,16 @@ import org.mobicents.servlet.sip.utils.JvmRouteUtil;
  * 
  * @author <A HREF="mailto:jean.deruelle@gmail.com">Jean Deruelle</A> 
  */
-public class SipApplicationSessionImpl implements MobicentsSipApplicationSession {
+public class SipApplicationSessionImpl implements MobicentsSipApplicationSession, PageableAttributes {
 
 	private static final Logger logger = Logger.getLogger(SipApplicationSessionImpl.class);
 
-	protected Map<String, Object> sipApplicationSessionAttributeMap;
+	volatile protected Map<String, Object> sipApplicationSessionAttributeMap;
+	// pages the attributes out of the heap while the session is idle, null if the manager keeps them all on the heap
+	protected transient SessionAttributesPager attributesPager;
+	// handle of the attributes in the store of the pager while they are paged out
+	private transient volatile long pagedOutAttributes = -1;
+	private transient volatile boolean attributesAccessed;
 
 	protected transient Set<SipSessionKey> sipSessions;
 	
@@ -127,11 +132,25 @@ public class SipApplicationSessionImpl implements MobicentsSipApplicationSession
 	
 	// Does it need to be synchronized?
 	protected Map<String,Object> getAttributeMap() {
+		if(attributesPager != null) {
+			attributesAccessed = true;
+			final Map<String, Object> attributes = sipApplicationSessionAttributeMap;
+			if(attributes != null) {
+				return attributes;
+			}
+			return attributesPager.getAttributes(this);
+		}
 		if(sipApplicationSessionAttributeMap == null) {
-			sipApplicationSessionAttributeMap = new ConcurrentHashMap<String,Object>() ;
+			sipApplicationSessionAttributeMap = newAttributeMap();
 		}
 		return sipApplicationSessionAttributeMap;
 	}
+
+	public Map<String, Object> newAttributeMap() {
+		final SipContext sipContext = this.sipContext;
+		return SmallAttributeMap.newAttributeMap(sipContext != null && 
+				SmallAttributeMap.isSipApplicationSessionSingleWriter(sipContext.getConcurrencyControlMode()));
+	}
 	
 	@SuppressWarnings(value="unchecked")
 	protected SipApplicationSessionImpl(SipApplicationSessionKey key, SipContext sipContext) {
@@ -677,6 +696,10 @@ public class SipApplicationSessionImpl implements MobicentsSipApplicationSession
 				}
 			}
 		}
+		if(pagedOutAttributes >= 0) {
+			// page the attributes back in so that the listeners are notified of their removal
+			getAttributeMap();
+		}
 		if(this.sipApplicationSessionAttributeMap != null) {
 			for (String key : getAttributeMap().keySet()) {
 				removeAttribute(key, true);
@@ -708,18 +731,7 @@ public class SipApplicationSessionImpl implements MobicentsSipApplicationSession
          */
         long timeNow = System.currentTimeMillis();
         int timeAlive = (int) ((timeNow - creationTime)/1000);
-                
-        synchronized (manager) {
-            if (timeAlive > manager.getSipApplicationSessionMaxAliveTime()) {
-                manager.setSipApplicationSessionMaxAliveTime(timeAlive);
-            }
-            int numExpired = manager.getExpiredSipApplicationSessions();
-            numExpired++;
-            manager.setExpiredSipApplicationSessions(numExpired);
-            int average = manager.getSipApplicationSessionAverageAliveTime();
-            average = ((average * (numExpired-1)) + timeAlive)/numExpired;
-            manager.setSipApplicationSessionAverageAliveTime(average);
-        }
+        manager.sipApplicationSessionExpired(timeAlive);
         
 		notifySipApplicationSessionListeners(SipApplicationSessionEventType.DELETION);				
 		
@@ -745,6 +757,9 @@ public class SipApplicationSessionImpl implements MobicentsSipApplicationSession
 		httpSessions = null;
 		sipSessions = null;
 		sipApplicationSessionAttributeMap = null;
+		if(attributesPager != null) {
+			attributesPager.release(this);
+		}
 		servletTimers = null;			
 		if(logger.isInfoEnabled()) {
 			logger.info("The following sip application session " + key + " has been invalidated");
@@ -824,7 +839,7 @@ public class SipApplicationSessionImpl implements MobicentsSipApplicationSession
 
 		SipApplicationSessionBindingEvent event = null;
 		
-        Object value = this.getAttributeMap().remove(name);
+        Object value = removeAttributeValue(name);
 
         // Call the valueUnbound() method if necessary
         if (value != null && value instanceof SipApplicationSessionBindingListener) {
@@ -886,7 +901,7 @@ public class SipApplicationSessionImpl implements MobicentsSipApplicationSession
             }
         }
 		
-		Object previousValue = this.getAttributeMap().put(key, attribute);
+		Object previousValue = putAttributeValue(key, attribute);
 		
 		if (previousValue != null && previousValue != attribute &&
 	            previousValue instanceof SipApplicationSessionBindingListener) {
@@ -1043,10 +1058,11 @@ public class SipApplicationSessionImpl implements MobicentsSipApplicationSession
     public void passivate() {
         // Notify ActivationListeners
     	SipApplicationSessionEvent event = null;
-    	if(this.sipApplicationSessionAttributeMap != null) {
-	        Set<String> keySet = getAttributeMap().keySet();
+    	final Map<String, Object> attributes = this.sipApplicationSessionAttributeMap;
+    	if(attributes != null) {
+	        Set<String> keySet = attributes.keySet();
 	        for (String key : keySet) {
-	        	Object attribute = getAttributeMap().get(key);
+	        	Object attribute = attributes.get(key);
 	            if (attribute instanceof SipApplicationSessionActivationListener) {
 	                if (event == null)
 	                	event = new SipApplicationSessionActivationEvent(this, SessionActivationNotificationCause.PASSIVATION);
@@ -1068,10 +1084,11 @@ public class SipApplicationSessionImpl implements MobicentsSipApplicationSession
     public void activate() {        
         // Notify ActivationListeners
     	SipApplicationSessionEvent event = null;
-    	if(sipApplicationSessionAttributeMap != null) {
-	        Set<String> keySet = sipApplicationSessionAttributeMap.keySet();
+    	final Map<String, Object> attributes = this.sipApplicationSessionAttributeMap;
+    	if(attributes != null) {
+	        Set<String> keySet = attributes.keySet();
 	        for (String key : keySet) {
-	        	Object attribute = sipApplicationSessionAttributeMap.get(key);
+	        	Object attribute = attributes.get(key);
 	            if (attribute instanceof SipApplicationSessionActivationListener) {
 	                if (event == null)
 	                	event = new SipApplicationSessionActivationEvent(this, SessionActivationNotificationCause.ACTIVATION);
@@ -1267,6 +1284,65 @@ public class SipApplicationSessionImpl implements MobicentsSipApplicationSession
 	public Semaphore getSemaphore() {
 		return semaphore;
 	}
+
+	/**
+	 * @param attributesPager the pager of the attributes of this session, null to keep them on the heap
+	 */
+	public void setAttributesPager(SessionAttributesPager attributesPager) {
+		this.attributesPager = attributesPager;
+	}
+
+	public Map<String, Object> getResidentAttributes() {
+		return sipApplicationSessionAttributeMap;
+	}
+
+	public void setResidentAttributes(Map<String, Object> attributes) {
+		this.sipApplicationSessionAttributeMap = attributes;
+	}
+
+	public long getPagedOutAttributes() {
+		return pagedOutAttributes;
+	}
+
+	public void setPagedOutAttributes(long handle) {
+		this.pagedOutAttributes = handle;
+	}
+
+	// changed through the pager when there is one, so that the change can't be lost to a page out
+	private Object putAttributeValue(String name, Object value) {
+		if(attributesPager != null) {
+			attributesAccessed = true;
+			return attributesPager.putAttribute(this, name, value);
+		}
+		return getAttributeMap().put(name, value);
+	}
+
+	private Object removeAttributeValue(String name) {
+		if(attributesPager != null) {
+			attributesAccessed = true;
+			return attributesPager.removeAttribute(this, name);
+		}
+		return getAttributeMap().remove(name);
+	}
+
+	public boolean clearAttributesAccessed() {
+		final boolean accessed = attributesAccessed;
+		attributesAccessed = false;
+		return accessed;
+	}
+
+	/*
+	 * The attributes of a session locked by a request being processed are not paged out
+	 */
+	public boolean isAttributesPageable() {
+		final Semaphore semaphore = this.semaphore;
+		return isValidInternal() && (semaphore == null || semaphore.availablePermits() > 0);
+	}
+
+	public ClassLoader getAttributesClassLoader() {
+		final SipContext sipContext = this.sipContext;
+		return sipContext == null ? null : sipContext.getSipContextClassLoader();
+	}
 	
 	@SuppressWarnings(value="unchecked")
 	public MobicentsSipApplicationSession getFacade() {		
@@ -1353,7 +1429,7 @@ public class SipApplicationSessionImpl implements MobicentsSipApplicationSession
 	 */
 	public void scheduleAsynchronousWork(
 			SipApplicationSessionAsynchronousWork work) {
-		sipContext.getSipApplicationDispatcher().getAsynchronousExecutor().execute(new SipApplicationSessionAsyncTask(key, work, (SipFactoryImpl)sipContext.getSipApplicationDispatcher().getSipFactory()));
+		sipContext.getSipApplicationDispatcher().getConcurrencyModelExecutor(sipContext, key, null).execute(new SipApplicationSessionAsyncTask(key, work, (SipFactoryImpl)sipContext.getSipApplicationDispatcher().getSipFactory()));
 	}	
 	
 	public void acquire() {
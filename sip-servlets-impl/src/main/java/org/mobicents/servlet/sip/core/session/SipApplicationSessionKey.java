@@ -23,7 +23,6 @@
 package org.mobicents.servlet.sip.core.session;
 
 import java.io.Serializable;
-import java.util.UUID;
 
 import org.apache.log4j.Logger;
 import org.mobicents.servlet.sip.GenericUtils;
@@ -45,7 +44,10 @@ public final class SipApplicationSessionKey implements Serializable, MobicentsSi
 	private final String uuid;
 	private final String appGeneratedKey;
 	private final String applicationName;
+	// the id is only built when first asked for
 	private String toString;
+	// cached as the key is looked up in the session maps for every message, 0 until computed
+	private transient int hashCode;
 	
 	/**
 	 * @param id
@@ -54,7 +56,7 @@ public final class SipApplicationSessionKey implements Serializable, MobicentsSi
 	public SipApplicationSessionKey(String id, String applicationName, String appGeneratedKey) {
 		super();
 		this.appGeneratedKey = appGeneratedKey;
-		this.applicationName = applicationName;
+		this.applicationName = SessionManagerUtil.internApplicationName(applicationName);
 		// "While processing the initial request after selecting the application, the 
 		// container MUST look for this annotated static method within the application. 
 		// If found, the container MUST call the method to get the key and generate an 
@@ -62,19 +64,17 @@ public final class SipApplicationSessionKey implements Serializable, MobicentsSi
 		if(appGeneratedKey != null) {
 			// http://code.google.com/p/sipservlets/issues/detail?id=146 : @SipApplicationSessionKey usage can break replication
 			// Hash the appGeneratedKey to make sure it always resolve to the same uuid and reset the uuid with it.			
-			uuid = GenericUtils.hashString(appGeneratedKey);
+			uuid = GenericUtils.getIdGenerator().hashApplicationKey(appGeneratedKey);
 			if(logger.isDebugEnabled()) {
 				logger.debug("uuid for appGeneratedKey " + appGeneratedKey + " set to " + uuid);
 			}
-			toString = appGeneratedKey + SessionManagerUtil.SESSION_KEY_SEPARATOR + uuid + SessionManagerUtil.SESSION_KEY_SEPARATOR + applicationName;
 		} else {
 			if(id == null) {
 				// Issue 1551 : SipApplicationSessionKey is not unique
-				this.uuid = "" + UUID.randomUUID();
+				this.uuid = GenericUtils.getIdGenerator().generateApplicationSessionId();
 			} else {
 				this.uuid = id;
-			}					
-			toString = uuid + SessionManagerUtil.SESSION_KEY_SEPARATOR + applicationName;
+			}
 		}
 	}
 	/**
@@ -104,11 +104,15 @@ public final class SipApplicationSessionKey implements Serializable, MobicentsSi
 	 */
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result
-				+ ((applicationName == null) ? 0 : applicationName.hashCode());		
-		result = prime * result + ((uuid == null) ? 0 : uuid.hashCode());	
+		int result = hashCode;
+		if(result == 0) {
+			final int prime = 31;
+			result = 1;
+			result = prime * result
+					+ ((applicationName == null) ? 0 : applicationName.hashCode());
+			result = prime * result + ((uuid == null) ? 0 : uuid.hashCode());
+			hashCode = result;
+		}
 		return result;
 	}
 	/* (non-Javadoc)
@@ -123,6 +127,8 @@ public final class SipApplicationSessionKey implements Serializable, MobicentsSi
 		if (getClass() != obj.getClass())
 			return false;
 		final SipApplicationSessionKey other = (SipApplicationSessionKey) obj;
+		if (hashCode() != other.hashCode())
+			return false;
 		if (applicationName == null) {
 			if (other.applicationName != null)
 				return false;
@@ -138,6 +144,15 @@ public final class SipApplicationSessionKey implements Serializable, MobicentsSi
 	
 	@Override
 	public String toString() {
+		String toString = this.toString;
+		if(toString == null) {
+			if(appGeneratedKey != null) {
+				toString = appGeneratedKey + SessionManagerUtil.SESSION_KEY_SEPARATOR + uuid + SessionManagerUtil.SESSION_KEY_SEPARATOR + applicationName;
+			} else {
+				toString = uuid + SessionManagerUtil.SESSION_KEY_SEPARATOR + applicationName;
+			}
+			this.toString = toString;
+		}
 		return toString;
 	}
 }
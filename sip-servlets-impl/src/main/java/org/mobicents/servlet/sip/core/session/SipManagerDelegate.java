@@ -24,9 +24,13 @@ package org.mobicents.servlet.sip.core.session;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpSession;
@@ -34,6 +38,7 @@ import javax.servlet.sip.SipSession.State;
 
 import org.apache.log4j.Logger;
 import org.mobicents.servlet.sip.core.SipContext;
+import org.mobicents.servlet.sip.core.dispatchers.MessageDispatcher;
 import org.mobicents.servlet.sip.core.timers.SipApplicationSessionTimerTask;
 import org.mobicents.servlet.sip.message.SipFactoryImpl;
 
@@ -88,36 +93,36 @@ public abstract class SipManagerDelegate {
     /**
      * The longest time (in seconds) that an expired sip session had been alive.
      */
-    private int sipSessionMaxAliveTime;
+    private final AtomicInteger sipSessionMaxAliveTime = new AtomicInteger();
 
 
     /**
-     * Average time (in seconds) that expired sip sessions had been alive.
+     * Total time (in seconds) that expired sip sessions had been alive, to compute their average alive time.
      */
-    private int sipSessionAverageAliveTime;
+    private final AtomicLong sipSessionTotalAliveTime = new AtomicLong();
 
 
     /**
      * Number of sip sessions that have expired.
      */
-    private int expiredSipSessions = 0;
+    private final AtomicInteger expiredSipSessions = new AtomicInteger();
     
     /**
      * The longest time (in seconds) that an expired Sip Application session had been alive.
      */
-    private int sipApplicationSessionMaxAliveTime;
+    private final AtomicInteger sipApplicationSessionMaxAliveTime = new AtomicInteger();
 
 
     /**
-     * Average time (in seconds) that expired Sip Application Sessions had been alive.
+     * Total time (in seconds) that expired Sip Application Sessions had been alive, to compute their average alive time.
      */
-    private int sipApplicationSessionAverageAliveTime;
+    private final AtomicLong sipApplicationSessionTotalAliveTime = new AtomicLong();
 
 
     /**
      * Number of sip application sessions that have expired.
      */
-    private int expiredSipApplicationSessions = 0;
+    private final AtomicInteger expiredSipApplicationSessions = new AtomicInteger();
     
     // Number of sip sessions created by this manager
     protected int sipSessionCounter=0;
@@ -132,6 +137,35 @@ public abstract class SipManagerDelegate {
     private int lastUpdatedSsCreationCounter = 0;
     private long lastSipSessionUpdatedTime = 0;
     private double lastAverageSsCreationPerSecond = 0.0;
+    
+    // Maximum number of sessions keeping their attributes on the heap, -1 to keep them all
+    private int maxResidentSessionAttributes = -1;
+    
+    // Idle time in seconds after which the attributes of a session are swapped out, -1 to never swap them out
+    private int maxIdleSwap = -1;
+    
+    // Class of the store the attributes of the other sessions are paged out to, null for the default one
+    private String sessionStateStoreClassName;
+    
+    // null if the attributes of all the sessions are kept on the heap
+    protected volatile SessionAttributesPager sessionAttributesPager;
+    
+    // Time in milliseconds a sip session ready to invalidate has to be idle for the reaper to clean it up
+    private static final long SIP_SESSION_REAPER_MIN_IDLE_TIME = 2000;
+    
+    // Maximum number of sip sessions looked at by each run of the reaper, -1 to disable the reaper
+    private int sipSessionReaperSliceSize = -1;
+    
+    // where the next run of the reaper resumes, null to start a new pass over the sip sessions
+    private Iterator<MobicentsSipSession> sipSessionReaperIterator;
+    private final Object sipSessionReaperLock = new Object();
+    private long sipSessionReaperPassStartTime;
+    private volatile long lastSipSessionReaperPassDuration;
+    private final AtomicLong reapedSipSessions = new AtomicLong();
+    
+    private long lastUpdatedReapedSipSessions = 0;
+    private long lastReapedSipSessionsUpdatedTime = 0;
+    private double lastAverageReapedSipSessionsPerSecond = 0.0;
 	/**
 	 * @return the SipFactoryImpl
 	 */
@@ -489,22 +523,163 @@ public abstract class SipManagerDelegate {
 	 * Remove the sip sessions and sip application sessions 
 	 */
 	public void removeAllSessions() {		
-		List<SipSessionKey> sipSessionsToRemove = new ArrayList<SipSessionKey>(); 
-		for (SipSessionKey sipSessionKey : sipSessions.keySet()) {
-			sipSessionsToRemove.add(sipSessionKey);
+		if(logger.isDebugEnabled()) {
+			logger.debug("Removing " + sipSessions.size() + " sip sessions and " + sipApplicationSessions.size() + " sip application sessions");
 		}
-		for (SipSessionKey sipSessionKey : sipSessionsToRemove) {
-			removeSipSession(sipSessionKey);
+		// the maps are cleared in bulk rather than key by key, removeSipSession and removeSipApplicationSession having nothing else to clean up
+		sipSessions.clear();
+		sipApplicationSessions.clear();
+		sipApplicationSessionsByAppGeneratedKey.clear();
+		synchronized (sipSessionReaperLock) {
+			sipSessionReaperIterator = null;
 		}
-		List<SipApplicationSessionKey> sipApplicationSessionsToRemove = new ArrayList<SipApplicationSessionKey>(); 
-		for (SipApplicationSessionKey sipApplicationSessionKey : sipApplicationSessions.keySet()) {
-			sipApplicationSessionsToRemove.add(sipApplicationSessionKey);
+		if(sessionAttributesPager != null) {
+			sessionAttributesPager.clear();
 		}
-		for (SipApplicationSessionKey sipApplicationSessionKey : sipApplicationSessionsToRemove) {
-			removeSipApplicationSession(sipApplicationSessionKey);
-		}				
 	}
 	
+	/**
+	 * Looks at the next slice of the sip sessions and cleans up the ones ready to invalidate that have been left idle, 
+	 * to be called periodically by the background processing of the manager.
+	 * Each call only looks at sipSessionReaperSliceSize sessions, resuming where the previous one stopped, 
+	 * so that a pass over all the sip sessions is spread over several calls rather than pausing on a full scan.
+	 */
+	public void reapSipSessions() {
+		final int sliceSize = sipSessionReaperSliceSize;
+		if(sliceSize <= 0) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		// sip sessions to clean up, grouped by sip application session to enter each application session only once
+		final Map<MobicentsSipApplicationSession, List<MobicentsSipSession>> batches = new LinkedHashMap<MobicentsSipApplicationSession, List<MobicentsSipSession>>();
+		final List<MobicentsSipSession> orphans = new ArrayList<MobicentsSipSession>();
+		synchronized (sipSessionReaperLock) {
+			Iterator<MobicentsSipSession> iterator = sipSessionReaperIterator;
+			if(iterator == null) {
+				iterator = sipSessions.values().iterator();
+				sipSessionReaperPassStartTime = now;
+			}
+			for (int i = 0; i < sliceSize && iterator.hasNext(); i++) {
+				final MobicentsSipSession sipSession = iterator.next();
+				if(sipSession.isValidInternal() && sipSession.isReadyToInvalidateInternal() && 
+						now - sipSession.getLastAccessedTime() > SIP_SESSION_REAPER_MIN_IDLE_TIME) {
+					final MobicentsSipApplicationSession sipApplicationSession = sipSession.getSipApplicationSession();
+					if(sipApplicationSession == null) {
+						orphans.add(sipSession);
+					} else {
+						List<MobicentsSipSession> batch = batches.get(sipApplicationSession);
+						if(batch == null) {
+							batch = new ArrayList<MobicentsSipSession>(2);
+							batches.put(sipApplicationSession, batch);
+						}
+						batch.add(sipSession);
+					}
+				}
+			}
+			if(iterator.hasNext()) {
+				sipSessionReaperIterator = iterator;
+			} else {
+				sipSessionReaperIterator = null;
+				lastSipSessionReaperPassDuration = now - sipSessionReaperPassStartTime;
+			}
+		}
+		for (MobicentsSipSession sipSession : orphans) {
+			reapSipSession(sipSession);
+		}
+		for (Map.Entry<MobicentsSipApplicationSession, List<MobicentsSipSession>> batch : batches.entrySet()) {
+			reapSipSessions(batch.getKey(), batch.getValue());
+		}
+	}
+
+	private void reapSipSessions(final MobicentsSipApplicationSession sipApplicationSession, final List<MobicentsSipSession> batch) {
+		if(MessageDispatcher.isSerialConcurrencyControlMode(container)) {
+			// enterSipApp doesn't lock the session in the serial concurrency control modes, 
+			// the batch is queued behind the messages and timers of the application session instead
+			container.getSipApplicationDispatcher().getConcurrencyModelExecutor(container, sipApplicationSession.getKey(), null).execute(new Runnable() {
+				public void run() {
+					reapSipSessionBatch(sipApplicationSession, batch);
+				}
+			});
+			return;
+		}
+		reapSipSessionBatch(sipApplicationSession, batch);
+	}
+
+	private void reapSipSessionBatch(MobicentsSipApplicationSession sipApplicationSession, List<MobicentsSipSession> batch) {
+		// the application session is entered as for a request so that the reaper doesn't run concurrently with the application
+		container.enterSipApp(sipApplicationSession, null, false, true);
+		final boolean batchStarted = container.enterSipAppHa(true);
+		try {
+			for (MobicentsSipSession sipSession : batch) {
+				reapSipSession(sipSession);
+			}
+			if(sipApplicationSession.isValidInternal()) {
+				sipApplicationSession.tryToInvalidate();
+			}
+		} catch (Throwable t) {
+			logger.warn("Error reaping the inactive sip sessions of " + sipApplicationSession.getKey() + ". You can ignore this warning as long as it doesn't happen too often", t);
+		} finally {
+			container.exitSipAppHa(null, null, batchStarted);
+			container.exitSipApp(sipApplicationSession, null);
+		}
+	}
+
+	private void reapSipSession(MobicentsSipSession sipSession) {
+		try {
+			// checked again as the session may have been used since the slice was scanned
+			if(sipSession.isValidInternal() && sipSession.isReadyToInvalidateInternal()) {
+				sipSession.onTerminatedState();
+				if(!sipSession.isValidInternal()) {
+					reapedSipSessions.incrementAndGet();
+					if(logger.isDebugEnabled()) {
+						logger.debug("Reaper cleaned up the following sip session " + sipSession.getKey());
+					}
+				}
+			}
+		} catch (Throwable t) {
+			logger.warn("Error reaping the inactive sip session " + sipSession.getKey() + ". You can ignore this warning as long as it doesn't happen too often", t);
+		}
+	}
+
+	/**
+	 * @return the maximum number of sip sessions looked at by each run of the reaper, -1 if the reaper is disabled
+	 */
+	public int getSipSessionReaperSliceSize() {
+		return sipSessionReaperSliceSize;
+	}
+
+	/**
+	 * @param sipSessionReaperSliceSize the maximum number of sip sessions looked at by each run of the reaper, -1 to disable the reaper
+	 */
+	public void setSipSessionReaperSliceSize(int sipSessionReaperSliceSize) {
+		this.sipSessionReaperSliceSize = sipSessionReaperSliceSize;
+	}
+
+	/**
+	 * @return the number of sip sessions cleaned up by the reaper
+	 */
+	public long getReapedSipSessions() {
+		return reapedSipSessions.get();
+	}
+
+	public double getNumberOfReapedSipSessionsPerSecond() {
+		return lastAverageReapedSipSessionsPerSecond;
+	}
+
+	/**
+	 * @return the time in milliseconds it takes the reaper to look at all the sip sessions, 
+	 * the longest of the last complete pass and the current one
+	 */
+	public long getSipSessionReaperScanLag() {
+		long scanLag = lastSipSessionReaperPassDuration;
+		synchronized (sipSessionReaperLock) {
+			if(sipSessionReaperIterator != null) {
+				scanLag = Math.max(scanLag, System.currentTimeMillis() - sipSessionReaperPassStartTime);
+			}
+		}
+		return scanLag;
+	}
+
 	protected abstract MobicentsSipSession getNewMobicentsSipSession(SipSessionKey key, SipFactoryImpl sipFactoryImpl, MobicentsSipApplicationSession mobicentsSipApplicationSession);
 	
 	protected abstract MobicentsSipApplicationSession getNewMobicentsSipApplicationSession(SipApplicationSessionKey key, SipContext sipContext);
@@ -602,7 +777,7 @@ public abstract class SipManagerDelegate {
 	 * @return Longest time (in seconds) that an expired session had been alive.
 	 */
 	public int getSipSessionMaxAliveTime() {
-		return sipSessionMaxAliveTime;
+		return sipSessionMaxAliveTime.get();
 	}
 
 	/**
@@ -614,7 +789,7 @@ public abstract class SipManagerDelegate {
 	 *            alive.
 	 */
 	public void setSipSessionMaxAliveTime(int sipSessionMaxAliveTime) {
-		this.sipSessionMaxAliveTime = sipSessionMaxAliveTime;
+		this.sipSessionMaxAliveTime.set(sipSessionMaxAliveTime);
 	}
 
 	/**
@@ -623,7 +798,7 @@ public abstract class SipManagerDelegate {
 	 * @return Average time (in seconds) that expired sessions had been alive.
 	 */
 	public int getSipSessionAverageAliveTime() {
-		return sipSessionAverageAliveTime;
+		return averageAliveTime(sipSessionTotalAliveTime, expiredSipSessions);
 	}
 
 	/**
@@ -634,7 +809,7 @@ public abstract class SipManagerDelegate {
 	 *            alive.
 	 */
 	public void setSipSessionAverageAliveTime(int sipSessionAverageAliveTime) {
-		this.sipSessionAverageAliveTime = sipSessionAverageAliveTime;
+		sipSessionTotalAliveTime.set((long) sipSessionAverageAliveTime * expiredSipSessions.get());
 	}
 
 	public void setSipApplicationSessionCounter(int sipApplicationSessionCounter) {
@@ -666,7 +841,7 @@ public abstract class SipManagerDelegate {
 	 * @return Longest time (in seconds) that an expired session had been alive.
 	 */
 	public int getSipApplicationSessionMaxAliveTime() {
-		return sipApplicationSessionMaxAliveTime;
+		return sipApplicationSessionMaxAliveTime.get();
 	}
 
 	/**
@@ -679,7 +854,7 @@ public abstract class SipManagerDelegate {
 	 */
 	public void setSipApplicationSessionMaxAliveTime(
 			int sipApplicationSessionMaxAliveTime) {
-		this.sipApplicationSessionMaxAliveTime = sipApplicationSessionMaxAliveTime;
+		this.sipApplicationSessionMaxAliveTime.set(sipApplicationSessionMaxAliveTime);
 	}
 
 	/**
@@ -688,7 +863,7 @@ public abstract class SipManagerDelegate {
 	 * @return Average time (in seconds) that expired sessions had been alive.
 	 */
 	public int getSipApplicationSessionAverageAliveTime() {
-		return sipApplicationSessionAverageAliveTime;
+		return averageAliveTime(sipApplicationSessionTotalAliveTime, expiredSipApplicationSessions);
 	}
 
 	/**
@@ -700,7 +875,7 @@ public abstract class SipManagerDelegate {
 	 */
 	public void setSipApplicationSessionAverageAliveTime(
 			int sipApplicationSessionAverageAliveTime) {
-		this.sipApplicationSessionAverageAliveTime = sipApplicationSessionAverageAliveTime;
+		sipApplicationSessionTotalAliveTime.set((long) sipApplicationSessionAverageAliveTime * expiredSipApplicationSessions.get());
 	}
 
 	/**
@@ -709,7 +884,7 @@ public abstract class SipManagerDelegate {
 	 * @return Number of sessions that have expired
 	 */
 	public int getExpiredSipSessions() {
-		return expiredSipSessions;
+		return expiredSipSessions.get();
 	}
 
 	/**
@@ -719,7 +894,10 @@ public abstract class SipManagerDelegate {
 	 *            Number of sessions that have expired
 	 */
 	public void setExpiredSipSessions(int expiredSipSessions) {
-		this.expiredSipSessions = expiredSipSessions;
+		// keep the average alive time
+		final int averageAliveTime = getSipSessionAverageAliveTime();
+		this.expiredSipSessions.set(expiredSipSessions);
+		sipSessionTotalAliveTime.set((long) averageAliveTime * expiredSipSessions);
 	}
 
 	/**
@@ -728,7 +906,7 @@ public abstract class SipManagerDelegate {
 	 * @return Number of sessions that have expired
 	 */
 	public int getExpiredSipApplicationSessions() {
-		return expiredSipApplicationSessions;
+		return expiredSipApplicationSessions.get();
 	}
 
 	/**
@@ -739,7 +917,206 @@ public abstract class SipManagerDelegate {
 	 */
 	public void setExpiredSipApplicationSessions(
 			int expiredSipApplicationSessions) {
-		this.expiredSipApplicationSessions = expiredSipApplicationSessions;
+		// keep the average alive time
+		final int averageAliveTime = getSipApplicationSessionAverageAliveTime();
+		this.expiredSipApplicationSessions.set(expiredSipApplicationSessions);
+		sipApplicationSessionTotalAliveTime.set((long) averageAliveTime * expiredSipApplicationSessions);
+	}
+
+	/**
+	 * Updates the statistics of the expired sip sessions without any lock, 
+	 * so that the sip sessions of a sip application session being torn down and the ones of other 
+	 * sip application sessions can be invalidated concurrently
+	 * 
+	 * @param timeAlive
+	 *            time (in seconds) the sip session had been alive
+	 */
+	public void sipSessionExpired(int timeAlive) {
+		updateMaxAliveTime(sipSessionMaxAliveTime, timeAlive);
+		sipSessionTotalAliveTime.addAndGet(timeAlive);
+		expiredSipSessions.incrementAndGet();
+	}
+
+	/**
+	 * Updates the statistics of the expired sip application sessions without any lock
+	 * 
+	 * @param timeAlive
+	 *            time (in seconds) the sip application session had been alive
+	 */
+	public void sipApplicationSessionExpired(int timeAlive) {
+		updateMaxAliveTime(sipApplicationSessionMaxAliveTime, timeAlive);
+		sipApplicationSessionTotalAliveTime.addAndGet(timeAlive);
+		expiredSipApplicationSessions.incrementAndGet();
+	}
+
+	private static void updateMaxAliveTime(AtomicInteger maxAliveTime, int timeAlive) {
+		int max = maxAliveTime.get();
+		while (timeAlive > max && !maxAliveTime.compareAndSet(max, timeAlive)) {
+			max = maxAliveTime.get();
+		}
+	}
+
+	private static int averageAliveTime(AtomicLong totalAliveTime, AtomicInteger expiredSessions) {
+		final int expired = expiredSessions.get();
+		return expired <= 0 ? 0 : (int) (totalAliveTime.get() / expired);
+	}
+
+	/**
+	 * @return the maximum number of sessions keeping their attributes on the heap, -1 if they all keep them
+	 */
+	public int getMaxResidentSessionAttributes() {
+		return maxResidentSessionAttributes;
+	}
+
+	/**
+	 * Sets the maximum number of sip sessions and sip application sessions keeping their attributes on the heap, 
+	 * the attributes of the sessions idle for the longest time being paged out to the session state store.
+	 * Only applies to the sessions created afterwards.
+	 * @param maxResidentSessionAttributes the maximum number of sessions, -1 to keep the attributes of all the sessions on the heap
+	 */
+	public void setMaxResidentSessionAttributes(int maxResidentSessionAttributes) {
+		this.maxResidentSessionAttributes = maxResidentSessionAttributes;
+		createSessionAttributesPager();
+	}
+
+	/**
+	 * @return the idle time in seconds after which the attributes of a session are swapped out, -1 if they never are
+	 */
+	public int getMaxIdleSwap() {
+		return maxIdleSwap;
+	}
+
+	/**
+	 * Sets the time a sip session or sip application session has to be idle for its attributes to be swapped out 
+	 * to the session state store by {@link #processMaxIdleSwaps()}. Unless another store is set, they are swapped out 
+	 * to the local disk by a {@link FileSessionStateStore}, or off heap if the number of resident sessions is bounded too.
+	 * They are swapped back in on the next request or timer accessing them.
+	 * Only applies to the sessions created afterwards.
+	 * @param maxIdleSwap the idle time in seconds, -1 to never swap out idle sessions
+	 */
+	public void setMaxIdleSwap(int maxIdleSwap) {
+		this.maxIdleSwap = maxIdleSwap;
+		createSessionAttributesPager();
+	}
+
+	/**
+	 * Swaps out the attributes of the sessions idle for longer than maxIdleSwap, 
+	 * to be called periodically by the background processing of the manager.
+	 * The pager queues the sessions by their last access, so only the sessions idle for long enough are looked at.
+	 */
+	public void processMaxIdleSwaps() {
+		final SessionAttributesPager sessionAttributesPager = this.sessionAttributesPager;
+		if(sessionAttributesPager == null || maxIdleSwap < 0) {
+			return;
+		}
+		final long idleSince = System.currentTimeMillis() - maxIdleSwap * 1000L;
+		final int swapped = sessionAttributesPager.swapOutIdleSessions(idleSince);
+		if(swapped > 0 && logger.isDebugEnabled()) {
+			logger.debug("Swapped out the attributes of " + swapped + " sessions idle for more than " + maxIdleSwap + " seconds");
+		}
+	}
+
+	/**
+	 * @return the class name of the {@link SessionStateStore} the attributes are paged out to
+	 */
+	public String getSessionStateStoreClassName() {
+		if(sessionStateStoreClassName == null) {
+			// only swapping out the idle sessions, as Tomcat's PersistentManager
+			return maxIdleSwap >= 0 && maxResidentSessionAttributes < 0 ? 
+					FileSessionStateStore.class.getName() : OffHeapSessionStateStore.class.getName();
+		}
+		return sessionStateStoreClassName;
+	}
+
+	/**
+	 * @param sessionStateStoreClassName the class name of the {@link SessionStateStore} the attributes are paged out to, 
+	 * it must have a public no-arg constructor, null for the default one : {@link FileSessionStateStore} if only maxIdleSwap is set, 
+	 * {@link OffHeapSessionStateStore} otherwise
+	 */
+	public void setSessionStateStoreClassName(String sessionStateStoreClassName) {
+		this.sessionStateStoreClassName = sessionStateStoreClassName;
+		createSessionAttributesPager();
+	}
+
+	/**
+	 * @return the pager of the session attributes, null if they are all kept on the heap
+	 */
+	public SessionAttributesPager getSessionAttributesPager() {
+		return sessionAttributesPager;
+	}
+
+	private void createSessionAttributesPager() {
+		if(maxResidentSessionAttributes < 0 && maxIdleSwap < 0) {
+			sessionAttributesPager = null;
+			return;
+		}
+		final String sessionStateStoreClassName = getSessionStateStoreClassName();
+		final SessionStateStore sessionStateStore;
+		try {
+			sessionStateStore = (SessionStateStore) Class.forName(sessionStateStoreClassName).newInstance();
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Couldn't instantiate the session state store " + sessionStateStoreClassName, e);
+		}
+		sessionAttributesPager = new SessionAttributesPager(sessionStateStore, maxResidentSessionAttributes, maxIdleSwap >= 0);
+		if(logger.isInfoEnabled()) {
+			logger.info("Paging the session attributes out to " + sessionStateStoreClassName + ", maxResidentSessionAttributes=" + 
+					maxResidentSessionAttributes + ", maxIdleSwap=" + maxIdleSwap);
+		}
+	}
+
+	/**
+	 * @return the number of sessions whose attributes are paged out
+	 */
+	public int getNumberOfPagedOutSessionAttributes() {
+		final SessionAttributesPager sessionAttributesPager = this.sessionAttributesPager;
+		return sessionAttributesPager == null ? 0 : sessionAttributesPager.getNumberOfPagedOutSessions();
+	}
+
+	/**
+	 * @return the number of sessions whose attributes are on the heap
+	 */
+	public int getNumberOfResidentSessionAttributes() {
+		return Math.max(0, sipSessions.size() + sipApplicationSessions.size() - getNumberOfPagedOutSessionAttributes());
+	}
+
+	/**
+	 * @return the average time taken to page the attributes of a session back in, in microseconds
+	 */
+	public long getSessionAttributesAveragePageInTime() {
+		final SessionAttributesPager sessionAttributesPager = this.sessionAttributesPager;
+		return sessionAttributesPager == null ? 0 : sessionAttributesPager.getAveragePageInTime();
+	}
+
+	/**
+	 * @return the longest time taken to page the attributes of a session back in, in microseconds
+	 */
+	public long getSessionAttributesMaxPageInTime() {
+		final SessionAttributesPager sessionAttributesPager = this.sessionAttributesPager;
+		return sessionAttributesPager == null ? 0 : sessionAttributesPager.getMaxPageInTime();
+	}
+
+	/**
+	 * @return the number of bytes taken by the attributes paged out
+	 */
+	public long getPagedOutSessionAttributesSize() {
+		final SessionAttributesPager sessionAttributesPager = this.sessionAttributesPager;
+		return sessionAttributesPager == null ? 0 : sessionAttributesPager.getStore().getSizeInBytes();
+	}
+
+	/**
+	 * @return the number of times session attributes have been paged out
+	 */
+	public long getSessionAttributesPageOuts() {
+		final SessionAttributesPager sessionAttributesPager = this.sessionAttributesPager;
+		return sessionAttributesPager == null ? 0 : sessionAttributesPager.getNumberOfPageOuts();
+	}
+
+	/**
+	 * @return the number of times session attributes have been paged back in
+	 */
+	public long getSessionAttributesPageIns() {
+		final SessionAttributesPager sessionAttributesPager = this.sessionAttributesPager;
+		return sessionAttributesPager == null ? 0 : sessionAttributesPager.getNumberOfPageIns();
 	}
 
 	public double getNumberOfSipApplicationSessionCreationPerSecond() {
@@ -783,5 +1160,17 @@ public abstract class SipManagerDelegate {
 			logger.trace("lastUpdatedSsCreationCounter "+ lastUpdatedSsCreationCounter);
 			logger.trace("lastSipSessionUpdatedTime "+ lastSipSessionUpdatedTime);
 		}
+		// Updating the number of Sip Sessions reaped per second
+		final long reaped = reapedSipSessions.get();
+		final long elapsedReapedSipSessions = reaped - lastUpdatedReapedSipSessions;
+		if(elapsedReapedSipSessions > 0 && now > lastReapedSipSessionsUpdatedTime) {
+			double elapsedReapedUpdatedTimeInSeconds = (now - lastReapedSipSessionsUpdatedTime) / 1000d;
+			double elapsedAverageReapedPerSecond = elapsedReapedSipSessions / elapsedReapedUpdatedTimeInSeconds;
+			lastAverageReapedSipSessionsPerSecond = (lastAverageReapedSipSessionsPerSecond + elapsedAverageReapedPerSecond) / 2;
+		} else {
+			lastAverageReapedSipSessionsPerSecond = lastAverageReapedSipSessionsPerSecond / 2;
+		}
+		lastUpdatedReapedSipSessions = reaped;
+		lastReapedSipSessionsUpdatedTime = now;
 	}
 }
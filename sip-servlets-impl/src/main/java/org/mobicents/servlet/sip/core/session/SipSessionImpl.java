@@ -142,7 +142,7 @@ import org.mobicents.servlet.sip.proxy.ProxyImpl;
  * @author <A HREF="mailto:jean.deruelle@gmail.com">Jean Deruelle</A>
  * @author <A HREF="mailto:gvagenas@gmail.com">George Vagenas</A>
  */
-public class SipSessionImpl implements MobicentsSipSession {
+public class SipSessionImpl implements MobicentsSipSession, PageableAttributes {
 		
 	private static final Logger logger = Logger.getLogger(SipSessionImpl.class);
 	
@@ -157,6 +157,11 @@ public class SipSessionImpl implements MobicentsSipSession {
 	protected transient int requestsPending;
 
 	volatile protected Map<String, Object> sipSessionAttributeMap;
+	// pages the attributes out of the heap while the session is idle, null if the manager keeps them all on the heap
+	protected transient SessionAttributesPager attributesPager;
+	// handle of the attributes in the store of the pager while they are paged out
+	private transient volatile long pagedOutAttributes = -1;
+	private transient volatile boolean attributesAccessed;
 	
 	protected transient SipSessionKey key;
 	
@@ -696,12 +701,27 @@ public class SipSessionImpl implements MobicentsSipSession {
 	
 	// Does it need to be synchronized?
 	protected Map<String, Object> getAttributeMap() {
+		if(attributesPager != null) {
+			attributesAccessed = true;
+			final Map<String, Object> attributes = this.sipSessionAttributeMap;
+			if(attributes != null) {
+				return attributes;
+			}
+			return attributesPager.getAttributes(this);
+		}
 		if(this.sipSessionAttributeMap == null) {
-			this.sipSessionAttributeMap = new ConcurrentHashMap<String, Object>();
+			this.sipSessionAttributeMap = newAttributeMap();
 		}
 		return this.sipSessionAttributeMap;
 	}
 
+	public Map<String, Object> newAttributeMap() {
+		final MobicentsSipApplicationSession sipApplicationSession = getSipApplicationSession();
+		final SipContext sipContext = sipApplicationSession == null ? null : sipApplicationSession.getSipContext();
+		return SmallAttributeMap.newAttributeMap(sipContext != null && 
+				SmallAttributeMap.isSipSessionSingleWriter(sipContext.getConcurrencyControlMode()));
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see javax.servlet.sip.SipSession#getAttribute(java.lang.String)
@@ -924,6 +944,10 @@ public class SipSessionImpl implements MobicentsSipSession {
 				
 		// No need for checks after JSR 289 PFD spec
 		//checkInvalidation();
+		if(pagedOutAttributes >= 0) {
+			// page the attributes back in so that the listeners are notified of their removal
+			getAttributeMap();
+		}
 		if(sipSessionAttributeMap != null) {
 			for (String key : sipSessionAttributeMap.keySet()) {
 				removeAttribute(key, true);
@@ -968,19 +992,9 @@ public class SipSessionImpl implements MobicentsSipSession {
          */
         long timeNow = System.currentTimeMillis();
         int timeAlive = (int) ((timeNow - creationTime)/1000);        
-        synchronized (manager) {
-            if (timeAlive > manager.getSipSessionMaxAliveTime()) {
-                manager.setSipSessionMaxAliveTime(timeAlive);
-            }
-            int numExpired = manager.getExpiredSipSessions();
-            numExpired++;
-            manager.setExpiredSipSessions(numExpired);
-            int average = manager.getSipSessionAverageAliveTime();
-            average = ((average * (numExpired-1)) + timeAlive)/numExpired;
-            manager.setSipSessionAverageAliveTime(average);
-        }
+        manager.sipSessionExpired(timeAlive);
         
-		notifySipSessionListeners(SipSessionEventType.DELETION);			
+		notifySipSessionListeners(SipSessionEventType.DELETION);
 		
 		isValid = false;
 		
@@ -1047,6 +1061,9 @@ public class SipSessionImpl implements MobicentsSipSession {
 		originalMethod = null;
 		outboundInterface = null;
 		sipSessionAttributeMap = null;
+		if(attributesPager != null) {
+			attributesPager.release(this);
+		}
 //		key = null;
 		if(sessionCreatingDialog != null) {
 			// terminating dialog to make sure there is not retention, if the app didn't send a BYE for invite tx by example
@@ -1195,7 +1212,7 @@ public class SipSessionImpl implements MobicentsSipSession {
             ((SipSessionBindingListener) value).valueUnbound(event);
         }
 		
-		this.getAttributeMap().remove(name);
+		removeAttributeValue(name);
 		
 		// Notifying Listeners of attribute removal	
 		SipListeners sipListenersHolder = this.getSipApplicationSession().getSipContext().getListeners();		
@@ -1249,7 +1266,7 @@ public class SipSessionImpl implements MobicentsSipSession {
             }
         }
 		
-		Object previousValue = this.getAttributeMap().put(key, attribute);
+		Object previousValue = putAttributeValue(key, attribute);
 		
 		if (previousValue != null && previousValue != attribute &&
 	            previousValue instanceof SipSessionBindingListener) {
@@ -1817,10 +1834,11 @@ public class SipSessionImpl implements MobicentsSipSession {
     public void passivate() {
         // Notify ActivationListeners
     	SipSessionEvent event = null;
-    	if(this.sipSessionAttributeMap != null) {
-	        Set<String> keySet = getAttributeMap().keySet();
+    	final Map<String, Object> attributes = this.sipSessionAttributeMap;
+    	if(attributes != null) {
+	        Set<String> keySet = attributes.keySet();
 	        for (String key : keySet) {
-	        	Object attribute = getAttributeMap().get(key);
+	        	Object attribute = attributes.get(key);
 	            if (attribute instanceof SipSessionActivationListener) {
 	                if (event == null)
 	                	event = new SipSessionActivationEvent(this, SessionActivationNotificationCause.PASSIVATION);
@@ -1842,10 +1860,11 @@ public class SipSessionImpl implements MobicentsSipSession {
     public void activate() {        
         // Notify ActivationListeners
     	SipSessionEvent event = null;
-    	if(sipSessionAttributeMap != null) {
-	        Set<String> keySet = getAttributeMap().keySet();
+    	final Map<String, Object> attributes = this.sipSessionAttributeMap;
+    	if(attributes != null) {
+	        Set<String> keySet = attributes.keySet();
 	        for (String key : keySet) {
-	        	Object attribute = getAttributeMap().get(key);
+	        	Object attribute = attributes.get(key);
 	            if (attribute instanceof SipSessionActivationListener) {
 	                if (event == null)
 	                	event = new SipSessionActivationEvent(this, SessionActivationNotificationCause.ACTIVATION);
@@ -1860,6 +1879,76 @@ public class SipSessionImpl implements MobicentsSipSession {
 	    }
     }
     
+	/**
+	 * @param attributesPager the pager of the attributes of this session, null to keep them on the heap
+	 */
+	public void setAttributesPager(SessionAttributesPager attributesPager) {
+		this.attributesPager = attributesPager;
+	}
+
+	public Map<String, Object> getResidentAttributes() {
+		return sipSessionAttributeMap;
+	}
+
+	public void setResidentAttributes(Map<String, Object> attributes) {
+		this.sipSessionAttributeMap = attributes;
+	}
+
+	public long getPagedOutAttributes() {
+		return pagedOutAttributes;
+	}
+
+	public void setPagedOutAttributes(long handle) {
+		this.pagedOutAttributes = handle;
+	}
+
+	// changed through the pager when there is one, so that the change can't be lost to a page out
+	private Object putAttributeValue(String name, Object value) {
+		if(attributesPager != null) {
+			attributesAccessed = true;
+			return attributesPager.putAttribute(this, name, value);
+		}
+		return getAttributeMap().put(name, value);
+	}
+
+	private Object removeAttributeValue(String name) {
+		if(attributesPager != null) {
+			attributesAccessed = true;
+			return attributesPager.removeAttribute(this, name);
+		}
+		return getAttributeMap().remove(name);
+	}
+
+	public boolean clearAttributesAccessed() {
+		final boolean accessed = attributesAccessed;
+		attributesAccessed = false;
+		return accessed;
+	}
+
+	/*
+	 * Derived sessions share the attributes of their parent, so neither can be paged out, 
+	 * and neither can the attributes of a session locked by a request being processed
+	 */
+	public boolean isAttributesPageable() {
+		final ConcurrentHashMap<String, MobicentsSipSession> derivedSipSessions = this.derivedSipSessions;
+		final Set<Transaction> ongoingTransactions = this.ongoingTransactions;
+		return isValidInternal() && parentSession == null && (derivedSipSessions == null || derivedSipSessions.isEmpty()) && 
+			(ongoingTransactions == null || ongoingTransactions.isEmpty()) && !isLocked(semaphore) && 
+			!(sipApplicationSession instanceof SipApplicationSessionImpl && isLocked(((SipApplicationSessionImpl) sipApplicationSession).getSemaphore()));
+	}
+
+	private static boolean isLocked(Semaphore semaphore) {
+		return semaphore != null && semaphore.availablePermits() <= 0;
+	}
+
+	public ClassLoader getAttributesClassLoader() {
+		final MobicentsSipApplicationSession sipApplicationSession = getSipApplicationSession();
+		if(sipApplicationSession == null || sipApplicationSession.getSipContext() == null) {
+			return null;
+		}
+		return sipApplicationSession.getSipContext().getSipContextClassLoader();
+	}
+
 	public SipPrincipal getUserPrincipal() {
 		return userPrincipal;
 	}
@@ -2341,7 +2430,12 @@ public class SipSessionImpl implements MobicentsSipSession {
 	 * @see org.mobicents.javax.servlet.sip.SipSessionExt#scheduleAsynchronousWork(org.mobicents.javax.servlet.sip.SipSessionAsynchronousWork)
 	 */
 	public void scheduleAsynchronousWork(SipSessionAsynchronousWork work) {
-		sipFactory.getSipApplicationDispatcher().getAsynchronousExecutor().execute(new SipSessionAsyncTask(key, work, sipFactory));
+		final SipApplicationSessionKey sipApplicationSessionKey = SessionManagerUtil.getSipApplicationSessionKey(
+				key.getApplicationName(), 
+				key.getApplicationSessionId(),
+				null);
+		final SipContext sipContext = sipFactory.getSipApplicationDispatcher().findSipApplication(key.getApplicationName());
+		sipFactory.getSipApplicationDispatcher().getConcurrencyModelExecutor(sipContext, sipApplicationSessionKey, key).execute(new SipSessionAsyncTask(key, work, sipFactory));
 	}
 	public int getRequestsPending() {
 		return requestsPending;
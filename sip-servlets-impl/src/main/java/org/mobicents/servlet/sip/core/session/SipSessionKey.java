@@ -47,7 +47,10 @@ public final class SipSessionKey implements MobicentsSipSessionKey, Serializable
 	// Issue 790 : 1 SipSession should not be used in 2 different app session (http://code.google.com/p/mobicents/issues/detail?id=790)
 	// so we add the app session id in the key as well
 	private final String applicationSessionId;
+	// the id is only built when first asked for, null means it has to be computed from the current fields
 	private String toString;
+	// cached as the key is looked up in the session maps for every message, 0 until computed
+	private transient int hashCode;
 	/**
 	 * @param fromAddress
 	 * @param fromTag
@@ -62,10 +65,8 @@ public final class SipSessionKey implements MobicentsSipSessionKey, Serializable
 		this.fromTag = fromTag;
 		this.toTag = toTag;
 		this.callId = callId;
-		this.applicationName = applicationName;
+		this.applicationName = SessionManagerUtil.internApplicationName(applicationName);
 		this.applicationSessionId = applicationSessionId;
-		
-		computeToString();		
 	}
 	/**
 	 * @return the fromTag
@@ -102,14 +103,18 @@ public final class SipSessionKey implements MobicentsSipSessionKey, Serializable
 	 */
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result
-				+ ((applicationName == null) ? 0 : applicationName.hashCode());
-		result = prime * result
-				+ ((applicationSessionId == null) ? 0 : applicationSessionId.hashCode());
-		result = prime * result + ((callId == null) ? 0 : callId.hashCode());
-		result = prime * result + ((fromTag == null) ? 0 : fromTag.hashCode());
+		int result = hashCode;
+		if(result == 0) {
+			final int prime = 31;
+			result = 1;
+			result = prime * result
+					+ ((applicationName == null) ? 0 : applicationName.hashCode());
+			result = prime * result
+					+ ((applicationSessionId == null) ? 0 : applicationSessionId.hashCode());
+			result = prime * result + ((callId == null) ? 0 : callId.hashCode());
+			result = prime * result + ((fromTag == null) ? 0 : fromTag.hashCode());
+			hashCode = result;
+		}
 		return result;
 	}
 	/* (non-Javadoc)
@@ -124,6 +129,8 @@ public final class SipSessionKey implements MobicentsSipSessionKey, Serializable
 		if (getClass() != obj.getClass())
 			return false;
 		final SipSessionKey other = (SipSessionKey) obj;
+		if (hashCode() != other.hashCode())
+			return false;
 		if (applicationName == null) {
 			if (other.applicationName != null)
 				return false;
@@ -149,6 +156,11 @@ public final class SipSessionKey implements MobicentsSipSessionKey, Serializable
 	
 	@Override
 	public String toString() {
+		String toString = this.toString;
+		if(toString == null) {
+			toString = computeToString(toTag);
+			this.toString = toString;
+		}
 		return toString;
 	}
 	/**
@@ -161,10 +173,16 @@ public final class SipSessionKey implements MobicentsSipSessionKey, Serializable
 	 * @param recomputeSessionId check if the sessionid need to be recomputed
 	 */
 	public void setToTag(String toTag, boolean recomputeSessionId) {
-		this.toTag = toTag;
 		if(toTag != null && recomputeSessionId) {
 			// Issue 2365 : to tag needed for getApplicationSession().getSipSession(<sessionId>) to return forked session and not the parent one
-			computeToString();
+			this.toTag = toTag;
+			this.toString = null;
+		} else {
+			// the id doesn't change, so it is built from the previous to tag if it hasn't been yet
+			if(this.toString == null) {
+				this.toString = computeToString(this.toTag);
+			}
+			this.toTag = toTag;
 		}
 	}
 	
@@ -175,15 +193,27 @@ public final class SipSessionKey implements MobicentsSipSessionKey, Serializable
 		this.toString = toString;
 	}
 	/**
-	 * @return the toString
+	 * Computes the id of the key from its current fields
 	 */
 	public void computeToString() {
+		toString = computeToString(toTag);
+	}
+	
+	private String computeToString(String toTag) {
+		final StringBuilder stringBuilder = new StringBuilder(8 + length(fromTag) + length(toTag) + length(callId) + 
+				length(applicationSessionId) + length(applicationName));
+		stringBuilder.append('(').append(fromTag).append(SessionManagerUtil.SESSION_KEY_SEPARATOR);
 		if(toTag != null) {
 			// Issue 2365 : to tag needed for getApplicationSession().getSipSession(<sessionId>) to return forked session and not the parent one
-			toString = "(" + fromTag + SessionManagerUtil.SESSION_KEY_SEPARATOR + toTag + SessionManagerUtil.SESSION_KEY_SEPARATOR + callId + SessionManagerUtil.SESSION_KEY_SEPARATOR + applicationSessionId +SessionManagerUtil.SESSION_KEY_SEPARATOR + applicationName + ")";
-		} else {
-			toString = "(" + fromTag + SessionManagerUtil.SESSION_KEY_SEPARATOR + callId + SessionManagerUtil.SESSION_KEY_SEPARATOR + applicationSessionId +SessionManagerUtil.SESSION_KEY_SEPARATOR + applicationName + ")";
+			stringBuilder.append(toTag).append(SessionManagerUtil.SESSION_KEY_SEPARATOR);
 		}
-	}	
+		stringBuilder.append(callId).append(SessionManagerUtil.SESSION_KEY_SEPARATOR).append(applicationSessionId).append(
+				SessionManagerUtil.SESSION_KEY_SEPARATOR).append(applicationName).append(')');
+		return stringBuilder.toString();
+	}
+	
+	private static int length(String value) {
+		return value != null ? value.length() : 4;
+	}
 	
 }
@@ -239,7 +239,11 @@ public class SipSessionsUtilImpl implements MobicentsSipSessionsUtil, Serializab
 			throw new IllegalArgumentException("the given application session id : " + sipSessionId + 
 					" couldn't be parsed correctly ",e);
 		}
-		sipContext.getSipApplicationDispatcher().getAsynchronousExecutor().execute(new SipSessionAsyncTask(sipSessionKey, work, sipContext.getSipApplicationDispatcher().getSipFactory()));
+		final SipApplicationSessionKey sipApplicationSessionKey = SessionManagerUtil.getSipApplicationSessionKey(
+				sipSessionKey.getApplicationName(), 
+				sipSessionKey.getApplicationSessionId(),
+				null);
+		sipContext.getSipApplicationDispatcher().getConcurrencyModelExecutor(sipContext, sipApplicationSessionKey, sipSessionKey).execute(new SipSessionAsyncTask(sipSessionKey, work, sipContext.getSipApplicationDispatcher().getSipFactory()));
 	}
 
 	@Override
@@ -252,6 +256,6 @@ public class SipSessionsUtilImpl implements MobicentsSipSessionsUtil, Serializab
 			throw new IllegalArgumentException("the given application session id : " + sipApplicationSessionId + 
 					" couldn't be parsed correctly ",e);
 		}
-		sipContext.getSipApplicationDispatcher().getAsynchronousExecutor().execute(new SipApplicationSessionAsyncTask(applicationSessionKey, work, sipContext.getSipApplicationDispatcher().getSipFactory()));
+		sipContext.getSipApplicationDispatcher().getConcurrencyModelExecutor(sipContext, applicationSessionKey, null).execute(new SipApplicationSessionAsyncTask(applicationSessionKey, work, sipContext.getSipApplicationDispatcher().getSipFactory()));
 	}
 }
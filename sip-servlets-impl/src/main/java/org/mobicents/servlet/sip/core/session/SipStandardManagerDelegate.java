@@ -42,9 +42,25 @@ public class SipStandardManagerDelegate extends SipManagerDelegate {
                 ("could not create a new sip session because there is currently too many active sip sessions");
 		}
 		sipSessionCounter++;		
+		final SipSessionImpl sipSession = newSipSessionImpl(key, sipFactoryImpl, mobicentsSipApplicationSession);
+		sipSession.setAttributesPager(sessionAttributesPager);
+		return sipSession;
+	}
+
+	/**
+	 * Instantiates the sip sessions, to be overriden by the managers needing their own implementation
+	 */
+	protected SipSessionImpl newSipSessionImpl(SipSessionKey key, SipFactoryImpl sipFactoryImpl, MobicentsSipApplicationSession mobicentsSipApplicationSession) {
 		return new SipSessionImpl(key, sipFactoryImpl, mobicentsSipApplicationSession);
 	}
 
+	/**
+	 * Instantiates the sip application sessions, to be overriden by the managers needing their own implementation
+	 */
+	protected SipApplicationSessionImpl newSipApplicationSessionImpl(SipApplicationSessionKey key, SipContext sipContext) {
+		return new SipApplicationSessionImpl(key, sipContext);
+	}
+
 	@Override
 	protected MobicentsSipApplicationSession getNewMobicentsSipApplicationSession(
 			SipApplicationSessionKey key, SipContext sipContext) {
@@ -54,7 +70,8 @@ public class SipStandardManagerDelegate extends SipManagerDelegate {
                 ("could not create a new sip application session because there is currently too many active sip application sessions");
 		}
 		sipApplicationSessionCounter++;		
-		MobicentsSipApplicationSession sipApplicationSession = new SipApplicationSessionImpl(key, sipContext);		
+		SipApplicationSessionImpl sipApplicationSession = newSipApplicationSessionImpl(key, sipContext);		
+		sipApplicationSession.setAttributesPager(sessionAttributesPager);
 		
 		return sipApplicationSession;
 	}
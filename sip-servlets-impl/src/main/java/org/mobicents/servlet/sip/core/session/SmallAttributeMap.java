@@ -0,0 +1,305 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.session;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.mobicents.servlet.sip.annotation.ConcurrencyControlMode;
+
+/**
+ * Attribute map for the sessions and messages, which mostly hold a handful of attributes : 
+ * they are kept in two small arrays, searched linearly, and only moved to a hash map past {@value #MAX_INLINE_SIZE} attributes.
+ * An empty {@link ConcurrentHashMap} already takes over a kilobyte with its segments, when this map takes a few dozen bytes.<br/>
+ * The map is synchronized, which is cheap as long as it is accessed by one thread at a time, 
+ * so it should only be used when the concurrency control mode serializes the accesses, see {@link #newAttributeMap(boolean)}.
+ * As for a {@link ConcurrentHashMap}, null keys and values are not allowed and the iterators never throw 
+ * {@link java.util.ConcurrentModificationException}, they go through a snapshot of the map taken when they are created.
+ */
+public class SmallAttributeMap<V> extends AbstractMap<String, V> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	static final int MAX_INLINE_SIZE = 8;
+	private static final int INITIAL_INLINE_SIZE = 4;
+
+	// inline attributes, null once moved to the hash map
+	private String[] keys = new String[INITIAL_INLINE_SIZE];
+	private Object[] values = new Object[INITIAL_INLINE_SIZE];
+	private int size;
+	private HashMap<String, V> map;
+
+	/**
+	 * @param singleWriter true if the concurrency control mode guarantees that the attributes are accessed by one thread at a time
+	 * @return a new attribute map fitting the given access pattern
+	 */
+	public static Map<String, Object> newAttributeMap(boolean singleWriter) {
+		if(singleWriter) {
+			return new SmallAttributeMap<Object>();
+		}
+		return new ConcurrentHashMap<String, Object>();
+	}
+
+	/**
+	 * @return true if the concurrency control mode guarantees that the attributes of a sip application session 
+	 * are accessed by one thread at a time
+	 */
+	public static boolean isSipApplicationSessionSingleWriter(ConcurrencyControlMode concurrencyControlMode) {
+		return ConcurrencyControlMode.SipApplicationSession.equals(concurrencyControlMode) || 
+			ConcurrencyControlMode.SipApplicationSessionSerial.equals(concurrencyControlMode);
+	}
+
+	/**
+	 * @return true if the concurrency control mode guarantees that the attributes of a sip session 
+	 * are accessed by one thread at a time
+	 */
+	public static boolean isSipSessionSingleWriter(ConcurrencyControlMode concurrencyControlMode) {
+		return isSipApplicationSessionSingleWriter(concurrencyControlMode) || 
+			ConcurrencyControlMode.SipSession.equals(concurrencyControlMode) || 
+			ConcurrencyControlMode.SipSessionSerial.equals(concurrencyControlMode);
+	}
+
+	@Override
+	public synchronized int size() {
+		return map == null ? size : map.size();
+	}
+
+	@Override
+	public synchronized boolean isEmpty() {
+		return map == null ? size == 0 : map.isEmpty();
+	}
+
+	@Override
+	public synchronized boolean containsKey(Object key) {
+		return map == null ? indexOf(key) >= 0 : map.containsKey(key);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public synchronized V get(Object key) {
+		if(map != null) {
+			return map.get(key);
+		}
+		final int index = indexOf(key);
+		return index < 0 ? null : (V) values[index];
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public synchronized V put(String key, V value) {
+		if(key == null || value == null) {
+			throw new NullPointerException();
+		}
+		if(map != null) {
+			return map.put(key, value);
+		}
+		final int index = indexOf(key);
+		if(index >= 0) {
+			final V previous = (V) values[index];
+			values[index] = value;
+			return previous;
+		}
+		if(size == keys.length) {
+			if(size == MAX_INLINE_SIZE) {
+				map = new HashMap<String, V>(MAX_INLINE_SIZE * 4);
+				for (int i = 0; i < size; i++) {
+					map.put(keys[i], (V) values[i]);
+				}
+				keys = null;
+				values = null;
+				size = 0;
+				return map.put(key, value);
+			}
+			final String[] newKeys = new String[MAX_INLINE_SIZE];
+			final Object[] newValues = new Object[MAX_INLINE_SIZE];
+			System.arraycopy(keys, 0, newKeys, 0, size);
+			System.arraycopy(values, 0, newValues, 0, size);
+			keys = newKeys;
+			values = newValues;
+		}
+		keys[size] = key;
+		values[size] = value;
+		size++;
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public synchronized V remove(Object key) {
+		if(map != null) {
+			return map.remove(key);
+		}
+		final int index = indexOf(key);
+		if(index < 0) {
+			return null;
+		}
+		final V previous = (V) values[index];
+		size--;
+		// the last attribute takes the place of the removed one
+		keys[index] = keys[size];
+		values[index] = values[size];
+		keys[size] = null;
+		values[size] = null;
+		return previous;
+	}
+
+	@Override
+	public synchronized void clear() {
+		if(map != null) {
+			map = null;
+			keys = new String[INITIAL_INLINE_SIZE];
+			values = new Object[INITIAL_INLINE_SIZE];
+		} else {
+			for (int i = 0; i < size; i++) {
+				keys[i] = null;
+				values[i] = null;
+			}
+		}
+		size = 0;
+	}
+
+	@Override
+	public Set<Map.Entry<String, V>> entrySet() {
+		return new AbstractSet<Map.Entry<String, V>>() {
+			@Override
+			public Iterator<Map.Entry<String, V>> iterator() {
+				return new SnapshotIterator(snapshot());
+			}
+
+			@Override
+			public int size() {
+				return SmallAttributeMap.this.size();
+			}
+		};
+	}
+
+	private int indexOf(Object key) {
+		for (int i = 0; i < size; i++) {
+			if(keys[i].equals(key)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@SuppressWarnings("unchecked")
+	private synchronized Object[] snapshot() {
+		if(map != null) {
+			final Object[] snapshot = new Object[map.size() * 2];
+			int i = 0;
+			for (Map.Entry<String, V> entry : map.entrySet()) {
+				snapshot[i++] = entry.getKey();
+				snapshot[i++] = entry.getValue();
+			}
+			return snapshot;
+		}
+		final Object[] snapshot = new Object[size * 2];
+		for (int i = 0; i < size; i++) {
+			snapshot[i * 2] = keys[i];
+			snapshot[i * 2 + 1] = values[i];
+		}
+		return snapshot;
+	}
+
+	private final class SnapshotIterator implements Iterator<Map.Entry<String, V>> {
+		// keys and values interleaved
+		private final Object[] snapshot;
+		private int next;
+		private String last;
+
+		private SnapshotIterator(Object[] snapshot) {
+			this.snapshot = snapshot;
+		}
+
+		public boolean hasNext() {
+			return next < snapshot.length;
+		}
+
+		@SuppressWarnings("unchecked")
+		public Map.Entry<String, V> next() {
+			if(next >= snapshot.length) {
+				throw new NoSuchElementException();
+			}
+			final String key = (String) snapshot[next];
+			final V value = (V) snapshot[next + 1];
+			next += 2;
+			last = key;
+			return new Entry(key, value);
+		}
+
+		public void remove() {
+			if(last == null) {
+				throw new IllegalStateException();
+			}
+			SmallAttributeMap.this.remove(last);
+			last = null;
+		}
+	}
+
+	private final class Entry implements Map.Entry<String, V> {
+		private final String key;
+		private V value;
+
+		private Entry(String key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public V getValue() {
+			return value;
+		}
+
+		public V setValue(V value) {
+			final V previous = put(key, value);
+			this.value = value;
+			return previous;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Map.Entry<?, ?>)) {
+				return false;
+			}
+			final Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+			return key.equals(entry.getKey()) && value.equals(entry.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return key.hashCode() ^ value.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + value;
+		}
+	}
+}
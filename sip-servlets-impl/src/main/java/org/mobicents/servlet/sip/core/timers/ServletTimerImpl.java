@@ -20,14 +20,15 @@
 package org.mobicents.servlet.sip.core.timers;
 
 import java.io.Serializable;
-import java.util.UUID;
 import java.util.concurrent.ScheduledFuture;
 
 import javax.servlet.sip.TimerListener;
 
 import org.apache.log4j.Logger;
+import org.mobicents.servlet.sip.GenericUtils;
 import org.mobicents.servlet.sip.core.SipContext;
 import org.mobicents.servlet.sip.core.SipManager;
+import org.mobicents.servlet.sip.core.dispatchers.MessageDispatcher;
 import org.mobicents.servlet.sip.core.session.MobicentsSipApplicationSession;
 import org.mobicents.servlet.sip.core.session.MobicentsSipApplicationSessionKey;
 
@@ -149,7 +150,7 @@ public class ServletTimerImpl implements MobicentsServletTimer, Runnable {
 	public ServletTimerImpl(Serializable info, long delay, boolean fixedDelay,
 			long period, TimerListener listener,
 			MobicentsSipApplicationSession appSession) {
-		this.id = UUID.randomUUID().toString();
+		this.id = GenericUtils.getIdGenerator().generateId();
 		this.info = info;
 		this.delay = delay;
 		this.scheduledExecutionTime = delay + System.currentTimeMillis();
@@ -280,7 +281,26 @@ public class ServletTimerImpl implements MobicentsServletTimer, Runnable {
 	 * Method that actually
 	 */
 	public void run() {
+		final MobicentsSipApplicationSession sipApplicationSession = getApplicationSession();
+		final SipContext sipContext = sipApplicationSession.getSipContext();
+		if(MessageDispatcher.isSerialConcurrencyControlMode(sipContext)) {
+			// enterSipApp doesn't lock the session in the serial concurrency control modes, 
+			// the timer is queued behind the messages of the session instead
+			sipContext.getSipApplicationDispatcher().getConcurrencyModelExecutor(sipContext, appSessionKey, null).execute(new Runnable() {
+				public void run() {
+					fire();
+				}
+			});
+			return;
+		}
+		fire();
+	}
 
+	/**
+	 * Runs the timer callback on the current thread, the caller being responsible for the concurrency control 
+	 * of the serial modes
+	 */
+	void fire() {
 		final MobicentsSipApplicationSession sipApplicationSession = getApplicationSession();
 		SipContext sipContext = sipApplicationSession.getSipContext();
 		
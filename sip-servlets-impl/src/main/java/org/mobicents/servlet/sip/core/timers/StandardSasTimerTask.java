@@ -27,6 +27,7 @@ import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 import org.mobicents.servlet.sip.core.SipContext;
+import org.mobicents.servlet.sip.core.dispatchers.MessageDispatcher;
 import org.mobicents.servlet.sip.core.session.MobicentsSipApplicationSession;
 import org.mobicents.servlet.sip.core.session.SipApplicationSessionEventType;
 
@@ -47,8 +48,24 @@ public class StandardSasTimerTask extends TimerTask implements SipApplicationSes
 		this.sipApplicationSession = mobicentsSipApplicationSession;
 	}
 	
+	public void run() {
+		final MobicentsSipApplicationSession sipApplicationSession = getSipApplicationSession();
+		if(sipApplicationSession != null && MessageDispatcher.isSerialConcurrencyControlMode(sipApplicationSession.getSipContext())) {
+			// enterSipApp doesn't lock the session in the serial concurrency control modes, 
+			// the expiration is queued behind the messages of the session instead
+			final SipContext sipContext = sipApplicationSession.getSipContext();
+			sipContext.getSipApplicationDispatcher().getConcurrencyModelExecutor(sipContext, sipApplicationSession.getKey(), null).execute(new Runnable() {
+				public void run() {
+					checkExpiration();
+				}
+			});
+			return;
+		}
+		checkExpiration();
+	}
+
 	@SuppressWarnings("unchecked")
-	public void run() {	
+	private void checkExpiration() {	
 		try {
 			if(logger.isDebugEnabled()) {
 				logger.debug("initial kick off of SipApplicationSessionTimerTask running for sip application session " + sipApplicationSession.getId());
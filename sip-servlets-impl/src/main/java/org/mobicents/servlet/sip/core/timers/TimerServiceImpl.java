@@ -40,7 +40,11 @@ public class TimerServiceImpl implements SipServletTimerService {
 	private transient ScheduledThreadPoolExecutor scheduledExecutor;
 	
 	public TimerServiceImpl(SipService sipService) {		
-		scheduledExecutor = new ScheduledThreadPoolExecutor(SCHEDULER_THREAD_POOL_DEFAULT_SIZE);
+		int threadPoolSize = sipService.getTimerServiceThreadPoolSize();
+		if(threadPoolSize <= 0) {
+			threadPoolSize = SCHEDULER_THREAD_POOL_DEFAULT_SIZE;
+		}
+		scheduledExecutor = new ScheduledThreadPoolExecutor(threadPoolSize);
 		int purgePeriod = sipService.getCanceledTimerTasksPurgePeriod();
 		if(purgePeriod > 0) {
 			Runnable r = new Runnable() {			
@@ -0,0 +1,447 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.timers;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Hashed timing wheel.<br/>
+ * Scheduling and cancelling a timeout are O(1) : the timeout is only queued to the wheel thread
+ * (or flagged as cancelled) and the wheel thread moves it to the bucket of its expiration tick,
+ * a timeout further away than a full turn of the wheel stays in its bucket for as many rounds as needed.
+ * When its bucket comes due, a timeout can ask to be moved further in the wheel through {@link Timeout#getRemainingDelay(long)}
+ * so that timers whose deadline keeps being pushed back never need to be cancelled and rescheduled.<br/>
+ * {@link Timeout#expire()} is called on the wheel thread, so it should only hand the actual work over to another thread.
+ * The precision of the timeouts is the tick duration.
+ */
+public class TimingWheel {
+
+	private static final Logger logger = Logger.getLogger(TimingWheel.class);
+
+	// maximum number of newly scheduled timeouts moved to the wheel per tick, so a burst doesn't stall the wheel
+	private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+	private final String name;
+	private final long tickDuration;
+	private final Bucket[] wheel;
+	private final int mask;
+
+	private final Queue<Timeout> scheduledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+	private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+	private final AtomicBoolean started = new AtomicBoolean(false);
+
+	private final AtomicLong numberOfPendingTimeouts = new AtomicLong(0);
+	private final AtomicLong numberOfScheduledTimeouts = new AtomicLong(0);
+	private final AtomicLong numberOfExpiredTimeouts = new AtomicLong(0);
+	private final AtomicLong numberOfCancelledTimeouts = new AtomicLong(0);
+	// only written by the wheel thread
+	private volatile long maxExpirationLag;
+
+	private Thread wheelThread;
+	// only accessed by the wheel thread once started
+	private long startTime;
+	private long tick;
+	// timeouts moved further while their bucket is being expired, placed once the bucket is done
+	private final Bucket movedTimeouts = new Bucket();
+
+	/**
+	 * @param name the name of the wheel thread
+	 * @param tickDuration the duration of a tick in milliseconds
+	 * @param wheelSize the number of buckets of the wheel, rounded up to a power of 2
+	 */
+	public TimingWheel(String name, long tickDuration, int wheelSize) {
+		if(tickDuration <= 0) {
+			throw new IllegalArgumentException("tickDuration must be greater than 0 : " + tickDuration);
+		}
+		if(wheelSize <= 0 || wheelSize > (1 << 30)) {
+			throw new IllegalArgumentException("wheelSize must be between 1 and 2^30 : " + wheelSize);
+		}
+		int normalizedWheelSize = 1;
+		while(normalizedWheelSize < wheelSize) {
+			normalizedWheelSize <<= 1;
+		}
+		this.name = name;
+		this.tickDuration = tickDuration;
+		this.wheel = new Bucket[normalizedWheelSize];
+		for (int i = 0; i < normalizedWheelSize; i++) {
+			wheel[i] = new Bucket();
+		}
+		this.mask = normalizedWheelSize - 1;
+	}
+
+	/**
+	 * Schedule the timeout to expire after the given delay.
+	 * A timeout can be scheduled again once it has expired or has been cancelled.
+	 */
+	public void schedule(Timeout timeout, long delay, TimeUnit unit) {
+		timeout.deadline = System.currentTimeMillis() + unit.toMillis(delay);
+		timeout.setState(Timeout.ST_WAITING);
+		numberOfPendingTimeouts.incrementAndGet();
+		numberOfScheduledTimeouts.incrementAndGet();
+		scheduledTimeouts.offer(timeout);
+	}
+
+	/**
+	 * Cancel the timeout
+	 * @return true if the timeout was waiting in the wheel, false if it already expired or was already cancelled
+	 */
+	public boolean cancel(Timeout timeout) {
+		if(timeout.compareAndSetState(Timeout.ST_WAITING, Timeout.ST_CANCELLED)) {
+			numberOfPendingTimeouts.decrementAndGet();
+			numberOfCancelledTimeouts.incrementAndGet();
+			// the wheel thread will unlink it from its bucket on next tick
+			cancelledTimeouts.offer(timeout);
+			return true;
+		}
+		return false;
+	}
+
+	public void start() {
+		if(!started.compareAndSet(false, true)) {
+			return;
+		}
+		wheelThread = new Thread(new Worker(), name);
+		wheelThread.setDaemon(true);
+		wheelThread.start();
+	}
+
+	/**
+	 * Stop the wheel thread and drop all the timeouts still waiting, they are flagged as cancelled
+	 */
+	public void stop() {
+		if(!started.compareAndSet(true, false)) {
+			return;
+		}
+		wheelThread.interrupt();
+		if(Thread.currentThread() != wheelThread) {
+			// the buckets are only accessed by the wheel thread, wait for it to exit before clearing them
+			try {
+				wheelThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		for (Bucket bucket : wheel) {
+			clear(bucket);
+		}
+		clear(movedTimeouts);
+		Timeout timeout;
+		while((timeout = scheduledTimeouts.poll()) != null) {
+			timeout.compareAndSetState(Timeout.ST_WAITING, Timeout.ST_CANCELLED);
+		}
+		cancelledTimeouts.clear();
+		numberOfPendingTimeouts.set(0);
+	}
+
+	private static void clear(Bucket bucket) {
+		Timeout timeout;
+		while((timeout = bucket.head) != null) {
+			bucket.remove(timeout);
+			timeout.compareAndSetState(Timeout.ST_WAITING, Timeout.ST_CANCELLED);
+		}
+	}
+
+	public boolean isStarted() {
+		return started.get();
+	}
+
+	public long getTickDuration() {
+		return tickDuration;
+	}
+
+	public int getWheelSize() {
+		return wheel.length;
+	}
+
+	/**
+	 * @return the number of timeouts waiting to expire
+	 */
+	public long getNumberOfPendingTimeouts() {
+		return numberOfPendingTimeouts.get();
+	}
+
+	/**
+	 * @return the number of timeouts scheduled since the wheel has been created
+	 */
+	public long getNumberOfScheduledTimeouts() {
+		return numberOfScheduledTimeouts.get();
+	}
+
+	/**
+	 * @return the number of timeouts expired since the wheel has been created
+	 */
+	public long getNumberOfExpiredTimeouts() {
+		return numberOfExpiredTimeouts.get();
+	}
+
+	/**
+	 * @return the number of timeouts cancelled since the wheel has been created
+	 */
+	public long getNumberOfCancelledTimeouts() {
+		return numberOfCancelledTimeouts.get();
+	}
+
+	/**
+	 * @return the maximum time in milliseconds elapsed between the deadline of a timeout and its expiration
+	 */
+	public long getMaxExpirationLag() {
+		return maxExpirationLag;
+	}
+
+	/**
+	 * Entry of the wheel, the bucket related fields are only accessed by the wheel thread
+	 */
+	public abstract static class Timeout {
+		static final int ST_WAITING = 0;
+		static final int ST_CANCELLED = 1;
+		static final int ST_EXPIRED = 2;
+
+		private static final AtomicIntegerFieldUpdater<Timeout> STATE_UPDATER =
+			AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+		private volatile int state = ST_WAITING;
+		// set before the timeout is handed over to the wheel thread
+		long deadline;
+		long remainingRounds;
+		Timeout next;
+		Timeout prev;
+		Bucket bucket;
+
+		/**
+		 * Called by the wheel thread when the bucket of the timeout comes due
+		 * @param now the current time
+		 * @return the delay in milliseconds the timeout should be moved further in the wheel, 0 or less to expire it now
+		 */
+		protected long getRemainingDelay(long now) {
+			return 0;
+		}
+
+		/**
+		 * Allows to cancel timeouts without going through {@link TimingWheel#cancel(Timeout)},
+		 * by example to cancel a whole group of timeouts at once. They are dropped when their bucket comes due.
+		 * @return true if the timeout should be discarded instead of expiring
+		 */
+		protected boolean isDiscarded() {
+			return false;
+		}
+
+		/**
+		 * Called by the wheel thread when the timeout expires
+		 */
+		protected abstract void expire();
+
+		public boolean isExpired() {
+			return state == ST_EXPIRED;
+		}
+
+		public boolean isCancelled() {
+			return state == ST_CANCELLED;
+		}
+
+		/**
+		 * @return the absolute time in milliseconds the timeout was last scheduled to expire at
+		 */
+		public long getDeadline() {
+			return deadline;
+		}
+
+		void setState(int state) {
+			this.state = state;
+		}
+
+		boolean compareAndSetState(int expected, int state) {
+			return STATE_UPDATER.compareAndSet(this, expected, state);
+		}
+	}
+
+	/**
+	 * Doubly linked list of the timeouts of a given slot of the wheel, only accessed by the wheel thread
+	 */
+	static final class Bucket {
+		private Timeout head;
+		private Timeout tail;
+
+		void add(Timeout timeout) {
+			timeout.bucket = this;
+			if(head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		void remove(Timeout timeout) {
+			Timeout next = timeout.next;
+			if(timeout.prev != null) {
+				timeout.prev.next = next;
+			}
+			if(next != null) {
+				next.prev = timeout.prev;
+			}
+			if(timeout == head) {
+				if(timeout == tail) {
+					head = tail = null;
+				} else {
+					head = next;
+				}
+			} else if(timeout == tail) {
+				tail = timeout.prev;
+			}
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = null;
+		}
+	}
+
+	private final class Worker implements Runnable {
+		public void run() {
+			startTime = System.currentTimeMillis();
+			tick = 0;
+			while(started.get()) {
+				final long now = waitForNextTick();
+				if(now < 0) {
+					break;
+				}
+				try {
+					processCancelledTimeouts();
+					transferScheduledTimeouts();
+					expireTimeouts(wheel[(int) (tick & mask)], now);
+				} catch (Throwable t) {
+					logger.error("Unexpected exception while processing the timing wheel " + name, t);
+				}
+				tick++;
+			}
+			if(logger.isDebugEnabled()) {
+				logger.debug("timing wheel thread " + name + " stopped");
+			}
+		}
+
+		/**
+		 * @return the current time once the next tick is reached or -1 if the wheel has been stopped
+		 */
+		private long waitForNextTick() {
+			final long nextTickTime = startTime + (tick + 1) * tickDuration;
+			while(true) {
+				final long now = System.currentTimeMillis();
+				final long sleepTime = nextTickTime - now;
+				if(sleepTime <= 0) {
+					return now;
+				}
+				try {
+					Thread.sleep(sleepTime);
+				} catch (InterruptedException e) {
+					if(!started.get()) {
+						return -1;
+					}
+				}
+			}
+		}
+
+		private void processCancelledTimeouts() {
+			Timeout timeout;
+			while((timeout = cancelledTimeouts.poll()) != null) {
+				// a timeout cancelled before reaching the wheel has no bucket, it will be skipped on transfer
+				if(timeout.bucket != null) {
+					timeout.bucket.remove(timeout);
+				}
+			}
+		}
+
+		private void transferScheduledTimeouts() {
+			for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+				Timeout timeout = scheduledTimeouts.poll();
+				if(timeout == null) {
+					return;
+				}
+				if(timeout.state != Timeout.ST_WAITING) {
+					continue;
+				}
+				// a timeout can be scheduled again while still sitting in a bucket
+				if(timeout.bucket != null) {
+					timeout.bucket.remove(timeout);
+				}
+				place(timeout, tick);
+			}
+		}
+
+		private void expireTimeouts(Bucket bucket, long now) {
+			Timeout timeout = bucket.head;
+			while(timeout != null) {
+				final Timeout next = timeout.next;
+				if(timeout.state != Timeout.ST_WAITING) {
+					bucket.remove(timeout);
+				} else if(timeout.isDiscarded()) {
+					bucket.remove(timeout);
+					if(timeout.compareAndSetState(Timeout.ST_WAITING, Timeout.ST_CANCELLED)) {
+						numberOfPendingTimeouts.decrementAndGet();
+						numberOfCancelledTimeouts.incrementAndGet();
+					}
+				} else if(timeout.remainingRounds > 0) {
+					timeout.remainingRounds--;
+				} else {
+					bucket.remove(timeout);
+					final long delay = timeout.getRemainingDelay(now);
+					if(delay > 0) {
+						// lazily move it further, once this bucket is done so that it isn't visited twice in the same tick
+						timeout.deadline = now + delay;
+						movedTimeouts.add(timeout);
+					} else if(timeout.compareAndSetState(Timeout.ST_WAITING, Timeout.ST_EXPIRED)) {
+						numberOfPendingTimeouts.decrementAndGet();
+						numberOfExpiredTimeouts.incrementAndGet();
+						final long lag = now - timeout.deadline;
+						if(lag > maxExpirationLag) {
+							maxExpirationLag = lag;
+						}
+						try {
+							timeout.expire();
+						} catch (Throwable t) {
+							logger.error("Unexpected exception while expiring a timeout of the timing wheel " + name, t);
+						}
+					}
+				}
+				timeout = next;
+			}
+			while((timeout = movedTimeouts.head) != null) {
+				movedTimeouts.remove(timeout);
+				// the current bucket has already been expired, the next visit of any bucket is from the next tick on
+				place(timeout, tick + 1);
+			}
+		}
+
+		/**
+		 * @param firstTick the first tick whose bucket has not been expired yet
+		 */
+		private void place(Timeout timeout, long firstTick) {
+			final long expirationTick = Math.max((timeout.deadline - startTime) / tickDuration, firstTick);
+			// the number of times the bucket is visited before the expiration tick, counting from the first tick
+			timeout.remainingRounds = (expirationTick - firstTick) / wheel.length;
+			wheel[(int) (expirationTick & mask)].add(timeout);
+		}
+	}
+}
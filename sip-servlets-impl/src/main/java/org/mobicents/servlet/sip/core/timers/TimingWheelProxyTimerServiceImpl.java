@@ -0,0 +1,227 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.timers;
+
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Proxy timer service backed by a {@link TimingWheel}.<br/>
+ * Scheduling and cancelling a proxy branch timer are O(1) and the timers are fired on a pool of threads
+ * so that a slow branch timeout doesn't delay the timeouts of the other branches,
+ * as is the case with the single thread of {@link ProxyTimerServiceImpl}.
+ * The number of scheduled, fired and cancelled timers as well as the lag between
+ * the time a timer was due and the time it actually fired are recorded.
+ */
+public class TimingWheelProxyTimerServiceImpl implements ProxyTimerService {
+
+	private static final Logger logger = Logger.getLogger(TimingWheelProxyTimerServiceImpl.class
+			.getName());
+
+	public static final long DEFAULT_TICK_DURATION = 100;
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+	public static final int DEFAULT_THREAD_POOL_SIZE = 4;
+
+	private static final AtomicInteger serviceCounter = new AtomicInteger(0);
+
+	private final int serviceId;
+	private final int threadPoolSize;
+	private final TimingWheel timingWheel;
+	private final ConcurrentMap<TimerTask, ProxyTimerTimeout> scheduledTimers = new ConcurrentHashMap<TimerTask, ProxyTimerTimeout>();
+	private ThreadPoolExecutor timerExecutor;
+
+	private final AtomicLong numberOfScheduledTimers = new AtomicLong(0);
+	private final AtomicLong numberOfFiredTimers = new AtomicLong(0);
+	private final AtomicLong numberOfCancelledTimers = new AtomicLong(0);
+	private final AtomicLong totalFiringLag = new AtomicLong(0);
+	private final AtomicLong maxFiringLag = new AtomicLong(0);
+
+	public TimingWheelProxyTimerServiceImpl() {
+		this(DEFAULT_THREAD_POOL_SIZE, DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE);
+	}
+
+	/**
+	 * @param threadPoolSize the number of threads firing the timers
+	 * @param tickDuration the duration of a tick in milliseconds
+	 * @param wheelSize the number of buckets of the wheel, rounded up to a power of 2
+	 */
+	public TimingWheelProxyTimerServiceImpl(int threadPoolSize, long tickDuration, int wheelSize) {
+		if(threadPoolSize <= 0) {
+			throw new IllegalArgumentException("threadPoolSize must be greater than 0 : " + threadPoolSize);
+		}
+		this.serviceId = serviceCounter.incrementAndGet();
+		this.threadPoolSize = threadPoolSize;
+		this.timingWheel = new TimingWheel("MSS-Proxy-TimingWheel-Thread-" + serviceId, tickDuration, wheelSize);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.timers.ProxyTimerService#schedule(java.util.TimerTask, long)
+	 */
+	public void schedule(TimerTask task, long delay) {
+		ProxyTimerTimeout timeout = new ProxyTimerTimeout(task);
+		scheduledTimers.put(task, timeout);
+		numberOfScheduledTimers.incrementAndGet();
+		timingWheel.schedule(timeout, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.timers.ProxyTimerService#cancel(java.util.TimerTask)
+	 */
+	public void cancel(TimerTask task) {
+		task.cancel();
+		ProxyTimerTimeout timeout = scheduledTimers.remove(task);
+		if(timeout != null && timingWheel.cancel(timeout)) {
+			numberOfCancelledTimers.incrementAndGet();
+		}
+	}
+
+	public void start() {
+		if(timingWheel.isStarted()) {
+			return;
+		}
+		timerExecutor = new ThreadPoolExecutor(threadPoolSize, threadPoolSize, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger threadCounter = new AtomicInteger(0);
+			public Thread newThread(Runnable pRunnable) {
+				Thread thread = new Thread(pRunnable, String.format("%s-%d-%d",
+						"MSS-Proxy-Timer-Thread", serviceId, threadCounter.incrementAndGet()));
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		timerExecutor.prestartAllCoreThreads();
+		timingWheel.start();
+		if(logger.isDebugEnabled()) {
+			logger.debug("Started proxy timer service "+ this);
+		}
+	}
+
+	public void stop() {
+		if(!timingWheel.isStarted()) {
+			return;
+		}
+		timingWheel.stop();
+		timerExecutor.shutdownNow();
+		scheduledTimers.clear();
+		if(logger.isDebugEnabled()) {
+			logger.debug("Stopped proxy timer service "+ this);
+		}
+	}
+
+	public boolean isStarted() {
+		return timingWheel.isStarted();
+	}
+
+	/**
+	 * @return the number of proxy timers scheduled since the service has been created
+	 */
+	public long getNumberOfScheduledTimers() {
+		return numberOfScheduledTimers.get();
+	}
+
+	/**
+	 * @return the number of proxy timers fired since the service has been created
+	 */
+	public long getNumberOfFiredTimers() {
+		return numberOfFiredTimers.get();
+	}
+
+	/**
+	 * @return the number of proxy timers cancelled before firing since the service has been created
+	 */
+	public long getNumberOfCancelledTimers() {
+		return numberOfCancelledTimers.get();
+	}
+
+	/**
+	 * @return the number of proxy timers waiting to fire
+	 */
+	public int getNumberOfPendingTimers() {
+		return scheduledTimers.size();
+	}
+
+	/**
+	 * @return the maximum time in milliseconds elapsed between the time a timer was due and the time it fired
+	 */
+	public long getMaxFiringLag() {
+		return maxFiringLag.get();
+	}
+
+	/**
+	 * @return the average time in milliseconds elapsed between the time a timer was due and the time it fired
+	 */
+	public long getAverageFiringLag() {
+		final long firedTimers = numberOfFiredTimers.get();
+		if(firedTimers == 0) {
+			return 0;
+		}
+		return totalFiringLag.get() / firedTimers;
+	}
+
+	private void fired(ProxyTimerTimeout timeout) {
+		scheduledTimers.remove(timeout.task, timeout);
+		numberOfFiredTimers.incrementAndGet();
+		final long lag = Math.max(0, System.currentTimeMillis() - timeout.getDeadline());
+		totalFiringLag.addAndGet(lag);
+		long currentMaxLag = maxFiringLag.get();
+		while(lag > currentMaxLag && !maxFiringLag.compareAndSet(currentMaxLag, lag)) {
+			currentMaxLag = maxFiringLag.get();
+		}
+	}
+
+	/**
+	 * Wheel entry of a proxy branch timer, handed over to the timer threads when it expires
+	 */
+	private final class ProxyTimerTimeout extends TimingWheel.Timeout implements Runnable {
+		private final TimerTask task;
+
+		ProxyTimerTimeout(TimerTask task) {
+			this.task = task;
+		}
+
+		@Override
+		protected void expire() {
+			try {
+				timerExecutor.execute(this);
+			} catch (RejectedExecutionException e) {
+				logger.warn("proxy timer rejected, the proxy timer service is stopping", e);
+			}
+		}
+
+		public void run() {
+			fired(this);
+			try {
+				task.run();
+			} catch (Throwable t) {
+				logger.error("Unexpected exception while running a proxy timer", t);
+			}
+		}
+	}
+}
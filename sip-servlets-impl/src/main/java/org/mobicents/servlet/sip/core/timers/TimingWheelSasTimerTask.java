@@ -0,0 +1,166 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.timers;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.mobicents.servlet.sip.core.SipContext;
+import org.mobicents.servlet.sip.core.dispatchers.MessageDispatcher;
+import org.mobicents.servlet.sip.core.session.MobicentsSipApplicationSession;
+import org.mobicents.servlet.sip.core.session.SipApplicationSessionEventType;
+
+/**
+ * Timer task that will notify the listeners that the sip application session has expired.
+ * It is kept in a bucket of the {@link TimingWheelSipApplicationSessionTimerService} wheel,
+ * when its bucket comes due and the session has been accessed in the meantime, the same task is simply
+ * moved to the bucket matching the new expiration time instead of being cancelled and recreated.
+ */
+public class TimingWheelSasTimerTask extends TimingWheel.Timeout implements SipApplicationSessionTimerTask {
+
+	private static final Logger logger = Logger.getLogger(TimingWheelSasTimerTask.class);
+
+	private final TimingWheelSipApplicationSessionTimerService timerService;
+
+	private MobicentsSipApplicationSession sipApplicationSession;
+
+	public TimingWheelSasTimerTask(TimingWheelSipApplicationSessionTimerService timerService, MobicentsSipApplicationSession mobicentsSipApplicationSession) {
+		this.timerService = timerService;
+		this.sipApplicationSession = mobicentsSipApplicationSession;
+	}
+
+	@Override
+	protected long getRemainingDelay(long now) {
+		if(sipApplicationSession == null) {
+			return 0;
+		}
+		// the session may have been accessed since the task was scheduled
+		return getDelay();
+	}
+
+	@Override
+	protected void expire() {
+		timerService.expire(this);
+	}
+
+	public void run() {
+		final MobicentsSipApplicationSession sipApplicationSession = getSipApplicationSession();
+		if(sipApplicationSession != null && MessageDispatcher.isSerialConcurrencyControlMode(sipApplicationSession.getSipContext())) {
+			// enterSipApp doesn't lock the session in the serial concurrency control modes, 
+			// the expiration is queued behind the messages of the session instead
+			final SipContext sipContext = sipApplicationSession.getSipContext();
+			sipContext.getSipApplicationDispatcher().getConcurrencyModelExecutor(sipContext, sipApplicationSession.getKey(), null).execute(new Runnable() {
+				public void run() {
+					checkExpiration();
+				}
+			});
+			return;
+		}
+		checkExpiration();
+	}
+
+	private void checkExpiration() {
+		try {
+			final MobicentsSipApplicationSession sipApplicationSession = getSipApplicationSession();
+			if(sipApplicationSession == null) {
+				if(logger.isDebugEnabled()) {
+					logger.debug("sip application session has been nullified, the expiration timer task has been cancelled in the meantime");
+				}
+				return;
+			}
+			if(logger.isDebugEnabled()) {
+				logger.debug("SipApplicationSessionTimerTask running for sip application session " + sipApplicationSession.getId());
+			}
+
+			long sleep = getDelay();
+			if(sleep > 0) {
+				// the session has been accessed since the wheel handed the task over for expiration,
+				// put the same task back in the wheel
+				if(sipApplicationSession.getExpirationTimerTask() == this) {
+					if(logger.isDebugEnabled()) {
+						logger.debug("expirationTime is " + sipApplicationSession.getExpirationTimeInternal() +
+								", now is " + System.currentTimeMillis() +
+								" sleeping for " + sleep / 1000L + " seconds");
+					}
+					sipApplicationSession.getSipContext().getSipApplicationSessionTimerService().schedule(this, sleep, TimeUnit.MILLISECONDS);
+				}
+			} else {
+				tryToExpire();
+			}
+		} catch (Throwable t) {
+			logger.error("Timer problem", t);
+		}
+	}
+
+	private void tryToExpire() {
+		final SipContext sipContext = getSipApplicationSession().getSipContext();
+		sipContext.enterSipApp(getSipApplicationSession(), null, false, true);
+		boolean batchStarted = sipContext.enterSipAppHa(true);
+		try {
+			getSipApplicationSession().setExpirationTimerTask(null);
+			getSipApplicationSession().notifySipApplicationSessionListeners(SipApplicationSessionEventType.EXPIRATION);
+			//It is possible that the application grant an extension to the lifetime of the session, thus the sip application
+			//should not be treated as expired.
+			if(getDelay() <= 0) {
+				getSipApplicationSession().setExpired(true);
+				if(getSipApplicationSession().isValidInternal()) {
+					getSipApplicationSession().invalidate(true);
+				}
+			} else {
+				// Issue 1773 : see DefaultSasTimerTask, the application extended the lifetime through setExpires
+				// which already scheduled a new expiration timer task
+				if(logger.isDebugEnabled()) {
+					if(getSipApplicationSession().getExpirationTimerTask() != null) {
+						logger.debug("expiration timer task is non null so the application has extended the session lifetime directly through setExpires");
+					}
+				}
+			}
+		} finally {
+			sipContext.exitSipAppHa(null, null, batchStarted);
+			sipContext.exitSipApp(getSipApplicationSession(), null);
+			setSipApplicationSession(null);
+		}
+	}
+
+	public long getDelay() {
+		final MobicentsSipApplicationSession sipApplicationSession = this.sipApplicationSession;
+		if(sipApplicationSession != null) {
+			return sipApplicationSession.getExpirationTimeInternal() - System.currentTimeMillis();
+		}
+		if(logger.isDebugEnabled()) {
+			logger.debug("sipapplicationsession has been nullified, return -1");
+		}
+		return -1;
+	}
+
+	/**
+	 * @param sipApplicationSession the sipApplicationSession to set
+	 */
+	public void setSipApplicationSession(MobicentsSipApplicationSession sipApplicationSession) {
+		this.sipApplicationSession = sipApplicationSession;
+	}
+
+	/**
+	 * @return the sipApplicationSession
+	 */
+	public MobicentsSipApplicationSession getSipApplicationSession() {
+		return sipApplicationSession;
+	}
+}
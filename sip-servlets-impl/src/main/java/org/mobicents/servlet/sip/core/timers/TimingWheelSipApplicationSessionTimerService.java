@@ -0,0 +1,163 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.timers;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.mobicents.servlet.sip.core.session.MobicentsSipApplicationSession;
+
+/**
+ * Sip application session timer service backed by a {@link TimingWheel}.<br/>
+ * Scheduling and cancelling a timer are O(1) instead of inserting into and removing from the binary heap of a scheduler.
+ * When a bucket comes due, the tasks whose session has been accessed in the meantime are lazily moved
+ * to the bucket matching their new expiration time, so accessing a session never touches the timer.
+ * The expiration itself is run on a small pool of threads so that the application listeners do not delay the wheel.<br/>
+ * The precision of the expiration is the tick duration, 1 second by default.
+ */
+public class TimingWheelSipApplicationSessionTimerService implements
+		SipApplicationSessionTimerService {
+
+	private static final Logger logger = Logger.getLogger(TimingWheelSipApplicationSessionTimerService.class
+			.getName());
+
+	public static final long DEFAULT_TICK_DURATION = 1000;
+	public static final int DEFAULT_WHEEL_SIZE = 1024;
+	public static final int DEFAULT_EXPIRATION_THREADS = 4;
+
+	private static final AtomicInteger serviceCounter = new AtomicInteger(0);
+
+	private final int serviceId;
+	private final TimingWheel timingWheel;
+	private final int expirationThreads;
+	private ThreadPoolExecutor expirationExecutor;
+
+	public TimingWheelSipApplicationSessionTimerService() {
+		this(DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE, DEFAULT_EXPIRATION_THREADS);
+	}
+
+	/**
+	 * @param tickDuration the duration of a tick in milliseconds
+	 * @param wheelSize the number of buckets of the wheel, rounded up to a power of 2
+	 * @param expirationThreads the number of threads expiring the sessions
+	 */
+	public TimingWheelSipApplicationSessionTimerService(long tickDuration, int wheelSize, int expirationThreads) {
+		if(expirationThreads <= 0) {
+			throw new IllegalArgumentException("expirationThreads must be greater than 0 : " + expirationThreads);
+		}
+		this.serviceId = serviceCounter.incrementAndGet();
+		this.timingWheel = new TimingWheel("MSS-SAS-TimingWheel-Thread-" + serviceId, tickDuration, wheelSize);
+		this.expirationThreads = expirationThreads;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.timers.SipApplicationSessionTimerService#createSipApplicationSessionTimerTask(org.mobicents.servlet.sip.core.session.MobicentsSipApplicationSession)
+	 */
+	public SipApplicationSessionTimerTask createSipApplicationSessionTimerTask(MobicentsSipApplicationSession sipApplicationSession) {
+		return new TimingWheelSasTimerTask(this, sipApplicationSession);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.timers.SipApplicationSessionTimerService#schedule(org.mobicents.servlet.sip.core.timers.SipApplicationSessionTimerTask, long, java.util.concurrent.TimeUnit)
+	 */
+	public SipApplicationSessionTimerTask schedule(
+			SipApplicationSessionTimerTask expirationTimerTask, long delay,
+			TimeUnit unit) {
+		if(logger.isDebugEnabled()) {
+			logger.debug("Scheduling sip application session "+ expirationTimerTask.getSipApplicationSession().getKey() +" to expire in " + (delay / (double) 1000 / (double) 60) + " minutes");
+		}
+		timingWheel.schedule((TimingWheelSasTimerTask) expirationTimerTask, delay, unit);
+		return expirationTimerTask;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mobicents.servlet.sip.core.timers.SipApplicationSessionTimerService#cancel(org.mobicents.servlet.sip.core.timers.SipApplicationSessionTimerTask)
+	 */
+	public boolean cancel(SipApplicationSessionTimerTask expirationTimerTask) {
+		boolean cancelled = timingWheel.cancel((TimingWheelSasTimerTask) expirationTimerTask);
+		if(logger.isDebugEnabled()) {
+			logger.debug("expiration timer on sip application session " + (expirationTimerTask.getSipApplicationSession() != null ? expirationTimerTask.getSipApplicationSession().getKey() : null) + " Cancelled : " + cancelled);
+		}
+		return cancelled;
+	}
+
+	/**
+	 * Called by the wheel thread, hands the expiration over to the expiration threads
+	 */
+	void expire(TimingWheelSasTimerTask expirationTimerTask) {
+		try {
+			expirationExecutor.execute(expirationTimerTask);
+		} catch (RejectedExecutionException e) {
+			logger.warn("sip application session expiration rejected, the timer service is stopping", e);
+		}
+	}
+
+	public void start() {
+		if(timingWheel.isStarted()) {
+			return;
+		}
+		expirationExecutor = new ThreadPoolExecutor(expirationThreads, expirationThreads, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger threadCounter = new AtomicInteger(0);
+			public Thread newThread(Runnable pRunnable) {
+				Thread thread = new Thread(pRunnable, String.format("%s-%d-%d",
+						"MSS-SAS-Expiration-Thread", serviceId, threadCounter.incrementAndGet()));
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		expirationExecutor.prestartAllCoreThreads();
+		timingWheel.start();
+		if(logger.isInfoEnabled()) {
+			logger.info("Started timer service "+ this + " with a tick of " + timingWheel.getTickDuration() + " ms and " + timingWheel.getWheelSize() + " buckets");
+		}
+	}
+
+	public void stop() {
+		if(!timingWheel.isStarted()) {
+			return;
+		}
+		timingWheel.stop();
+		expirationExecutor.shutdownNow();
+		if(logger.isInfoEnabled()) {
+			logger.info("Stopped timer service "+ this);
+		}
+	}
+
+	public boolean isStarted() {
+		return timingWheel.isStarted();
+	}
+
+	/**
+	 * @return the number of expiration timers currently scheduled
+	 */
+	public long getNumberOfScheduledTasks() {
+		return timingWheel.getNumberOfPendingTimeouts();
+	}
+
+	public TimingWheel getTimingWheel() {
+		return timingWheel;
+	}
+}
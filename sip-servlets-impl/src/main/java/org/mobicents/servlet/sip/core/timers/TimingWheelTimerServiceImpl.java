@@ -0,0 +1,341 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.timers;
+
+import java.io.Serializable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.sip.ServletTimer;
+import javax.servlet.sip.SipApplicationSession;
+import javax.servlet.sip.TimerListener;
+
+import org.apache.log4j.Logger;
+import org.mobicents.servlet.sip.core.SessionSerialExecutor;
+import org.mobicents.servlet.sip.core.SipContext;
+import org.mobicents.servlet.sip.core.SipService;
+import org.mobicents.servlet.sip.core.dispatchers.MessageDispatcher;
+import org.mobicents.servlet.sip.core.session.MobicentsSipApplicationSession;
+import org.mobicents.servlet.sip.core.session.MobicentsSipApplicationSessionKey;
+
+/**
+ * Servlet timer service backed by a {@link TimingWheel}.<br/>
+ * Scheduling and cancelling a timer are O(1). A cancelled timer whose callback was already handed over to an executor
+ * doesn't fire either.
+ * The timer callbacks are not run on the wheel thread but handed over to a pool of threads, one at a time per sip application session,
+ * or to the dispatcher executor of the session when the application uses the SipSessionSerial or SipApplicationSessionSerial 
+ * concurrency control mode so that they are serialized with the messages of the session.
+ */
+public class TimingWheelTimerServiceImpl implements SipServletTimerService {
+
+	private static final long serialVersionUID = 1L;
+	private static final Logger logger = Logger.getLogger(TimingWheelTimerServiceImpl.class
+			.getName());
+
+	public static final long DEFAULT_TICK_DURATION = 10;
+	public static final int DEFAULT_WHEEL_SIZE = 4096;
+
+	private static final AtomicInteger serviceCounter = new AtomicInteger(0);
+
+	private transient SipService sipService;
+	private transient int serviceId;
+	private transient int threadPoolSize;
+	private transient TimingWheel timingWheel;
+	private transient ThreadPoolExecutor timerExecutor;
+	private transient SessionSerialExecutor sessionSerialTimerExecutor;
+
+	public TimingWheelTimerServiceImpl(SipService sipService) {
+		this(sipService, DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE);
+	}
+
+	/**
+	 * @param sipService the sip service to get the sip application dispatcher and the thread pool size from
+	 * @param tickDuration the duration of a tick in milliseconds
+	 * @param wheelSize the number of buckets of the wheel, rounded up to a power of 2
+	 */
+	public TimingWheelTimerServiceImpl(SipService sipService, long tickDuration, int wheelSize) {
+		this.sipService = sipService;
+		this.serviceId = serviceCounter.incrementAndGet();
+		this.threadPoolSize = sipService.getTimerServiceThreadPoolSize();
+		if(threadPoolSize <= 0) {
+			threadPoolSize = TimerServiceImpl.SCHEDULER_THREAD_POOL_DEFAULT_SIZE;
+		}
+		this.timingWheel = new TimingWheel("MSS-ServletTimer-TimingWheel-Thread-" + serviceId, tickDuration, wheelSize);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see javax.servlet.sip.TimerService#createTimer(javax.servlet.sip.SipApplicationSession, long, boolean, java.io.Serializable)
+	 */
+	public ServletTimer createTimer(SipApplicationSession appSession,
+			long delay, boolean isPersistent, Serializable info) {
+		MobicentsSipApplicationSession sipApplicationSessionImpl = (MobicentsSipApplicationSession) appSession;
+
+		if (sipApplicationSessionImpl.isValid() == false) {
+			throw new IllegalStateException("Sip application session has been invalidated!!!");
+		}
+
+		if (!sipApplicationSessionImpl.hasTimerListener()) {
+			throw new IllegalStateException("No Timer listeners have been configured for this application ");
+		}
+		TimerListener listener = sipApplicationSessionImpl.getSipContext().getListeners().getTimerListener();
+		ServletTimerImpl servletTimer = new ServletTimerImpl(info, delay, listener, sipApplicationSessionImpl);
+		if(logger.isDebugEnabled()) {
+			logger.debug("Scheduling Timer "+ servletTimer.getId() +" to expire in " + delay + " ms");
+		}
+		schedule(servletTimer, sipApplicationSessionImpl, delay, false, false, 0);
+		return servletTimer;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see javax.servlet.sip.TimerService#createTimer(javax.servlet.sip.SipApplicationSession, long, long, boolean, boolean, java.io.Serializable)
+	 */
+	public ServletTimer createTimer(SipApplicationSession appSession,
+			long delay, long period, boolean fixedDelay, boolean isPersistent,
+			Serializable info) {
+		if (period < 1) {
+			throw new IllegalArgumentException(
+					"Period should be greater than 0");
+		}
+		MobicentsSipApplicationSession sipApplicationSessionImpl = (MobicentsSipApplicationSession) appSession;
+
+		if (sipApplicationSessionImpl.isValid() == false) {
+			throw new IllegalStateException("Sip application session has been invalidated!!!");
+		}
+
+		if (!sipApplicationSessionImpl.hasTimerListener()) {
+			throw new IllegalStateException("No Timer listeners have been configured for this application ");
+		}
+		TimerListener timerListener = sipApplicationSessionImpl.getSipContext().getListeners().getTimerListener();
+		ServletTimerImpl servletTimer = new ServletTimerImpl(info, delay, fixedDelay, period, timerListener, sipApplicationSessionImpl);
+		if(logger.isDebugEnabled()) {
+			logger.debug("Scheduling Timer "+ servletTimer.getId() +" to expire in " + delay + " ms" + (fixedDelay ? " with fixed delay of " : " at fixed rate of ") + period);
+		}
+		schedule(servletTimer, sipApplicationSessionImpl, delay, true, fixedDelay, period);
+		return servletTimer;
+	}
+
+	private void schedule(ServletTimerImpl servletTimer, MobicentsSipApplicationSession sipApplicationSession,
+			long delay, boolean repeating, boolean fixedDelay, long period) {
+		ServletTimerTimeout timeout = new ServletTimerTimeout(servletTimer, sipApplicationSession.getSipContext(),
+				sipApplicationSession.getKey(), repeating, fixedDelay, period);
+		servletTimer.setFuture(timeout);
+		sipApplicationSession.addServletTimer(servletTimer);
+		timingWheel.schedule(timeout, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Called by the wheel thread when a timer expires, hands the timer callback over to the executor
+	 * matching the concurrency control mode of the application
+	 */
+	void dispatch(ServletTimerTimeout timeout) {
+		final MobicentsSipApplicationSessionKey key = timeout.sipApplicationSessionKey;
+		try {
+			if(MessageDispatcher.isSerialConcurrencyControlMode(timeout.sipContext)) {
+				Executor executor = sipService.getSipApplicationDispatcher().getConcurrencyModelExecutor(timeout.sipContext, key, null);
+				executor.execute(timeout);
+			} else {
+				sessionSerialTimerExecutor.execute(key, timeout);
+			}
+		} catch (RejectedExecutionException e) {
+			logger.warn("servlet timer " + timeout.servletTimer.getId() + " rejected, the timer service is stopping", e);
+		}
+	}
+
+	public void start() {
+		if(timingWheel.isStarted()) {
+			return;
+		}
+		timerExecutor = new ThreadPoolExecutor(threadPoolSize, threadPoolSize, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger threadCounter = new AtomicInteger(0);
+			public Thread newThread(Runnable pRunnable) {
+				Thread thread = new Thread(pRunnable, String.format("%s-%d-%d",
+						"MSS-ServletTimer-Thread", serviceId, threadCounter.incrementAndGet()));
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		timerExecutor.prestartAllCoreThreads();
+		sessionSerialTimerExecutor = new SessionSerialExecutor(timerExecutor);
+		timingWheel.start();
+		if(logger.isInfoEnabled()) {
+			logger.info("Started timer service "+ this + " with " + threadPoolSize + " threads, a tick of " + timingWheel.getTickDuration() + " ms and " + timingWheel.getWheelSize() + " buckets");
+		}
+	}
+
+	public void stop() {
+		if(!timingWheel.isStarted()) {
+			return;
+		}
+		timingWheel.stop();
+		timerExecutor.shutdownNow();
+		if(logger.isInfoEnabled()) {
+			logger.info("Stopped timer service "+ this);
+		}
+	}
+
+	public boolean isStarted() {
+		return timingWheel.isStarted();
+	}
+
+	public TimingWheel getTimingWheel() {
+		return timingWheel;
+	}
+
+	/**
+	 * Wheel entry of a servlet timer, it is also the future of the timer so that cancelling the timer
+	 * only flags the entry in the wheel
+	 */
+	final class ServletTimerTimeout extends TimingWheel.Timeout implements ScheduledFuture<Object>, Runnable {
+		final ServletTimerImpl servletTimer;
+		final SipContext sipContext;
+		final MobicentsSipApplicationSessionKey sipApplicationSessionKey;
+		private final boolean repeating;
+		private final boolean fixedDelay;
+		private final long period;
+		private volatile boolean cancelled;
+		private volatile boolean done;
+		// a one shot timer being fired, it is done once its callback returned even if it gets cancelled meanwhile
+		private volatile boolean firing;
+
+		ServletTimerTimeout(ServletTimerImpl servletTimer, SipContext sipContext, MobicentsSipApplicationSessionKey sipApplicationSessionKey,
+				boolean repeating, boolean fixedDelay, long period) {
+			this.servletTimer = servletTimer;
+			this.sipContext = sipContext;
+			this.sipApplicationSessionKey = sipApplicationSessionKey;
+			this.repeating = repeating;
+			this.fixedDelay = fixedDelay;
+			this.period = period;
+		}
+
+		@Override
+		protected boolean isDiscarded() {
+			return isCancelled();
+		}
+
+		@Override
+		protected void expire() {
+			dispatch(this);
+		}
+
+		public void run() {
+			synchronized (this) {
+				if(isCancelled()) {
+					return;
+				}
+				if(!repeating) {
+					firing = true;
+				}
+			}
+			// dispatch already queued the timeout on the executor matching the concurrency control mode
+			try {
+				servletTimer.fire();
+			} finally {
+				if(repeating) {
+					if(!isCancelled()) {
+						long delay = period;
+						if(!fixedDelay) {
+							// fixed rate, the next execution is relative to the previous deadline
+							delay = Math.max(0, getDeadline() + period - System.currentTimeMillis());
+						}
+						timingWheel.schedule(this, delay, TimeUnit.MILLISECONDS);
+					}
+				} else {
+					synchronized (this) {
+						done = true;
+						notifyAll();
+					}
+				}
+			}
+		}
+
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			synchronized (this) {
+				cancelled = true;
+				notifyAll();
+			}
+			return timingWheel.cancel(this);
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		public boolean isDone() {
+			return done || isCancelled();
+		}
+
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(getDeadline() - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+		}
+
+		public int compareTo(Delayed delayed) {
+			long diff = getDelay(TimeUnit.MILLISECONDS) - delayed.getDelay(TimeUnit.MILLISECONDS);
+			return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+		}
+
+		/**
+		 * Waits for a one shot timer to have fired or for the timer to be cancelled
+		 * @return null once the timer fired
+		 * @throws CancellationException if the timer was cancelled before firing, or if it is a repeating timer that was cancelled
+		 */
+		public synchronized Object get() throws InterruptedException {
+			while(!isSettled()) {
+				wait();
+			}
+			return getResult();
+		}
+
+		public synchronized Object get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+			final long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+			while(!isSettled()) {
+				final long remaining = deadline - System.currentTimeMillis();
+				if(remaining <= 0) {
+					throw new TimeoutException("servlet timer " + servletTimer.getId() + " still pending");
+				}
+				wait(remaining);
+			}
+			return getResult();
+		}
+
+		private boolean isSettled() {
+			return done || (isCancelled() && !firing);
+		}
+
+		private Object getResult() {
+			if(!done) {
+				throw new CancellationException("servlet timer " + servletTimer.getId() + " has been cancelled");
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,245 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.message;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.StreamCorruptedException;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.mobicents.servlet.sip.core.session.MobicentsSipSessionKey;
+import org.mobicents.servlet.sip.core.session.SessionManagerUtil;
+import org.mobicents.servlet.sip.core.session.SipSessionKey;
+import org.mobicents.servlet.sip.core.session.SmallAttributeMap;
+
+/**
+ * Helpers for the {@link ExternalizationFormat#Compact} format, in which the state is written field by field
+ * instead of being converted to strings that have to be parsed back or to arrays going through the java serialization.
+ * The strings are written as length prefixed UTF-8 so they aren't limited to 64KB as with {@link DataOutput#writeUTF(String)}.
+ * Each externalized object starts with a header that no legacy layout can start with, followed by the version of the layout,
+ * so that the format is told from the stream itself rather than from the format currently configured,
+ * and that a stream from an incompatible version is rejected instead of being misread.
+ * The objects whose legacy layout starts with a boolean start with {@link #MAGIC}, whose first byte is neither 0 nor 1,
+ * the ones whose legacy layout starts with an object start with the {@link #MAGIC_OBJECT} string.
+ */
+public final class CompactExternalizer {
+
+	/**
+	 * Version of the layout written, to be increased on any change
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Header of the objects whose legacy layout starts with a boolean, its first byte can't be a boolean
+	 */
+	public static final short MAGIC = (short) 0xC5E1;
+
+	/**
+	 * Header of the objects whose legacy layout starts with an object
+	 */
+	public static final String MAGIC_OBJECT = "org.mobicents.servlet.sip.message.CompactExternalizer";
+
+	private static final String CHARSET = "UTF-8";
+
+	private static final byte NO_SESSION_KEY = 0;
+	private static final byte SESSION_KEY_FIELDS = 1;
+	private static final byte SESSION_KEY_STRING = 2;
+
+	private static volatile ExternalizationFormat format = ExternalizationFormat.Legacy;
+
+	private CompactExternalizer() {}
+
+	/**
+	 * @return true if the state is externalized in the compact format
+	 */
+	public static boolean isEnabled() {
+		return format == ExternalizationFormat.Compact;
+	}
+
+	public static ExternalizationFormat getFormat() {
+		return format;
+	}
+
+	public static void setFormat(ExternalizationFormat format) {
+		CompactExternalizer.format = format;
+	}
+
+	/**
+	 * Writes the header of an object whose legacy layout starts with a boolean
+	 */
+	public static void writeHeader(DataOutput out) throws IOException {
+		out.writeShort(MAGIC);
+		out.writeByte(VERSION);
+	}
+
+	/**
+	 * Reads the start of an object whose legacy layout starts with a boolean
+	 * @return null if the object was written in the compact format, its header having been read, 
+	 * otherwise the first boolean of the legacy layout
+	 * @throws StreamCorruptedException if the object was written in an unsupported version of the compact format
+	 */
+	public static Boolean readHeaderOrLegacyBoolean(DataInput in) throws IOException {
+		final byte first = in.readByte();
+		if(first != (byte) (MAGIC >> 8)) {
+			return first != 0;
+		}
+		final byte second = in.readByte();
+		if(second != (byte) MAGIC) {
+			throw new StreamCorruptedException("Invalid compact externalization header " + Integer.toHexString(((first & 0xff) << 8) | (second & 0xff)));
+		}
+		readVersion(in);
+		return null;
+	}
+
+	/**
+	 * Writes the header of an object whose legacy layout starts with an object
+	 */
+	public static void writeHeaderObject(ObjectOutput out) throws IOException {
+		out.writeObject(MAGIC_OBJECT);
+		out.writeByte(VERSION);
+	}
+
+	/**
+	 * Checks the first object read from an object whose legacy layout starts with an object
+	 * @return true if the object was written in the compact format, its header having been read, 
+	 * false if the first object read is the one of the legacy layout
+	 * @throws StreamCorruptedException if the object was written in an unsupported version of the compact format
+	 */
+	public static boolean isHeaderObject(ObjectInput in, Object first) throws IOException {
+		if(!MAGIC_OBJECT.equals(first)) {
+			return false;
+		}
+		readVersion(in);
+		return true;
+	}
+
+	/**
+	 * Writes the version alone, for the streams that have no legacy layout
+	 */
+	public static void writeVersion(DataOutput out) throws IOException {
+		out.writeByte(VERSION);
+	}
+
+	public static void readVersion(DataInput in) throws IOException {
+		final int version = in.readByte();
+		if(version != VERSION) {
+			throw new StreamCorruptedException("Unsupported compact externalization version " + version + ", expected " + VERSION);
+		}
+	}
+
+	public static void writeString(DataOutput out, String value) throws IOException {
+		if(value == null) {
+			out.writeInt(-1);
+		} else {
+			final byte[] bytes = value.getBytes(CHARSET);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	public static String readString(DataInput in) throws IOException {
+		final int length = in.readInt();
+		if(length < 0) {
+			return null;
+		}
+		final byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, CHARSET);
+	}
+
+	/**
+	 * Writes the fields of the key, so that reading it back doesn't have to parse its string form
+	 */
+	public static void writeSipSessionKey(DataOutput out, MobicentsSipSessionKey key) throws IOException {
+		if(key == null) {
+			out.writeByte(NO_SESSION_KEY);
+		} else if(key instanceof SipSessionKey) {
+			out.writeByte(SESSION_KEY_FIELDS);
+			writeString(out, key.getFromTag());
+			writeString(out, key.getToTag());
+			writeString(out, key.getCallId());
+			writeString(out, key.getApplicationSessionId());
+			writeString(out, key.getApplicationName());
+		} else {
+			out.writeByte(SESSION_KEY_STRING);
+			writeString(out, key.toString());
+		}
+	}
+
+	public static SipSessionKey readSipSessionKey(DataInput in) throws IOException {
+		final byte type = in.readByte();
+		switch (type) {
+			case NO_SESSION_KEY:
+				return null;
+			case SESSION_KEY_FIELDS:
+				final String fromTag = readString(in);
+				final String toTag = readString(in);
+				final String callId = readString(in);
+				final String applicationSessionId = readString(in);
+				return new SipSessionKey(fromTag, toTag, callId, applicationSessionId, readString(in));
+			case SESSION_KEY_STRING:
+				final String sessionKeyString = readString(in);
+				try {
+					return SessionManagerUtil.parseSipSessionKey(sessionKeyString);
+				} catch (java.text.ParseException e) {
+					throw new IllegalArgumentException("SIP Sesion Key " + sessionKeyString + " previously serialized could not be reparsed", e);
+				}
+			default:
+				throw new StreamCorruptedException("Unknown session key type " + type);
+		}
+	}
+
+	/**
+	 * Writes the number of attributes followed by each name and value, null or empty maps being written the same way
+	 */
+	public static void writeAttributes(ObjectOutput out, Map<String, Object> attributes) throws IOException {
+		if(attributes == null || attributes.isEmpty()) {
+			out.writeInt(0);
+			return;
+		}
+		// snapshot so that the count written matches the entries even if the attributes are modified meanwhile
+		final Object[] entries = attributes.entrySet().toArray();
+		out.writeInt(entries.length);
+		for (Object entry : entries) {
+			writeString(out, ((Entry<?, ?>) entry).getKey().toString());
+			out.writeObject(((Entry<?, ?>) entry).getValue());
+		}
+	}
+
+	/**
+	 * @return the attributes read or null if there were none
+	 */
+	public static Map<String, Object> readAttributes(ObjectInput in) throws IOException, ClassNotFoundException {
+		final int size = in.readInt();
+		if(size <= 0) {
+			return null;
+		}
+		final Map<String, Object> attributes = new SmallAttributeMap<Object>();
+		for (int i = 0; i < size; i++) {
+			final String key = readString(in);
+			attributes.put(key, in.readObject());
+		}
+		return attributes;
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.message;
+
+/**
+ * Format in which the messages and the proxies are externalized for replication and passivation.<br/>
+ * The format is told from a header written at the start of the compact streams, so the state written
+ * with one format is read back whatever the format configured, by the versions knowing the compact format.
+ */
+public enum ExternalizationFormat {
+	/**
+	 * The format of the previous versions of the container, the default
+	 */
+	Legacy,
+	/**
+	 * The versioned layout of {@link CompactExternalizer}
+	 */
+	Compact
+}
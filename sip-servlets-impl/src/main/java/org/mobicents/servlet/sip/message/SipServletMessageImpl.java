@@ -32,8 +32,10 @@ import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -43,7 +45,6 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.StringTokenizer;
 import java.util.Vector;
-import java.util.concurrent.ConcurrentHashMap;
 
 import javax.activation.DataHandler;
 import javax.activation.DataSource;
@@ -70,6 +71,7 @@ import javax.sip.header.ContentLanguageHeader;
 import javax.sip.header.ContentLengthHeader;
 import javax.sip.header.ContentTypeHeader;
 import javax.sip.header.ExpiresHeader;
+import javax.sip.header.ExtensionHeader;
 import javax.sip.header.FromHeader;
 import javax.sip.header.Header;
 import javax.sip.header.HeaderAddress;
@@ -97,6 +99,7 @@ import org.mobicents.servlet.sip.core.session.MobicentsSipSession;
 import org.mobicents.servlet.sip.core.session.MobicentsSipSessionKey;
 import org.mobicents.servlet.sip.core.session.SessionManagerUtil;
 import org.mobicents.servlet.sip.core.session.SipApplicationSessionKey;
+import org.mobicents.servlet.sip.core.session.SmallAttributeMap;
 import org.mobicents.servlet.sip.startup.StaticServiceHolder;
 
 /**
@@ -120,6 +123,7 @@ public abstract class SipServletMessageImpl implements MobicentsSipServletMessag
 	private static final String MULTIPART_BOUNDARY_DELIM = "--";
 	private static final String LINE_RETURN_DELIM = "\n";
 	public static final String REL100_OPTION_TAG = "100rel";
+	private static final int MAX_PARSED_EXTENSION_HEADERS = 32;
 //	private static final String HCOLON = " : ";
 	
 	protected Message message;
@@ -164,6 +168,11 @@ public abstract class SipServletMessageImpl implements MobicentsSipServletMessag
 	protected transient Dialog dialog;
 	
 	protected transient String method;
+
+	// extension headers already parsed by getParameterable, lazily created
+	private transient volatile Map<Header, ParsedParameterable> parsedExtensionHeaders;
+	// whether the message has been read from the compact format, for subclasses to read the text of the message
+	private transient boolean compactExternalized;
 	
 	// needed for orphan routing
 	boolean orphan;
@@ -476,9 +485,11 @@ public abstract class SipServletMessageImpl implements MobicentsSipServletMessag
 					throw new ServletParseException("Bad address " + first);
 				}
 			} else {
-				Parameterable parametrable = createParameterable(first, first.getName(), message instanceof Request);
+				Parameterable parametrable = getParameterable(first, first.getName());
 				try {
-					logger.debug("parametrable Value " + parametrable.getValue());					
+					if(logger.isDebugEnabled()) {
+						logger.debug("parametrable Value " + parametrable.getValue());
+					}
 					if(this.isCommitted()) {
 						return new AddressImpl(SipFactoryImpl.addressFactory.createAddress(parametrable.getValue()), ((ParameterableHeaderImpl)parametrable).getInternalParameters(), ModifiableRule.NotModifiable);
 					} else {
@@ -524,7 +535,7 @@ public abstract class SipServletMessageImpl implements MobicentsSipServletMessag
 					throw new ServletParseException("Bad header", ex);
 				}
 			}  else {
-				Parameterable parametrable = createParameterable(header, header.getName(), message instanceof Request);
+				Parameterable parametrable = getParameterable(header, header.getName());
 				try {
 					AddressImpl addressImpl = new AddressImpl(SipFactoryImpl.addressFactory.createAddress(parametrable.getValue()), ((ParameterableHeaderImpl)parametrable).getInternalParameters(), getModifiableRule(hName));
 					retval.add(addressImpl);
@@ -923,7 +934,7 @@ public abstract class SipServletMessageImpl implements MobicentsSipServletMessag
 			return null;
 		}
 		
-		return createParameterable(h, getFullHeaderName(name), message instanceof Request);
+		return getParameterable(h, getFullHeaderName(name));
 	}
 
 	/*
@@ -939,8 +950,8 @@ public abstract class SipServletMessageImpl implements MobicentsSipServletMessag
 		ArrayList<Parameterable> result = new ArrayList<Parameterable>();
 
 		while (headers != null && headers.hasNext())
-			result.add(createParameterable(headers.next(),
-					getFullHeaderName(name), message instanceof Request));
+			result.add(getParameterable(headers.next(),
+					getFullHeaderName(name)));
 
 		if(!isParameterable(name)) {
 			throw new ServletParseException(name + " header is not parameterable !");
@@ -1749,130 +1760,98 @@ public abstract class SipServletMessageImpl implements MobicentsSipServletMessag
 	protected static Parameterable createParameterable(Header header, String hName, boolean isRequest)
 			throws ServletParseException {
 		String whole = header.toString();
-		if (logger.isDebugEnabled())
-			logger.debug("Creating parametrable for [" + hName + "] from ["
-					+ whole + "]");
 		// Remove name
 		String stringHeader = whole.substring(whole.indexOf(":") + 1).trim();
-//		if (!stringHeader.contains("<") || !stringHeader.contains(">")
-//				|| !isParameterable(getFullHeaderName(hName))) {
+		return createParameterable(header, hName, isRequest, parseParameterable(stringHeader, hName));
+	}
+
+	/**
+	 * Same as {@link #createParameterable(Header, String, boolean)} except that the extension headers, 
+	 * that the stack keeps unparsed, are only parsed once per message as long as their value doesn't change.
+	 * A new parameterable, holding its own copy of the parameters, is still returned on each call.
+	 * The addresses created from them by the address header getters aren't cached, being mutable 
+	 * and bound to the header they are read from.
+	 */
+	protected Parameterable getParameterable(Header header, String hName) throws ServletParseException {
+		if(!(header instanceof ExtensionHeader)) {
+			return createParameterable(header, hName, message instanceof Request);
+		}
+		final String rawValue = ((ExtensionHeader) header).getValue();
+		Map<Header, ParsedParameterable> parsedHeaders = parsedExtensionHeaders;
+		if(parsedHeaders == null) {
+			parsedHeaders = Collections.synchronizedMap(new IdentityHashMap<Header, ParsedParameterable>(4));
+			parsedExtensionHeaders = parsedHeaders;
+		}
+		ParsedParameterable parsed = parsedHeaders.get(header);
+		// setting the value of the header replaces its string so comparing the references is enough to detect it changed
+		if(parsed == null || parsed.rawValue != rawValue) {
+			parsed = parseParameterable(rawValue == null ? "" : rawValue.trim(), hName);
+			parsed.rawValue = rawValue;
+			if(parsedHeaders.size() >= MAX_PARSED_EXTENSION_HEADERS) {
+				// only the headers removed from the message or replaced can make it grow that much 
+				parsedHeaders.clear();
+			}
+			parsedHeaders.put(header, parsed);
+		} else if(logger.isDebugEnabled()) {
+			logger.debug("Reusing the parsed parametrable for [" + hName + "] from [" + rawValue + "]");
+		}
+		return createParameterable(header, hName, message instanceof Request, parsed);
+	}
+
+	/**
+	 * Parses the value and the parameters of a header in a single pass, without regular expressions.
+	 * @param stringHeader the header value, trimmed
+	 */
+	protected static ParsedParameterable parseParameterable(String stringHeader, String hName)
+			throws ServletParseException {
+		if (logger.isDebugEnabled())
+			logger.debug("Creating parametrable for [" + hName + "] from ["
+					+ stringHeader + "]");
 		
 		Map<String, String> paramMap = new HashMap<String, String>();
 		String value = stringHeader;
 		String displayName = null;
+		final int length = stringHeader.length();
+		int start = 0;
 		// Issue 2201 : javax.servlet.sip.ServletParseException: Impossible to parse the following header Remote-Party-ID as an address.
 		// Need to handle the display name
-		if(stringHeader.trim().indexOf("\"") == 0) {
-			String displayNameString = stringHeader.substring(1);
-			int nextIndexOfDoubleQuote = displayNameString.indexOf("\"");
-			displayName = stringHeader.substring(0, nextIndexOfDoubleQuote + 2);
-			stringHeader = stringHeader.substring(nextIndexOfDoubleQuote + 2).trim();			
+		if(length > 0 && stringHeader.charAt(0) == '"') {
+			start = stringHeader.indexOf('"', 1) + 1;
+			if(start == 0) {
+				start = 1;
+			}
+			displayName = stringHeader.substring(0, start);
+			while(start < length && stringHeader.charAt(start) <= ' ') {
+				start++;
+			}
 		}
 		
 		boolean hasLaRaQuotes = false;
-		if(stringHeader.trim().indexOf("<") == 0) {
-			
-			stringHeader = stringHeader.substring(1);
-			int indexOfBracket = stringHeader.indexOf(">");
-			if(indexOfBracket != -1) {
-				hasLaRaQuotes = true;
+		if(start < length && stringHeader.charAt(start) == '<') {
+			final int indexOfBracket = stringHeader.indexOf('>', start + 1);
+			if(indexOfBracket == -1) {
+				throw new ServletParseException("Missing '>' in the following header " + hName + " : " + stringHeader);
 			}
-			//String[] split = stringHeader.split(">");
-			
-			value = stringHeader.substring(0, indexOfBracket);//split[0];	
-			String restOfHeader = stringHeader.substring(indexOfBracket+1) ;
-			
-			if (restOfHeader.length() > 1 && restOfHeader.contains(";")) {
-				// repleace first ";" with "" because it separates us from the URI that we romved
-				restOfHeader = restOfHeader.replaceFirst(";", "");
-				String[] split = restOfHeader.split(";");
-				
-				// Now concatenate the items that have quotes that represent nested parameters http://code.google.com/p/sipservlets/issues/detail?id=105
-				// example <sip:1.2.3.4:5061>;expires=500;+sip.instance="<urn:uuid:00000000-0000-0000-0000-000000000000>";gruu="sip:100@ocs14.com;opaque=user:epid:xxxxxxxxxxxxxxxxxxxxxxxx;gruu" 
-				ArrayList<StringBuffer> resplitListWithQuotes = new ArrayList<StringBuffer>(); // here we collect the items and append related entries that are part of the same quotation zone
-				int resplitIndex = 0;
-				boolean addToPrevious = false;
-				for(int q=0; q<split.length; q++) {
-					int countQuotes = countChars(split[q], '\"'); // how many " signs are there
-					if(countQuotes%2!=0) { // if not mod 2 then there is unclosed quote in that item
-						if(addToPrevious) { // if we alreay have seen one it means this quote is closing quote
-							resplitListWithQuotes.get(resplitIndex-1).append(";" + split[q]); // must reappend the ";" symbol because we lost it in the split
-							addToPrevious = false;
-						} else { // otherwise it's an opening quote
-							resplitListWithQuotes.add(new StringBuffer(split[q]));
-							resplitIndex++;
-							addToPrevious = true;
-						}
-					} else { // if mod 2 then there are no unclosed quotes in that item
-						if(addToPrevious) { // we will add any data 
-							resplitListWithQuotes.get(resplitIndex-1).append(";" + split[q]); // must reappend the ";" symbol because we lost it in the split
-						} else {
-							resplitListWithQuotes.add(new StringBuffer(split[q])); // this is the normal case without quotes to take care of
-							resplitIndex++;
-						}
-					}
-				}
-				
-				if(addToPrevious) {
-					// Lets warn if something is really that wrong
-					throw new RuntimeException("Unclosed quote sign in this string " + whole);
-				}
-				
-				// Change the split array now with the adjusted array
-				String[] newSplit = new String[resplitListWithQuotes.size()];
-				for(int q=0; q<resplitListWithQuotes.size(); q++) {
-					newSplit[q] = resplitListWithQuotes.get(q).toString();
-				}
-				split = newSplit;
-				
-				// And process with the usual algorithm
-				for (String pair : split) {
-					int indexOfEq = pair.indexOf('=');
-					String key = null;
-					String val = null;
-					if(indexOfEq<0) {
-						key = pair;
-						val = "";
-					} else {
-						key = pair.substring(0, indexOfEq);
-						if(indexOfEq+1>pair.length()) {
-							val = "";
-						} else {
-							val = pair.substring(indexOfEq+1);
-						}
-					}
-					
-					// Fix to Issue 1010 (http://code.google.com/p/mobicents/issues/detail?id=1010) : Unable to set flag parameter to parameterable header
-					// from Alexander Kozlov from Codeminders
-					paramMap.put(key, val);
+			hasLaRaQuotes = true;
+			value = stringHeader.substring(start + 1, indexOfBracket);
+			final int restOfHeader = indexOfBracket + 1;
+			final int indexOfSemicolon = stringHeader.indexOf(';', restOfHeader);
+			if (length - restOfHeader > 1 && indexOfSemicolon != -1) {
+				// the first ";" separates us from the URI that we removed
+				if(indexOfSemicolon == restOfHeader) {
+					parseQuotedParameters(stringHeader, indexOfSemicolon + 1, paramMap);
+				} else {
+					parseQuotedParameters(stringHeader.substring(restOfHeader, indexOfSemicolon) + 
+							stringHeader.substring(indexOfSemicolon + 1), 0, paramMap);
 				}
 			}
 		} else {
-			if (value.length() > 1 && value.contains(";")) {
-				// repleace first ";" with ""
-				String parameters = value.substring(value.indexOf(";") + 1);
-				value = value.substring(0, value.indexOf(";"));				
-				String[] split = parameters.split(";");
-	
-				for (String pair : split) {
-					String[] vals = pair.split("=");
-					if (vals.length > 2) {
-						logger
-								.error("Wrong parameter format, expected value and name, got ["
-										+ pair + "]");
-						throw new ServletParseException(
-								"Wrong parameter format, expected value or name["
-										+ pair + "]");
-					}
-					// Fix to Issue 1010 (http://code.google.com/p/mobicents/issues/detail?id=1010) : Unable to set flag parameter to parameterable header 
-					// from Alexander Kozlov from Codeminders
-					paramMap.put(vals[0], vals.length == 2 ? vals[1] : "");
-				}
-			} else if (value.length() > 1 && value.contains(",")) {
+			final int indexOfSemicolon = value.indexOf(';');
+			if (length > 1 && indexOfSemicolon != -1) {
+				parseParameters(value, indexOfSemicolon + 1, paramMap);
+				value = value.substring(0, indexOfSemicolon);
+			} else if (length > 1 && value.contains(",")) {
 			    // Deals with https://code.google.com/p/sipservlets/issues/detail?id=239
-                // repleace first ";" with ""
-//                String parameters = value.substring(value.indexOf(",") + 1);
-//                value = value.substring(0, value.indexOf(","));             
                 String[] split = value.split(",");
     
                 for (String pair : split) {
@@ -1905,6 +1884,111 @@ public abstract class SipServletMessageImpl implements MobicentsSipServletMessag
 		if(displayName != null) {
 			value = displayName.concat(value);
 		}
+		return new ParsedParameterable(value, paramMap);
+	}
+
+	/*
+	 * Parses the ";" separated parameters starting at the given index, keeping the ";" inside quotes
+	 * as part of the parameter value since they can represent nested parameters http://code.google.com/p/sipservlets/issues/detail?id=105
+	 * example <sip:1.2.3.4:5061>;expires=500;+sip.instance="<urn:uuid:00000000-0000-0000-0000-000000000000>";gruu="sip:100@ocs14.com;opaque=user:epid:xxxxxxxxxxxxxxxxxxxxxxxx;gruu"
+	 * Empty parameters at the end are ignored.
+	 */
+	private static void parseQuotedParameters(String parameters, int start, Map<String, String> paramMap) {
+		final int length = parameters.length();
+		boolean inQuotes = false;
+		boolean pendingEmptyParameter = false;
+		int pairStart = start;
+		int indexOfEq = -1;
+		for(int i = start; i <= length; i++) {
+			final char c = i < length ? parameters.charAt(i) : ';';
+			if(c == '\"') {
+				inQuotes = !inQuotes;
+			} else if(c == '=' && indexOfEq == -1) {
+				indexOfEq = i;
+			} else if(c == ';' && (!inQuotes || i == length)) {
+				if(i == length && inQuotes) {
+					// Lets warn if something is really that wrong
+					throw new RuntimeException("Unclosed quote sign in this string " + parameters);
+				}
+				if(pairStart == i) {
+					pendingEmptyParameter = true;
+				} else {
+					if(pendingEmptyParameter) {
+						paramMap.put("", "");
+						pendingEmptyParameter = false;
+					}
+					// Fix to Issue 1010 (http://code.google.com/p/mobicents/issues/detail?id=1010) : Unable to set flag parameter to parameterable header
+					// from Alexander Kozlov from Codeminders
+					if(indexOfEq == -1) {
+						paramMap.put(parameters.substring(pairStart, i), "");
+					} else {
+						paramMap.put(parameters.substring(pairStart, indexOfEq), parameters.substring(indexOfEq + 1, i));
+					}
+				}
+				pairStart = i + 1;
+				indexOfEq = -1;
+			}
+		}
+	}
+
+	/*
+	 * Parses the ";" separated name=value parameters starting at the given index, 
+	 * empty parameters at the end being ignored unless there is only one parameter
+	 */
+	private static void parseParameters(String parameters, int start, Map<String, String> paramMap) throws ServletParseException {
+		final int length = parameters.length();
+		if(parameters.indexOf(';', start) == -1) {
+			parseParameter(parameters, start, length, paramMap);
+			return;
+		}
+		boolean pendingEmptyParameter = false;
+		int pairStart = start;
+		for(int i = start; i <= length; i++) {
+			if(i == length || parameters.charAt(i) == ';') {
+				if(pairStart == i) {
+					pendingEmptyParameter = true;
+				} else {
+					if(pendingEmptyParameter) {
+						paramMap.put("", "");
+						pendingEmptyParameter = false;
+					}
+					parseParameter(parameters, pairStart, i, paramMap);
+				}
+				pairStart = i + 1;
+			}
+		}
+	}
+
+	private static void parseParameter(String parameters, int start, int end, Map<String, String> paramMap) throws ServletParseException {
+		// the "=" at the end are ignored
+		int valueEnd = end;
+		while(valueEnd > start && parameters.charAt(valueEnd - 1) == '=') {
+			valueEnd--;
+		}
+		int indexOfEq = parameters.indexOf('=', start);
+		if(indexOfEq >= valueEnd) {
+			indexOfEq = -1;
+		}
+		final int nextIndexOfEq = indexOfEq == -1 ? -1 : parameters.indexOf('=', indexOfEq + 1);
+		if((valueEnd == start && end != start) || (nextIndexOfEq != -1 && nextIndexOfEq < valueEnd)) {
+			String pair = parameters.substring(start, end);
+			logger
+					.error("Wrong parameter format, expected value and name, got ["
+							+ pair + "]");
+			throw new ServletParseException(
+					"Wrong parameter format, expected value or name["
+							+ pair + "]");
+		}
+		// Fix to Issue 1010 (http://code.google.com/p/mobicents/issues/detail?id=1010) : Unable to set flag parameter to parameterable header 
+		// from Alexander Kozlov from Codeminders
+		if(indexOfEq == -1) {
+			paramMap.put(parameters.substring(start, valueEnd), "");
+		} else {
+			paramMap.put(parameters.substring(start, indexOfEq), parameters.substring(indexOfEq + 1, valueEnd));
+		}
+	}
+
+	private static Parameterable createParameterable(Header header, String hName, boolean isRequest, ParsedParameterable parsed) {
 		final String headerName = header.getName();
 		final boolean isNotModifiable = JainSipUtils.SYSTEM_HEADERS.contains(headerName);
 		ModifiableRule modifiableRule = isNotModifiable ? ModifiableRule.NotModifiable : ModifiableRule.Modifiable;
@@ -1931,12 +2015,36 @@ public abstract class SipServletMessageImpl implements MobicentsSipServletMessag
 		}
 		if (logger.isDebugEnabled())
 			logger.debug("modifiableRule for [" + hName + "] from ["
-					+ whole + "] is " + modifiableRule);
+					+ parsed.value + "] is " + modifiableRule);
 		ParameterableHeaderImpl parameterable = new ParameterableHeaderImpl(
-				header, value, paramMap, modifiableRule);
+				header, parsed.value, parsed.parameters, modifiableRule);
 		return parameterable;
 	}
 
+	/**
+	 * The value and parameters of a header, shared by the parameterables created from it 
+	 * which copy the parameters
+	 */
+	protected static final class ParsedParameterable {
+		private final String value;
+		private final Map<String, String> parameters;
+		// the value of the extension header it has been parsed from
+		private String rawValue;
+
+		private ParsedParameterable(String value, Map<String, String> parameters) {
+			this.value = value;
+			this.parameters = parameters;
+		}
+
+		String getValue() {
+			return value;
+		}
+
+		Map<String, String> getParameters() {
+			return parameters;
+		}
+	}
+
 	public static boolean isParameterable(String header) {
 		if(JainSipUtils.PARAMETERABLE_HEADER_NAMES.contains(header)) {
 			return true;
@@ -2015,7 +2123,8 @@ public abstract class SipServletMessageImpl implements MobicentsSipServletMessag
 	
 	protected Map<String, Object> getAttributeMap() {
 		if(this.attributes == null) {
-			this.attributes = new ConcurrentHashMap<String, Object>();
+			// a message is processed by one thread at a time
+			this.attributes = new SmallAttributeMap<Object>();
 		}
 		return this.attributes;
 	}
@@ -2031,7 +2140,14 @@ public abstract class SipServletMessageImpl implements MobicentsSipServletMessag
 	 */
 	public void readExternal(ObjectInput in) throws IOException,
 			ClassNotFoundException {		
-		sipFactoryImpl = (SipFactoryImpl) in.readObject();
+		// the format is told from the stream, which may have been written with another configuration
+		final Object first = in.readObject();
+		compactExternalized = CompactExternalizer.isHeaderObject(in, first);
+		if(compactExternalized) {
+			readCompactExternal(in);
+			return;
+		}
+		sipFactoryImpl = (SipFactoryImpl) first;
 		String sessionKeyString = in.readUTF();
 		if (sessionKeyString.length() > 0) {
 			try {
@@ -2043,7 +2159,7 @@ public abstract class SipServletMessageImpl implements MobicentsSipServletMessag
 		int attributesSize = in.readInt();
 		if(attributesSize > 0) {
 			Object[][] attributesArray = (Object[][] )in.readObject();
-			attributes = new ConcurrentHashMap<String, Object>();
+			attributes = new SmallAttributeMap<Object>();
 			for (int i = 0; i < attributesSize; i++) {
 				String key = (String) attributesArray[0][i];
 				Object value = attributesArray[1][i];
@@ -2082,6 +2198,10 @@ public abstract class SipServletMessageImpl implements MobicentsSipServletMessag
 	 * @see java.io.Externalizable#writeExternal(java.io.ObjectOutput)
 	 */
 	public void writeExternal(ObjectOutput out) throws IOException {
+		if(CompactExternalizer.isEnabled()) {
+			writeCompactExternal(out);
+			return;
+		}
 		out.writeObject(sipFactoryImpl);
 		if(sessionKey != null) {
 			out.writeUTF(sessionKey.toString());
@@ -2135,6 +2255,75 @@ public abstract class SipServletMessageImpl implements MobicentsSipServletMessag
 		out.writeUTF(message.toString());
 	}
 
+	/*
+	 * Same state as the legacy externalization, in the layout of CompactExternalizer.
+	 * The message is still written as text since the stack has to parse it back to rebuild its headers,
+	 * subclasses read it with readExternalizedMessage. 
+	 */
+	private void readCompactExternal(ObjectInput in) throws IOException,
+			ClassNotFoundException {
+		sipFactoryImpl = (SipFactoryImpl) in.readObject();
+		sessionKey = CompactExternalizer.readSipSessionKey(in);
+		attributes = CompactExternalizer.readAttributes(in);
+		if(in.readBoolean()) {
+			transactionApplicationData = (TransactionApplicationData) in.readObject();
+		}
+		headerForm = HeaderForm.values()[in.readByte()];
+		currentApplicationName = CompactExternalizer.readString(in);
+		isMessageSent = in.readBoolean();
+		if(ReplicationStrategy.EarlyDialog == StaticServiceHolder.sipStandardService.getReplicationStrategy()) {
+			transactionId = CompactExternalizer.readString(in);
+			if (logger.isDebugEnabled()) {
+				logger.debug("readExternal transactionId = " + transactionId);
+			}
+			if(transactionId != null) {
+				transactionType = in.readBoolean();
+			}
+		}
+	}
+
+	private void writeCompactExternal(ObjectOutput out) throws IOException {
+		CompactExternalizer.writeHeaderObject(out);
+		out.writeObject(sipFactoryImpl);
+		if(sessionKey == null && sipSession != null) {
+			CompactExternalizer.writeSipSessionKey(out, sipSession.getKey());
+		} else {
+			CompactExternalizer.writeSipSessionKey(out, sessionKey);
+		}
+		CompactExternalizer.writeAttributes(out, attributes);
+		if(transactionApplicationData != null) {
+			out.writeBoolean(true);
+			out.writeObject(transactionApplicationData);
+		} else {
+			out.writeBoolean(false);
+		}
+		out.writeByte(headerForm.ordinal());
+		CompactExternalizer.writeString(out, currentApplicationName);
+		out.writeBoolean(isMessageSent);
+		if(ReplicationStrategy.EarlyDialog == StaticServiceHolder.sipStandardService.getReplicationStrategy()) {
+			if(transaction == null) {
+				CompactExternalizer.writeString(out, null);
+			} else {
+				if (logger.isDebugEnabled()) {
+					logger.debug("writeExternal transactionId = " + transaction.getBranchId() + " transactionType " + (transaction instanceof ServerTransaction));
+				}
+				CompactExternalizer.writeString(out, transaction.getBranchId());
+				out.writeBoolean(transaction instanceof ServerTransaction);
+			}
+		}
+		CompactExternalizer.writeString(out, message.toString());
+	}
+
+	/**
+	 * Reads the text of the message written at the end of {@link #writeExternal(ObjectOutput)}
+	 */
+	protected String readExternalizedMessage(ObjectInput in) throws IOException {
+		if(compactExternalized) {
+			return CompactExternalizer.readString(in);
+		}
+		return in.readUTF();
+	}
+
 	/* (non-Javadoc)
 	 * @see java.lang.Object#hashCode()
 	 */
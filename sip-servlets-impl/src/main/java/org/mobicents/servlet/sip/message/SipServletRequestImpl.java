@@ -43,7 +43,6 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Locale;
 import java.util.Queue;
-import java.util.Random;
 import java.util.Set;
 import java.util.Vector;
 
@@ -95,6 +94,7 @@ import javax.sip.message.Response;
 import org.apache.log4j.Logger;
 import org.mobicents.ext.javax.sip.dns.DNSAwareRouter;
 import org.mobicents.ext.javax.sip.dns.DNSServerLocator;
+import org.mobicents.servlet.sip.GenericUtils;
 import org.mobicents.servlet.sip.JainSipUtils;
 import org.mobicents.servlet.sip.SipConnector;
 import org.mobicents.servlet.sip.address.AddressImpl;
@@ -186,6 +186,9 @@ public abstract class SipServletRequestImpl extends SipServletMessageImpl implem
 	
 	private boolean orphanRequest;
 	
+	// System.nanoTime() at which the request has been received, 0 if not received or statistics are not gathered
+	private transient long receivedTime;
+	
 	// needed for externalizable
 	public SipServletRequestImpl () {}
 	
@@ -368,7 +371,7 @@ public abstract class SipServletRequestImpl extends SipServletMessageImpl implem
 						}						
 					} else {							
 						//if the sessions are null, it means it is a cancel response
-						toHeader.setTag(Integer.toString(new Random().nextInt(10000000)));
+						toHeader.setTag(GenericUtils.getIdGenerator().generateTag());
 					}
 				}
 				// Following restrictions in JSR 289 Section 4.1.3 Contact Header Field
@@ -488,6 +491,20 @@ public abstract class SipServletRequestImpl extends SipServletMessageImpl implem
 		return poppedRoute;
 	}
 	
+	/**
+	 * @return the value of System.nanoTime() when the request was received, 0 if it is unknown
+	 */
+	public long getReceivedTime() {
+		return receivedTime;
+	}
+
+	/**
+	 * @param receivedTime the value of System.nanoTime() when the request was received
+	 */
+	public void setReceivedTime(long receivedTime) {
+		this.receivedTime = receivedTime;
+	}
+
 	public RouteHeader getPoppedRouteHeader() {
 		return poppedRouteHeader;
 	}
@@ -2425,7 +2442,7 @@ public abstract class SipServletRequestImpl extends SipServletMessageImpl implem
 	public void readExternal(ObjectInput in) throws IOException,
 			ClassNotFoundException {
 		super.readExternal(in);
-		String messageString = in.readUTF();
+		String messageString = readExternalizedMessage(in);
 		try {
 			message = SipFactoryImpl.messageFactory.createRequest(messageString);
 		} catch (ParseException e) {
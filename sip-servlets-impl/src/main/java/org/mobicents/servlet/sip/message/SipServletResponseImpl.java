@@ -821,7 +821,7 @@ public abstract class SipServletResponseImpl extends SipServletMessageImpl imple
 	public void readExternal(ObjectInput in) throws IOException,
 			ClassNotFoundException {
 		super.readExternal(in);
-		String messageString = in.readUTF();
+		String messageString = readExternalizedMessage(in);
 		try {
 			message = SipFactoryImpl.messageFactory.createResponse(messageString);
 		} catch (ParseException e) {
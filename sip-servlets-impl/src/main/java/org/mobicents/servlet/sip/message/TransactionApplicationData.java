@@ -28,8 +28,11 @@ import java.util.concurrent.atomic.AtomicInteger;
 import javax.servlet.sip.Address;
 import javax.sip.Transaction;
 import javax.sip.address.Hop;
+import javax.sip.header.RouteHeader;
 
 import org.apache.log4j.Logger;
+import org.mobicents.servlet.sip.address.AddressImpl;
+import org.mobicents.servlet.sip.address.AddressImpl.ModifiableRule;
 import org.mobicents.servlet.sip.core.message.MobicentsTransactionApplicationData;
 import org.mobicents.servlet.sip.proxy.ProxyBranchImpl;
 
@@ -51,6 +54,7 @@ public class TransactionApplicationData implements Serializable, MobicentsTransa
 	private transient int initialRemotePort;
 	private transient String initialRemoteTransport;
 	private transient Address initialPoppedRoute;
+	private transient RouteHeader initialPoppedRouteHeader;
 	private transient AtomicInteger rseqNumber;
 	// to be made non transient if we support tx failover at some point
 	// or handle it conditionally through an Externalizable interface
@@ -143,6 +147,10 @@ public class TransactionApplicationData implements Serializable, MobicentsTransa
 		return initialRemoteTransport;
 	}
 	public Address getInitialPoppedRoute() {
+		// the address is only created when the application asks for it
+		if(initialPoppedRoute == null && initialPoppedRouteHeader != null) {
+			initialPoppedRoute = new AddressImpl(initialPoppedRouteHeader.getAddress(), null, ModifiableRule.NotModifiable);
+		}
 		return initialPoppedRoute;
 	}
 	/**
@@ -150,6 +158,22 @@ public class TransactionApplicationData implements Serializable, MobicentsTransa
 	 */
 	public void setInitialPoppedRoute(Address initialPoppedRoute) {
 		this.initialPoppedRoute = initialPoppedRoute;
+		this.initialPoppedRouteHeader = null;
+	}
+	/**
+	 * Keeps the route header popped by the container when the transaction was created,
+	 * the corresponding {@link Address} is created on the first call to {@link #getInitialPoppedRoute()}
+	 * @param initialPoppedRouteHeader the route header popped by the container
+	 */
+	public void setInitialPoppedRouteHeader(RouteHeader initialPoppedRouteHeader) {
+		this.initialPoppedRouteHeader = initialPoppedRouteHeader;
+		this.initialPoppedRoute = null;
+	}
+	/**
+	 * @return true if a route has been popped by the container when the transaction was created
+	 */
+	public boolean hasInitialPoppedRoute() {
+		return initialPoppedRoute != null || initialPoppedRouteHeader != null;
 	}
 	
 	/**
@@ -228,6 +252,7 @@ public class TransactionApplicationData implements Serializable, MobicentsTransa
 			logger.debug("cleaning up the application data");
 		}
 		initialPoppedRoute = null;
+		initialPoppedRouteHeader = null;
 		proxyBranch = null;
 		// cannot nullify because of noAckReceived needs it and TCK SipApplicationSessionListenerTest
 //		if(cleanUpSipServletMessage && sipServletMessage != null) {
@@ -69,6 +69,8 @@ import org.mobicents.servlet.sip.core.message.MobicentsSipServletResponse;
 import org.mobicents.servlet.sip.core.proxy.MobicentsProxyBranch;
 import org.mobicents.servlet.sip.core.session.MobicentsSipApplicationSession;
 import org.mobicents.servlet.sip.core.session.MobicentsSipSession;
+import org.mobicents.servlet.sip.core.timers.ProxyTimerService;
+import org.mobicents.servlet.sip.message.CompactExternalizer;
 import org.mobicents.servlet.sip.message.SipFactoryImpl;
 import org.mobicents.servlet.sip.message.SipServletMessageImpl;
 import org.mobicents.servlet.sip.message.SipServletRequestImpl;
@@ -87,6 +89,14 @@ public class ProxyBranchImpl implements MobicentsProxyBranch, Externalizable {
 
 	private static final long serialVersionUID = 1L;
 	private static final Logger logger = Logger.getLogger(ProxyBranchImpl.class);
+	// flags of the compact externalization
+	private static final int RECURSE = 1;
+	private static final int RECORD_ROUTING_ENABLED = 1 << 1;
+	private static final int STARTED = 1 << 2;
+	private static final int TIMED_OUT = 1 << 3;
+	private static final int CANCELED = 1 << 4;
+	private static final int ADD_TO_PATH = 1 << 5;
+	private static final int WAITING_FOR_PRACK = 1 << 6;
 	private transient ProxyImpl proxy;
 	private transient SipServletRequestImpl originalRequest;
 	private transient SipServletRequestImpl prackOriginalRequest;
@@ -966,7 +976,7 @@ public class ProxyBranchImpl implements MobicentsProxyBranch, Externalizable {
 	public void cancelTimer() {
 		synchronized (cTimerLock) {
 			if (proxyTimeoutTask != null && proxyBranchTimerStarted) {
-				proxyTimeoutTask.cancel();
+				cancelTimerTask(proxyTimeoutTask);
 				proxyTimeoutTask = null;
 				proxyBranchTimerStarted = false;
 			}
@@ -978,12 +988,24 @@ public class ProxyBranchImpl implements MobicentsProxyBranch, Externalizable {
 	 */
 	public void cancel1xxTimer() {
 		if (proxy1xxTimeoutTask != null && proxyBranch1xxTimerStarted) {
-			proxy1xxTimeoutTask.cancel();
+			cancelTimerTask(proxy1xxTimeoutTask);
 			proxy1xxTimeoutTask = null;
 			proxyBranch1xxTimerStarted = false;
 		}
 	}
 
+	/**
+	 * Cancel the task through the proxy timer service so that it can release it right away
+	 */
+	private void cancelTimerTask(ProxyBranchTimerTask timerTask) {
+		final ProxyTimerService proxyTimerService = proxy.getProxyTimerService();
+		if(proxyTimerService != null) {
+			proxyTimerService.cancel(timerTask);
+		} else {
+			timerTask.cancel();
+		}
+	}
+
 	public boolean isCanceled() {
 		return canceled;
 	}
@@ -1163,7 +1185,23 @@ public class ProxyBranchImpl implements MobicentsProxyBranch, Externalizable {
 	public void readExternal(ObjectInput in) throws IOException,
 			ClassNotFoundException {
 		cTimerLock = new Object();
-		recurse = in.readBoolean();
+		// the format is told from the stream, which may have been written with another configuration
+		final Boolean legacyRecurse = CompactExternalizer.readHeaderOrLegacyBoolean(in);
+		if(legacyRecurse == null) {
+			// flags packed in a single byte
+			final int flags = in.readUnsignedByte();
+			recurse = (flags & RECURSE) != 0;
+			recordRoutingEnabled = (flags & RECORD_ROUTING_ENABLED) != 0;
+			started = (flags & STARTED) != 0;
+			timedOut = (flags & TIMED_OUT) != 0;
+			canceled = (flags & CANCELED) != 0;
+			isAddToPath = (flags & ADD_TO_PATH) != 0;
+			waitingForPrack = (flags & WAITING_FOR_PRACK) != 0;
+			proxyBranchTimeout = in.readInt();
+			proxyBranch1xxTimeout = in.readInt();
+			return;
+		}
+		recurse = legacyRecurse;
 		recordRoutingEnabled = in.readBoolean();
 		started = in.readBoolean();
 		timedOut = in.readBoolean();
@@ -1175,6 +1213,21 @@ public class ProxyBranchImpl implements MobicentsProxyBranch, Externalizable {
 	}
 
 	public void writeExternal(ObjectOutput out) throws IOException {
+		if(CompactExternalizer.isEnabled()) {
+			CompactExternalizer.writeHeader(out);
+			int flags = 0;
+			if(recurse) flags |= RECURSE;
+			if(recordRoutingEnabled) flags |= RECORD_ROUTING_ENABLED;
+			if(started) flags |= STARTED;
+			if(timedOut) flags |= TIMED_OUT;
+			if(canceled) flags |= CANCELED;
+			if(isAddToPath) flags |= ADD_TO_PATH;
+			if(waitingForPrack) flags |= WAITING_FOR_PRACK;
+			out.writeByte(flags);
+			out.writeInt(proxyBranchTimeout);
+			out.writeInt(proxyBranch1xxTimeout);
+			return;
+		}
 		out.writeBoolean(recurse);
 		out.writeBoolean(recordRoutingEnabled);
 		out.writeBoolean(started);
@@ -31,6 +31,7 @@ import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -75,6 +76,7 @@ import org.mobicents.servlet.sip.core.proxy.MobicentsProxyBranch;
 import org.mobicents.servlet.sip.core.session.MobicentsSipApplicationSession;
 import org.mobicents.servlet.sip.core.session.MobicentsSipSession;
 import org.mobicents.servlet.sip.core.timers.ProxyTimerService;
+import org.mobicents.servlet.sip.message.CompactExternalizer;
 import org.mobicents.servlet.sip.message.SipFactoryImpl;
 import org.mobicents.servlet.sip.message.SipServletRequestImpl;
 import org.mobicents.servlet.sip.message.SipServletResponseImpl;
@@ -1043,13 +1045,21 @@ public class ProxyImpl implements MobicentsProxy, Externalizable {
 
 	public void readExternal(ObjectInput in) throws IOException,
 			ClassNotFoundException {
+		// the format is told from the stream, which may have been written with another configuration
+		final Boolean first = CompactExternalizer.readHeaderOrLegacyBoolean(in);
+		if(first == null) {
+			readCompactExternal(in);
+			return;
+		}
 		if(ReplicationStrategy.EarlyDialog == StaticServiceHolder.sipStandardService.getReplicationStrategy()) {
 			// Issue 2587 : read only if not null.
-			if(in.readBoolean()) {
+			if(first) {
 				originalRequest = (SipServletRequestImpl) in.readObject();
 			}
+			recurse = in.readBoolean();
+		} else {
+			recurse = first;
 		}
-		recurse = in.readBoolean();
 		proxyTimeout = in.readInt();
 		seqSearchTimeout = in.readInt();
 		supervised = in.readBoolean();
@@ -1077,6 +1087,10 @@ public class ProxyImpl implements MobicentsProxy, Externalizable {
 	}
 
 	public void writeExternal(ObjectOutput out) throws IOException {
+		if(CompactExternalizer.isEnabled()) {
+			writeCompactExternal(out);
+			return;
+		}
 		if(ReplicationStrategy.EarlyDialog == StaticServiceHolder.sipStandardService.getReplicationStrategy()) {
 			// Issue 2587 : replicating original request is only useful for early dialog failover
 			if(originalRequest != null && originalRequest.getMethod().equalsIgnoreCase(Request.INVITE)) {
@@ -1107,6 +1121,115 @@ public class ProxyImpl implements MobicentsProxy, Externalizable {
 			out.writeObject(terminationInfo);
 		}
 	}
+
+	private static final int RECURSE = 1;
+	private static final int SUPERVISED = 1 << 1;
+	private static final int RECORD_ROUTING_ENABLED = 1 << 2;
+	private static final int PARALLEL = 1 << 3;
+	private static final int ADD_TO_PATH = 1 << 4;
+	private static final int NO_CANCEL = 1 << 5;
+	private static final int STARTED = 1 << 6;
+	private static final int ACK_RECEIVED = 1 << 7;
+	private static final int TRYING_SENT = 1 << 8;
+	private static final int STORE_TERMINATION_INFO = 1 << 9;
+
+	private static final byte NO_PREVIOUS_NODE = 0;
+	private static final byte PREVIOUS_NODE_TEXT = 1;
+	private static final byte PREVIOUS_NODE_OBJECT = 2;
+
+	/*
+	 * Same state as the legacy externalization, in the layout of CompactExternalizer :
+	 * the flags are packed in a single int and the previous node is written as text instead of going through the java serialization
+	 */
+	private void readCompactExternal(ObjectInput in) throws IOException,
+			ClassNotFoundException {
+		if(ReplicationStrategy.EarlyDialog == StaticServiceHolder.sipStandardService.getReplicationStrategy()) {
+			if(in.readBoolean()) {
+				originalRequest = (SipServletRequestImpl) in.readObject();
+			}
+		}
+		final int flags = in.readInt();
+		recurse = (flags & RECURSE) != 0;
+		supervised = (flags & SUPERVISED) != 0;
+		recordRoutingEnabled = (flags & RECORD_ROUTING_ENABLED) != 0;
+		parallel = (flags & PARALLEL) != 0;
+		addToPath = (flags & ADD_TO_PATH) != 0;
+		isNoCancel = (flags & NO_CANCEL) != 0;
+		started = (flags & STARTED) != 0;
+		ackReceived = (flags & ACK_RECEIVED) != 0;
+		tryingSent = (flags & TRYING_SENT) != 0;
+		storeTerminationInfo = (flags & STORE_TERMINATION_INFO) != 0;
+		proxyTimeout = in.readInt();
+		seqSearchTimeout = in.readInt();
+		finalBranchForSubsequentRequests = (ProxyBranchImpl) in.readObject();
+		if(finalBranchForSubsequentRequests != null) {
+			finalBranchForSubsequentRequests.setProxy(this);
+		}
+		final byte previousNodeType = in.readByte();
+		if(previousNodeType == PREVIOUS_NODE_TEXT) {
+			final ModifiableRule modifiableRule = ModifiableRule.values()[in.readByte()];
+			final String previousNodeString = CompactExternalizer.readString(in);
+			try {
+				previousNode = new SipURIImpl((javax.sip.address.SipURI) SipFactoryImpl.addressFactory.createURI(previousNodeString), modifiableRule);
+			} catch (ParseException e) {
+				throw new IllegalArgumentException("Previous node " + previousNodeString + " previously serialized could not be reparsed", e);
+			}
+		} else if(previousNodeType == PREVIOUS_NODE_OBJECT) {
+			previousNode = (SipURI) in.readObject();
+		}
+		callerFromTag = CompactExternalizer.readString(in);
+		calleeCSeq = in.readLong();
+		callerCSeq = in.readLong();
+		if (storeTerminationInfo) {
+			terminationInfo = (ProxyTerminationInfo) in.readObject();
+			terminationInfo.setProxy(this);
+		}
+		this.proxyBranches = new LinkedHashMap<URI, ProxyBranchImpl> ();
+	}
+
+	private void writeCompactExternal(ObjectOutput out) throws IOException {
+		CompactExternalizer.writeHeader(out);
+		if(ReplicationStrategy.EarlyDialog == StaticServiceHolder.sipStandardService.getReplicationStrategy()) {
+			// Issue 2587 : replicating original request is only useful for early dialog failover
+			if(originalRequest != null && originalRequest.getMethod().equalsIgnoreCase(Request.INVITE)) {
+				out.writeBoolean(true);
+				out.writeObject(originalRequest);
+			} else {
+				out.writeBoolean(false);
+			}
+		}
+		int flags = 0;
+		if(recurse) flags |= RECURSE;
+		if(supervised) flags |= SUPERVISED;
+		if(recordRoutingEnabled) flags |= RECORD_ROUTING_ENABLED;
+		if(parallel) flags |= PARALLEL;
+		if(addToPath) flags |= ADD_TO_PATH;
+		if(isNoCancel) flags |= NO_CANCEL;
+		if(started) flags |= STARTED;
+		if(ackReceived) flags |= ACK_RECEIVED;
+		if(tryingSent) flags |= TRYING_SENT;
+		if(storeTerminationInfo) flags |= STORE_TERMINATION_INFO;
+		out.writeInt(flags);
+		out.writeInt(proxyTimeout);
+		out.writeInt(seqSearchTimeout);
+		out.writeObject(finalBranchForSubsequentRequests);
+		if(previousNode == null) {
+			out.writeByte(NO_PREVIOUS_NODE);
+		} else if(previousNode instanceof SipURIImpl) {
+			out.writeByte(PREVIOUS_NODE_TEXT);
+			out.writeByte(((SipURIImpl) previousNode).getModifiableRule().ordinal());
+			CompactExternalizer.writeString(out, previousNode.toString());
+		} else {
+			out.writeByte(PREVIOUS_NODE_OBJECT);
+			out.writeObject(previousNode);
+		}
+		CompactExternalizer.writeString(out, callerFromTag);
+		out.writeLong(calleeCSeq);
+		out.writeLong(callerCSeq);
+		if (storeTerminationInfo) {
+			out.writeObject(terminationInfo);
+		}
+	}
 	/*
 	 * (non-Javadoc)
 	 * @see org.mobicents.javax.servlet.sip.ProxyExt#getProxy1xxTimeout()
@@ -0,0 +1,179 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.sip.ar.SipApplicationRouter;
+import javax.sip.address.SipURI;
+import javax.sip.header.RouteHeader;
+
+import junit.framework.TestCase;
+
+import org.mobicents.servlet.sip.message.Servlet3SipServletMessageFactory;
+import org.mobicents.servlet.sip.message.SipFactoryImpl;
+import org.mobicents.servlet.sip.router.ManageableApplicationRouter;
+import org.mobicents.servlet.sip.startup.StaticServiceHolder;
+
+/**
+ * Checks that the cache of the routes returned by the application router counts its hits and misses, 
+ * hands out copies of the cached headers, stays bounded and is cleared when the application router is reconfigured.
+ */
+public class ApplicationRouterRouteCacheTest extends TestCase {
+
+	private static final String ROUTE = "<sip:127.0.0.1:5070;lr>";
+	private static final String OTHER_ROUTE = "<sip:127.0.0.1:5080;lr;transport=tcp>";
+
+	private ApplicationRouterRouteCache applicationRouterRouteCache;
+
+	public ApplicationRouterRouteCacheTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		new SipFactoryImpl().initialize("gov.nist", false);
+		applicationRouterRouteCache = new ApplicationRouterRouteCache();
+	}
+
+	public void testHitsAndMisses() throws ParseException {
+		assertEquals(0d, applicationRouterRouteCache.getHitRate(), 0d);
+		applicationRouterRouteCache.createRouteHeader(ROUTE);
+		assertEquals(0, applicationRouterRouteCache.getHits());
+		assertEquals(1, applicationRouterRouteCache.getMisses());
+		applicationRouterRouteCache.createRouteHeader(ROUTE);
+		applicationRouterRouteCache.createRouteHeader(ROUTE);
+		applicationRouterRouteCache.createRouteHeader(OTHER_ROUTE);
+		assertEquals(2, applicationRouterRouteCache.getHits());
+		assertEquals(2, applicationRouterRouteCache.getMisses());
+		assertEquals(2, applicationRouterRouteCache.getSize());
+		assertEquals(0.5d, applicationRouterRouteCache.getHitRate(), 0d);
+	}
+
+	public void testRouteHeaderIsACopy() throws ParseException {
+		final RouteHeader routeHeader = applicationRouterRouteCache.createRouteHeader(ROUTE);
+		routeHeader.setParameter("modified", "true");
+		final RouteHeader cachedRouteHeader = applicationRouterRouteCache.createRouteHeader(ROUTE);
+		assertEquals(1, applicationRouterRouteCache.getHits());
+		assertNotSame(routeHeader, cachedRouteHeader);
+		assertNull(cachedRouteHeader.getParameter("modified"));
+		assertEquals("127.0.0.1", uri(cachedRouteHeader).getHost());
+		assertEquals(5070, uri(cachedRouteHeader).getPort());
+		// the copies handed out don't share their address either
+		uri(cachedRouteHeader).setHost("127.0.0.2");
+		assertEquals("127.0.0.1", uri(applicationRouterRouteCache.createRouteHeader(ROUTE)).getHost());
+	}
+
+	public void testNumberOfRoutesIsBounded() throws ParseException {
+		final int routes = ApplicationRouterRouteCache.DEFAULT_MAX_ROUTES + 10;
+		for (int i = 0; i < routes; i++) {
+			applicationRouterRouteCache.createRouteHeader(route(i));
+		}
+		assertEquals(ApplicationRouterRouteCache.DEFAULT_MAX_ROUTES, applicationRouterRouteCache.getSize());
+		assertEquals(routes, applicationRouterRouteCache.getMisses());
+		// the routes past the bound are parsed each time
+		applicationRouterRouteCache.createRouteHeader(route(0));
+		assertEquals(1, applicationRouterRouteCache.getHits());
+		final RouteHeader routeHeader = applicationRouterRouteCache.createRouteHeader(route(routes - 1));
+		assertEquals(1, applicationRouterRouteCache.getHits());
+		assertEquals(routes + 1, applicationRouterRouteCache.getMisses());
+		assertEquals(ApplicationRouterRouteCache.DEFAULT_MAX_ROUTES, applicationRouterRouteCache.getSize());
+		assertEquals(host(routes - 1), uri(routeHeader).getHost());
+	}
+
+	public void testInvalidRouteIsNotCached() {
+		try {
+			applicationRouterRouteCache.createRouteHeader("<sip:");
+			fail("an invalid route shouldn't be parsed");
+		} catch (ParseException e) {
+			// expected
+		}
+		assertEquals(0, applicationRouterRouteCache.getSize());
+	}
+
+	public void testClear() throws ParseException {
+		applicationRouterRouteCache.createRouteHeader(ROUTE);
+		applicationRouterRouteCache.clear();
+		assertEquals(0, applicationRouterRouteCache.getSize());
+		applicationRouterRouteCache.createRouteHeader(ROUTE);
+		assertEquals(0, applicationRouterRouteCache.getHits());
+		assertEquals(2, applicationRouterRouteCache.getMisses());
+	}
+
+	public void testCacheIsClearedWhenTheApplicationRouterIsConfigured() throws Exception {
+		final SipService sipService = StaticServiceHolder.sipStandardService;
+		StaticServiceHolder.sipStandardService = (SipService) Proxy.newProxyInstance(getClass().getClassLoader(), 
+				new Class[] {SipService.class}, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if("getMobicentsSipServletMessageFactoryClassName".equals(method.getName())) {
+					return Servlet3SipServletMessageFactory.class.getName();
+				}
+				return null;
+			}
+		});
+		try {
+			final List<Object> configurations = new ArrayList<Object>();
+			final SipApplicationDispatcherImpl sipApplicationDispatcher = new SipApplicationDispatcherImpl();
+			sipApplicationDispatcher.setSipApplicationRouter((SipApplicationRouter) Proxy.newProxyInstance(getClass().getClassLoader(), 
+					new Class[] {SipApplicationRouter.class, ManageableApplicationRouter.class}, new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if("configure".equals(method.getName())) {
+						configurations.add(args[0]);
+					}
+					return null;
+				}
+			}));
+			final Field field = SipApplicationDispatcherImpl.class.getDeclaredField("applicationRouterRouteCache");
+			field.setAccessible(true);
+			final ApplicationRouterRouteCache dispatcherRouteCache = (ApplicationRouterRouteCache) field.get(sipApplicationDispatcher);
+			dispatcherRouteCache.createRouteHeader(ROUTE);
+			dispatcherRouteCache.createRouteHeader(ROUTE);
+			assertEquals(1, sipApplicationDispatcher.getApplicationRouterRouteCacheHits());
+			sipApplicationDispatcher.updateApplicationRouterConfiguration("INVITE: (\"app\", \"DAR:From\", \"ORIGINATING\", \"\", \"NO_ROUTE\", \"0\")");
+			assertEquals(1, configurations.size());
+			assertEquals(0, dispatcherRouteCache.getSize());
+			dispatcherRouteCache.createRouteHeader(ROUTE);
+			sipApplicationDispatcher.updateApplicationRouterConfiguration((Object) "INVITE: (\"app\", \"DAR:To\", \"TERMINATING\", \"\", \"NO_ROUTE\", \"0\")");
+			assertEquals(2, configurations.size());
+			assertEquals(0, dispatcherRouteCache.getSize());
+		} finally {
+			StaticServiceHolder.sipStandardService = sipService;
+		}
+	}
+
+	private static String route(int i) {
+		return "<sip:" + host(i) + ":5060;lr>";
+	}
+
+	private static String host(int i) {
+		return "10.0." + (i / 256) + "." + (i % 256);
+	}
+
+	private static SipURI uri(RouteHeader routeHeader) {
+		return (SipURI) routeHeader.getAddress().getURI();
+	}
+}
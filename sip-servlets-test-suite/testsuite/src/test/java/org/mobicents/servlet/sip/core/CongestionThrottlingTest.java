@@ -0,0 +1,324 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.ServletContext;
+import javax.servlet.sip.SipServletRequest;
+import javax.servlet.sip.ar.SipApplicationRouter;
+import javax.sip.Dialog;
+import javax.sip.RequestEvent;
+import javax.sip.ServerTransaction;
+import javax.sip.SipProvider;
+import javax.sip.Transaction;
+import javax.sip.header.RetryAfterHeader;
+import javax.sip.header.RouteHeader;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import junit.framework.TestCase;
+
+import org.mobicents.javax.servlet.CongestionControlEvent;
+import org.mobicents.javax.servlet.CongestionControlPolicy;
+import org.mobicents.javax.servlet.ContainerListener;
+import org.mobicents.servlet.sip.annotation.ConcurrencyControlMode;
+import org.mobicents.servlet.sip.core.congestion.CongestionControlEngine;
+import org.mobicents.servlet.sip.core.dispatchers.MessageDispatcher;
+import org.mobicents.servlet.sip.core.message.MobicentsSipServletRequest;
+import org.mobicents.servlet.sip.core.session.MobicentsSipSession;
+import org.mobicents.servlet.sip.message.Servlet3SipServletMessageFactory;
+import org.mobicents.servlet.sip.message.SipFactoryImpl;
+import org.mobicents.servlet.sip.startup.StaticServiceHolder;
+
+/**
+ * Checks that the sip application dispatcher decides congestion throttling from the jain sip request alone : 
+ * the initial requests throttled are rejected with a 503 without creating a sip servlet request unless an application 
+ * implements the ContainerListener, they are dropped without any transaction with the DropMessage policy 
+ * and the requests within a dialog are never throttled.
+ */
+public class CongestionThrottlingTest extends TestCase {
+
+	private static final String INVITE = 
+		"INVITE sip:bob@example.com SIP/2.0\r\n" +
+		"Via: SIP/2.0/UDP 127.0.0.1:5070;branch=z9hG4bK-1234\r\n" +
+		"Max-Forwards: 70\r\n" +
+		"From: <sip:alice@example.com>;tag=1234\r\n" +
+		"To: <sip:bob@example.com>\r\n" +
+		"Call-ID: 0123456789@127.0.0.1\r\n" +
+		"CSeq: 1 INVITE\r\n" +
+		"Contact: <sip:alice@127.0.0.1:5070>\r\n" +
+		"Content-Length: 0\r\n" +
+		"\r\n";
+
+	// counts the sip servlet requests created by the dispatcher
+	private static volatile int sipServletRequestsCreated;
+
+	public static class CountingSipServletMessageFactory extends Servlet3SipServletMessageFactory {
+		@Override
+		public MobicentsSipServletRequest createSipServletRequest(Request request, MobicentsSipSession sipSession, 
+				Transaction transaction, Dialog dialog, boolean createDialog) {
+			sipServletRequestsCreated++;
+			return super.createSipServletRequest(request, sipSession, transaction, dialog, createDialog);
+		}
+	}
+
+	private SipService sipService;
+	private SipApplicationDispatcherImpl sipApplicationDispatcher;
+	private List<Response> responsesSent;
+	private int serverTransactionsCreated;
+	private ServerTransaction serverTransaction;
+	private SipProvider sipProvider;
+	private List<SipServletRequest> requestsThrottled;
+
+	public CongestionThrottlingTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		sipService = StaticServiceHolder.sipStandardService;
+		StaticServiceHolder.sipStandardService = fake(SipService.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if("getMobicentsSipServletMessageFactoryClassName".equals(method.getName())) {
+					return CountingSipServletMessageFactory.class.getName();
+				}
+				return defaultValue(method);
+			}
+		});
+		new SipFactoryImpl().initialize("gov.nist", false);
+		sipServletRequestsCreated = 0;
+		responsesSent = new ArrayList<Response>();
+		serverTransactionsCreated = 0;
+		requestsThrottled = new ArrayList<SipServletRequest>();
+		serverTransaction = fake(ServerTransaction.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if("sendResponse".equals(method.getName())) {
+					responsesSent.add((Response) args[0]);
+				}
+				return defaultValue(method);
+			}
+		});
+		sipProvider = fake(SipProvider.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if("getNewServerTransaction".equals(method.getName())) {
+					serverTransactionsCreated++;
+					return serverTransaction;
+				}
+				if("sendResponse".equals(method.getName())) {
+					responsesSent.add((Response) args[0]);
+				}
+				return defaultValue(method);
+			}
+		});
+		sipApplicationDispatcher = new SipApplicationDispatcherImpl();
+		sipApplicationDispatcher.setSipApplicationRouter(fake(SipApplicationRouter.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				return defaultValue(method);
+			}
+		}));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		StaticServiceHolder.sipStandardService = sipService;
+		super.tearDown();
+	}
+
+	public void testThrottledRequestIsRejectedWithoutCreatingASipServletRequest() throws Exception {
+		deploy("app", null);
+		setField("memoryToHigh", Boolean.TRUE);
+		sipApplicationDispatcher.processRequest(new RequestEvent(sipProvider, serverTransaction, null, request(INVITE)));
+		assertEquals(0, sipServletRequestsCreated);
+		assertServiceUnavailable();
+	}
+
+	public void testRequestThrottledByTheCongestionControlEngineIsRejectedWithoutCreatingASipServletRequest() throws Exception {
+		setField("congestionControlEngine", throttlingCongestionControlEngine());
+		sipApplicationDispatcher.processRequest(new RequestEvent(sipProvider, serverTransaction, null, request(INVITE)));
+		assertEquals(0, sipServletRequestsCreated);
+		assertServiceUnavailable();
+		assertEquals(1, ((RetryAfterHeader) responsesSent.get(0).getHeader(RetryAfterHeader.NAME)).getRetryAfter());
+	}
+
+	public void testThrottledRequestIsPassedToTheContainerListener() throws Exception {
+		deploy("app", null);
+		deploy("listening-app", fake(ContainerListener.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if("onRequestThrottled".equals(method.getName())) {
+					requestsThrottled.add((SipServletRequest) args[0]);
+				}
+				// no response generated, the container sends the 503
+				return defaultValue(method);
+			}
+		}));
+		setField("memoryToHigh", Boolean.TRUE);
+		sipApplicationDispatcher.processRequest(new RequestEvent(sipProvider, serverTransaction, null, request(INVITE)));
+		assertEquals(1, sipServletRequestsCreated);
+		assertEquals(1, requestsThrottled.size());
+		assertEquals(Request.INVITE, requestsThrottled.get(0).getMethod());
+		assertServiceUnavailable();
+	}
+
+	public void testThrottledRequestIsDroppedWithDropMessagePolicy() throws Exception {
+		sipApplicationDispatcher.setCongestionControlPolicy(CongestionControlPolicy.DropMessage);
+		setField("memoryToHigh", Boolean.TRUE);
+		sipApplicationDispatcher.processRequest(new RequestEvent(sipProvider, null, null, request(INVITE)));
+		assertEquals(0, serverTransactionsCreated);
+		assertEquals(0, sipServletRequestsCreated);
+		assertTrue(responsesSent.isEmpty());
+	}
+
+	public void testThrottledRequestIsDroppedWithDropMessagePolicyAndCongestionControlEngine() throws Exception {
+		sipApplicationDispatcher.setCongestionControlPolicy(CongestionControlPolicy.DropMessage);
+		setField("congestionControlEngine", throttlingCongestionControlEngine());
+		sipApplicationDispatcher.processRequest(new RequestEvent(sipProvider, null, null, request(INVITE)));
+		assertEquals(0, serverTransactionsCreated);
+		assertEquals(0, sipServletRequestsCreated);
+		assertTrue(responsesSent.isEmpty());
+	}
+
+	public void testRequestsWithinADialogAreNeverThrottled() throws Exception {
+		assertFalse(sipApplicationDispatcher.isRequestThrottled(Request.INVITE, null, null));
+		setField("memoryToHigh", Boolean.TRUE);
+		setField("congestionControlEngine", throttlingCongestionControlEngine());
+		assertTrue(sipApplicationDispatcher.isRequestThrottled(Request.INVITE, null, null));
+		assertTrue(sipApplicationDispatcher.isRequestThrottled(Request.INVITE, null, route("sip:127.0.0.1:5080;lr")));
+		final Dialog dialog = fake(Dialog.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				return defaultValue(method);
+			}
+		});
+		// re-INVITE
+		assertFalse(sipApplicationDispatcher.isRequestThrottled(Request.INVITE, dialog, null));
+		// subsequent request of a proxy application
+		assertFalse(sipApplicationDispatcher.isRequestThrottled(Request.INVITE, null, 
+				route("sip:127.0.0.1:5080;lr;" + MessageDispatcher.RR_PARAM_PROXY_APP + "=true")));
+		final String[] inDialogMethods = new String[] {Request.ACK, Request.PRACK, Request.BYE, Request.CANCEL, Request.UPDATE, Request.INFO};
+		for (String method : inDialogMethods) {
+			assertFalse(method, sipApplicationDispatcher.isRequestThrottled(method, null, null));
+			assertFalse(method, sipApplicationDispatcher.isRequestThrottled(method, dialog, null));
+		}
+	}
+
+	private void assertServiceUnavailable() {
+		assertEquals(1, responsesSent.size());
+		assertEquals(Response.SERVICE_UNAVAILABLE, responsesSent.get(0).getStatusCode());
+		assertNotNull(responsesSent.get(0).getHeader(RetryAfterHeader.NAME));
+	}
+
+	private void deploy(String applicationName, final ContainerListener containerListener) {
+		final SipListeners sipListeners = fake(SipListeners.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if("getContainerListener".equals(method.getName())) {
+					return containerListener;
+				}
+				return defaultValue(method);
+			}
+		});
+		final ServletContext servletContext = fake(ServletContext.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				return defaultValue(method);
+			}
+		});
+		sipApplicationDispatcher.addSipApplication(applicationName, fake(SipContext.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if("getConcurrencyControlMode".equals(method.getName())) {
+					return ConcurrencyControlMode.None;
+				}
+				if("getServletContext".equals(method.getName())) {
+					return servletContext;
+				}
+				if("getListeners".equals(method.getName())) {
+					return sipListeners;
+				}
+				return defaultValue(method);
+			}
+		}));
+	}
+
+	private static CongestionControlEngine throttlingCongestionControlEngine() {
+		return fake(CongestionControlEngine.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if("isInitialRequestThrottled".equals(method.getName())) {
+					return Boolean.TRUE;
+				}
+				if("getCongestionControlEvent".equals(method.getName())) {
+					return new CongestionControlEvent(CongestionControlEvent.Reason.Queue, "shedding the initial requests");
+				}
+				return defaultValue(method);
+			}
+		});
+	}
+
+	// the congestion state is otherwise only updated by the background task of the started dispatcher
+	private void setField(String name, Object value) throws Exception {
+		final Field field = SipApplicationDispatcherImpl.class.getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(sipApplicationDispatcher, value);
+	}
+
+	private static Request request(String request) throws Exception {
+		return SipFactoryImpl.messageFactory.createRequest(request);
+	}
+
+	private static RouteHeader route(String uri) throws Exception {
+		return SipFactoryImpl.headerFactory.createRouteHeader(SipFactoryImpl.addressFactory.createAddress(uri));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T fake(Class<T> type, final InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(CongestionThrottlingTest.class.getClassLoader(), new Class[] {type}, 
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if("hashCode".equals(method.getName())) {
+							return System.identityHashCode(proxy);
+						}
+						if("equals".equals(method.getName())) {
+							return proxy == args[0];
+						}
+						if("toString".equals(method.getName())) {
+							return method.getDeclaringClass().getSimpleName() + "@" + System.identityHashCode(proxy);
+						}
+						return handler.invoke(proxy, method, args);
+					}
+				});
+	}
+
+	private static Object defaultValue(Method method) {
+		final Class<?> returnType = method.getReturnType();
+		if(returnType == boolean.class) {
+			return Boolean.FALSE;
+		}
+		if(returnType == int.class) {
+			return Integer.valueOf(0);
+		}
+		if(returnType == long.class) {
+			return Long.valueOf(0);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.servlet.sip.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the message counts and the processing time histograms of the dispatcher statistics, 
+ * including when they are updated concurrently.
+ */
+public class DispatcherStatisticsTest extends TestCase {
+
+	private static final String[] METHODS = new String[] {"INVITE", "ACK", "BYE"};
+	private static final int THREADS = 8;
+	private static final int MESSAGES = 50000;
+
+	private DispatcherStatistics statistics;
+
+	public DispatcherStatisticsTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		statistics = new DispatcherStatistics(METHODS);
+	}
+
+	public void testConcurrentUpdates() throws Exception {
+		final List<Throwable> failures = new ArrayList<Throwable>();
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < THREADS; i++) {
+			final Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int j = 0; j < MESSAGES; j++) {
+							statistics.requestProcessed("INVITE");
+							statistics.requestProcessed("PUBLISH");
+							statistics.responseProcessed(j % 2 == 0 ? 180 : 200);
+							statistics.requestProcessingTime("INVITE", TimeUnit.MILLISECONDS.toNanos(j % 2 == 0 ? 0 : 3));
+						}
+					} catch (Throwable t) {
+						synchronized (failures) {
+							failures.add(t);
+						}
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(failures.toString(), failures.isEmpty());
+		final long messages = (long) THREADS * MESSAGES;
+		assertEquals(2 * messages, statistics.getRequestsProcessed());
+		assertEquals(messages, statistics.getRequestsProcessedByMethod("INVITE"));
+		assertEquals(messages, statistics.getRequestsProcessedByMethod("PUBLISH"));
+		assertEquals(messages, statistics.getRequestsProcessedByMethod().get("INVITE").get());
+		assertEquals(messages, statistics.getRequestsProcessedByMethod().get("PUBLISH").get());
+		assertEquals(messages, statistics.getResponsesProcessed());
+		assertEquals(messages / 2, statistics.getResponsesProcessedByStatusCode("1XX"));
+		assertEquals(messages / 2, statistics.getResponsesProcessedByStatusCode("2XX"));
+		final long[] histogram = statistics.getRequestProcessingTimeHistogramByMethod().get("INVITE");
+		assertEquals(messages / 2, histogram[0]);
+		assertEquals(messages / 2, histogram[2]);
+		// half of the requests took 0 ms and half 3 ms
+		assertEquals(Long.valueOf(1500), statistics.getAverageRequestProcessingTimeByMethod().get("INVITE"));
+	}
+
+	public void testRequestsProcessedByMethod() {
+		statistics.requestProcessed("INVITE");
+		statistics.requestProcessed("BYE");
+		statistics.requestProcessed("BYE");
+		statistics.requestProcessed("PUBLISH");
+		assertEquals(4, statistics.getRequestsProcessed());
+		assertEquals(1, statistics.getRequestsProcessedByMethod("INVITE"));
+		assertEquals(0, statistics.getRequestsProcessedByMethod("ACK"));
+		assertEquals(2, statistics.getRequestsProcessedByMethod("BYE"));
+		assertEquals(1, statistics.getRequestsProcessedByMethod("PUBLISH"));
+		assertEquals(0, statistics.getRequestsProcessedByMethod("NOTIFY"));
+		final Map<String, ?> requestsProcessedByMethod = statistics.getRequestsProcessedByMethod();
+		assertEquals(4, requestsProcessedByMethod.size());
+		assertTrue(requestsProcessedByMethod.containsKey("ACK"));
+	}
+
+	public void testOtherMethodsAreBounded() {
+		final int otherMethods = DispatcherStatistics.MAX_OTHER_METHODS + 10;
+		for (int i = 0; i < otherMethods; i++) {
+			statistics.requestProcessed("METHOD" + i);
+		}
+		// all the requests are counted but only the first other methods get their own counter
+		assertEquals(otherMethods, statistics.getRequestsProcessed());
+		assertEquals(1, statistics.getRequestsProcessedByMethod("METHOD0"));
+		assertEquals(0, statistics.getRequestsProcessedByMethod("METHOD" + (otherMethods - 1)));
+		assertEquals(METHODS.length + DispatcherStatistics.MAX_OTHER_METHODS, statistics.getRequestsProcessedByMethod().size());
+	}
+
+	public void testResponsesProcessedByClassOfStatusCode() {
+		final int[] statusCodes = new int[] {100, 180, 200, 302, 404, 486, 503, 699, 99, 1000};
+		for (int statusCode : statusCodes) {
+			statistics.responseProcessed(statusCode);
+		}
+		// the invalid status codes are only counted in the total
+		assertEquals(statusCodes.length, statistics.getResponsesProcessed());
+		assertEquals(2, statistics.getResponsesProcessedByStatusCode("1XX"));
+		assertEquals(1, statistics.getResponsesProcessedByStatusCode("2XX"));
+		assertEquals(1, statistics.getResponsesProcessedByStatusCode("3XX"));
+		assertEquals(2, statistics.getResponsesProcessedByStatusCode("4XX"));
+		assertEquals(1, statistics.getResponsesProcessedByStatusCode("5XX"));
+		assertEquals(1, statistics.getResponsesProcessedByStatusCode("6XX"));
+		assertEquals(0, statistics.getResponsesProcessedByStatusCode("7XX"));
+		assertEquals(0, statistics.getResponsesProcessedByStatusCode("0XX"));
+		final Map<String, ?> responsesProcessedByStatusCode = statistics.getResponsesProcessedByStatusCode();
+		assertEquals(DispatcherStatistics.RESPONSES_PER_CLASS_OF_SC.length, responsesProcessedByStatusCode.size());
+	}
+
+	public void testProcessingTimeHistogramBuckets() {
+		final long[] buckets = DispatcherStatistics.PROCESSING_TIME_BUCKETS;
+		final long[] expected = new long[buckets.length + 1];
+		// a time equal to the upper bound of a bucket falls in the next one
+		statistics.requestProcessingTime("INVITE", 0);
+		statistics.requestProcessingTime("INVITE", TimeUnit.MILLISECONDS.toNanos(1) - 1);
+		expected[0] += 2;
+		for (int i = 0; i < buckets.length; i++) {
+			statistics.requestProcessingTime("INVITE", TimeUnit.MILLISECONDS.toNanos(buckets[i]));
+			statistics.requestProcessingTime("INVITE", TimeUnit.MILLISECONDS.toNanos(buckets[i]) - 1);
+			expected[i + 1]++;
+			expected[i]++;
+		}
+		statistics.requestProcessingTime("INVITE", TimeUnit.MINUTES.toNanos(1));
+		expected[buckets.length]++;
+		// negative times, from a clock going backwards, are ignored
+		statistics.requestProcessingTime("INVITE", -1);
+		final Map<String, long[]> histograms = statistics.getRequestProcessingTimeHistogramByMethod();
+		assertEquals(1, histograms.size());
+		final long[] histogram = histograms.get("INVITE");
+		assertEquals(expected.length, histogram.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals("bucket " + i, expected[i], histogram[i]);
+		}
+	}
+
+	public void testProcessingTimeOfOtherMethods() {
+		statistics.requestProcessingTime("PUBLISH", TimeUnit.MILLISECONDS.toNanos(7));
+		statistics.requestProcessingTime("MESSAGE", TimeUnit.MILLISECONDS.toNanos(9));
+		final Map<String, long[]> histograms = statistics.getRequestProcessingTimeHistogramByMethod();
+		assertEquals(1, histograms.size());
+		// 7 and 9 ms fall in the [5, 10[ ms bucket
+		assertEquals(2, histograms.get("OTHER")[3]);
+		assertEquals(Long.valueOf(8000), statistics.getAverageRequestProcessingTimeByMethod().get("OTHER"));
+		assertNull(statistics.getAverageRequestProcessingTimeByMethod().get("INVITE"));
+	}
+}
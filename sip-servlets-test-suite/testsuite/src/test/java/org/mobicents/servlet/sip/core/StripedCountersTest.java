@@ -0,0 +1,123 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.servlet.sip.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the striped counters don't lose any update when incremented concurrently 
+ * and that the counters of a stripe don't overlap.
+ */
+public class StripedCountersTest extends TestCase {
+
+	private static final int THREADS = 8;
+	private static final int INCREMENTS = 100000;
+
+	public StripedCountersTest(String name) {
+		super(name);
+	}
+
+	public void testConcurrentIncrements() throws Exception {
+		// wider than a cache line so that the counters of a stripe span several lines
+		final StripedCounters counters = new StripedCounters(11);
+		final List<Throwable> failures = new ArrayList<Throwable>();
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < THREADS; i++) {
+			final Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int j = 0; j < INCREMENTS; j++) {
+							counters.increment(j % counters.getWidth());
+							counters.add(0, 2);
+						}
+					} catch (Throwable t) {
+						synchronized (failures) {
+							failures.add(t);
+						}
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(failures.toString(), failures.isEmpty());
+		final long[] sums = counters.sums();
+		for (int index = 0; index < counters.getWidth(); index++) {
+			long expected = (long) THREADS * (INCREMENTS / counters.getWidth() + (index < INCREMENTS % counters.getWidth() ? 1 : 0));
+			if(index == 0) {
+				expected += 2L * THREADS * INCREMENTS;
+			}
+			assertEquals(expected, sums[index]);
+			assertEquals(expected, counters.sum(index));
+		}
+		assertEquals(3L * THREADS * INCREMENTS, counters.total());
+	}
+
+	public void testCountersDontOverlap() {
+		final StripedCounters counters = new StripedCounters(9);
+		for (int index = 0; index < counters.getWidth(); index++) {
+			counters.add(index, 1L << index);
+		}
+		counters.add(3, -1);
+		for (int index = 0; index < counters.getWidth(); index++) {
+			assertEquals((1L << index) - (index == 3 ? 1 : 0), counters.sum(index));
+		}
+		assertEquals((1L << counters.getWidth()) - 2, counters.total());
+	}
+
+	public void testIndexOutOfBounds() {
+		final StripedCounters counters = new StripedCounters(3);
+		final int[] indexes = new int[] {-1, 3};
+		for (int index : indexes) {
+			try {
+				counters.increment(index);
+				fail("the counter " + index + " shouldn't exist");
+			} catch (IndexOutOfBoundsException e) {
+				// expected
+			}
+			try {
+				counters.sum(index);
+				fail("the counter " + index + " shouldn't exist");
+			} catch (IndexOutOfBoundsException e) {
+				// expected
+			}
+		}
+		assertEquals(0, counters.total());
+	}
+
+	public void testWidthMustBePositive() {
+		try {
+			new StripedCounters(0);
+			fail("counters without width shouldn't be created");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
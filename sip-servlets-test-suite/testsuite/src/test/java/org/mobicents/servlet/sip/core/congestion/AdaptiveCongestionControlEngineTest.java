@@ -0,0 +1,148 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.congestion;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.mobicents.javax.servlet.CongestionControlEvent;
+import org.mobicents.servlet.sip.core.ShardedExecutor;
+import org.mobicents.servlet.sip.core.SipApplicationDispatcher;
+
+/**
+ * Checks that the {@link AdaptiveCongestionControlEngine} probes the queues of the dispatcher shards as well as the
+ * one of the asynchronous executor, and counts their threads in the executor saturation.
+ */
+public class AdaptiveCongestionControlEngineTest extends TestCase {
+
+	private ThreadPoolExecutor asynchronousExecutor;
+	private ShardedExecutor shardedExecutor;
+	private ScheduledExecutorService scheduler;
+	private AdaptiveCongestionControlEngine engine;
+	private final CountDownLatch release = new CountDownLatch(1);
+	private volatile Boolean congested;
+
+	public AdaptiveCongestionControlEngineTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		asynchronousExecutor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+		asynchronousExecutor.prestartAllCoreThreads();
+		shardedExecutor = new ShardedExecutor(2, Thread.NORM_PRIORITY);
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		final SipApplicationDispatcher sipApplicationDispatcher = (SipApplicationDispatcher) Proxy.newProxyInstance(
+				getClass().getClassLoader(), new Class[] {SipApplicationDispatcher.class}, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if("getAsynchronousExecutor".equals(method.getName())) {
+							return asynchronousExecutor;
+						}
+						if("getDispatcherShardExecutors".equals(method.getName())) {
+							return shardedExecutor.getShards();
+						}
+						if("hashCode".equals(method.getName())) {
+							return System.identityHashCode(proxy);
+						}
+						if("equals".equals(method.getName())) {
+							return proxy == args[0];
+						}
+						return null;
+					}
+				});
+		// sampled by the test only, with a queue delay overloading the executors as soon as it is above the target
+		engine = new AdaptiveCongestionControlEngine(TimeUnit.HOURS.toMillis(1), 10, 0, 1);
+		engine.start(sipApplicationDispatcher, scheduler, new CongestionControlEngine.Listener() {
+			public void congestionControlStateChanged(boolean congested, CongestionControlEvent congestionControlEvent) {
+				AdaptiveCongestionControlEngineTest.this.congested = congested;
+			}
+		});
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		release.countDown();
+		engine.stop();
+		scheduler.shutdownNow();
+		asynchronousExecutor.shutdownNow();
+		shardedExecutor.shutdownNow();
+		super.tearDown();
+	}
+
+	public void testBlockedShardThrottlesInitialRequests() throws Exception {
+		blockShard(0);
+		engine.sample();
+		// the probe of the blocked shard is still waiting, the asynchronous executor being idle
+		Thread.sleep(50);
+		engine.sample();
+		assertTrue(engine.getAdmissionProbability() < 1);
+		assertEquals(Boolean.TRUE, congested);
+		assertNotNull(engine.getCongestionControlEvent());
+		release.countDown();
+		for (int i = 0; i < 200 && engine.getAdmissionProbability() < 1; i++) {
+			Thread.sleep(5);
+			engine.sample();
+		}
+		assertEquals(1d, engine.getAdmissionProbability());
+		assertEquals(Boolean.FALSE, congested);
+		assertNull(engine.getCongestionControlEvent());
+	}
+
+	public void testSaturationCountsTheShards() throws Exception {
+		engine.sample();
+		assertEquals(0d, engine.getExecutorSaturation());
+		blockShard(0);
+		// queued behind the blocked task
+		shardedExecutor.getShards()[0].execute(new Runnable() {
+			public void run() {
+			}
+		});
+		engine.sample();
+		// one of the two threads of the shards busy, the two threads of the asynchronous executor idle
+		assertEquals(0.25d, engine.getExecutorSaturation());
+		// the queues are sampled before the probes are queued
+		assertEquals(1, engine.getQueuedTasks());
+	}
+
+	private void blockShard(int shard) throws InterruptedException {
+		final CountDownLatch running = new CountDownLatch(1);
+		shardedExecutor.getShards()[shard].execute(new Runnable() {
+			public void run() {
+				running.countDown();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		assertTrue(running.await(10, TimeUnit.SECONDS));
+	}
+}
@@ -0,0 +1,307 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.session;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.mobicents.servlet.sip.annotation.ConcurrencyControlMode;
+import org.mobicents.servlet.sip.core.SipContext;
+import org.mobicents.servlet.sip.core.SipListeners;
+import org.mobicents.servlet.sip.core.SipManager;
+
+/**
+ * Checks that two {@link ReplicatedSipManagerDelegate}s shipping their changes through the same 
+ * {@link LoopbackReplicationTransport} replicate the attributes set, overwritten and removed on their sessions, 
+ * the invalidations, and the changes made outside of a batch once the pending sessions are replicated.
+ * The changes that couldn't be shipped, because of an attribute that can't be serialized or of the transport, must not be lost.
+ */
+public class ReplicatedSipManagerDelegateTest extends TestCase {
+
+	private LoopbackReplicationTransport transport;
+	private ReplicatedSipManagerDelegate firstManager;
+	private MobicentsSipApplicationSession firstSipApplicationSession;
+	private ReplicatedSipManagerDelegate secondManager;
+	private MobicentsSipApplicationSession secondSipApplicationSession;
+
+	public ReplicatedSipManagerDelegateTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		transport = new LoopbackReplicationTransport();
+		firstManager = new ReplicatedSipManagerDelegate();
+		firstSipApplicationSession = setUpManager(firstManager, "first");
+		secondManager = new ReplicatedSipManagerDelegate();
+		secondSipApplicationSession = setUpManager(secondManager, "second");
+	}
+
+	public void testAttributeDeltasAreReplicated() throws Exception {
+		boolean batchStarted = firstManager.startReplicationBatch();
+		assertTrue(batchStarted);
+		// nested batches are part of the outer one
+		assertFalse(firstManager.startReplicationBatch());
+		final SipSessionImpl firstSession = newSipSession(firstManager, firstSipApplicationSession, "callid");
+		firstSession.setAttribute("name", "value");
+		firstSession.setAttribute("overwritten", "old value");
+		firstSession.setAttribute("overwritten", "new value");
+		firstSession.setAttribute("removed", "value");
+		firstSession.removeAttribute("removed");
+		firstManager.endReplicationBatch(false);
+		assertEquals(0, firstManager.getReplications());
+		firstManager.endReplicationBatch(batchStarted);
+
+		// same call id but different application, kept apart
+		batchStarted = secondManager.startReplicationBatch();
+		final SipSessionImpl secondSession = newSipSession(secondManager, secondSipApplicationSession, "callid");
+		secondSession.setAttribute("name", "other value");
+		secondManager.endReplicationBatch(batchStarted);
+
+		Map<String, Object> replica = transport.getReplica("first", firstSession.getKey().toString());
+		assertEquals(2, replica.size());
+		assertEquals("value", replica.get("name"));
+		assertEquals("new value", replica.get("overwritten"));
+		replica = transport.getReplica("second", secondSession.getKey().toString());
+		assertEquals(1, replica.size());
+		assertEquals("other value", replica.get("name"));
+		assertEquals(1, firstManager.getReplications());
+		assertEquals(1, firstManager.getReplicatedSessions());
+		assertEquals(1, secondManager.getReplications());
+
+		// only the removal is shipped
+		final long replicatedBytes = firstManager.getReplicatedBytes();
+		batchStarted = firstManager.startReplicationBatch();
+		firstSession.removeAttribute("name");
+		firstManager.endReplicationBatch(batchStarted);
+		replica = transport.getReplica("first", firstSession.getKey().toString());
+		assertEquals(1, replica.size());
+		assertEquals("new value", replica.get("overwritten"));
+		assertEquals(2, firstManager.getReplications());
+		assertTrue(firstManager.getReplicatedBytes() > replicatedBytes);
+		assertEquals(firstManager.getReplicatedBytes() / 2, firstManager.getAverageReplicatedBytesPerCall());
+		assertTrue(firstManager.getMaxReplicatedBytesPerCall() >= firstManager.getReplicatedBytes() - replicatedBytes);
+		assertEquals(0, firstManager.getFailedReplications());
+
+		// nothing changed, nothing shipped
+		batchStarted = firstManager.startReplicationBatch();
+		firstManager.endReplicationBatch(batchStarted);
+		assertEquals(2, firstManager.getReplications());
+	}
+
+	public void testInvalidatedSessionsAreNoLongerReplicated() throws Exception {
+		boolean batchStarted = firstManager.startReplicationBatch();
+		final SipSessionImpl sipSession = newSipSession(firstManager, firstSipApplicationSession, "callid");
+		sipSession.setAttribute("name", "value");
+		firstManager.endReplicationBatch(batchStarted);
+		assertEquals(1, transport.getNumberOfReplicas("first"));
+
+		batchStarted = firstManager.startReplicationBatch();
+		sipSession.setAttribute("name", "new value");
+		sipSession.invalidate();
+		firstManager.endReplicationBatch(batchStarted);
+		assertNull(transport.getReplica("first", sipSession.getKey().toString()));
+		assertEquals(0, transport.getNumberOfReplicas("first"));
+	}
+
+	public void testChangesOutsideOfABatchAreReplicatedByTheBackgroundProcessing() throws Exception {
+		final SipSessionImpl sipSession = newSipSession(firstManager, firstSipApplicationSession, "callid");
+		sipSession.setAttribute("name", "value");
+		sipSession.setAttribute("other", "value");
+		assertNull(transport.getReplica("first", sipSession.getKey().toString()));
+
+		assertEquals(1, firstManager.replicatePendingSessions());
+		final Map<String, Object> replica = transport.getReplica("first", sipSession.getKey().toString());
+		assertEquals(2, replica.size());
+		assertEquals("value", replica.get("name"));
+		assertEquals(1, firstManager.getReplications());
+		assertEquals(0, firstManager.replicatePendingSessions());
+		assertEquals(1, firstManager.getReplications());
+
+		// shipped with the next batch if it comes first
+		sipSession.removeAttribute("other");
+		final boolean batchStarted = firstManager.startReplicationBatch();
+		firstManager.endReplicationBatch(batchStarted);
+		assertEquals(1, transport.getReplica("first", sipSession.getKey().toString()).size());
+		assertEquals(0, firstManager.replicatePendingSessions());
+	}
+
+	public void testNonSerializableAttributeDoesntHoldBackTheOtherSessions() throws Exception {
+		boolean batchStarted = firstManager.startReplicationBatch();
+		final SipSessionImpl sipSession = newSipSession(firstManager, firstSipApplicationSession, "callid");
+		sipSession.setAttribute("name", "value");
+		final SipSessionImpl brokenSipSession = newSipSession(firstManager, firstSipApplicationSession, "brokencallid");
+		brokenSipSession.setAttribute("kept", "value");
+		brokenSipSession.setAttribute("broken", new Object());
+		final SipSessionImpl otherSipSession = newSipSession(firstManager, firstSipApplicationSession, "othercallid");
+		otherSipSession.setAttribute("name", "other value");
+		firstManager.endReplicationBatch(batchStarted);
+
+		// the sessions written before and after the broken one are shipped
+		assertEquals("value", transport.getReplica("first", sipSession.getKey().toString()).get("name"));
+		assertEquals("other value", transport.getReplica("first", otherSipSession.getKey().toString()).get("name"));
+		assertNull(transport.getReplica("first", brokenSipSession.getKey().toString()));
+		assertEquals(1, firstManager.getReplications());
+		assertEquals(2, firstManager.getReplicatedSessions());
+		assertEquals(1, firstManager.getFailedSessionReplications());
+		assertEquals(0, firstManager.getFailedReplications());
+
+		// the broken session is shipped again on its next change, along with the changes it kept
+		batchStarted = firstManager.startReplicationBatch();
+		brokenSipSession.setAttribute("broken", "fixed");
+		firstManager.endReplicationBatch(batchStarted);
+		final Map<String, Object> replica = transport.getReplica("first", brokenSipSession.getKey().toString());
+		assertEquals(2, replica.size());
+		assertEquals("value", replica.get("kept"));
+		assertEquals("fixed", replica.get("broken"));
+		assertEquals(1, firstManager.getFailedSessionReplications());
+	}
+
+	public void testChangesAreShippedAgainAfterATransportFailure() throws Exception {
+		final boolean[] failing = new boolean[] {true};
+		firstManager.setReplicationTransport(new ReplicationTransport() {
+			public void replicate(String applicationName, byte[] delta) throws IOException {
+				if(failing[0]) {
+					throw new IOException("cluster unreachable");
+				}
+				transport.replicate(applicationName, delta);
+			}
+		});
+		boolean batchStarted = firstManager.startReplicationBatch();
+		final SipSessionImpl sipSession = newSipSession(firstManager, firstSipApplicationSession, "callid");
+		sipSession.setAttribute("name", "value");
+		sipSession.setAttribute("overwritten", "old value");
+		firstManager.endReplicationBatch(batchStarted);
+		assertNull(transport.getReplica("first", sipSession.getKey().toString()));
+		assertEquals(1, firstManager.getFailedReplications());
+		assertEquals(0, firstManager.getReplications());
+
+		// changed again before the retry, the latest value wins
+		sipSession.setAttribute("overwritten", "new value");
+		failing[0] = false;
+		assertEquals(1, firstManager.replicatePendingSessions());
+		final Map<String, Object> replica = transport.getReplica("first", sipSession.getKey().toString());
+		assertEquals(2, replica.size());
+		assertEquals("value", replica.get("name"));
+		assertEquals("new value", replica.get("overwritten"));
+		assertEquals(1, firstManager.getReplications());
+		assertEquals(0, firstManager.replicatePendingSessions());
+	}
+
+	private MobicentsSipApplicationSession setUpManager(ReplicatedSipManagerDelegate manager, final String applicationName) {
+		final SipListeners listeners = fake(SipListeners.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if(List.class.equals(method.getReturnType())) {
+					return Collections.emptyList();
+				}
+				return defaultValue(method);
+			}
+		});
+		final SipManager sipManager = fake(SipManager.class, null);
+		final MobicentsSipSessionsUtil sipSessionsUtil = fake(MobicentsSipSessionsUtil.class, null);
+		final SipContext sipContext = fake(SipContext.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if("getApplicationName".equals(method.getName())) {
+					return applicationName;
+				}
+				if("getConcurrencyControlMode".equals(method.getName())) {
+					return ConcurrencyControlMode.None;
+				}
+				if("getListeners".equals(method.getName())) {
+					return listeners;
+				}
+				if("getSipManager".equals(method.getName())) {
+					return sipManager;
+				}
+				if("getSipSessionsUtil".equals(method.getName())) {
+					return sipSessionsUtil;
+				}
+				return defaultValue(method);
+			}
+		});
+		manager.setContainer(sipContext);
+		manager.setReplicationTransport(transport);
+		final SipApplicationSessionKey sipApplicationSessionKey = new SipApplicationSessionKey("appsessionid", applicationName, null);
+		return fake(MobicentsSipApplicationSession.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if("getSipContext".equals(method.getName())) {
+					return sipContext;
+				}
+				if("getKey".equals(method.getName())) {
+					return sipApplicationSessionKey;
+				}
+				if("getFacade".equals(method.getName())) {
+					return proxy;
+				}
+				return defaultValue(method);
+			}
+		});
+	}
+
+	private static SipSessionImpl newSipSession(ReplicatedSipManagerDelegate manager, 
+			MobicentsSipApplicationSession sipApplicationSession, String callId) {
+		final SipSessionImpl sipSession = (SipSessionImpl) manager.getNewMobicentsSipSession(
+				new SipSessionKey("from", "to", callId, "appsessionid", sipApplicationSession.getKey().getApplicationName()), 
+				null, sipApplicationSession);
+		sipSession.sipApplicationSession = sipApplicationSession;
+		return sipSession;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T fake(Class<T> type, final InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(ReplicatedSipManagerDelegateTest.class.getClassLoader(), new Class[] {type}, 
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if("hashCode".equals(method.getName())) {
+							return System.identityHashCode(proxy);
+						}
+						if("equals".equals(method.getName())) {
+							return proxy == args[0];
+						}
+						if("toString".equals(method.getName())) {
+							return method.getDeclaringClass().getSimpleName() + "@" + System.identityHashCode(proxy);
+						}
+						return handler == null ? defaultValue(method) : handler.invoke(proxy, method, args);
+					}
+				});
+	}
+
+	private static Object defaultValue(Method method) {
+		final Class<?> returnType = method.getReturnType();
+		if(returnType == boolean.class) {
+			return Boolean.FALSE;
+		}
+		if(returnType == int.class) {
+			return Integer.valueOf(0);
+		}
+		if(returnType == long.class) {
+			return Long.valueOf(0);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.session;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the {@link SessionAttributesPager} pages the attributes of the idle sessions out and back in unchanged,
+ * skips the sessions in use, doesn't lose the changes made while paging out, and doesn't notify the passivation
+ * listeners on the thread making a session resident.
+ */
+public class SessionAttributesPagerTest extends TestCase {
+
+	private static final long EVICTION_TIMEOUT = 5000;
+
+	private SessionAttributesPager pager;
+
+	public SessionAttributesPagerTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if(pager != null) {
+			pager.clear();
+		}
+		super.tearDown();
+	}
+
+	public void testAttributesArePagedOutAndBackIn() throws Exception {
+		pager = new SessionAttributesPager(new OffHeapSessionStateStore(), 2);
+		final TestSession[] sessions = new TestSession[5];
+		for (int i = 0; i < sessions.length; i++) {
+			sessions[i] = new TestSession();
+			pager.putAttribute(sessions[i], "index", Integer.valueOf(i));
+			sessions[i].clearAttributesAccessed();
+		}
+		waitForPageOuts(3, sessions);
+		assertTrue(pager.getNumberOfResidentSessions() <= 2);
+		int pagedOut = 0;
+		for (TestSession session : sessions) {
+			if(session.getResidentAttributes() == null) {
+				assertTrue(session.getPagedOutAttributes() >= 0);
+				assertTrue(session.passivations.get() > session.activations.get());
+				pagedOut++;
+			}
+		}
+		assertTrue(pagedOut >= 3);
+		assertEquals(pagedOut, pager.getNumberOfPagedOutSessions());
+		for (int i = 0; i < sessions.length; i++) {
+			assertEquals(Integer.valueOf(i), pager.getAttributes(sessions[i]).get("index"));
+			assertEquals(sessions[i].passivations.get(), sessions[i].activations.get());
+		}
+	}
+
+	public void testSessionsInUseAreNotPagedOut() throws Exception {
+		pager = new SessionAttributesPager(new OffHeapSessionStateStore(), -1);
+		final TestSession session = new TestSession();
+		pager.putAttribute(session, "name", "value");
+		session.pageable = false;
+		assertFalse(pager.swapOut(session));
+		assertNotNull(session.getResidentAttributes());
+		assertEquals(0, session.passivations.get());
+		session.pageable = true;
+		assertTrue(pager.swapOut(session));
+		assertNull(session.getResidentAttributes());
+		pager.removeAttribute(session, "name");
+		assertTrue(pager.getAttributes(session).isEmpty());
+		assertEquals(0, pager.getNumberOfPagedOutSessions());
+	}
+
+	public void testChangesAreNotLostToPageOuts() throws Exception {
+		pager = new SessionAttributesPager(new OffHeapSessionStateStore(), -1);
+		final TestSession session = new TestSession();
+		final int changes = 20000;
+		final AtomicBoolean done = new AtomicBoolean();
+		final Thread swapper = new Thread() {
+			@Override
+			public void run() {
+				while (!done.get()) {
+					// the accesses of the writer would otherwise always cancel the page outs
+					session.clearAttributesAccessed();
+					pager.swapOut(session);
+				}
+			}
+		};
+		swapper.start();
+		try {
+			for (int i = 0; i < changes; i++) {
+				pager.putAttribute(session, "attribute" + i, Integer.valueOf(i));
+				if(i % 2 == 1) {
+					pager.removeAttribute(session, "attribute" + (i - 1));
+				}
+			}
+		} finally {
+			done.set(true);
+			swapper.join();
+		}
+		final Map<String, Object> attributes = pager.getAttributes(session);
+		assertEquals(changes / 2, attributes.size());
+		for (int i = 1; i < changes; i += 2) {
+			assertEquals(Integer.valueOf(i), attributes.get("attribute" + i));
+		}
+	}
+
+	public void testPassivationListenersDontRunOnTheResidentThread() throws Exception {
+		pager = new SessionAttributesPager(new OffHeapSessionStateStore(), 1);
+		final TestSession idle = new TestSession();
+		pager.putAttribute(idle, "name", "value");
+		idle.clearAttributesAccessed();
+		final TestSession active = new TestSession();
+		pager.putAttribute(active, "name", "value");
+		waitForPageOuts(1, idle);
+		assertNull(idle.getResidentAttributes());
+		assertNotNull(idle.passivationThread);
+		assertNotSame(Thread.currentThread(), idle.passivationThread);
+	}
+
+	public void testIdleSessionsAreSwappedOutOldestFirst() throws Exception {
+		pager = new SessionAttributesPager(new OffHeapSessionStateStore(), -1, true);
+		final TestSession[] sessions = new TestSession[4];
+		for (int i = 0; i < sessions.length; i++) {
+			sessions[i] = new TestSession();
+			sessions[i].lastAccessedTime = (i + 1) * 1000L;
+			pager.putAttribute(sessions[i], "index", Integer.valueOf(i));
+		}
+		// accessed again since it was queued
+		sessions[0].lastAccessedTime = 5000L;
+		sessions[1].pageable = false;
+		assertEquals(1, pager.swapOutIdleSessions(3500L));
+		assertNotNull(sessions[0].getResidentAttributes());
+		assertNotNull(sessions[1].getResidentAttributes());
+		assertNull(sessions[2].getResidentAttributes());
+		assertNotNull(sessions[3].getResidentAttributes());
+		// the session in use is looked at again once idle for as long, the others once idle enough
+		sessions[1].pageable = true;
+		assertEquals(1, pager.swapOutIdleSessions(4500L));
+		assertNull(sessions[3].getResidentAttributes());
+		assertNotNull(sessions[0].getResidentAttributes());
+		assertEquals(1, pager.swapOutIdleSessions(5500L));
+		assertNull(sessions[0].getResidentAttributes());
+		assertEquals(1, pager.swapOutIdleSessions(System.currentTimeMillis() + 1));
+		assertNull(sessions[1].getResidentAttributes());
+		assertEquals(4, pager.getNumberOfPagedOutSessions());
+		// swapped back in and queued again
+		assertEquals(Integer.valueOf(2), pager.getAttributes(sessions[2]).get("index"));
+		assertEquals(1, pager.swapOutIdleSessions(5500L));
+		assertNull(sessions[2].getResidentAttributes());
+	}
+
+	// the sessions are paged out by the thread of the pager
+	private static void waitForPageOuts(int pageOuts, TestSession... sessions) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + EVICTION_TIMEOUT;
+		while (pagedOut(sessions) < pageOuts && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(pagedOut(sessions) >= pageOuts);
+	}
+
+	private static int pagedOut(TestSession... sessions) {
+		int pagedOut = 0;
+		for (TestSession session : sessions) {
+			if(session.getResidentAttributes() == null) {
+				pagedOut++;
+			}
+		}
+		return pagedOut;
+	}
+
+	private static final class TestSession implements PageableAttributes {
+		private volatile Map<String, Object> attributes;
+		private volatile long pagedOutAttributes = -1;
+		private volatile boolean attributesAccessed;
+		private volatile boolean pageable = true;
+		private volatile long lastAccessedTime;
+		private volatile Thread passivationThread;
+		private final AtomicInteger passivations = new AtomicInteger();
+		private final AtomicInteger activations = new AtomicInteger();
+
+		public Map<String, Object> getResidentAttributes() {
+			return attributes;
+		}
+
+		public void setResidentAttributes(Map<String, Object> attributes) {
+			this.attributes = attributes;
+		}
+
+		public Map<String, Object> newAttributeMap() {
+			return new ConcurrentHashMap<String, Object>();
+		}
+
+		public long getPagedOutAttributes() {
+			return pagedOutAttributes;
+		}
+
+		public void setPagedOutAttributes(long handle) {
+			this.pagedOutAttributes = handle;
+		}
+
+		public boolean clearAttributesAccessed() {
+			final boolean accessed = attributesAccessed;
+			attributesAccessed = false;
+			return accessed;
+		}
+
+		public long getLastAccessedTime() {
+			return lastAccessedTime;
+		}
+
+		public boolean isValidInternal() {
+			return true;
+		}
+
+		public boolean isAttributesPageable() {
+			return pageable;
+		}
+
+		public ClassLoader getAttributesClassLoader() {
+			return null;
+		}
+
+		public void passivate() {
+			passivationThread = Thread.currentThread();
+			passivations.incrementAndGet();
+		}
+
+		public void activate() {
+			activations.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.session;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.mobicents.servlet.sip.annotation.ConcurrencyControlMode;
+import org.mobicents.servlet.sip.core.SipContext;
+import org.mobicents.servlet.sip.core.SipListeners;
+
+/**
+ * Checks that the sip sessions idle for longer than maxIdleSwap get their attributes swapped out 
+ * by the background processing of the manager, and swapped back in unchanged on their next access.
+ */
+public class SessionIdleSwapTest extends TestCase {
+
+	private SipStandardManagerDelegate manager;
+	private MobicentsSipApplicationSession sipApplicationSession;
+
+	public SessionIdleSwapTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		final SipListeners listeners = fake(SipListeners.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if(List.class.equals(method.getReturnType())) {
+					return Collections.emptyList();
+				}
+				return defaultValue(method);
+			}
+		});
+		final SipContext sipContext = fake(SipContext.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if("getConcurrencyControlMode".equals(method.getName())) {
+					// the sip sessions get a semaphore locked while a request is processed
+					return ConcurrencyControlMode.SipSession;
+				}
+				if("getListeners".equals(method.getName())) {
+					return listeners;
+				}
+				return defaultValue(method);
+			}
+		});
+		final SipApplicationSessionKey sipApplicationSessionKey = new SipApplicationSessionKey("appsessionid", "app", null);
+		sipApplicationSession = fake(MobicentsSipApplicationSession.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if("getSipContext".equals(method.getName())) {
+					return sipContext;
+				}
+				if("getKey".equals(method.getName())) {
+					return sipApplicationSessionKey;
+				}
+				if("getFacade".equals(method.getName())) {
+					return proxy;
+				}
+				return defaultValue(method);
+			}
+		});
+		manager = new SipStandardManagerDelegate();
+		manager.setMaxIdleSwap(0);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if(manager.getSessionAttributesPager() != null) {
+			manager.getSessionAttributesPager().clear();
+		}
+		super.tearDown();
+	}
+
+	public void testIdleSessionsAreSwappedOutToDiskAndBackIn() throws Exception {
+		// only maxIdleSwap is set, so the attributes are swapped out to the local disk
+		assertTrue(manager.getSessionAttributesPager().getStore() instanceof FileSessionStateStore);
+		final SipSessionImpl idle = newSipSession("idle");
+		idle.setAttribute("name", "idle value");
+		final SipSessionImpl active = newSipSession("active");
+		active.setAttribute("name", "active value");
+		Thread.sleep(20);
+		active.access();
+
+		manager.processMaxIdleSwaps();
+
+		assertNull(idle.getResidentAttributes());
+		assertTrue(idle.getPagedOutAttributes() >= 0);
+		assertNotNull(active.getResidentAttributes());
+		assertEquals(1, manager.getNumberOfPagedOutSessionAttributes());
+		assertEquals(1, manager.getSessionAttributesPager().getStore().size());
+
+		assertEquals("idle value", idle.getAttribute("name"));
+		assertNotNull(idle.getResidentAttributes());
+		assertEquals(0, manager.getNumberOfPagedOutSessionAttributes());
+		assertEquals(0, manager.getSessionAttributesPager().getStore().size());
+
+		// both are idle now
+		Thread.sleep(20);
+		manager.processMaxIdleSwaps();
+		assertNull(idle.getResidentAttributes());
+		assertNull(active.getResidentAttributes());
+		assertEquals(2, manager.getNumberOfPagedOutSessionAttributes());
+		assertEquals("idle value", idle.getAttribute("name"));
+		assertEquals("active value", active.getAttribute("name"));
+	}
+
+	public void testSessionsInUseAreNotSwappedOut() throws Exception {
+		final SipSessionImpl sipSession = newSipSession("locked");
+		sipSession.setAttribute("name", "value");
+		Thread.sleep(20);
+		sipSession.getSemaphore().acquire();
+		try {
+			manager.processMaxIdleSwaps();
+			assertNotNull(sipSession.getResidentAttributes());
+		} finally {
+			sipSession.getSemaphore().release();
+		}
+		// looked at again once idle for as long
+		Thread.sleep(20);
+		manager.processMaxIdleSwaps();
+		assertNull(sipSession.getResidentAttributes());
+		assertEquals("value", sipSession.getAttribute("name"));
+	}
+
+	private SipSessionImpl newSipSession(String callId) {
+		final SipSessionImpl sipSession = (SipSessionImpl) manager.getNewMobicentsSipSession(
+				new SipSessionKey("from", "to", callId, "appsessionid", "app"), null, sipApplicationSession);
+		sipSession.sipApplicationSession = sipApplicationSession;
+		return sipSession;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T fake(Class<T> type, final InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(SessionIdleSwapTest.class.getClassLoader(), new Class[] {type}, 
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if("hashCode".equals(method.getName())) {
+							return System.identityHashCode(proxy);
+						}
+						if("equals".equals(method.getName())) {
+							return proxy == args[0];
+						}
+						if("toString".equals(method.getName())) {
+							return method.getDeclaringClass().getSimpleName() + "@" + System.identityHashCode(proxy);
+						}
+						return handler == null ? defaultValue(method) : handler.invoke(proxy, method, args);
+					}
+				});
+	}
+
+	private static Object defaultValue(Method method) {
+		final Class<?> returnType = method.getReturnType();
+		if(returnType == boolean.class) {
+			return Boolean.FALSE;
+		}
+		if(returnType == int.class) {
+			return Integer.valueOf(0);
+		}
+		if(returnType == long.class) {
+			return Long.valueOf(0);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,257 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.session;
+
+import java.text.ParseException;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the sip session and sip application session keys are parsed back from their ids, 
+ * that their equality doesn't depend on the to tag and that their ids only change when asked to on a new to tag.
+ */
+public class SessionKeyParsingTest extends TestCase {
+
+	private static final String FROM_TAG = "1234";
+	private static final String TO_TAG = "5678";
+	private static final String CALL_ID = "f81d4fae-7dec-11d0-a765-00a0c91e6bf6@example.com";
+	private static final String APPLICATION_SESSION_ID = "c9b0f0c5-65b9-4b4e-a5c3-9a5a3d0fe6f1";
+	private static final String APPLICATION_NAME = "app";
+
+	public SessionKeyParsingTest(String name) {
+		super(name);
+	}
+
+	public void testSipSessionKeyRoundTripWithoutToTag() throws ParseException {
+		final SipSessionKey key = new SipSessionKey(FROM_TAG, null, CALL_ID, APPLICATION_SESSION_ID, APPLICATION_NAME);
+		final SipSessionKey parsedKey = SessionManagerUtil.parseSipSessionKey(key.toString());
+		assertEquals(key, parsedKey);
+		assertEquals(key.hashCode(), parsedKey.hashCode());
+		assertEquals(key.toString(), parsedKey.toString());
+		assertNull(parsedKey.getToTag());
+		assertKey(parsedKey, FROM_TAG, CALL_ID, APPLICATION_SESSION_ID, APPLICATION_NAME);
+	}
+
+	public void testSipSessionKeyRoundTripWithToTag() throws ParseException {
+		final SipSessionKey key = new SipSessionKey(FROM_TAG, TO_TAG, CALL_ID, APPLICATION_SESSION_ID, APPLICATION_NAME);
+		final SipSessionKey parsedKey = SessionManagerUtil.parseSipSessionKey(key.toString());
+		assertEquals(key, parsedKey);
+		assertEquals(key.toString(), parsedKey.toString());
+		assertEquals(TO_TAG, parsedKey.getToTag());
+		assertKey(parsedKey, FROM_TAG, CALL_ID, APPLICATION_SESSION_ID, APPLICATION_NAME);
+	}
+
+	public void testSipSessionKeyRoundTripWithRightParenthesisInCallId() throws ParseException {
+		// http://code.google.com/p/sipservlets/issues/detail?id=207
+		final SipSessionKey key = new SipSessionKey(FROM_TAG, TO_TAG, "a)b@example.com", APPLICATION_SESSION_ID, APPLICATION_NAME);
+		final SipSessionKey parsedKey = SessionManagerUtil.parseSipSessionKey(key.toString());
+		assertEquals(key.toString(), parsedKey.toString());
+		assertKey(parsedKey, FROM_TAG, "a)b@example.com", APPLICATION_SESSION_ID, APPLICATION_NAME);
+	}
+
+	public void testEmptyComponentsAreSkipped() throws ParseException {
+		SipSessionKey parsedKey = SessionManagerUtil.parseSipSessionKey("(" + FROM_TAG + ";;" + CALL_ID + ";" + APPLICATION_SESSION_ID + ";" + APPLICATION_NAME + ";)");
+		assertNull(parsedKey.getToTag());
+		assertKey(parsedKey, FROM_TAG, CALL_ID, APPLICATION_SESSION_ID, APPLICATION_NAME);
+		parsedKey = SessionManagerUtil.parseSipSessionKey("(;" + FROM_TAG + ";" + TO_TAG + ";;" + CALL_ID + ";" + APPLICATION_SESSION_ID + ";" + APPLICATION_NAME + ")");
+		assertEquals(TO_TAG, parsedKey.getToTag());
+		assertKey(parsedKey, FROM_TAG, CALL_ID, APPLICATION_SESSION_ID, APPLICATION_NAME);
+	}
+
+	public void testExtraComponents() throws ParseException {
+		// like the former StringTokenizer based parsing, only a key of 5 components has a to tag
+		final SipSessionKey parsedKey = SessionManagerUtil.parseSipSessionKey("(a;b;c;d;e;f)");
+		assertNull(parsedKey.getToTag());
+		assertKey(parsedKey, "a", "b", "c", "d");
+	}
+
+	public void testMalformedSipSessionKeys() {
+		assertMalformedSipSessionKey(FROM_TAG + ";" + CALL_ID + ";" + APPLICATION_SESSION_ID + ";" + APPLICATION_NAME + ")");
+		assertMalformedSipSessionKey("(" + FROM_TAG + ";" + CALL_ID + ";" + APPLICATION_SESSION_ID + ";" + APPLICATION_NAME);
+		assertMalformedSipSessionKey(")" + FROM_TAG + ";" + CALL_ID + ";" + APPLICATION_SESSION_ID + ";" + APPLICATION_NAME + "(");
+		assertMalformedSipSessionKey("(" + FROM_TAG + ";" + CALL_ID + ";" + APPLICATION_NAME + ")");
+		assertMalformedSipSessionKey("(" + FROM_TAG + ";;" + CALL_ID + ";;" + APPLICATION_NAME + ")");
+		assertMalformedSipSessionKey("()");
+		assertMalformedSipSessionKey("");
+	}
+
+	public void testHaSipSessionKeyRoundTrip() throws ParseException {
+		final SipSessionKey key = new SipSessionKey(FROM_TAG, TO_TAG, CALL_ID, APPLICATION_SESSION_ID, APPLICATION_NAME);
+		final SipSessionKey parsedKey = SessionManagerUtil.parseHaSipSessionKey(SessionManagerUtil.getSipSessionHaKey(key), 
+				APPLICATION_SESSION_ID, APPLICATION_NAME);
+		assertEquals(key, parsedKey);
+		assertNull(parsedKey.getToTag());
+		assertKey(parsedKey, FROM_TAG, CALL_ID, APPLICATION_SESSION_ID, APPLICATION_NAME);
+	}
+
+	public void testHaSipSessionKeyComponents() throws ParseException {
+		SipSessionKey parsedKey = SessionManagerUtil.parseHaSipSessionKey(";" + FROM_TAG + ";;" + CALL_ID + ";", APPLICATION_SESSION_ID, APPLICATION_NAME);
+		assertKey(parsedKey, FROM_TAG, CALL_ID, APPLICATION_SESSION_ID, APPLICATION_NAME);
+		parsedKey = SessionManagerUtil.parseHaSipSessionKey(FROM_TAG + ";" + CALL_ID + ";extra", APPLICATION_SESSION_ID, APPLICATION_NAME);
+		assertKey(parsedKey, FROM_TAG, CALL_ID, APPLICATION_SESSION_ID, APPLICATION_NAME);
+		assertMalformedHaSipSessionKey(FROM_TAG);
+		assertMalformedHaSipSessionKey(";" + CALL_ID + ";");
+		assertMalformedHaSipSessionKey("");
+	}
+
+	public void testTokenize() {
+		String[] tokens = new String[5];
+		assertEquals(3, SessionManagerUtil.tokenize("a;bc;;d", 0, 7, tokens));
+		assertEquals("a", tokens[0]);
+		assertEquals("bc", tokens[1]);
+		assertEquals("d", tokens[2]);
+		assertNull(tokens[3]);
+		// only the given range is split
+		tokens = new String[5];
+		assertEquals(2, SessionManagerUtil.tokenize("(a;bc;d)", 1, 5, tokens));
+		assertEquals("a", tokens[0]);
+		assertEquals("bc", tokens[1]);
+		assertNull(tokens[2]);
+		// the components that don't fit are counted
+		tokens = new String[2];
+		assertEquals(4, SessionManagerUtil.tokenize("a;b;c;d", 0, 7, tokens));
+		assertEquals("a", tokens[0]);
+		assertEquals("b", tokens[1]);
+		assertEquals(0, SessionManagerUtil.tokenize(";;", 0, 2, tokens));
+		assertEquals(0, SessionManagerUtil.tokenize("", 0, 0, tokens));
+	}
+
+	public void testSipApplicationSessionKeyRoundTrip() throws ParseException {
+		final SipApplicationSessionKey key = new SipApplicationSessionKey(APPLICATION_SESSION_ID, APPLICATION_NAME, null);
+		final SipApplicationSessionKey parsedKey = SessionManagerUtil.parseSipApplicationSessionKey(key.toString());
+		assertEquals(key, parsedKey);
+		assertEquals(key.hashCode(), parsedKey.hashCode());
+		assertEquals(key.toString(), parsedKey.toString());
+		assertEquals(APPLICATION_SESSION_ID, parsedKey.getId());
+		assertEquals(APPLICATION_NAME, parsedKey.getApplicationName());
+		assertNull(parsedKey.getAppGeneratedKey());
+	}
+
+	public void testSipApplicationSessionKeyRoundTripWithAppGeneratedKey() throws ParseException {
+		final SipApplicationSessionKey key = new SipApplicationSessionKey(null, APPLICATION_NAME, "generated");
+		final SipApplicationSessionKey parsedKey = SessionManagerUtil.parseSipApplicationSessionKey(key.toString());
+		assertEquals(key, parsedKey);
+		assertEquals(key.toString(), parsedKey.toString());
+		assertEquals(key.getId(), parsedKey.getId());
+		assertEquals("generated", parsedKey.getAppGeneratedKey());
+	}
+
+	public void testMalformedSipApplicationSessionKey() {
+		try {
+			SessionManagerUtil.parseSipApplicationSessionKey(APPLICATION_SESSION_ID);
+			fail("a sip application session key without separator shouldn't be parsed");
+		} catch (ParseException e) {
+			// expected
+		}
+	}
+
+	public void testSipSessionKeyEquality() {
+		final SipSessionKey key = new SipSessionKey(FROM_TAG, null, CALL_ID, APPLICATION_SESSION_ID, APPLICATION_NAME);
+		// the to tag isn't part of the equality
+		final SipSessionKey derivedKey = new SipSessionKey(FROM_TAG, TO_TAG, CALL_ID, APPLICATION_SESSION_ID, new String(APPLICATION_NAME));
+		assertEquals(key, derivedKey);
+		assertEquals(derivedKey, key);
+		assertEquals(key.hashCode(), derivedKey.hashCode());
+		assertFalse(key.equals(new SipSessionKey("other", null, CALL_ID, APPLICATION_SESSION_ID, APPLICATION_NAME)));
+		assertFalse(key.equals(new SipSessionKey(FROM_TAG, null, "other", APPLICATION_SESSION_ID, APPLICATION_NAME)));
+		assertFalse(key.equals(new SipSessionKey(FROM_TAG, null, CALL_ID, "other", APPLICATION_NAME)));
+		assertFalse(key.equals(new SipSessionKey(FROM_TAG, null, CALL_ID, APPLICATION_SESSION_ID, "other")));
+		assertFalse(key.equals(new SipSessionKey(null, null, CALL_ID, APPLICATION_SESSION_ID, APPLICATION_NAME)));
+		assertFalse(key.equals(null));
+		assertFalse(key.equals(key.toString()));
+		final SipSessionKey nullKey = new SipSessionKey(null, null, null, null, null);
+		assertEquals(nullKey, new SipSessionKey(null, TO_TAG, null, null, null));
+		assertEquals(nullKey.hashCode(), new SipSessionKey(null, TO_TAG, null, null, null).hashCode());
+		// setting the to tag doesn't change the hash code the key is stored with
+		final int hashCode = key.hashCode();
+		key.setToTag(TO_TAG, true);
+		assertEquals(hashCode, key.hashCode());
+		assertEquals(derivedKey, key);
+	}
+
+	public void testSipApplicationSessionKeyEquality() {
+		final SipApplicationSessionKey key = new SipApplicationSessionKey(APPLICATION_SESSION_ID, APPLICATION_NAME, null);
+		final SipApplicationSessionKey sameKey = new SipApplicationSessionKey(new String(APPLICATION_SESSION_ID), new String(APPLICATION_NAME), null);
+		assertEquals(key, sameKey);
+		assertEquals(key.hashCode(), sameKey.hashCode());
+		assertFalse(key.equals(new SipApplicationSessionKey("other", APPLICATION_NAME, null)));
+		assertFalse(key.equals(new SipApplicationSessionKey(APPLICATION_SESSION_ID, "other", null)));
+		assertFalse(key.equals(null));
+		assertFalse(key.equals(key.toString()));
+		// the keys of an application share its name
+		assertSame(key.getApplicationName(), sameKey.getApplicationName());
+	}
+
+	public void testIdIsKeptWhenToTagIsSetWithoutRecompute() throws ParseException {
+		SipSessionKey key = new SipSessionKey(FROM_TAG, null, CALL_ID, APPLICATION_SESSION_ID, APPLICATION_NAME);
+		final String id = key.toString();
+		key.setToTag(TO_TAG, false);
+		assertEquals(TO_TAG, key.getToTag());
+		assertEquals(id, key.toString());
+		// the id is the one of the previous to tag even if it hadn't been built yet
+		key = new SipSessionKey(FROM_TAG, null, CALL_ID, APPLICATION_SESSION_ID, APPLICATION_NAME);
+		key.setToTag(TO_TAG, false);
+		assertEquals(TO_TAG, key.getToTag());
+		assertEquals(id, key.toString());
+		assertNull(SessionManagerUtil.parseSipSessionKey(key.toString()).getToTag());
+	}
+
+	public void testIdIsRecomputedWhenToTagIsSetWithRecompute() throws ParseException {
+		final SipSessionKey key = new SipSessionKey(FROM_TAG, null, CALL_ID, APPLICATION_SESSION_ID, APPLICATION_NAME);
+		final String id = key.toString();
+		key.setToTag(TO_TAG, true);
+		assertEquals(TO_TAG, key.getToTag());
+		assertFalse(id.equals(key.toString()));
+		assertEquals(new SipSessionKey(FROM_TAG, TO_TAG, CALL_ID, APPLICATION_SESSION_ID, APPLICATION_NAME).toString(), key.toString());
+		final SipSessionKey parsedKey = SessionManagerUtil.parseSipSessionKey(key.toString());
+		assertEquals(TO_TAG, parsedKey.getToTag());
+		assertEquals(key, parsedKey);
+		// a null to tag never changes the id
+		final String derivedId = key.toString();
+		key.setToTag(null, true);
+		assertNull(key.getToTag());
+		assertEquals(derivedId, key.toString());
+	}
+
+	private static void assertKey(SipSessionKey key, String fromTag, String callId, String applicationSessionId, String applicationName) {
+		assertEquals(fromTag, key.getFromTag());
+		assertEquals(callId, key.getCallId());
+		assertEquals(applicationSessionId, key.getApplicationSessionId());
+		assertEquals(applicationName, key.getApplicationName());
+	}
+
+	private static void assertMalformedSipSessionKey(String sipSessionKey) {
+		try {
+			SessionManagerUtil.parseSipSessionKey(sipSessionKey);
+			fail(sipSessionKey + " shouldn't be parsed");
+		} catch (ParseException e) {
+			// expected
+		}
+	}
+
+	private static void assertMalformedHaSipSessionKey(String sipSessionKey) {
+		try {
+			SessionManagerUtil.parseHaSipSessionKey(sipSessionKey, APPLICATION_SESSION_ID, APPLICATION_NAME);
+			fail(sipSessionKey + " shouldn't be parsed");
+		} catch (ParseException e) {
+			// expected
+		}
+	}
+}
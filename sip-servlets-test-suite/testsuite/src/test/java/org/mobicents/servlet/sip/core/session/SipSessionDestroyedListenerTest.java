@@ -0,0 +1,201 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.session;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.sip.SipSession.State;
+import javax.servlet.sip.SipSessionEvent;
+import javax.servlet.sip.SipSessionListener;
+
+import junit.framework.TestCase;
+
+import org.mobicents.servlet.sip.annotation.ConcurrencyControlMode;
+import org.mobicents.servlet.sip.core.SipContext;
+import org.mobicents.servlet.sip.core.SipListeners;
+import org.mobicents.servlet.sip.core.SipManager;
+
+/**
+ * Checks that the sip session listeners are notified of the destruction of a sip session 
+ * before the sip session is torn down, so that they still see its state, its application session 
+ * and the updated statistics of the manager.
+ */
+public class SipSessionDestroyedListenerTest extends TestCase {
+
+	private final AtomicInteger expiredSipSessions = new AtomicInteger();
+	private final AtomicInteger removedSipSessions = new AtomicInteger();
+	private final List<String> observations = Collections.synchronizedList(new ArrayList<String>());
+	private MobicentsSipApplicationSession sipApplicationSession;
+
+	public SipSessionDestroyedListenerTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		final SipSessionListener listener = new SipSessionListener() {
+			public void sessionCreated(SipSessionEvent event) {
+			}
+
+			public void sessionDestroyed(SipSessionEvent event) {
+				observations.add("thread=" + Thread.currentThread().getName());
+				observations.add("valid=" + event.getSession().isValid());
+				observations.add("state=" + event.getSession().getState());
+				observations.add("applicationSession=" + (event.getSession().getApplicationSession() != null));
+				observations.add("attribute=" + event.getSession().getAttribute("name"));
+				observations.add("expired=" + expiredSipSessions.get());
+				observations.add("removed=" + removedSipSessions.get());
+			}
+
+			public void sessionReadyToInvalidate(SipSessionEvent event) {
+			}
+		};
+		final SipListeners listeners = fake(SipListeners.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if("getSipSessionListeners".equals(method.getName())) {
+					return Collections.singletonList(listener);
+				}
+				if(List.class.equals(method.getReturnType())) {
+					return Collections.emptyList();
+				}
+				return defaultValue(method);
+			}
+		});
+		final SipManager manager = fake(SipManager.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if("sipSessionExpired".equals(method.getName())) {
+					expiredSipSessions.incrementAndGet();
+				} else if("removeSipSession".equals(method.getName())) {
+					removedSipSessions.incrementAndGet();
+				}
+				return defaultValue(method);
+			}
+		});
+		final MobicentsSipSessionsUtil sipSessionsUtil = fake(MobicentsSipSessionsUtil.class, null);
+		final SipContext sipContext = fake(SipContext.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if("getConcurrencyControlMode".equals(method.getName())) {
+					return ConcurrencyControlMode.None;
+				}
+				if("getListeners".equals(method.getName())) {
+					return listeners;
+				}
+				if("getSipManager".equals(method.getName())) {
+					return manager;
+				}
+				if("getSipSessionsUtil".equals(method.getName())) {
+					return sipSessionsUtil;
+				}
+				return defaultValue(method);
+			}
+		});
+		final SipApplicationSessionKey sipApplicationSessionKey = new SipApplicationSessionKey("appsessionid", "app", null);
+		sipApplicationSession = fake(MobicentsSipApplicationSession.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if("getSipContext".equals(method.getName())) {
+					return sipContext;
+				}
+				if("getKey".equals(method.getName())) {
+					return sipApplicationSessionKey;
+				}
+				if("getFacade".equals(method.getName())) {
+					return proxy;
+				}
+				return defaultValue(method);
+			}
+		});
+	}
+
+	public void testListenersSeeTheSessionBeforeItsTeardown() throws Exception {
+		final SipSessionImpl sipSession = new SipSessionImpl(
+				new SipSessionKey("from", "to", "callid", "appsessionid", "app"), null, sipApplicationSession);
+		sipSession.sipApplicationSession = sipApplicationSession;
+		sipSession.setAttribute("name", "value");
+
+		sipSession.invalidate();
+
+		assertEquals(7, observations.size());
+		assertEquals("thread=" + Thread.currentThread().getName(), observations.get(0));
+		assertEquals("valid=true", observations.get(1));
+		assertEquals("state=" + State.INITIAL, observations.get(2));
+		assertEquals("applicationSession=true", observations.get(3));
+		// the attributes are unbound before the listeners are notified
+		assertEquals("attribute=null", observations.get(4));
+		assertEquals("expired=1", observations.get(5));
+		assertEquals("removed=1", observations.get(6));
+		assertFalse(sipSession.isValid());
+		assertFalse(sipSession.isValidInternal());
+	}
+
+	public void testListenersAreNotifiedOncePerSession() throws Exception {
+		final int sessions = 10;
+		for (int i = 0; i < sessions; i++) {
+			final SipSessionImpl sipSession = new SipSessionImpl(
+					new SipSessionKey("from" + i, "to" + i, "callid", "appsessionid", "app"), null, sipApplicationSession);
+			sipSession.sipApplicationSession = sipApplicationSession;
+			sipSession.invalidate();
+			// each notification happens during the invalidation of its own session
+			assertEquals(7 * (i + 1), observations.size());
+			assertEquals("expired=" + (i + 1), observations.get(7 * i + 5));
+		}
+		assertEquals(sessions, expiredSipSessions.get());
+		assertEquals(sessions, removedSipSessions.get());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T fake(Class<T> type, final InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(SipSessionDestroyedListenerTest.class.getClassLoader(), new Class[] {type}, 
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if("hashCode".equals(method.getName())) {
+							return System.identityHashCode(proxy);
+						}
+						if("equals".equals(method.getName())) {
+							return proxy == args[0];
+						}
+						if("toString".equals(method.getName())) {
+							return method.getDeclaringClass().getSimpleName() + "@" + System.identityHashCode(proxy);
+						}
+						return handler == null ? defaultValue(method) : handler.invoke(proxy, method, args);
+					}
+				});
+	}
+
+	private static Object defaultValue(Method method) {
+		final Class<?> returnType = method.getReturnType();
+		if(returnType == boolean.class) {
+			return Boolean.FALSE;
+		}
+		if(returnType == int.class) {
+			return Integer.valueOf(0);
+		}
+		if(returnType == long.class) {
+			return Long.valueOf(0);
+		}
+		return null;
+	}
+}
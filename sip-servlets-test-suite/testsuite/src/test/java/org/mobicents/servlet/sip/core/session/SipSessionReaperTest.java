@@ -0,0 +1,344 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.core.session;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.sip.SipSessionEvent;
+import javax.servlet.sip.SipSessionListener;
+
+import junit.framework.TestCase;
+
+import org.mobicents.servlet.sip.annotation.ConcurrencyControlMode;
+import org.mobicents.servlet.sip.core.SipApplicationDispatcher;
+import org.mobicents.servlet.sip.core.SipContext;
+import org.mobicents.servlet.sip.core.SipListeners;
+import org.mobicents.servlet.sip.core.SipManager;
+
+/**
+ * Checks that the sip session reaper, run on the background processing of the manager, cleans up all the idle sip sessions
+ * ready to invalidate when there are more of them than a single slice, notifying the listeners once per session and
+ * keeping the counters of the manager consistent, while leaving the other sip sessions alone.
+ * In the serial concurrency control modes the sessions are reaped from the mailbox of their sip application session.
+ */
+public class SipSessionReaperTest extends TestCase {
+
+	private static final int SLICE_SIZE = 10;
+	// idle for longer than the minimum idle time of the reaper
+	private static final long IDLE_TIME = 5000;
+
+	private final AtomicInteger readyToInvalidateNotifications = new AtomicInteger();
+	private final AtomicInteger destroyedNotifications = new AtomicInteger();
+	// the number of times each sip application session has been entered by the reaper
+	private final Map<MobicentsSipApplicationSession, AtomicInteger> enteredSipApplicationSessions = 
+		new ConcurrentHashMap<MobicentsSipApplicationSession, AtomicInteger>();
+	private final AtomicInteger exitedSipApplicationSessions = new AtomicInteger();
+	// the tasks queued on the mailboxes of the sip application sessions, and the keys of these mailboxes
+	private final List<Runnable> mailboxTasks = new CopyOnWriteArrayList<Runnable>();
+	private final List<MobicentsSipApplicationSessionKey> mailboxKeys = new CopyOnWriteArrayList<MobicentsSipApplicationSessionKey>();
+	private volatile ConcurrencyControlMode concurrencyControlMode = ConcurrencyControlMode.None;
+	private SipStandardManagerDelegate manager;
+	private MobicentsSipApplicationSession[] sipApplicationSessions;
+
+	public SipSessionReaperTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		manager = new SipStandardManagerDelegate();
+		final SipSessionListener listener = new SipSessionListener() {
+			public void sessionCreated(SipSessionEvent event) {
+			}
+
+			public void sessionDestroyed(SipSessionEvent event) {
+				destroyedNotifications.incrementAndGet();
+			}
+
+			public void sessionReadyToInvalidate(SipSessionEvent event) {
+				readyToInvalidateNotifications.incrementAndGet();
+			}
+		};
+		final SipListeners listeners = fake(SipListeners.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if("getSipSessionListeners".equals(method.getName())) {
+					return Collections.singletonList(listener);
+				}
+				if(List.class.equals(method.getReturnType())) {
+					return Collections.emptyList();
+				}
+				return defaultValue(method);
+			}
+		});
+		// the sip sessions report their invalidation to the manager under test
+		final SipManager sipManager = fake(SipManager.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if("removeSipSession".equals(method.getName())) {
+					return manager.removeSipSession((MobicentsSipSessionKey) args[0]);
+				}
+				if("sipSessionExpired".equals(method.getName())) {
+					manager.sipSessionExpired((Integer) args[0]);
+				}
+				return defaultValue(method);
+			}
+		});
+		final MobicentsSipSessionsUtil sipSessionsUtil = fake(MobicentsSipSessionsUtil.class, null);
+		final Executor mailbox = new Executor() {
+			public void execute(Runnable task) {
+				mailboxTasks.add(task);
+			}
+		};
+		final SipApplicationDispatcher sipApplicationDispatcher = fake(SipApplicationDispatcher.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if("getConcurrencyModelExecutor".equals(method.getName())) {
+					assertNull(args[2]);
+					mailboxKeys.add((MobicentsSipApplicationSessionKey) args[1]);
+					return mailbox;
+				}
+				return defaultValue(method);
+			}
+		});
+		final SipContext sipContext = fake(SipContext.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if("getConcurrencyControlMode".equals(method.getName())) {
+					return concurrencyControlMode;
+				}
+				if("getSipApplicationDispatcher".equals(method.getName())) {
+					return sipApplicationDispatcher;
+				}
+				if("getListeners".equals(method.getName())) {
+					return listeners;
+				}
+				if("getSipManager".equals(method.getName())) {
+					return sipManager;
+				}
+				if("getSipSessionsUtil".equals(method.getName())) {
+					return sipSessionsUtil;
+				}
+				if("enterSipApp".equals(method.getName())) {
+					AtomicInteger entered = enteredSipApplicationSessions.get(args[0]);
+					if(entered == null) {
+						entered = new AtomicInteger();
+						enteredSipApplicationSessions.put((MobicentsSipApplicationSession) args[0], entered);
+					}
+					entered.incrementAndGet();
+				}
+				if("exitSipApp".equals(method.getName())) {
+					exitedSipApplicationSessions.incrementAndGet();
+				}
+				return defaultValue(method);
+			}
+		});
+		manager.setContainer(sipContext);
+		sipApplicationSessions = new MobicentsSipApplicationSession[2];
+		for (int i = 0; i < sipApplicationSessions.length; i++) {
+			final SipApplicationSessionKey sipApplicationSessionKey = new SipApplicationSessionKey("appsessionid" + i, "app", null);
+			sipApplicationSessions[i] = fake(MobicentsSipApplicationSession.class, new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					if("getSipContext".equals(method.getName())) {
+						return sipContext;
+					}
+					if("getKey".equals(method.getName())) {
+						return sipApplicationSessionKey;
+					}
+					if("getFacade".equals(method.getName())) {
+						return proxy;
+					}
+					return defaultValue(method);
+				}
+			});
+		}
+	}
+
+	public void testReaperDisabledByDefault() throws Exception {
+		final SipSessionImpl sipSession = newSipSession(0, true, true);
+		manager.reapSipSessions();
+		assertTrue(sipSession.isValidInternal());
+		assertEquals(0, manager.getReapedSipSessions());
+		assertEquals(1, manager.getActiveSipSessions());
+	}
+
+	public void testSessionsOfSeveralSlicesAreReaped() throws Exception {
+		manager.setSipSessionReaperSliceSize(SLICE_SIZE);
+		// two slices and a half
+		final List<SipSessionImpl> sipSessions = new ArrayList<SipSessionImpl>();
+		for (int i = 0; i < SLICE_SIZE * 5 / 2; i++) {
+			sipSessions.add(newSipSession(i, true, true));
+		}
+		int slices = 0;
+		// each run only looks at a slice, resuming where the previous one stopped
+		for (int reaped = SLICE_SIZE; reaped < sipSessions.size(); reaped += SLICE_SIZE) {
+			manager.reapSipSessions();
+			slices++;
+			assertCounters(reaped, sipSessions.size() - reaped);
+		}
+		manager.reapSipSessions();
+		slices++;
+		assertCounters(sipSessions.size(), 0);
+		for (SipSessionImpl sipSession : sipSessions) {
+			assertFalse(sipSession.isValidInternal());
+		}
+		// each sip application session is entered at most once per slice, and always exited
+		int entered = 0;
+		for (AtomicInteger enteredSipApplicationSession : enteredSipApplicationSessions.values()) {
+			assertTrue(enteredSipApplicationSession.get() <= slices);
+			entered += enteredSipApplicationSession.get();
+		}
+		assertTrue(entered >= slices);
+		assertEquals(entered, exitedSipApplicationSessions.get());
+		assertTrue(manager.getSipSessionReaperScanLag() >= 0);
+		// a new pass finds nothing left to reap
+		manager.reapSipSessions();
+		assertCounters(sipSessions.size(), 0);
+	}
+
+	public void testSessionsInUseOrRecentlyUsedAreKept() throws Exception {
+		manager.setSipSessionReaperSliceSize(SLICE_SIZE);
+		final List<SipSessionImpl> reapable = new ArrayList<SipSessionImpl>();
+		final List<SipSessionImpl> kept = new ArrayList<SipSessionImpl>();
+		for (int i = 0; i < SLICE_SIZE * 3; i++) {
+			switch (i % 3) {
+			case 0:
+				kept.add(newSipSession(i, false, true));
+				break;
+			case 1:
+				kept.add(newSipSession(i, true, false));
+				break;
+			default:
+				reapable.add(newSipSession(i, true, true));
+				break;
+			}
+		}
+		// a full pass and the start of the next one
+		for (int i = 0; i < 4; i++) {
+			manager.reapSipSessions();
+		}
+		assertCounters(reapable.size(), kept.size());
+		for (SipSessionImpl sipSession : reapable) {
+			assertFalse(sipSession.isValidInternal());
+			assertNull(manager.getSipSession(sipSession.getKey(), false, null, null));
+		}
+		for (SipSessionImpl sipSession : kept) {
+			assertTrue(sipSession.isValidInternal());
+			assertSame(sipSession, manager.getSipSession(sipSession.getKey(), false, null, null));
+		}
+	}
+
+	public void testSessionsAreReapedOnTheMailboxInSipSessionSerialMode() throws Exception {
+		checkSessionsAreReapedOnTheMailbox(ConcurrencyControlMode.SipSessionSerial);
+	}
+
+	public void testSessionsAreReapedOnTheMailboxInSipApplicationSessionSerialMode() throws Exception {
+		checkSessionsAreReapedOnTheMailbox(ConcurrencyControlMode.SipApplicationSessionSerial);
+	}
+
+	private void checkSessionsAreReapedOnTheMailbox(ConcurrencyControlMode concurrencyControlMode) throws Exception {
+		this.concurrencyControlMode = concurrencyControlMode;
+		manager.setSipSessionReaperSliceSize(SLICE_SIZE);
+		final List<SipSessionImpl> sipSessions = new ArrayList<SipSessionImpl>();
+		for (int i = 0; i < SLICE_SIZE; i++) {
+			sipSessions.add(newSipSession(i, true, true));
+		}
+		manager.reapSipSessions();
+		// nothing is reaped until the mailboxes run the batches, one per sip application session
+		assertCounters(0, sipSessions.size());
+		assertEquals(sipApplicationSessions.length, mailboxTasks.size());
+		for (MobicentsSipApplicationSession sipApplicationSession : sipApplicationSessions) {
+			assertTrue(mailboxKeys.contains(sipApplicationSession.getKey()));
+		}
+		for (Runnable mailboxTask : mailboxTasks) {
+			mailboxTask.run();
+		}
+		assertCounters(sipSessions.size(), 0);
+		for (SipSessionImpl sipSession : sipSessions) {
+			assertFalse(sipSession.isValidInternal());
+		}
+		int entered = 0;
+		for (AtomicInteger enteredSipApplicationSession : enteredSipApplicationSessions.values()) {
+			entered += enteredSipApplicationSession.get();
+		}
+		assertEquals(entered, exitedSipApplicationSessions.get());
+	}
+
+	private void assertCounters(int reaped, int active) {
+		assertEquals(reaped, manager.getReapedSipSessions());
+		assertEquals(reaped, manager.getExpiredSipSessions());
+		assertEquals(reaped, readyToInvalidateNotifications.get());
+		assertEquals(reaped, destroyedNotifications.get());
+		assertEquals(active, manager.getActiveSipSessions());
+	}
+
+	private SipSessionImpl newSipSession(int index, boolean readyToInvalidate, boolean idle) {
+		final MobicentsSipApplicationSession sipApplicationSession = sipApplicationSessions[index % sipApplicationSessions.length];
+		final SipSessionImpl sipSession = (SipSessionImpl) manager.createSipSession(
+				new SipSessionKey("from" + index, "to" + index, "callid" + index, sipApplicationSession.getKey().getId(), "app"), 
+				true, null, sipApplicationSession);
+		sipSession.sipApplicationSession = sipApplicationSession;
+		sipSession.setReadyToInvalidate(readyToInvalidate);
+		if(idle) {
+			sipSession.lastAccessedTime = System.currentTimeMillis() - IDLE_TIME;
+		}
+		return sipSession;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T fake(Class<T> type, final InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(SipSessionReaperTest.class.getClassLoader(), new Class[] {type}, 
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if("hashCode".equals(method.getName())) {
+							return System.identityHashCode(proxy);
+						}
+						if("equals".equals(method.getName())) {
+							return proxy == args[0];
+						}
+						if("toString".equals(method.getName())) {
+							return method.getDeclaringClass().getSimpleName() + "@" + System.identityHashCode(proxy);
+						}
+						return handler == null ? defaultValue(method) : handler.invoke(proxy, method, args);
+					}
+				});
+	}
+
+	private static Object defaultValue(Method method) {
+		final Class<?> returnType = method.getReturnType();
+		if(returnType == boolean.class) {
+			return Boolean.FALSE;
+		}
+		if(returnType == int.class) {
+			return Integer.valueOf(0);
+		}
+		if(returnType == long.class) {
+			return Long.valueOf(0);
+		}
+		return null;
+	}
+}
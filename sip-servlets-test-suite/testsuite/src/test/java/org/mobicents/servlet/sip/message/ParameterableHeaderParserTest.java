@@ -0,0 +1,287 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.message;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.servlet.sip.Parameterable;
+import javax.servlet.sip.ServletParseException;
+import javax.sip.header.ExtensionHeader;
+import javax.sip.message.Request;
+
+import junit.framework.TestCase;
+
+import org.mobicents.servlet.sip.JainSipUtils;
+
+/**
+ * Checks that the single pass parser of the parameterable headers gives the same value and parameters
+ * as the regular expression based parser it replaced, and that the extension headers parsed once per message 
+ * are parsed again when their value changes.
+ */
+public class ParameterableHeaderParserTest extends TestCase {
+
+	private static final String HEADER_NAME = "X-Parameterable";
+	private static final String[] HEADERS = new String[] {
+		"<sip:1.2.3.4:5061>;expires=500;+sip.instance=\"<urn:uuid:00000000-0000-0000-0000-000000000000>\";gruu=\"sip:100@ocs14.com;opaque=user:epid:xxxxxxxxxxxxxxxxxxxxxxxx;gruu\"",
+		"\"Alice Liddell\" <sip:alice@example.com;transport=tcp>;tag=1928301774;lr",
+		"\"Bob\"<tel:+15551234567>;privacy=full",
+		"<sip:proxy.example.com;lr>",
+		"<sip:alice@example.com>;;flag;",
+		"<sip:alice@example.com> ;expires=3600",
+		"sip:alice@example.com;expires=3600;q=0.7",
+		"application/sdp;charset=UTF-8",
+		"session;handling=required",
+		"3600;refresher=uac",
+		"presence;id=1;;",
+		"Digest realm=\"example.com\",nonce=\"abc\",algorithm=MD5",
+		"<sip:icscf.ims.example.com;lr>;orig;odi=\"abc;def\"",
+		"\"Display;Name\" <sip:user@example.com>;tag=abc",
+		"<http://www.example.com/alice/photo.jpg>;purpose=icon",
+		"text/html",
+		""
+	};
+	private static final char[] ALPHABET = new char[] {'a', 'b', '1', ' ', '"', '<', '>', ';', '=', ',', ':', '@'};
+
+	private SipFactoryImpl sipFactory;
+
+	public ParameterableHeaderParserTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		sipFactory = new SipFactoryImpl();
+		sipFactory.initialize("gov.nist", true);
+		// as done for the additional parameterable headers of the service
+		JainSipUtils.PARAMETERABLE_HEADER_NAMES.add(HEADER_NAME);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		JainSipUtils.PARAMETERABLE_HEADER_NAMES.remove(HEADER_NAME);
+		super.tearDown();
+	}
+
+	public void testSameResultAsThePreviousParser() throws Exception {
+		for (String header : HEADERS) {
+			assertSameResult(header);
+		}
+		final Random random = new Random(7);
+		for (int i = 0; i < 200000; i++) {
+			final char[] header = new char[random.nextInt(24)];
+			for (int j = 0; j < header.length; j++) {
+				header[j] = ALPHABET[random.nextInt(ALPHABET.length)];
+			}
+			assertSameResult(new String(header).trim());
+		}
+	}
+
+	public void testChangingAnExtensionHeaderInvalidatesItsParsedValue() throws Exception {
+		final SipServletRequestImpl request = newRequest("<sip:one@example.com>;a=1;b");
+		final Parameterable parameterable = request.getParameterableHeader(HEADER_NAME);
+		assertEquals("<sip:one@example.com>", parameterable.getValue());
+		assertEquals("1", parameterable.getParameter("a"));
+		assertEquals("", parameterable.getParameter("b"));
+		// a new parameterable with its own parameters on each call
+		final Parameterable sameParameterable = request.getParameterableHeader(HEADER_NAME);
+		assertNotSame(parameterable, sameParameterable);
+		assertEquals(parameterable.getValue(), sameParameterable.getValue());
+		assertEquals("1", sameParameterable.getParameter("a"));
+
+		// the header is changed in place
+		((ExtensionHeader) request.getMessage().getHeader(HEADER_NAME)).setValue("<sip:two@example.com>;c=3");
+		Parameterable changedParameterable = request.getParameterableHeader(HEADER_NAME);
+		assertEquals("<sip:two@example.com>", changedParameterable.getValue());
+		assertEquals("3", changedParameterable.getParameter("c"));
+		assertNull(changedParameterable.getParameter("a"));
+
+		// the header is replaced
+		request.setHeader(HEADER_NAME, "<sip:three@example.com>;d=4");
+		changedParameterable = request.getParameterableHeaders(HEADER_NAME).next();
+		assertEquals("<sip:three@example.com>", changedParameterable.getValue());
+		assertEquals("4", changedParameterable.getParameter("d"));
+		assertNull(changedParameterable.getParameter("c"));
+	}
+
+	private SipServletRequestImpl newRequest(String headerValue) throws Exception {
+		final Request request = SipFactoryImpl.messageFactory.createRequest(
+				"INVITE sip:bob@example.com SIP/2.0\r\n" +
+				"Via: SIP/2.0/UDP 127.0.0.1:5070;branch=z9hG4bK1\r\n" +
+				"Max-Forwards: 70\r\n" +
+				"From: <sip:alice@example.com>;tag=1\r\n" +
+				"To: <sip:bob@example.com>\r\n" +
+				"Call-ID: callid\r\n" +
+				"CSeq: 1 INVITE\r\n" +
+				HEADER_NAME + ": " + headerValue + "\r\n" +
+				"Content-Length: 0\r\n\r\n");
+		return new SipServletRequestImpl(request, sipFactory, null, null, null, false);
+	}
+
+	private static void assertSameResult(String header) {
+		Object[] expected = null;
+		Exception expectedException = null;
+		try {
+			expected = parseWithPreviousParser(header);
+		} catch (Exception e) {
+			expectedException = e;
+		}
+		SipServletMessageImpl.ParsedParameterable parsed = null;
+		try {
+			parsed = SipServletMessageImpl.parseParameterable(header, HEADER_NAME);
+		} catch (Exception e) {
+			// the malformed headers are still rejected, only the exception may differ
+			assertNotNull("[" + header + "] failed with " + e + " but was accepted by the previous parser", expectedException);
+			return;
+		}
+		assertNull("[" + header + "] was rejected by the previous parser", expectedException);
+		assertEquals("[" + header + "]", expected[0], parsed.getValue());
+		assertEquals("[" + header + "]", expected[1], parsed.getParameters());
+	}
+
+	/*
+	 * The parser replaced by the single pass one, as it was, without the creation of the parameterable
+	 */
+	private static Object[] parseWithPreviousParser(String stringHeader) throws ServletParseException {
+		Map<String, String> paramMap = new HashMap<String, String>();
+		String value = stringHeader;
+		String displayName = null;
+		if(stringHeader.trim().indexOf("\"") == 0) {
+			String displayNameString = stringHeader.substring(1);
+			int nextIndexOfDoubleQuote = displayNameString.indexOf("\"");
+			displayName = stringHeader.substring(0, nextIndexOfDoubleQuote + 2);
+			stringHeader = stringHeader.substring(nextIndexOfDoubleQuote + 2).trim();
+		}
+
+		boolean hasLaRaQuotes = false;
+		if(stringHeader.trim().indexOf("<") == 0) {
+			stringHeader = stringHeader.substring(1);
+			int indexOfBracket = stringHeader.indexOf(">");
+			if(indexOfBracket != -1) {
+				hasLaRaQuotes = true;
+			}
+			value = stringHeader.substring(0, indexOfBracket);
+			String restOfHeader = stringHeader.substring(indexOfBracket+1) ;
+
+			if (restOfHeader.length() > 1 && restOfHeader.contains(";")) {
+				restOfHeader = restOfHeader.replaceFirst(";", "");
+				String[] split = restOfHeader.split(";");
+
+				ArrayList<StringBuffer> resplitListWithQuotes = new ArrayList<StringBuffer>();
+				int resplitIndex = 0;
+				boolean addToPrevious = false;
+				for(int q=0; q<split.length; q++) {
+					int countQuotes = SipServletMessageImpl.countChars(split[q], '\"');
+					if(countQuotes%2!=0) {
+						if(addToPrevious) {
+							resplitListWithQuotes.get(resplitIndex-1).append(";" + split[q]);
+							addToPrevious = false;
+						} else {
+							resplitListWithQuotes.add(new StringBuffer(split[q]));
+							resplitIndex++;
+							addToPrevious = true;
+						}
+					} else {
+						if(addToPrevious) {
+							resplitListWithQuotes.get(resplitIndex-1).append(";" + split[q]);
+						} else {
+							resplitListWithQuotes.add(new StringBuffer(split[q]));
+							resplitIndex++;
+						}
+					}
+				}
+
+				if(addToPrevious) {
+					throw new RuntimeException("Unclosed quote sign in this string " + stringHeader);
+				}
+
+				String[] newSplit = new String[resplitListWithQuotes.size()];
+				for(int q=0; q<resplitListWithQuotes.size(); q++) {
+					newSplit[q] = resplitListWithQuotes.get(q).toString();
+				}
+				split = newSplit;
+
+				for (String pair : split) {
+					int indexOfEq = pair.indexOf('=');
+					String key = null;
+					String val = null;
+					if(indexOfEq<0) {
+						key = pair;
+						val = "";
+					} else {
+						key = pair.substring(0, indexOfEq);
+						if(indexOfEq+1>pair.length()) {
+							val = "";
+						} else {
+							val = pair.substring(indexOfEq+1);
+						}
+					}
+					paramMap.put(key, val);
+				}
+			}
+		} else {
+			if (value.length() > 1 && value.contains(";")) {
+				String parameters = value.substring(value.indexOf(";") + 1);
+				value = value.substring(0, value.indexOf(";"));
+				String[] split = parameters.split(";");
+
+				for (String pair : split) {
+					String[] vals = pair.split("=");
+					if (vals.length > 2) {
+						throw new ServletParseException(
+								"Wrong parameter format, expected value or name["
+										+ pair + "]");
+					}
+					paramMap.put(vals[0], vals.length == 2 ? vals[1] : "");
+				}
+			} else if (value.length() > 1 && value.contains(",")) {
+				String[] split = value.split(",");
+
+				for (String pair : split) {
+					String[] vals = pair.split("=");
+					if (vals.length > 2) {
+						throw new ServletParseException(
+								"Wrong parameter format, expected value or name["
+										+ pair + "]");
+					}
+					String paramValue = vals[1];
+					if(vals.length < 2) {
+						paramValue ="";
+					} else if(vals.length == 2 && vals[1].indexOf('\"') == 0 && vals[1].lastIndexOf('\"') == vals[1].length()-1) {
+						paramValue  = vals[1].substring(1, vals[1].length()-1);
+					}
+					paramMap.put(vals[0], paramValue);
+				}
+			}
+		}
+
+		if(hasLaRaQuotes) {
+			value = "<" + value + ">";
+		}
+
+		if(displayName != null) {
+			value = displayName.concat(value);
+		}
+		return new Object[] {value, paramMap};
+	}
+}
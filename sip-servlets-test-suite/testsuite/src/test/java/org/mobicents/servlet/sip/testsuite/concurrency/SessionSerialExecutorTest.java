@@ -0,0 +1,178 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.testsuite.concurrency;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.mobicents.servlet.sip.core.SessionSerialExecutor;
+
+/**
+ * Checks that the {@link SessionSerialExecutor} used by the SipSessionSerial and SipApplicationSessionSerial
+ * concurrency control modes runs the tasks of a session one at a time and in submission order,
+ * while the tasks of different sessions run concurrently.
+ */
+public class SessionSerialExecutorTest extends TestCase {
+
+	private static final int THREADS = 8;
+	private static final int SESSIONS = 50;
+	private static final int TASKS_PER_SESSION = 2000;
+
+	private ExecutorService executor;
+
+	public SessionSerialExecutorTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		executor = Executors.newFixedThreadPool(THREADS);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		executor.shutdownNow();
+		super.tearDown();
+	}
+
+	public void testTasksOfASessionRunInOrderOneAtATime() throws Exception {
+		final SessionSerialExecutor sessionSerialExecutor = new SessionSerialExecutor(executor, 4);
+		final List<List<Integer>> runs = new ArrayList<List<Integer>>();
+		final AtomicInteger[] running = new AtomicInteger[SESSIONS];
+		final AtomicInteger overlaps = new AtomicInteger();
+		for (int i = 0; i < SESSIONS; i++) {
+			runs.add(Collections.synchronizedList(new ArrayList<Integer>()));
+			running[i] = new AtomicInteger();
+		}
+		final CountDownLatch done = new CountDownLatch(SESSIONS * TASKS_PER_SESSION);
+		// one producer per session so that the submission order of a session is well defined
+		final Thread[] producers = new Thread[SESSIONS];
+		for (int i = 0; i < SESSIONS; i++) {
+			final int session = i;
+			final String key = "session-" + session;
+			producers[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < TASKS_PER_SESSION; j++) {
+						final int task = j;
+						sessionSerialExecutor.execute(key, new Runnable() {
+							public void run() {
+								if(running[session].incrementAndGet() != 1) {
+									overlaps.incrementAndGet();
+								}
+								runs.get(session).add(task);
+								running[session].decrementAndGet();
+								done.countDown();
+							}
+						});
+					}
+				}
+			};
+			producers[i].start();
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		assertEquals(0, overlaps.get());
+		for (int i = 0; i < SESSIONS; i++) {
+			final List<Integer> run = runs.get(i);
+			assertEquals(TASKS_PER_SESSION, run.size());
+			for (int j = 0; j < TASKS_PER_SESSION; j++) {
+				assertEquals(Integer.valueOf(j), run.get(j));
+			}
+		}
+		waitForDrainedMailboxes(sessionSerialExecutor);
+	}
+
+	public void testTasksOfDifferentSessionsRunConcurrently() throws Exception {
+		final SessionSerialExecutor sessionSerialExecutor = new SessionSerialExecutor(executor);
+		final CountDownLatch bothRunning = new CountDownLatch(2);
+		final CountDownLatch done = new CountDownLatch(2);
+		for (int i = 0; i < 2; i++) {
+			sessionSerialExecutor.execute("session-" + i, new Runnable() {
+				public void run() {
+					bothRunning.countDown();
+					try {
+						// only returns if the task of the other session runs at the same time
+						if(bothRunning.await(10, TimeUnit.SECONDS)) {
+							done.countDown();
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		waitForDrainedMailboxes(sessionSerialExecutor);
+	}
+
+	public void testBlockedSessionDoesntHoldBackOtherSessions() throws Exception {
+		final SessionSerialExecutor sessionSerialExecutor = new SessionSerialExecutor(executor);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch otherSessionDone = new CountDownLatch(1);
+		final AtomicInteger blockedSessionTasks = new AtomicInteger();
+		sessionSerialExecutor.execute("blocked", new Runnable() {
+			public void run() {
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				blockedSessionTasks.incrementAndGet();
+			}
+		});
+		// queued behind the blocked task, it must not take another thread of the shared executor
+		sessionSerialExecutor.execute("blocked", new Runnable() {
+			public void run() {
+				blockedSessionTasks.incrementAndGet();
+			}
+		});
+		sessionSerialExecutor.execute("other", new Runnable() {
+			public void run() {
+				otherSessionDone.countDown();
+			}
+		});
+		assertTrue(otherSessionDone.await(10, TimeUnit.SECONDS));
+		assertEquals(0, blockedSessionTasks.get());
+		release.countDown();
+		waitForDrainedMailboxes(sessionSerialExecutor);
+		assertEquals(2, blockedSessionTasks.get());
+	}
+
+	private static void waitForDrainedMailboxes(SessionSerialExecutor sessionSerialExecutor) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (sessionSerialExecutor.getNumberOfActiveMailboxes() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, sessionSerialExecutor.getNumberOfActiveMailboxes());
+		assertEquals(0, sessionSerialExecutor.getNumberOfPendingTasks());
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.testsuite.concurrency;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.mobicents.servlet.sip.core.ShardedExecutor;
+
+/**
+ * Checks that the {@link ShardedExecutor} used when dispatcherShardCount is set always runs the tasks of a key 
+ * on the thread of the same shard and in submission order, and spreads the keys over all the shards.
+ */
+public class ShardedExecutorTest extends TestCase {
+
+	private static final int SHARDS = 4;
+	private static final int KEYS = 200;
+	private static final int TASKS_PER_KEY = 500;
+
+	private ShardedExecutor shardedExecutor;
+
+	public ShardedExecutorTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		shardedExecutor = new ShardedExecutor(SHARDS, Thread.NORM_PRIORITY);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		shardedExecutor.shutdownNow();
+		super.tearDown();
+	}
+
+	public void testTasksOfAKeyRunInOrderOnTheSameShard() throws Exception {
+		final List<List<Integer>> runs = new ArrayList<List<Integer>>();
+		final ConcurrentHashMap<String, Set<Thread>> threads = new ConcurrentHashMap<String, Set<Thread>>();
+		for (int i = 0; i < KEYS; i++) {
+			runs.add(Collections.synchronizedList(new ArrayList<Integer>()));
+			threads.put("call-" + i, Collections.synchronizedSet(new HashSet<Thread>()));
+		}
+		final CountDownLatch done = new CountDownLatch(KEYS * TASKS_PER_KEY);
+		// one producer per key so that the submission order of a key is well defined
+		final Thread[] producers = new Thread[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			final int keyIndex = i;
+			final String key = "call-" + keyIndex;
+			producers[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < TASKS_PER_KEY; j++) {
+						final int task = j;
+						shardedExecutor.execute(key, new Runnable() {
+							public void run() {
+								threads.get(key).add(Thread.currentThread());
+								runs.get(keyIndex).add(task);
+								done.countDown();
+							}
+						});
+					}
+				}
+			};
+			producers[i].start();
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		final Set<Thread> shardThreads = new HashSet<Thread>();
+		for (int i = 0; i < KEYS; i++) {
+			final List<Integer> run = runs.get(i);
+			assertEquals(TASKS_PER_KEY, run.size());
+			for (int j = 0; j < TASKS_PER_KEY; j++) {
+				assertEquals(Integer.valueOf(j), run.get(j));
+			}
+			final Set<Thread> keyThreads = threads.get("call-" + i);
+			assertEquals(1, keyThreads.size());
+			shardThreads.addAll(keyThreads);
+		}
+		// the keys are spread over all the shards
+		assertEquals(SHARDS, shardThreads.size());
+		assertEquals(0, shardedExecutor.getNumberOfPendingTasks());
+	}
+
+	public void testShardSelection() throws Exception {
+		assertEquals(SHARDS, shardedExecutor.getNumberOfShards());
+		assertEquals(0, shardedExecutor.getShardIndex(null));
+		assertSame(shardedExecutor.getExecutor(null), shardedExecutor.getExecutor(null));
+		final int[] keysPerShard = new int[SHARDS];
+		for (int i = 0; i < 10000; i++) {
+			final String key = "a84b4c76e66710@pc33.example.com-" + i;
+			final int shardIndex = shardedExecutor.getShardIndex(key);
+			assertTrue(shardIndex >= 0 && shardIndex < SHARDS);
+			// equal keys go to the same shard
+			assertEquals(shardIndex, shardedExecutor.getShardIndex(new String(key)));
+			assertSame(shardedExecutor.getExecutor(key), shardedExecutor.getExecutor(new String(key)));
+			keysPerShard[shardIndex]++;
+		}
+		// keys differing in their last characters only are spread evenly
+		for (int keys : keysPerShard) {
+			assertTrue(String.valueOf(keys), keys > 10000 / SHARDS / 2);
+		}
+		// negative hash codes too
+		final Object negativeKey = new Object() {
+			@Override
+			public int hashCode() {
+				return Integer.MIN_VALUE;
+			}
+		};
+		final int shardIndex = shardedExecutor.getShardIndex(negativeKey);
+		assertTrue(shardIndex >= 0 && shardIndex < SHARDS);
+	}
+
+	public void testBlockedShardOnlyDelaysItsOwnKeys() throws Exception {
+		final String blockedKey = "blocked";
+		final int blockedShard = shardedExecutor.getShardIndex(blockedKey);
+		String otherKey = null;
+		for (int i = 0; otherKey == null; i++) {
+			if(shardedExecutor.getShardIndex("other-" + i) != blockedShard) {
+				otherKey = "other-" + i;
+			}
+		}
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch otherKeyDone = new CountDownLatch(1);
+		shardedExecutor.execute(blockedKey, new Runnable() {
+			public void run() {
+				started.countDown();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		final CountDownLatch queuedDone = new CountDownLatch(1);
+		shardedExecutor.execute(blockedKey, new Runnable() {
+			public void run() {
+				queuedDone.countDown();
+			}
+		});
+		shardedExecutor.execute(otherKey, new Runnable() {
+			public void run() {
+				otherKeyDone.countDown();
+			}
+		});
+		assertTrue(otherKeyDone.await(10, TimeUnit.SECONDS));
+		assertEquals(1, shardedExecutor.getQueueSizes()[blockedShard]);
+		assertEquals(1, shardedExecutor.getNumberOfPendingTasks());
+		release.countDown();
+		assertTrue(queuedDone.await(10, TimeUnit.SECONDS));
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.testsuite.congestion;
+
+import gov.nist.javax.sip.message.SIPRequest;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.mobicents.servlet.sip.core.congestion.SourceRateLimiter;
+import org.mobicents.servlet.sip.core.congestion.SourceRateLimiter.SourceKey;
+
+/**
+ * Checks that the {@link SourceRateLimiter} admits a burst then the rate of requests of each source,
+ * doesn't give a full bucket back to a source evicted by a flood of other sources, 
+ * and treats an IPv4 address mapped to an IPv6 address as the IPv4 address.
+ */
+public class SourceRateLimiterTest extends TestCase {
+
+	public SourceRateLimiterTest(String name) {
+		super(name);
+	}
+
+	public void testBurstThenRate() throws Exception {
+		final SourceRateLimiter sourceRateLimiter = new SourceRateLimiter(SourceKey.SourceAddress, 1, 3, SourceRateLimiter.DEFAULT_CAPACITY);
+		final SIPRequest request = newRequest(InetAddress.getByName("10.0.0.1"));
+		for (int i = 0; i < 3; i++) {
+			assertEquals(0, sourceRateLimiter.tryAcquire(request));
+		}
+		assertEquals(1, sourceRateLimiter.tryAcquire(request));
+		// other sources have their own bucket
+		assertEquals(0, sourceRateLimiter.tryAcquire(newRequest(InetAddress.getByName("10.0.0.2"))));
+		assertEquals(1, sourceRateLimiter.getNumberOfRejectedRequests());
+		final Map<String, Long> rejectedRequestsBySource = sourceRateLimiter.getRejectedRequestsBySource();
+		assertEquals(1, rejectedRequestsBySource.size());
+		assertEquals(Long.valueOf(1), rejectedRequestsBySource.get("10.0.0.1"));
+		// refilled at one token per second
+		Thread.sleep(1100);
+		assertEquals(0, sourceRateLimiter.tryAcquire(request));
+		assertEquals(1, sourceRateLimiter.tryAcquire(request));
+	}
+
+	public void testEvictedSourceDoesntGetAFullBucketBack() throws Exception {
+		// the smallest table, a few slots per segment
+		final SourceRateLimiter sourceRateLimiter = new SourceRateLimiter(SourceKey.SourceAddress, 1, 5, 0);
+		final SIPRequest request = newRequest(InetAddress.getByName("192.168.0.1"));
+		for (int i = 0; i < 5; i++) {
+			assertEquals(0, sourceRateLimiter.tryAcquire(request));
+		}
+		assertTrue(sourceRateLimiter.tryAcquire(request) > 0);
+		// a flood of spoofed addresses, way more than the table can track
+		for (int i = 0; i < 20000; i++) {
+			sourceRateLimiter.tryAcquire(newRequest(InetAddress.getByAddress(new byte[] {10, (byte) (i >> 16), (byte) (i >> 8), (byte) i})));
+		}
+		assertTrue(sourceRateLimiter.tryAcquire(request) > 0);
+		assertEquals(2, sourceRateLimiter.getNumberOfRejectedRequests());
+	}
+
+	public void testIPv4MappedAddressIsTheIPv4Address() throws Exception {
+		final SourceRateLimiter sourceRateLimiter = new SourceRateLimiter(SourceKey.SourceAddress, 1, 2, SourceRateLimiter.DEFAULT_CAPACITY);
+		assertEquals(0, sourceRateLimiter.tryAcquire(newRequest(InetAddress.getByName("10.0.0.3"))));
+		final InetAddress mappedAddress = Inet6Address.getByAddress(null, 
+				new byte[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0xff, (byte) 0xff, 10, 0, 0, 3}, -1);
+		assertTrue(mappedAddress instanceof Inet6Address);
+		assertEquals(0, sourceRateLimiter.tryAcquire(newRequest(mappedAddress)));
+		assertEquals(1, sourceRateLimiter.tryAcquire(newRequest(mappedAddress)));
+		assertEquals(Long.valueOf(1), sourceRateLimiter.getRejectedRequestsBySource().get("10.0.0.3"));
+		// not mapped
+		assertEquals(0, sourceRateLimiter.tryAcquire(newRequest(InetAddress.getByName("::10.0.0.3"))));
+	}
+
+	private static SIPRequest newRequest(InetAddress remoteAddress) {
+		final SIPRequest request = new SIPRequest();
+		request.setRemoteAddress(remoteAddress);
+		return request;
+	}
+}
@@ -0,0 +1,241 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.testsuite.mapping;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.servlet.sip.Address;
+import javax.servlet.sip.SipServletRequest;
+import javax.servlet.sip.SipURI;
+import javax.servlet.sip.TelURL;
+
+import junit.framework.TestCase;
+
+import org.mobicents.servlet.sip.catalina.rules.AndRule;
+import org.mobicents.servlet.sip.catalina.rules.ContainsRule;
+import org.mobicents.servlet.sip.catalina.rules.EqualsRule;
+import org.mobicents.servlet.sip.catalina.rules.ExistsRule;
+import org.mobicents.servlet.sip.catalina.rules.NotRule;
+import org.mobicents.servlet.sip.catalina.rules.OrRule;
+import org.mobicents.servlet.sip.catalina.rules.SipServletMappingIndex;
+import org.mobicents.servlet.sip.core.descriptor.MatchingRule;
+import org.mobicents.servlet.sip.core.descriptor.MobicentsSipServletMapping;
+import org.mobicents.servlet.sip.startup.loading.SipServletMapping;
+
+/**
+ * Checks that the {@link SipServletMappingIndex} finds the same sip servlet mapping as evaluating the rules 
+ * of the mappings one after the other in the order they have been declared in.
+ */
+public class SipServletMappingIndexTest extends TestCase {
+
+	private static final String[] METHODS = new String[] {"INVITE", "MESSAGE", "REGISTER", "OPTIONS", "invite", "Message"};
+	// the kelvin sign is equal to k ignoring the case
+	private static final String[] HOSTS = new String[] {"example.com", "Example.COM", "ims.example.com", "\u212Aate.com", "kate.com"};
+	private static final String[] DISPLAY_NAMES = new String[] {"Alice", "alice", "Bob", null};
+	private static final String[] USERS = new String[40];
+	static {
+		for (int i = 0; i < USERS.length; i++) {
+			USERS[i] = "user" + i;
+		}
+	}
+
+	private Random random;
+
+	public SipServletMappingIndexTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		random = new Random(11);
+	}
+
+	public void testSameMappingAsALinearScan() throws Exception {
+		int found = 0;
+		for (int mappings : new int[] {0, 1, 10, 200}) {
+			final List<MobicentsSipServletMapping> sipServletMappings = new ArrayList<MobicentsSipServletMapping>();
+			for (int i = 0; i < mappings; i++) {
+				MatchingRule rule = newRule(0);
+				if(random.nextInt(4) > 0) {
+					// most of the applications tell their servlets apart by method or user
+					final AndRule andRule = new AndRule();
+					andRule.addCriterion(newEqualsRule(random.nextBoolean() ? "request.method" : "request.uri.user"));
+					andRule.addCriterion(rule);
+					rule = andRule;
+				}
+				final SipServletMapping sipServletMapping = new SipServletMapping();
+				sipServletMapping.setServletName("servlet" + i);
+				sipServletMapping.setMatchingRule(rule);
+				sipServletMappings.add(sipServletMapping);
+			}
+			final SipServletMappingIndex index = new SipServletMappingIndex(sipServletMappings);
+			for (int i = 0; i < 20000; i++) {
+				final SipServletRequest request = newRequest();
+				final MobicentsSipServletMapping expected = findSipServletMapping(sipServletMappings, request);
+				assertSame(expected, index.findSipServletMapping(request));
+				if(expected != null) {
+					found++;
+				}
+			}
+		}
+		// not only requests matching no mapping
+		assertTrue(found > 0);
+	}
+
+	public void testEarlierResidualMappingWins() throws Exception {
+		final List<MobicentsSipServletMapping> sipServletMappings = new ArrayList<MobicentsSipServletMapping>();
+		final SipServletMapping residual = new SipServletMapping();
+		residual.setServletName("residual");
+		residual.setMatchingRule(new ExistsRule("request.from.display-name"));
+		sipServletMappings.add(residual);
+		final SipServletMapping indexed = new SipServletMapping();
+		indexed.setServletName("indexed");
+		indexed.setMatchingRule(new EqualsRule("request.method", "INVITE", false));
+		sipServletMappings.add(indexed);
+		final SipServletMappingIndex index = new SipServletMappingIndex(sipServletMappings);
+
+		assertSame(residual, index.findSipServletMapping(newRequest("INVITE", "user1", "example.com", "Alice")));
+		assertSame(indexed, index.findSipServletMapping(newRequest("INVITE", "user1", "example.com", null)));
+		assertNull(index.findSipServletMapping(newRequest("MESSAGE", "user1", "example.com", null)));
+	}
+
+	private static MobicentsSipServletMapping findSipServletMapping(List<MobicentsSipServletMapping> sipServletMappings, SipServletRequest request) {
+		for (MobicentsSipServletMapping sipServletMapping : sipServletMappings) {
+			if(sipServletMapping.getMatchingRule().matches(request)) {
+				return sipServletMapping;
+			}
+		}
+		return null;
+	}
+
+	private MatchingRule newRule(int depth) {
+		final int kind = depth > 2 ? 0 : random.nextInt(10);
+		if(kind < 4) {
+			return newEqualsRule(newVar());
+		}
+		if(kind < 6) {
+			final AndRule andRule = new AndRule();
+			for (int i = random.nextInt(3); i >= 0; i--) {
+				andRule.addCriterion(newRule(depth + 1));
+			}
+			return andRule;
+		}
+		if(kind < 8) {
+			final OrRule orRule = new OrRule();
+			for (int i = random.nextInt(3); i >= 0; i--) {
+				orRule.addCriterion(newRule(depth + 1));
+			}
+			return orRule;
+		}
+		if(kind < 9) {
+			final NotRule notRule = new NotRule();
+			notRule.setCriterion(newRule(depth + 1));
+			return notRule;
+		}
+		return random.nextBoolean() ? new ExistsRule("request.from.display-name") : new ContainsRule("request.uri.host", "example", random.nextBoolean());
+	}
+
+	private String newVar() {
+		switch (random.nextInt(4)) {
+		case 0:
+			return "request.method";
+		case 1:
+			return "request.uri.user";
+		case 2:
+			return "request.uri.host";
+		default:
+			return "request.from.display-name";
+		}
+	}
+
+	private EqualsRule newEqualsRule(String var) {
+		final String value;
+		if("request.method".equals(var)) {
+			value = pick(METHODS);
+		} else if("request.uri.user".equals(var)) {
+			value = pick(USERS);
+		} else if("request.uri.host".equals(var)) {
+			value = pick(HOSTS);
+		} else {
+			value = DISPLAY_NAMES[random.nextInt(DISPLAY_NAMES.length - 1)];
+		}
+		return new EqualsRule(var, value, random.nextBoolean());
+	}
+
+	private SipServletRequest newRequest() {
+		String method = pick(METHODS);
+		if(random.nextInt(4) == 0) {
+			method = method.toLowerCase();
+		}
+		String host = pick(HOSTS);
+		if(random.nextInt(4) == 0) {
+			host = host.toUpperCase();
+		}
+		return newRequest(method, pick(USERS), random.nextInt(10) == 0 ? null : host, pick(DISPLAY_NAMES));
+	}
+
+	private String pick(String[] values) {
+		return values[random.nextInt(values.length)];
+	}
+
+	// a null host stands for a tel url
+	private static SipServletRequest newRequest(String method, String user, String host, String displayName) {
+		final Map<String, Object> requestUri = new HashMap<String, Object>();
+		requestUri.put("isSipURI", host != null);
+		requestUri.put("getScheme", host != null ? "sip" : "tel");
+		requestUri.put("getUser", user);
+		requestUri.put("getHost", host);
+		final Map<String, Object> from = new HashMap<String, Object>();
+		from.put("getDisplayName", displayName);
+		from.put("getURI", fake(SipURI.class, requestUri));
+		final Map<String, Object> request = new HashMap<String, Object>();
+		request.put("getMethod", method);
+		request.put("getRequestURI", host != null ? fake(SipURI.class, requestUri) : fake(TelURL.class, requestUri));
+		request.put("getFrom", fake(Address.class, from));
+		return fake(SipServletRequest.class, request);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T fake(Class<T> type, final Map<String, Object> values) {
+		return (T) Proxy.newProxyInstance(SipServletMappingIndexTest.class.getClassLoader(), new Class[] {type}, 
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if("hashCode".equals(method.getName())) {
+							return System.identityHashCode(proxy);
+						}
+						if("equals".equals(method.getName())) {
+							return proxy == args[0];
+						}
+						if("toString".equals(method.getName())) {
+							return String.valueOf(values);
+						}
+						return values.get(method.getName());
+					}
+				});
+	}
+}
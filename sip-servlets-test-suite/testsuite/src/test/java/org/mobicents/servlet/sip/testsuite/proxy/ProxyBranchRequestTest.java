@@ -0,0 +1,255 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.testsuite.proxy;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ListIterator;
+
+import javax.servlet.ServletException;
+import javax.servlet.sip.SipServletRequest;
+import javax.sip.header.MaxForwardsHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.Request;
+
+import junit.framework.TestCase;
+
+import org.mobicents.servlet.sip.core.SipApplicationDispatcher;
+import org.mobicents.servlet.sip.core.SipContext;
+import org.mobicents.servlet.sip.core.SipService;
+import org.mobicents.servlet.sip.core.session.MobicentsSipApplicationSession;
+import org.mobicents.servlet.sip.core.session.MobicentsSipSession;
+import org.mobicents.servlet.sip.core.session.SipApplicationSessionKey;
+import org.mobicents.servlet.sip.core.timers.ProxyTimerService;
+import org.mobicents.servlet.sip.message.Servlet3SipServletMessageFactory;
+import org.mobicents.servlet.sip.message.SipFactoryImpl;
+import org.mobicents.servlet.sip.message.SipServletRequestImpl;
+import org.mobicents.servlet.sip.proxy.ProxyBranchImpl;
+import org.mobicents.servlet.sip.proxy.ProxyImpl;
+import org.mobicents.servlet.sip.startup.StaticServiceHolder;
+
+/**
+ * Checks that the request of a proxy branch, as returned by getRequest(), is a copy of the original request
+ * which is left untouched when the branch is started, whether the start succeeds or not.
+ */
+public class ProxyBranchRequestTest extends TestCase {
+
+	private static final String INVITE = 
+		"INVITE sip:bob@example.com SIP/2.0\r\n" +
+		"Via: SIP/2.0/UDP 127.0.0.1:5070;branch=z9hG4bK-1234\r\n" +
+		"Max-Forwards: 70\r\n" +
+		"From: <sip:alice@example.com>;tag=1234\r\n" +
+		"To: <sip:bob@example.com>\r\n" +
+		"Call-ID: 0123456789@127.0.0.1\r\n" +
+		"CSeq: 1 INVITE\r\n" +
+		"Contact: <sip:alice@127.0.0.1:5070>\r\n" +
+		"Content-Length: 0\r\n" +
+		"\r\n";
+
+	private SipService sipService;
+	private SipFactoryImpl sipFactoryImpl;
+	private SipServletRequestImpl originalRequest;
+	private volatile boolean failRouting;
+
+	public ProxyBranchRequestTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		sipService = StaticServiceHolder.sipStandardService;
+		StaticServiceHolder.sipStandardService = fake(SipService.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if("getMobicentsSipServletMessageFactoryClassName".equals(method.getName())) {
+					return Servlet3SipServletMessageFactory.class.getName();
+				}
+				return defaultValue(method);
+			}
+		});
+		sipFactoryImpl = new SipFactoryImpl();
+		sipFactoryImpl.initialize("gov.nist", false);
+		sipFactoryImpl.setSipApplicationDispatcher(fake(SipApplicationDispatcher.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if("getApplicationServerId".equals(method.getName())) {
+					return "server";
+				} else if("getHashFromApplicationName".equals(method.getName())) {
+					if(failRouting) {
+						throw new IllegalStateException("no hash for " + args[0]);
+					}
+					return "application";
+				}
+				return defaultValue(method);
+			}
+		}));
+		final ProxyTimerService proxyTimerService = fake(ProxyTimerService.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				return defaultValue(method);
+			}
+		});
+		final SipContext sipContext = fake(SipContext.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if("getProxyTimerService".equals(method.getName())) {
+					return proxyTimerService;
+				}
+				return defaultValue(method);
+			}
+		});
+		final SipApplicationSessionKey sipApplicationSessionKey = new SipApplicationSessionKey("1234", "application", null);
+		final MobicentsSipApplicationSession sipApplicationSession = fake(MobicentsSipApplicationSession.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if("getSipContext".equals(method.getName())) {
+					return sipContext;
+				} else if("getKey".equals(method.getName())) {
+					return sipApplicationSessionKey;
+				}
+				return defaultValue(method);
+			}
+		});
+		final MobicentsSipSession sipSession = fake(MobicentsSipSession.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if("getSipApplicationSession".equals(method.getName())) {
+					return sipApplicationSession;
+				} else if("getFacade".equals(method.getName())) {
+					return proxy;
+				} else if("getOutboundInterface".equals(method.getName())) {
+					return "sip:127.0.0.1:5080";
+				} else if("setHandler".equals(method.getName())) {
+					// the proxied request can't be sent without a stack, the forwarding stops here
+					throw new ServletException("no stack to send the proxied request");
+				}
+				return defaultValue(method);
+			}
+		});
+		originalRequest = (SipServletRequestImpl) sipFactoryImpl.getMobicentsSipServletMessageFactory().createSipServletRequest(
+				SipFactoryImpl.messageFactory.createRequest(INVITE), null, null, null, false);
+		originalRequest.setSipSession(sipSession);
+		originalRequest.setCurrentApplicationName("application");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		StaticServiceHolder.sipStandardService = sipService;
+		super.tearDown();
+	}
+
+	public void testRequestBeforeStartIsACopy() throws Exception {
+		final ProxyBranchImpl proxyBranch = createProxyBranch();
+		final SipServletRequestImpl request = (SipServletRequestImpl) proxyBranch.getRequest();
+		assertNotSame(originalRequest, request);
+		assertNotSame(originalRequest.getMessage(), request.getMessage());
+		assertEquals(originalRequest.getMessage().toString(), request.getMessage().toString());
+
+		request.addHeader("X-Branch", "carol");
+		assertNull(originalRequest.getHeader("X-Branch"));
+		assertSame(request, proxyBranch.getRequest());
+	}
+
+	public void testRequestIsReplacedByTheProxiedRequestOnStart() throws Exception {
+		final ProxyBranchImpl proxyBranch = createProxyBranch();
+		final SipServletRequestImpl requestBeforeStart = (SipServletRequestImpl) proxyBranch.getRequest();
+		requestBeforeStart.addHeader("X-Branch", "carol");
+		final String messageBeforeStart = requestBeforeStart.getMessage().toString();
+		try {
+			proxyBranch.start();
+			fail("the proxied request can't be sent here");
+		} catch (RuntimeException e) {
+			// expected, the branch request was already replaced by then
+		}
+		assertTrue(proxyBranch.isStarted());
+
+		final SipServletRequestImpl requestAfterStart = (SipServletRequestImpl) proxyBranch.getRequest();
+		assertNotSame(requestBeforeStart, requestAfterStart);
+		assertNotSame(requestBeforeStart.getMessage(), requestAfterStart.getMessage());
+		final Request proxiedRequest = (Request) requestAfterStart.getMessage();
+		assertEquals("sip:carol@example.org", proxiedRequest.getRequestURI().toString());
+		assertEquals(2, countVias(proxiedRequest));
+		assertEquals(69, ((MaxForwardsHeader) proxiedRequest.getHeader(MaxForwardsHeader.NAME)).getMaxForwards());
+		assertEquals("carol", requestAfterStart.getHeader("X-Branch"));
+
+		// the request the application got before the start still holds the message it had then
+		assertEquals(messageBeforeStart, requestBeforeStart.getMessage().toString());
+		assertEquals(1, countVias((Request) requestBeforeStart.getMessage()));
+	}
+
+	public void testRequestIsLeftUntouchedWhenStartFails() throws Exception {
+		final ProxyBranchImpl proxyBranch = createProxyBranch();
+		final SipServletRequest requestBeforeStart = proxyBranch.getRequest();
+		final String messageBeforeStart = ((SipServletRequestImpl) requestBeforeStart).getMessage().toString();
+		failRouting = true;
+		try {
+			proxyBranch.start();
+			fail("the proxied request shouldn't have been created");
+		} catch (RuntimeException e) {
+			// expected
+		}
+		assertFalse(proxyBranch.isStarted());
+		assertSame(requestBeforeStart, proxyBranch.getRequest());
+		assertEquals(messageBeforeStart, ((SipServletRequestImpl) proxyBranch.getRequest()).getMessage().toString());
+		assertEquals(originalRequest.getMessage().toString(), messageBeforeStart);
+	}
+
+	private ProxyBranchImpl createProxyBranch() throws Exception {
+		final ProxyImpl proxy = new ProxyImpl(originalRequest, sipFactoryImpl);
+		return new ProxyBranchImpl(sipFactoryImpl.createURI("sip:carol@example.org"), proxy);
+	}
+
+	private static int countVias(Request request) {
+		int vias = 0;
+		for(ListIterator<?> it = request.getHeaders(ViaHeader.NAME); it.hasNext(); it.next()) {
+			vias++;
+		}
+		return vias;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T fake(Class<T> type, final InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(ProxyBranchRequestTest.class.getClassLoader(), new Class[] {type}, 
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if("hashCode".equals(method.getName())) {
+							return System.identityHashCode(proxy);
+						}
+						if("equals".equals(method.getName())) {
+							return proxy == args[0];
+						}
+						if("toString".equals(method.getName())) {
+							return method.getDeclaringClass().getSimpleName() + "@" + System.identityHashCode(proxy);
+						}
+						return handler.invoke(proxy, method, args);
+					}
+				});
+	}
+
+	private static Object defaultValue(Method method) {
+		final Class<?> returnType = method.getReturnType();
+		if(returnType == boolean.class) {
+			return Boolean.FALSE;
+		}
+		if(returnType == int.class) {
+			return Integer.valueOf(0);
+		}
+		if(returnType == long.class) {
+			return Long.valueOf(0);
+		}
+		return null;
+	}
+}
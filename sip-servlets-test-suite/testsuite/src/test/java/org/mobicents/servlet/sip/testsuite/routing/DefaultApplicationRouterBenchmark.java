@@ -0,0 +1,88 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.testsuite.routing;
+
+import java.io.File;
+
+import javax.servlet.sip.SipServletRequest;
+import javax.servlet.sip.ar.SipApplicationRoutingDirective;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+import org.mobicents.servlet.sip.router.DefaultApplicationRouter;
+
+/**
+ * Measures the time taken by a default application router configured with 50 deployed applications 
+ * to select the next application.<br/>
+ * Not part of the default test run, run it with the benchmark profile : mvn test -Pbenchmark
+ */
+public class DefaultApplicationRouterBenchmark extends TestCase {
+
+	private static transient Logger logger = Logger.getLogger(DefaultApplicationRouterBenchmark.class);
+
+	private static final int ITERATIONS = 200000;
+
+	private String darLocation;
+	private File darFile;
+	private DefaultApplicationRouter applicationRouter;
+
+	public DefaultApplicationRouterBenchmark(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		darLocation = System.getProperty(DefaultApplicationRouterOrderingTest.DAR_PROPERTY);
+		darFile = DefaultApplicationRouterOrderingTest.createDarFile();
+		applicationRouter = DefaultApplicationRouterOrderingTest.newApplicationRouter(darFile);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		applicationRouter.destroy();
+		if(darLocation == null) {
+			System.clearProperty(DefaultApplicationRouterOrderingTest.DAR_PROPERTY);
+		} else {
+			System.setProperty(DefaultApplicationRouterOrderingTest.DAR_PROPERTY, darLocation);
+		}
+		darFile.delete();
+		super.tearDown();
+	}
+
+	public void testSelectionTime() {
+		final SipServletRequest initialRequest = DefaultApplicationRouterOrderingTest.request(null);
+		final SipServletRequest midChainRequest = DefaultApplicationRouterOrderingTest.request("App24");
+		// warm up
+		route(initialRequest, midChainRequest, ITERATIONS / 10);
+		final long start = System.nanoTime();
+		route(initialRequest, midChainRequest, ITERATIONS);
+		final long elapsed = System.nanoTime() - start;
+		logger.info("Selected the next application among " + DefaultApplicationRouterOrderingTest.APPLICATIONS + " in " + (elapsed / (2L * ITERATIONS)) + " ns on average");
+	}
+
+	private void route(SipServletRequest initialRequest, SipServletRequest midChainRequest, int iterations) {
+		for (int i = 0; i < iterations; i++) {
+			assertEquals("App0", applicationRouter.getNextApplication(initialRequest, null, SipApplicationRoutingDirective.NEW, null, null).getNextApplicationName());
+			assertEquals("App25", applicationRouter.getNextApplication(midChainRequest, null, SipApplicationRoutingDirective.CONTINUE, null, 24).getNextApplicationName());
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.testsuite.routing;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.sip.SipApplicationSession;
+import javax.servlet.sip.SipServletRequest;
+import javax.servlet.sip.SipSession;
+import javax.servlet.sip.ar.SipApplicationRouterInfo;
+import javax.servlet.sip.ar.SipApplicationRoutingDirective;
+
+import junit.framework.TestCase;
+
+import org.mobicents.servlet.sip.router.DefaultApplicationRouter;
+
+/**
+ * Routes initial requests through a default application router configured with 50 deployed applications, 
+ * checking that the applications are selected in the configured order, the ones marked DIRECTION=INBOUND 
+ * being skipped after an application marked DIRECTION=OUTBOUND.
+ */
+public class DefaultApplicationRouterOrderingTest extends TestCase {
+
+	static final String DAR_PROPERTY = "javax.servlet.sip.dar";
+	static final int APPLICATIONS = 50;
+
+	private String darLocation;
+	private File darFile;
+	private DefaultApplicationRouter applicationRouter;
+
+	public DefaultApplicationRouterOrderingTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		darLocation = System.getProperty(DAR_PROPERTY);
+		darFile = createDarFile();
+		applicationRouter = newApplicationRouter(darFile);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		applicationRouter.destroy();
+		if(darLocation == null) {
+			System.clearProperty(DAR_PROPERTY);
+		} else {
+			System.setProperty(DAR_PROPERTY, darLocation);
+		}
+		darFile.delete();
+		super.tearDown();
+	}
+
+	public void testApplicationsAreSelectedInOrder() {
+		SipApplicationRouterInfo info = applicationRouter.getNextApplication(request(null), null, SipApplicationRoutingDirective.NEW, null, null);
+		final List<String> selected = new ArrayList<String>();
+		while (info.getNextApplicationName() != null) {
+			selected.add(info.getNextApplicationName());
+			info = applicationRouter.getNextApplication(request(info.getNextApplicationName()), info.getRoutingRegion(), 
+					SipApplicationRoutingDirective.CONTINUE, null, info.getStateInfo());
+		}
+		final List<String> expected = new ArrayList<String>();
+		for (int i = 0; i < APPLICATIONS; i++) {
+			// the requests initiated by the OUTBOUND applications aren't routed to the INBOUND ones following them
+			if(i % 10 != 1) {
+				expected.add("App" + i);
+			}
+		}
+		assertEquals(expected, selected);
+	}
+
+	/**
+	 * @return a dar file routing the INVITEs through App0 to App49, every tenth application being OUTBOUND and the next one INBOUND
+	 */
+	static File createDarFile() throws IOException {
+		final File darFile = File.createTempFile("dar", ".properties");
+		final StringBuilder invite = new StringBuilder("INVITE: ");
+		for (int i = 0; i < APPLICATIONS; i++) {
+			if(i > 0) {
+				invite.append(", ");
+			}
+			invite.append("(\"App").append(i).append("\", \"sip:alice@example.com\", \"ORIGINATING\", \"\", \"NO_ROUTE\", \"").append(i).append("\"");
+			if(i % 10 == 0) {
+				invite.append(", \"DIRECTION=OUTBOUND\"");
+			} else if(i % 10 == 1) {
+				invite.append(", \"DIRECTION=INBOUND\"");
+			}
+			invite.append(")");
+		}
+		final FileWriter writer = new FileWriter(darFile);
+		writer.write(invite.toString());
+		writer.write("\n");
+		writer.close();
+		return darFile;
+	}
+
+	/**
+	 * Points the dar system property to the given file and deploys App0 to App49 on a new default application router
+	 */
+	static DefaultApplicationRouter newApplicationRouter(File darFile) throws IOException {
+		System.setProperty(DAR_PROPERTY, darFile.toURI().toURL().toString());
+		final List<String> applicationNames = new ArrayList<String>();
+		for (int i = 0; i < APPLICATIONS; i++) {
+			applicationNames.add("App" + i);
+		}
+		final DefaultApplicationRouter applicationRouter = new DefaultApplicationRouter();
+		applicationRouter.applicationDeployed(applicationNames);
+		return applicationRouter;
+	}
+
+	/**
+	 * @param applicationName the application having sent the request, null if it comes from outside
+	 */
+	static SipServletRequest request(final String applicationName) {
+		final SipApplicationSession sipApplicationSession = (SipApplicationSession) proxy(SipApplicationSession.class, applicationName, null);
+		final SipSession sipSession = applicationName == null ? null : (SipSession) proxy(SipSession.class, null, sipApplicationSession);
+		return (SipServletRequest) proxy(SipServletRequest.class, null, sipSession);
+	}
+
+	private static Object proxy(final Class<?> type, final String applicationName, final Object child) {
+		return Proxy.newProxyInstance(DefaultApplicationRouterOrderingTest.class.getClassLoader(), new Class<?>[] {type}, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				final String name = method.getName();
+				if("getMethod".equals(name)) {
+					return "INVITE";
+				} else if("getSession".equals(name) || "getApplicationSession".equals(name)) {
+					return child;
+				} else if("getApplicationName".equals(name)) {
+					return applicationName;
+				} else if("toString".equals(name)) {
+					return "INVITE sip:bob@example.com SIP/2.0";
+				} else if("hashCode".equals(name)) {
+					return System.identityHashCode(proxy);
+				} else if("equals".equals(name)) {
+					return proxy == args[0];
+				}
+				return null;
+			}
+		});
+	}
+}
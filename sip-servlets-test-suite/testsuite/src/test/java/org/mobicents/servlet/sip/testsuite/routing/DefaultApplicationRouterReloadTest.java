@@ -0,0 +1,191 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.servlet.sip.testsuite.routing;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+
+import javax.servlet.sip.SipApplicationSession;
+import javax.servlet.sip.SipServletRequest;
+import javax.servlet.sip.ar.SipApplicationRoutingDirective;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+import org.mobicents.servlet.sip.router.DefaultApplicationRouter;
+
+/**
+ * Modifies the configuration file of a default application router checking it for changes, while requests are being routed, 
+ * checking that the valid configurations are made active, that the invalid ones are rejected while the previous one stays active,
+ * and that no request fails to be routed meanwhile.
+ */
+public class DefaultApplicationRouterReloadTest extends TestCase {
+
+	private static transient Logger logger = Logger.getLogger(DefaultApplicationRouterReloadTest.class);
+
+	private static final String DAR_PROPERTY = "javax.servlet.sip.dar";
+	private static final long TIMEOUT = 10000;
+
+	private String darLocation;
+	private File darFile;
+	private DefaultApplicationRouter applicationRouter;
+	private volatile boolean routing;
+	private volatile Throwable routingFailure;
+
+	public DefaultApplicationRouterReloadTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		darLocation = System.getProperty(DAR_PROPERTY);
+		darFile = File.createTempFile("dar", ".properties");
+		write("INVITE: (\"App0\", \"sip:alice@example.com\", \"ORIGINATING\", \"\", \"NO_ROUTE\", \"0\")");
+		System.setProperty(DAR_PROPERTY, darFile.toURI().toURL().toString());
+		System.setProperty(DefaultApplicationRouter.DAR_RELOAD_INTERVAL, "20");
+		applicationRouter = new DefaultApplicationRouter();
+		applicationRouter.applicationDeployed(Arrays.asList("App0", "App1"));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		routing = false;
+		applicationRouter.destroy();
+		System.clearProperty(DefaultApplicationRouter.DAR_RELOAD_INTERVAL);
+		if(darLocation == null) {
+			System.clearProperty(DAR_PROPERTY);
+		} else {
+			System.setProperty(DAR_PROPERTY, darLocation);
+		}
+		darFile.delete();
+		super.tearDown();
+	}
+
+	public void testModifiedConfigurationIsReloaded() throws Exception {
+		final Thread router = startRouting();
+		assertEquals("App0", nextApplicationName());
+		final long reloads = applicationRouter.getConfigurationReloads();
+
+		write("INVITE: (\"App1\", \"sip:alice@example.com\", \"ORIGINATING\", \"\", \"NO_ROUTE\", \"0\")");
+		final long deadline = System.currentTimeMillis() + TIMEOUT;
+		// the new configuration is active before the reload is counted
+		while((!"App1".equals(nextApplicationName()) || applicationRouter.getConfigurationReloads() == reloads) && 
+				System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals("App1", nextApplicationName());
+		assertEquals(reloads + 1, applicationRouter.getConfigurationReloads());
+		assertEquals(0, applicationRouter.getRejectedConfigurations());
+		logger.info("Reloaded the configuration in " + applicationRouter.getConfigurationReloadLatency() + " microseconds");
+
+		routing = false;
+		router.join();
+		assertNull(String.valueOf(routingFailure), routingFailure);
+	}
+
+	public void testInvalidConfigurationIsRejected() throws Exception {
+		final Thread router = startRouting();
+		final long reloads = applicationRouter.getConfigurationReloads();
+
+		write("INVITE: (\"App1\", \"sip:alice@example.com\", \"ORIGINATING\", \"\", \"NO_ROUTE\", \"0\", \"REGEX=(\")");
+		final long deadline = System.currentTimeMillis() + TIMEOUT;
+		while(applicationRouter.getRejectedConfigurations() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, applicationRouter.getRejectedConfigurations());
+		assertEquals(reloads, applicationRouter.getConfigurationReloads());
+		assertEquals("App0", nextApplicationName());
+
+		// a rejected file isn't loaded again until it changes
+		Thread.sleep(200);
+		assertEquals(1, applicationRouter.getRejectedConfigurations());
+
+		routing = false;
+		router.join();
+		assertNull(String.valueOf(routingFailure), routingFailure);
+	}
+
+	public void testInvalidManagedConfigurationIsRejected() {
+		try {
+			applicationRouter.configure("INVITE: (\"App1\", \"sip:alice@example.com\"");
+			fail("the configuration should have been rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(1, applicationRouter.getRejectedConfigurations());
+		assertEquals("App0", nextApplicationName());
+	}
+
+	private Thread startRouting() {
+		routing = true;
+		final Thread router = new Thread() {
+			public void run() {
+				try {
+					while(routing) {
+						assertNotNull(nextApplicationName());
+					}
+				} catch (Throwable t) {
+					routingFailure = t;
+				}
+			}
+		};
+		router.start();
+		return router;
+	}
+
+	private String nextApplicationName() {
+		return applicationRouter.getNextApplication(request(), null, SipApplicationRoutingDirective.NEW, null, null).getNextApplicationName();
+	}
+
+	// the file is replaced at once, so that the routing threads never see a configuration partly written
+	private void write(String configuration) throws Exception {
+		final long lastModified = darFile.lastModified();
+		final File newDarFile = new File(darFile.getParentFile(), darFile.getName() + ".new");
+		final FileWriter writer = new FileWriter(newDarFile);
+		writer.write(configuration);
+		writer.write("\n");
+		writer.close();
+		// the modification time may have a granularity of a second
+		newDarFile.setLastModified(Math.max(System.currentTimeMillis(), lastModified + 2000));
+		assertTrue(newDarFile.renameTo(darFile));
+	}
+
+	private static SipServletRequest request() {
+		return (SipServletRequest) Proxy.newProxyInstance(DefaultApplicationRouterReloadTest.class.getClassLoader(), new Class<?>[] {SipServletRequest.class}, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				final String name = method.getName();
+				if("getMethod".equals(name)) {
+					return "INVITE";
+				} else if("toString".equals(name)) {
+					return "INVITE sip:bob@example.com SIP/2.0";
+				} else if("hashCode".equals(name)) {
+					return System.identityHashCode(proxy);
+				} else if("equals".equals(name)) {
+					return proxy == args[0];
+				}
+				return null;
+			}
+		});
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.testsuite.targeting;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+import org.mobicents.servlet.sip.core.ApplicationRoutingHeaderComposer;
+import org.mobicents.servlet.sip.core.SipApplicationDispatcher;
+
+/**
+ * Measures the time taken to resolve the To-tag of a subsequent request before it is dispatched, 
+ * against the previous String.split based parsing.<br/>
+ * Not part of the default test run, run it with the benchmark profile : mvn test -Pbenchmark
+ */
+public class ApplicationRoutingHeaderComposerBenchmark extends TestCase {
+
+	private static transient Logger logger = Logger.getLogger(ApplicationRoutingHeaderComposerBenchmark.class);
+
+	private static final int ITERATIONS = 1000000;
+	private static final int RUNS = 3;
+
+	private SipApplicationDispatcher sipApplicationDispatcher;
+
+	public ApplicationRoutingHeaderComposerBenchmark(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		sipApplicationDispatcher = ApplicationRoutingHeaderComposerTest.newSipApplicationDispatcher();
+	}
+
+	public void testToTagResolutionTime() {
+		final String toTag = ApplicationRoutingHeaderComposer.getHash(sipApplicationDispatcher, 
+				ApplicationRoutingHeaderComposerTest.APPLICATION_NAME, ApplicationRoutingHeaderComposerTest.APPLICATION_SESSION_ID);
+		// warm up
+		resolve(toTag, ITERATIONS / 10, true);
+		resolve(toTag, ITERATIONS / 10, false);
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			resolve(toTag, ITERATIONS, false);
+			final long splitTime = (System.nanoTime() - start) / ITERATIONS;
+			start = System.nanoTime();
+			resolve(toTag, ITERATIONS, true);
+			final long scanTime = (System.nanoTime() - start) / ITERATIONS;
+			logger.info("Resolved the To-tag in " + scanTime + " ns on average, " + splitTime + " ns with String.split");
+		}
+	}
+
+	private void resolve(String toTag, int iterations, boolean scan) {
+		for (int i = 0; i < iterations; i++) {
+			final String[] tuple = scan ? ApplicationRoutingHeaderComposer.getAppNameAndSessionId(sipApplicationDispatcher, toTag) : 
+				ApplicationRoutingHeaderComposerTest.splitAppNameAndSessionId(sipApplicationDispatcher, toTag);
+			if(tuple[2] == null) {
+				fail("the application session id of " + toTag + " hasn't been resolved");
+			}
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.testsuite.targeting;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.mobicents.servlet.sip.core.ApplicationRoutingHeaderComposer;
+import org.mobicents.servlet.sip.core.SipApplicationDispatcher;
+
+/**
+ * Checks that the tags composed by the container are resolved to the same application name and application session id
+ * as with the previous String.split based parsing. The time taken to resolve them is measured by
+ * {@link ApplicationRoutingHeaderComposerBenchmark}.
+ */
+public class ApplicationRoutingHeaderComposerTest extends TestCase {
+
+	private static final String SERVER_ID_HASH = "a1b2c3d4";
+	static final String APPLICATION_NAME = "org.mobicents.servlet.sip.testsuite.ProxyApplication";
+	private static final String APPLICATION_NAME_HASH = "5e6f7a8b";
+	static final String APPLICATION_SESSION_ID = "8f1e2d3c-4b5a-4968-8776-655443322110";
+
+	private SipApplicationDispatcher sipApplicationDispatcher;
+
+	public ApplicationRoutingHeaderComposerTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		sipApplicationDispatcher = newSipApplicationDispatcher();
+	}
+
+	public void testTagsAreResolvedAsBefore() {
+		final String[] tags = new String[] {
+				"12345678_" + SERVER_ID_HASH + "_" + APPLICATION_NAME_HASH + "_" + APPLICATION_SESSION_ID,
+				"12345678_" + SERVER_ID_HASH.toUpperCase() + "_" + APPLICATION_NAME_HASH + "_" + APPLICATION_SESSION_ID,
+				"12345678_" + SERVER_ID_HASH + "_" + APPLICATION_NAME_HASH + "_" + APPLICATION_SESSION_ID + "_extra",
+				"12345678_" + SERVER_ID_HASH + "_" + APPLICATION_NAME_HASH + "__" + APPLICATION_SESSION_ID,
+				"12345678_otherserver_" + APPLICATION_NAME_HASH + "_" + APPLICATION_SESSION_ID,
+				"_" + SERVER_ID_HASH + "_" + APPLICATION_NAME_HASH + "_" + APPLICATION_SESSION_ID,
+				"12345678_" + SERVER_ID_HASH,
+				"12345678_" + SERVER_ID_HASH + "_",
+				"12345678_" + SERVER_ID_HASH + "___",
+				"as5f3c2a1b",
+				"",
+				null
+		};
+		for (String tag : tags) {
+			assertEquals(tag, Arrays.asList(splitAppNameAndSessionId(sipApplicationDispatcher, tag)), 
+					Arrays.asList(ApplicationRoutingHeaderComposer.getAppNameAndSessionId(sipApplicationDispatcher, tag)));
+		}
+		try {
+			ApplicationRoutingHeaderComposer.getAppNameAndSessionId(sipApplicationDispatcher, 
+					"12345678_" + SERVER_ID_HASH + "_unknown_" + APPLICATION_SESSION_ID);
+			fail("the application name hash should have been rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testComposedTagsAreResolved() {
+		final Set<String> randomValues = new HashSet<String>();
+		for (int i = 0; i < 1000; i++) {
+			final String tag = ApplicationRoutingHeaderComposer.getHash(sipApplicationDispatcher, APPLICATION_NAME, APPLICATION_SESSION_ID);
+			final String[] tuple = ApplicationRoutingHeaderComposer.getAppNameAndSessionId(sipApplicationDispatcher, tag);
+			assertEquals(SERVER_ID_HASH, tuple[0]);
+			assertEquals(APPLICATION_NAME, tuple[1]);
+			assertEquals(APPLICATION_SESSION_ID, tuple[2]);
+			randomValues.add(tag.substring(0, tag.indexOf('_')));
+		}
+		assertTrue(randomValues.size() > 990);
+		assertEquals("_" + SERVER_ID_HASH + "_" + APPLICATION_NAME_HASH, 
+				ApplicationRoutingHeaderComposer.getHash(sipApplicationDispatcher, APPLICATION_NAME, null).substring(8));
+		assertEquals(8, ApplicationRoutingHeaderComposer.randomString().length());
+	}
+
+	/**
+	 * @return a dispatcher resolving the hash of a single application
+	 */
+	static SipApplicationDispatcher newSipApplicationDispatcher() {
+		return (SipApplicationDispatcher) Proxy.newProxyInstance(ApplicationRoutingHeaderComposerTest.class.getClassLoader(), 
+				new Class<?>[] {SipApplicationDispatcher.class}, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				final String name = method.getName();
+				if("getApplicationServerIdHash".equals(name)) {
+					return SERVER_ID_HASH;
+				} else if("getApplicationNameFromHash".equals(name)) {
+					return APPLICATION_NAME_HASH.equals(args[0]) ? APPLICATION_NAME : null;
+				} else if("getHashFromApplicationName".equals(name)) {
+					return APPLICATION_NAME.equals(args[0]) ? APPLICATION_NAME_HASH : null;
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * The previous parsing of the tags
+	 */
+	static String[] splitAppNameAndSessionId(SipApplicationDispatcher sipApplicationDispatcher, String text) {
+		String[] tuple = new String[3];
+		if(text != null) {
+			final String[] tokens = text.split("_");
+			if(tokens.length > 2) {
+				if(sipApplicationDispatcher.getApplicationServerIdHash().equalsIgnoreCase(tokens[1])) {
+					tuple[0] = tokens[1];
+					tuple[1] = sipApplicationDispatcher.getApplicationNameFromHash(tokens[2]);
+					tuple[2] = tokens.length > 3 ? tokens[3] : null;
+				} else {
+					tuple[0] = tokens[1];
+				}
+			}
+		}
+		return tuple;
+	}
+}
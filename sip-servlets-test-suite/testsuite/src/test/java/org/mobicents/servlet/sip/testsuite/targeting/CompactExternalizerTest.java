@@ -0,0 +1,157 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.servlet.sip.testsuite.targeting;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import junit.framework.TestCase;
+
+import org.mobicents.servlet.sip.core.session.SipSessionKey;
+import org.mobicents.servlet.sip.message.CompactExternalizer;
+
+/**
+ * Checks that the state written by {@link CompactExternalizer} is read back unchanged
+ * and is smaller than with the legacy externalization.
+ */
+public class CompactExternalizerTest extends TestCase {
+
+	public CompactExternalizerTest(String name) {
+		super(name);
+	}
+
+	public void testStringsRoundTrip() throws Exception {
+		StringBuilder longString = new StringBuilder();
+		while (longString.length() < 100000) {
+			longString.append("Via: SIP/2.0/UDP 127.0.0.1:5070;branch=z9hG4bK").append(longString.length()).append("\r\n");
+		}
+		String[] values = new String[] {null, "", "sip:alice@example.com", "élève 中文", longString.toString()};
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		for (String value : values) {
+			CompactExternalizer.writeString(out, value);
+		}
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		for (String value : values) {
+			assertEquals(value, CompactExternalizer.readString(in));
+		}
+	}
+
+	public void testSessionKeysRoundTrip() throws Exception {
+		SipSessionKey[] keys = new SipSessionKey[] {
+				new SipSessionKey("fromTag", null, "callId@127.0.0.1", "appSessionId", "application"),
+				new SipSessionKey("fromTag", "toTag", "callId@127.0.0.1", "appSessionId", "application")};
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		for (SipSessionKey key : keys) {
+			CompactExternalizer.writeSipSessionKey(out, key);
+		}
+		CompactExternalizer.writeSipSessionKey(out, null);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		for (SipSessionKey key : keys) {
+			SipSessionKey read = CompactExternalizer.readSipSessionKey(in);
+			assertEquals(key, read);
+			assertEquals(key.getToTag(), read.getToTag());
+			assertEquals(key.toString(), read.toString());
+		}
+		assertNull(CompactExternalizer.readSipSessionKey(in));
+	}
+
+	public void testAttributesAreSmallerThanLegacy() throws Exception {
+		Map<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+		for (int i = 0; i < 10; i++) {
+			attributes.put("attribute" + i, "value" + i);
+		}
+		ByteArrayOutputStream compactBytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(compactBytes);
+		CompactExternalizer.writeAttributes(out, attributes);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(compactBytes.toByteArray()));
+		assertEquals(attributes, new HashMap<String, Object>(CompactExternalizer.readAttributes(in)));
+
+		assertTrue(compactBytes.size() < legacySize(attributes));
+	}
+
+	public void testUnknownVersionIsRejected() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeShort(CompactExternalizer.MAGIC);
+		out.writeByte(CompactExternalizer.VERSION + 1);
+		out.writeObject(CompactExternalizer.MAGIC_OBJECT);
+		out.writeByte(CompactExternalizer.VERSION + 1);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		try {
+			CompactExternalizer.readHeaderOrLegacyBoolean(in);
+			fail("the version should have been rejected");
+		} catch (IOException e) {
+			// expected
+		}
+		try {
+			CompactExternalizer.isHeaderObject(in, in.readObject());
+			fail("the version should have been rejected");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	public void testHeadersAreToldFromLegacyLayouts() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		// legacy layouts starting with a boolean
+		out.writeBoolean(true);
+		out.writeBoolean(false);
+		CompactExternalizer.writeHeader(out);
+		// legacy layout starting with an object
+		out.writeObject("legacy");
+		CompactExternalizer.writeHeaderObject(out);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals(Boolean.TRUE, CompactExternalizer.readHeaderOrLegacyBoolean(in));
+		assertEquals(Boolean.FALSE, CompactExternalizer.readHeaderOrLegacyBoolean(in));
+		assertNull(CompactExternalizer.readHeaderOrLegacyBoolean(in));
+		assertFalse(CompactExternalizer.isHeaderObject(in, in.readObject()));
+		assertTrue(CompactExternalizer.isHeaderObject(in, in.readObject()));
+	}
+
+	// the attributes as written by the legacy externalization of the messages
+	private static int legacySize(Map<String, Object> attributes) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeInt(attributes.size());
+		Object[][] attributesArray = new Object[2][attributes.size()];
+		int i = 0;
+		for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+			attributesArray[0][i] = entry.getKey();
+			attributesArray[1][i] = entry.getValue();
+			i++;
+		}
+		out.writeObject(attributesArray);
+		out.close();
+		return bytes.size();
+	}
+}
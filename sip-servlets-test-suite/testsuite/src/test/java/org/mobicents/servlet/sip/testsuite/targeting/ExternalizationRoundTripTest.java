@@ -0,0 +1,182 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.servlet.sip.testsuite.targeting;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Externalizable;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.sip.message.Request;
+
+import junit.framework.TestCase;
+
+import org.mobicents.ha.javax.sip.ReplicationStrategy;
+import org.mobicents.servlet.sip.core.SipService;
+import org.mobicents.servlet.sip.message.CompactExternalizer;
+import org.mobicents.servlet.sip.message.ExternalizationFormat;
+import org.mobicents.servlet.sip.message.Servlet3SipServletMessageFactory;
+import org.mobicents.servlet.sip.message.SipFactoryImpl;
+import org.mobicents.servlet.sip.message.SipServletRequestImpl;
+import org.mobicents.servlet.sip.proxy.ProxyBranchImpl;
+import org.mobicents.servlet.sip.proxy.ProxyImpl;
+import org.mobicents.servlet.sip.startup.StaticServiceHolder;
+
+/**
+ * Externalizes messages, proxies and proxy branches in each format and reads them back while the other format is configured,
+ * checking that the format is told from the stream and that the state read back is unchanged.
+ */
+public class ExternalizationRoundTripTest extends TestCase {
+
+	private static final String INVITE = 
+		"INVITE sip:bob@example.com SIP/2.0\r\n" +
+		"Via: SIP/2.0/UDP 127.0.0.1:5070;branch=z9hG4bK-1234\r\n" +
+		"Max-Forwards: 70\r\n" +
+		"From: <sip:alice@example.com>;tag=1234\r\n" +
+		"To: <sip:bob@example.com>\r\n" +
+		"Call-ID: 0123456789@127.0.0.1\r\n" +
+		"CSeq: 1 INVITE\r\n" +
+		"Contact: <sip:alice@127.0.0.1:5070>\r\n" +
+		"Content-Type: application/sdp\r\n" +
+		"Content-Length: 4\r\n" +
+		"\r\n" +
+		"v=0\n";
+
+	private SipService sipService;
+	private ReplicationStrategy replicationStrategy;
+	private SipFactoryImpl sipFactoryImpl;
+	private Servlet3SipServletMessageFactory messageFactory;
+
+	public ExternalizationRoundTripTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		sipService = StaticServiceHolder.sipStandardService;
+		replicationStrategy = ReplicationStrategy.ConfirmedDialog;
+		StaticServiceHolder.sipStandardService = (SipService) Proxy.newProxyInstance(getClass().getClassLoader(), 
+				new Class<?>[] {SipService.class}, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if("getReplicationStrategy".equals(method.getName())) {
+					return replicationStrategy;
+				} else if("getMobicentsSipServletMessageFactoryClassName".equals(method.getName())) {
+					return Servlet3SipServletMessageFactory.class.getName();
+				}
+				return null;
+			}
+		});
+		sipFactoryImpl = new SipFactoryImpl();
+		sipFactoryImpl.initialize("gov.nist", false);
+		messageFactory = new Servlet3SipServletMessageFactory();
+		messageFactory.setMobicentsSipFactory(sipFactoryImpl);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		CompactExternalizer.setFormat(ExternalizationFormat.Legacy);
+		StaticServiceHolder.sipStandardService = sipService;
+		super.tearDown();
+	}
+
+	public void testMessageRoundTrips() throws Exception {
+		for (ExternalizationFormat format : ExternalizationFormat.values()) {
+			final SipServletRequestImpl request = (SipServletRequestImpl) messageFactory.createSipServletRequest(
+					SipFactoryImpl.messageFactory.createRequest(INVITE), null, null, null, false);
+			request.setAttribute("attribute", "value");
+			request.setCurrentApplicationName("application");
+
+			final SipServletRequestImpl readRequest = (SipServletRequestImpl) roundTrip(request, format);
+			assertEquals(format.toString(), request.getMessage().toString(), readRequest.getMessage().toString());
+			assertEquals(Request.INVITE, readRequest.getMethod());
+			assertEquals("value", readRequest.getAttribute("attribute"));
+			assertEquals("application", readRequest.getCurrentApplicationName());
+		}
+	}
+
+	public void testProxyBranchRoundTrips() throws Exception {
+		for (ExternalizationFormat format : ExternalizationFormat.values()) {
+			// a legacy stream starting with recurse set to true used to be taken for the version of the compact format
+			final ProxyBranchImpl proxyBranch = new ProxyBranchImpl();
+			proxyBranch.setRecurse(true);
+			proxyBranch.setRecordRoute(true);
+			proxyBranch.setProxyBranchTimeout(30);
+			proxyBranch.setProxyBranch1xxTimeout(5);
+			proxyBranch.setWaitingForPrack(true);
+
+			final ProxyBranchImpl readProxyBranch = (ProxyBranchImpl) roundTrip(proxyBranch, format);
+			assertTrue(format.toString(), readProxyBranch.getRecurse());
+			assertTrue(readProxyBranch.getRecordRoute());
+			assertFalse(readProxyBranch.isStarted());
+			assertEquals(30, readProxyBranch.getProxyBranchTimeout());
+			assertEquals(5, readProxyBranch.getProxyBranch1xxTimeout());
+			assertTrue(readProxyBranch.isWaitingForPrack());
+		}
+	}
+
+	public void testProxyRoundTrips() throws Exception {
+		for (ReplicationStrategy strategy : new ReplicationStrategy[] {ReplicationStrategy.ConfirmedDialog, ReplicationStrategy.EarlyDialog}) {
+			replicationStrategy = strategy;
+			for (ExternalizationFormat format : ExternalizationFormat.values()) {
+				final ProxyImpl proxy = new ProxyImpl();
+				proxy.setRecurse(true);
+				proxy.setSupervised(true);
+				proxy.setParallel(false);
+				proxy.setNoCancel(true);
+				proxy.setAckReceived(true);
+				proxy.setSequentialSearchTimeout(20);
+				proxy.setCallerFromTag("1234");
+
+				final ProxyImpl readProxy = (ProxyImpl) roundTrip(proxy, format);
+				final String context = strategy + " " + format;
+				assertTrue(context, readProxy.getRecurse());
+				assertTrue(readProxy.getSupervised());
+				assertFalse(readProxy.getParallel());
+				assertTrue(readProxy.getNoCancel());
+				assertTrue(readProxy.getAckReceived());
+				assertEquals(20, readProxy.getSequentialSearchTimeout());
+				assertEquals("1234", readProxy.getCallerFromTag());
+				assertNull(readProxy.getFinalBranchForSubsequentRequests());
+			}
+		}
+	}
+
+	/**
+	 * Writes the object in the given format, then reads it back while the other format is configured
+	 */
+	private static Externalizable roundTrip(Externalizable object, ExternalizationFormat format) throws Exception {
+		CompactExternalizer.setFormat(format);
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(object);
+		out.close();
+		CompactExternalizer.setFormat(format == ExternalizationFormat.Compact ? ExternalizationFormat.Legacy : ExternalizationFormat.Compact);
+		final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		try {
+			return (Externalizable) in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.servlet.sip.testsuite.targeting;
+
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import junit.framework.TestCase;
+
+import org.mobicents.servlet.sip.GenericUtils;
+import org.mobicents.servlet.sip.core.FastHashIdGenerator;
+import org.mobicents.servlet.sip.core.IdGenerator;
+import org.mobicents.servlet.sip.core.ThreadLocalIdGenerator;
+
+/**
+ * Checks that the ids generated concurrently don't collide, that the sip application session ids are well formed, 
+ * and that the ids of the application keys are the ones computed by the previous versions of the container.
+ */
+public class IdGeneratorTest extends TestCase {
+
+	private static final int THREADS = 4;
+	private static final int IDS_PER_THREAD = 100000;
+	private static final int APPLICATION_KEYS = 100000;
+
+	public IdGeneratorTest(String name) {
+		super(name);
+	}
+
+	public void testGeneratedIdsAreUniqueAcrossThreads() throws Exception {
+		final IdGenerator idGenerator = new ThreadLocalIdGenerator();
+		final ConcurrentMap<String, Boolean> ids = new ConcurrentHashMap<String, Boolean>(THREADS * IDS_PER_THREAD * 2);
+		final Throwable[] failures = new Throwable[THREADS];
+		final Thread[] threads = new Thread[THREADS];
+		for (int i = 0; i < THREADS; i++) {
+			final int thread = i;
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						for (int j = 0; j < IDS_PER_THREAD; j++) {
+							final String id = idGenerator.generateId();
+							assertNull("duplicate id " + id, ids.putIfAbsent(id, Boolean.TRUE));
+						}
+					} catch (Throwable t) {
+						failures[thread] = t;
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		for (Throwable failure : failures) {
+			if(failure != null) {
+				fail(failure.toString());
+			}
+		}
+		assertEquals(THREADS * IDS_PER_THREAD, ids.size());
+	}
+
+	public void testGeneratedIdsAreVersion4Uuids() {
+		final IdGenerator idGenerator = new ThreadLocalIdGenerator();
+		for (int i = 0; i < 1000; i++) {
+			final String id = idGenerator.generateId();
+			final UUID uuid = UUID.fromString(id);
+			assertEquals(id, uuid.toString());
+			assertEquals(4, uuid.version());
+			assertEquals(2, uuid.variant());
+		}
+		final String tag = idGenerator.generateTag();
+		assertEquals(8, tag.length());
+	}
+
+	public void testApplicationSessionIdsAreUniqueVersion4Uuids() {
+		final IdGenerator idGenerator = new ThreadLocalIdGenerator();
+		final Set<String> ids = new HashSet<String>();
+		for (int i = 0; i < IDS_PER_THREAD; i++) {
+			final String id = idGenerator.generateApplicationSessionId();
+			final UUID uuid = UUID.fromString(id);
+			assertEquals(id, uuid.toString());
+			assertEquals(4, uuid.version());
+			assertEquals(2, uuid.variant());
+			assertTrue("duplicate id " + id, ids.add(id));
+			// interleaved with the ids of the branches, drawn from another generator
+			assertFalse(ids.contains(idGenerator.generateId()));
+		}
+	}
+
+	public void testApplicationKeyIdsAreUnchanged() throws Exception {
+		final IdGenerator idGenerator = new ThreadLocalIdGenerator();
+		for (int i = 0; i < 1000; i++) {
+			final String applicationKey = "applicationKey" + i;
+			final byte[] digest = MessageDigest.getInstance("SHA").digest(applicationKey.getBytes());
+			assertEquals(GenericUtils.reduceHash(GenericUtils.convertToHex(digest), 8), idGenerator.hashApplicationKey(applicationKey));
+		}
+	}
+
+	public void testFastHashApplicationKeyIdsDontCollide() {
+		final IdGenerator idGenerator = new FastHashIdGenerator();
+		final Set<String> ids = new HashSet<String>();
+		for (int i = 0; i < APPLICATION_KEYS; i++) {
+			final String applicationKey = "sip:user" + i + "@example.com";
+			final String id = idGenerator.hashApplicationKey(applicationKey);
+			assertEquals(16, id.length());
+			assertEquals(id, idGenerator.hashApplicationKey(applicationKey));
+			assertTrue("collision for " + applicationKey, ids.add(id));
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.servlet.sip.testsuite.targeting;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.mobicents.servlet.sip.core.session.FileSessionStateStore;
+import org.mobicents.servlet.sip.core.session.OffHeapSessionStateStore;
+import org.mobicents.servlet.sip.core.session.SessionStateStore;
+
+/**
+ * Checks that the session states paged out are read back unchanged, 
+ * including after the file of the {@link FileSessionStateStore} got compacted in the background.
+ */
+public class SessionStateStoreTest extends TestCase {
+
+	private static final int STATES = 5000;
+
+	public SessionStateStoreTest(String name) {
+		super(name);
+	}
+
+	public void testOffHeapStore() throws Exception {
+		checkStore(new OffHeapSessionStateStore());
+	}
+
+	public void testFileStore() throws Exception {
+		final FileSessionStateStore store = new FileSessionStateStore();
+		checkStore(store);
+		assertEquals(0L, store.getFileSize());
+	}
+
+	public void testFileStoreIsCompactedWhileInUse() throws Exception {
+		final FileSessionStateStore store = new FileSessionStateStore();
+		try {
+			final long[] handles = new long[STATES];
+			for (int i = 0; i < STATES; i++) {
+				handles[i] = store.store(state(i));
+			}
+			final long fileSize = store.getFileSize();
+			// the compaction runs in the background while the states keep being stored and loaded
+			for (int i = 0; i < STATES; i++) {
+				if(i % 4 != 0) {
+					store.remove(handles[i]);
+					final long handle = store.store(state(i));
+					assertTrue(Arrays.equals(state(i), store.load(handle)));
+				}
+			}
+			final long deadline = System.currentTimeMillis() + 10000;
+			while (store.getFileSize() >= fileSize && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertTrue(store.getFileSize() < fileSize);
+			for (int i = 0; i < STATES; i += 4) {
+				assertTrue(Arrays.equals(state(i), store.load(handles[i])));
+			}
+			assertEquals(0, store.size());
+		} finally {
+			store.clear();
+		}
+		assertEquals(0L, store.getFileSize());
+	}
+
+	private void checkStore(SessionStateStore store) throws Exception {
+		final long[] handles = new long[STATES];
+		long size = 0;
+		for (int i = 0; i < STATES; i++) {
+			final byte[] state = state(i);
+			handles[i] = store.store(state);
+			size += state.length;
+		}
+		assertEquals(STATES, store.size());
+		assertEquals(size, store.getSizeInBytes());
+		// removing most of the states triggers the compaction of the file
+		for (int i = 0; i < STATES; i++) {
+			if(i % 4 != 0) {
+				assertTrue(Arrays.equals(state(i), store.load(handles[i])));
+				assertNull(store.load(handles[i]));
+			}
+		}
+		for (int i = 0; i < STATES; i += 4) {
+			assertTrue(Arrays.equals(state(i), store.load(handles[i])));
+		}
+		assertEquals(0, store.size());
+		assertEquals(0L, store.getSizeInBytes());
+		store.clear();
+	}
+
+	private static byte[] state(int i) {
+		final byte[] state = new byte[500 + i % 7];
+		Arrays.fill(state, (byte) i);
+		state[0] = (byte) (i >> 8);
+		return state;
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.servlet.sip.testsuite.targeting;
+
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+import org.mobicents.servlet.sip.core.session.SipManagerDelegate;
+import org.mobicents.servlet.sip.core.session.SipStandardManagerDelegate;
+
+/**
+ * Tears down sip sessions and sip application sessions from concurrent threads, as happens when conference 
+ * sip application sessions with many legs expire together, and checks that the expiration statistics of the manager, 
+ * updated without locking it, don't lose any update.
+ */
+public class SessionTeardownStatisticsTest extends TestCase {
+
+	private static final int THREADS = 8;
+	private static final int SIP_SESSIONS = 10000;
+	// legs per sip application session
+	private static final int LEGS = 100;
+
+	public SessionTeardownStatisticsTest(String name) {
+		super(name);
+	}
+
+	public void testConcurrentTeardown() throws Exception {
+		final SipManagerDelegate manager = new SipStandardManagerDelegate();
+		final CountDownLatch start = new CountDownLatch(1);
+		final Throwable[] failures = new Throwable[THREADS];
+		final Thread[] threads = new Thread[THREADS];
+		for (int i = 0; i < THREADS; i++) {
+			final int thread = i;
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						start.await();
+						for (int j = thread; j < SIP_SESSIONS; j += THREADS) {
+							manager.sipSessionExpired(timeAlive(j));
+							if(j % LEGS == 0) {
+								manager.sipApplicationSessionExpired(timeAlive(j));
+							}
+							// readers running concurrently with the updates
+							assertTrue(manager.getSipSessionAverageAliveTime() >= 0);
+						}
+					} catch (Throwable t) {
+						failures[thread] = t;
+					}
+				}
+			};
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		for (Throwable failure : failures) {
+			if(failure != null) {
+				fail(failure.toString());
+			}
+		}
+		long totalAliveTime = 0;
+		int maxAliveTime = 0;
+		long sasTotalAliveTime = 0;
+		for (int j = 0; j < SIP_SESSIONS; j++) {
+			totalAliveTime += timeAlive(j);
+			maxAliveTime = Math.max(maxAliveTime, timeAlive(j));
+			if(j % LEGS == 0) {
+				sasTotalAliveTime += timeAlive(j);
+			}
+		}
+		assertEquals(SIP_SESSIONS, manager.getExpiredSipSessions());
+		assertEquals(maxAliveTime, manager.getSipSessionMaxAliveTime());
+		assertEquals((int) (totalAliveTime / SIP_SESSIONS), manager.getSipSessionAverageAliveTime());
+		assertEquals(SIP_SESSIONS / LEGS, manager.getExpiredSipApplicationSessions());
+		assertEquals((int) (sasTotalAliveTime / (SIP_SESSIONS / LEGS)), manager.getSipApplicationSessionAverageAliveTime());
+	}
+
+	public void testSettersKeepTheAverage() {
+		final SipManagerDelegate manager = new SipStandardManagerDelegate();
+		manager.sipSessionExpired(10);
+		manager.sipSessionExpired(30);
+		assertEquals(20, manager.getSipSessionAverageAliveTime());
+		manager.setExpiredSipSessions(10);
+		assertEquals(20, manager.getSipSessionAverageAliveTime());
+		manager.setSipSessionAverageAliveTime(5);
+		manager.sipSessionExpired(115);
+		assertEquals(11, manager.getExpiredSipSessions());
+		assertEquals(15, manager.getSipSessionAverageAliveTime());
+		assertEquals(115, manager.getSipSessionMaxAliveTime());
+	}
+
+	private static int timeAlive(int sipSession) {
+		return (sipSession * 7) % 3600;
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.servlet.sip.testsuite.targeting;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.mobicents.servlet.sip.core.session.SmallAttributeMap;
+
+/**
+ * Checks that {@link SmallAttributeMap} behaves as a regular map below and past the number of inline attributes, 
+ * and that its attributes can be removed while iterating over them as the sessions do on invalidation.
+ */
+public class SmallAttributeMapTest extends TestCase {
+
+	public SmallAttributeMapTest(String name) {
+		super(name);
+	}
+
+	public void testRandomOperations() {
+		final Random random = new Random(289);
+		final Map<String, Object> expected = new HashMap<String, Object>();
+		final Map<String, Object> attributes = new SmallAttributeMap<Object>();
+		for (int i = 0; i < 100000; i++) {
+			// few keys most of the time, more now and then to go past the inline arrays
+			final String key = "attribute" + random.nextInt(i % 1000 < 900 ? 6 : 40);
+			switch (random.nextInt(4)) {
+			case 0:
+			case 1:
+				assertEquals(expected.put(key, i), attributes.put(key, i));
+				break;
+			case 2:
+				assertEquals(expected.remove(key), attributes.remove(key));
+				break;
+			default:
+				assertEquals(expected.get(key), attributes.get(key));
+			}
+			assertEquals(expected.size(), attributes.size());
+			if(i % 5000 == 0) {
+				assertEquals(expected, attributes);
+				attributes.clear();
+				expected.clear();
+			}
+		}
+		assertEquals(expected, attributes);
+	}
+
+	public void testRemoveWhileIterating() {
+		final Map<String, Object> attributes = new SmallAttributeMap<Object>();
+		for (int i = 0; i < 20; i++) {
+			attributes.put("attribute" + i, i);
+		}
+		for (String key : attributes.keySet()) {
+			attributes.remove(key);
+		}
+		assertTrue(attributes.isEmpty());
+		attributes.put("a", "1");
+		attributes.put("b", "2");
+		final Iterator<String> iterator = attributes.keySet().iterator();
+		iterator.next();
+		iterator.remove();
+		assertEquals(1, attributes.size());
+	}
+
+	public void testNullsAreRejected() {
+		final Map<String, Object> attributes = new SmallAttributeMap<Object>();
+		try {
+			attributes.put("a", null);
+			fail("null value accepted");
+		} catch (NullPointerException e) {
+		}
+		try {
+			attributes.put(null, "a");
+			fail("null key accepted");
+		} catch (NullPointerException e) {
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public void testSerialization() throws Exception {
+		final Map<String, Object> attributes = new SmallAttributeMap<Object>();
+		attributes.put("a", "1");
+		attributes.put("b", 2);
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(attributes);
+		out.close();
+		final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals(attributes, (Map<String, Object>) in.readObject());
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.testsuite.timers;
+
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.mobicents.servlet.sip.core.timers.TimingWheelProxyTimerServiceImpl;
+
+/**
+ * Checks that the {@link TimingWheelProxyTimerServiceImpl} fires and cancels the proxy branch timers 
+ * and records the number of scheduled, fired and cancelled timers as well as their firing lag.
+ */
+public class TimingWheelProxyTimerServiceImplTest extends TestCase {
+
+	private static final long TICK_DURATION = 10;
+	private static final int WHEEL_SIZE = 8;
+	private static final long TIMEOUT = 5000;
+
+	private TimingWheelProxyTimerServiceImpl proxyTimerService;
+
+	public TimingWheelProxyTimerServiceImplTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		// a single thread so that a slow timer delays the next one
+		proxyTimerService = new TimingWheelProxyTimerServiceImpl(1, TICK_DURATION, WHEEL_SIZE);
+		proxyTimerService.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		proxyTimerService.stop();
+		super.tearDown();
+	}
+
+	public void testTimerFires() throws Exception {
+		final long start = System.currentTimeMillis();
+		final CountDownLatch fired = new CountDownLatch(1);
+		final AtomicInteger firings = new AtomicInteger();
+		final long[] firingTime = new long[1];
+		proxyTimerService.schedule(new TimerTask() {
+			public void run() {
+				firingTime[0] = System.currentTimeMillis();
+				firings.incrementAndGet();
+				fired.countDown();
+			}
+		}, 50);
+		assertEquals(1, proxyTimerService.getNumberOfScheduledTimers());
+		assertEquals(1, proxyTimerService.getNumberOfPendingTimers());
+		assertTrue(fired.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		assertTrue(firingTime[0] - start >= 50);
+		Thread.sleep(100);
+		assertEquals(1, firings.get());
+		assertEquals(1, proxyTimerService.getNumberOfFiredTimers());
+		assertEquals(0, proxyTimerService.getNumberOfCancelledTimers());
+		assertEquals(0, proxyTimerService.getNumberOfPendingTimers());
+	}
+
+	public void testCancelledTimerDoesntFire() throws Exception {
+		final AtomicInteger firings = new AtomicInteger();
+		final TimerTask task = new TimerTask() {
+			public void run() {
+				firings.incrementAndGet();
+			}
+		};
+		proxyTimerService.schedule(task, 50);
+		proxyTimerService.cancel(task);
+		Thread.sleep(200);
+		assertEquals(0, firings.get());
+		assertEquals(1, proxyTimerService.getNumberOfScheduledTimers());
+		assertEquals(0, proxyTimerService.getNumberOfFiredTimers());
+		assertEquals(1, proxyTimerService.getNumberOfCancelledTimers());
+		assertEquals(0, proxyTimerService.getNumberOfPendingTimers());
+
+		// cancelling a timer that already fired isn't counted
+		final CountDownLatch fired = new CountDownLatch(1);
+		final TimerTask firedTask = new TimerTask() {
+			public void run() {
+				fired.countDown();
+			}
+		};
+		proxyTimerService.schedule(firedTask, 20);
+		assertTrue(fired.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		proxyTimerService.cancel(firedTask);
+		assertEquals(1, proxyTimerService.getNumberOfFiredTimers());
+		assertEquals(1, proxyTimerService.getNumberOfCancelledTimers());
+	}
+
+	public void testFiringLagIsRecorded() throws Exception {
+		assertEquals(0, proxyTimerService.getAverageFiringLag());
+		assertEquals(0, proxyTimerService.getMaxFiringLag());
+		final CountDownLatch fired = new CountDownLatch(2);
+		// the first timer holds the only timer thread, the second one is due meanwhile
+		proxyTimerService.schedule(new TimerTask() {
+			public void run() {
+				try {
+					Thread.sleep(300);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				fired.countDown();
+			}
+		}, 20);
+		proxyTimerService.schedule(new TimerTask() {
+			public void run() {
+				fired.countDown();
+			}
+		}, 20);
+		assertTrue(fired.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		assertEquals(2, proxyTimerService.getNumberOfFiredTimers());
+		final long maxFiringLag = proxyTimerService.getMaxFiringLag();
+		assertTrue("max firing lag " + maxFiringLag, maxFiringLag >= 250);
+		final long averageFiringLag = proxyTimerService.getAverageFiringLag();
+		assertTrue("average firing lag " + averageFiringLag, averageFiringLag >= maxFiringLag / 2);
+		assertTrue("average firing lag " + averageFiringLag, averageFiringLag <= maxFiringLag);
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.testsuite.timers;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+import org.mobicents.servlet.sip.core.timers.TimingWheel;
+
+/**
+ * Checks the expiration of the timeouts of the {@link TimingWheel}.
+ */
+public class TimingWheelTest extends TestCase {
+
+	private static final long TICK_DURATION = 10;
+	// a round of the wheel lasts 80 ms
+	private static final int WHEEL_SIZE = 8;
+	private static final long ROUND = TICK_DURATION * WHEEL_SIZE;
+	private static final long TIMEOUT = 5000;
+
+	private TimingWheel timingWheel;
+
+	public TimingWheelTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		timingWheel = new TimingWheel("TimingWheelTest", TICK_DURATION, WHEEL_SIZE);
+		timingWheel.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		timingWheel.stop();
+		super.tearDown();
+	}
+
+	public void testTimeoutsExpireOnTheTickOfTheirDeadline() throws Exception {
+		// one timeout per tick over two rounds, so the wheel wraps around while they expire
+		final TestTimeout[] timeouts = new TestTimeout[2 * WHEEL_SIZE];
+		for (int i = 0; i < timeouts.length; i++) {
+			timeouts[i] = new TestTimeout(0);
+			timingWheel.schedule(timeouts[i], i * TICK_DURATION, TimeUnit.MILLISECONDS);
+		}
+		for (TestTimeout timeout : timeouts) {
+			assertTrue(timeout.expired.await(TIMEOUT, TimeUnit.MILLISECONDS));
+			assertTrue(timeout.isExpired());
+			final long lateness = timeout.expiration.get() - timeout.getDeadline();
+			assertTrue("expired " + lateness + " ms after its deadline", lateness >= 0);
+			assertTrue("expired " + lateness + " ms after its deadline", lateness < ROUND);
+		}
+		for (int i = 1; i < timeouts.length; i++) {
+			assertTrue(timeouts[i - 1].expiration.get() <= timeouts[i].expiration.get());
+		}
+		assertEquals(timeouts.length, timingWheel.getNumberOfExpiredTimeouts());
+		assertEquals(0, timingWheel.getNumberOfPendingTimeouts());
+	}
+
+	public void testTimeoutFurtherThanARoundWaitsForItsRound() throws Exception {
+		// both land in the same bucket, the far one two rounds later
+		final TestTimeout nearTimeout = new TestTimeout(0);
+		final TestTimeout farTimeout = new TestTimeout(0);
+		timingWheel.schedule(farTimeout, 2 * ROUND + ROUND / 2, TimeUnit.MILLISECONDS);
+		timingWheel.schedule(nearTimeout, ROUND / 2, TimeUnit.MILLISECONDS);
+		assertTrue(nearTimeout.expired.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		assertFalse(farTimeout.isExpired());
+		assertEquals(1, timingWheel.getNumberOfPendingTimeouts());
+		assertTrue(farTimeout.expired.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		final long lateness = farTimeout.expiration.get() - farTimeout.getDeadline();
+		assertTrue("expired " + lateness + " ms after its deadline", lateness >= 0);
+		assertTrue("expired " + lateness + " ms after its deadline", lateness < ROUND);
+		assertEquals(2, timingWheel.getNumberOfExpiredTimeouts());
+		assertEquals(0, timingWheel.getNumberOfPendingTimeouts());
+	}
+
+	public void testCancelledTimeoutsNeverExpire() throws Exception {
+		// cancelled before the wheel thread moved it to its bucket
+		final TestTimeout queuedTimeout = new TestTimeout(0);
+		timingWheel.schedule(queuedTimeout, 3 * TICK_DURATION, TimeUnit.MILLISECONDS);
+		assertTrue(timingWheel.cancel(queuedTimeout));
+		assertFalse(timingWheel.cancel(queuedTimeout));
+		// cancelled while sitting in its bucket, in the next round
+		final TestTimeout waitingTimeout = new TestTimeout(0);
+		timingWheel.schedule(waitingTimeout, ROUND + 3 * TICK_DURATION, TimeUnit.MILLISECONDS);
+		Thread.sleep(3 * TICK_DURATION);
+		assertTrue(timingWheel.cancel(waitingTimeout));
+		final TestTimeout lastTimeout = new TestTimeout(0);
+		timingWheel.schedule(lastTimeout, 2 * ROUND, TimeUnit.MILLISECONDS);
+		assertTrue(lastTimeout.expired.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		assertTrue(queuedTimeout.isCancelled());
+		assertTrue(waitingTimeout.isCancelled());
+		assertEquals(1, queuedTimeout.expired.getCount());
+		assertEquals(1, waitingTimeout.expired.getCount());
+		assertFalse(timingWheel.cancel(lastTimeout));
+		assertEquals(2, timingWheel.getNumberOfCancelledTimeouts());
+		assertEquals(1, timingWheel.getNumberOfExpiredTimeouts());
+		assertEquals(0, timingWheel.getNumberOfPendingTimeouts());
+	}
+
+	public void testTimeoutMovedBackIntoItsOwnBucketExpiresInTheNextRound() throws Exception {
+		// moved almost a full round further, it lands back in the bucket being expired
+		final TestTimeout timeout = new TestTimeout(ROUND - TICK_DURATION / 2);
+		timingWheel.schedule(timeout, 2 * TICK_DURATION, TimeUnit.MILLISECONDS);
+		assertTrue(timeout.expired.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		final long lateness = timeout.expiration.get() - timeout.movedAt.get();
+		assertTrue("expired " + lateness + " ms after being moved", lateness >= ROUND - TICK_DURATION / 2);
+		// and not a round later
+		assertTrue("expired " + lateness + " ms after being moved", lateness < ROUND + ROUND / 2);
+	}
+
+	public void testStopDropsTheWaitingTimeouts() throws Exception {
+		final TestTimeout timeout = new TestTimeout(0);
+		timingWheel.schedule(timeout, 2 * TICK_DURATION, TimeUnit.MILLISECONDS);
+		final TestTimeout farTimeout = new TestTimeout(0);
+		timingWheel.schedule(farTimeout, 10 * ROUND, TimeUnit.MILLISECONDS);
+		assertTrue(timeout.expired.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		timingWheel.stop();
+		assertEquals(0, timingWheel.getNumberOfPendingTimeouts());
+		assertTrue(farTimeout.isCancelled());
+		assertFalse(timingWheel.cancel(farTimeout));
+	}
+
+	/**
+	 * Timeout asking once to be moved further when its bucket comes due
+	 */
+	static class TestTimeout extends TimingWheel.Timeout {
+		final CountDownLatch expired = new CountDownLatch(1);
+		final AtomicLong expiration = new AtomicLong();
+		final AtomicLong movedAt = new AtomicLong();
+		private long remainingDelay;
+
+		TestTimeout(long remainingDelay) {
+			this.remainingDelay = remainingDelay;
+		}
+
+		@Override
+		protected long getRemainingDelay(long now) {
+			final long delay = remainingDelay;
+			if(delay > 0) {
+				movedAt.set(now);
+			}
+			remainingDelay = 0;
+			return delay;
+		}
+
+		@Override
+		protected void expire() {
+			expiration.set(System.currentTimeMillis());
+			expired.countDown();
+		}
+	}
+}
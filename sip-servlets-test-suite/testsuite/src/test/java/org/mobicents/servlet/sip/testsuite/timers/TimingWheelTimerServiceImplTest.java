@@ -0,0 +1,310 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.servlet.sip.testsuite.timers;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.sip.ServletTimer;
+import javax.servlet.sip.TimerListener;
+
+import junit.framework.TestCase;
+
+import org.mobicents.servlet.sip.annotation.ConcurrencyControlMode;
+import org.mobicents.servlet.sip.core.SipApplicationDispatcher;
+import org.mobicents.servlet.sip.core.SipContext;
+import org.mobicents.servlet.sip.core.SipListeners;
+import org.mobicents.servlet.sip.core.SipManager;
+import org.mobicents.servlet.sip.core.SipService;
+import org.mobicents.servlet.sip.core.session.MobicentsSipApplicationSession;
+import org.mobicents.servlet.sip.core.session.SipApplicationSessionKey;
+import org.mobicents.servlet.sip.core.timers.TimingWheelTimerServiceImpl;
+
+/**
+ * Checks that the {@link TimingWheelTimerServiceImpl} fires and cancels the servlet timers, fires the repeating timers 
+ * whose period is longer than a round of the wheel on time, and hands the callbacks of the serial concurrency control modes
+ * over to the executor of the session.
+ */
+public class TimingWheelTimerServiceImplTest extends TestCase {
+
+	private static final long TICK_DURATION = 10;
+	// a round of the wheel lasts 80 ms
+	private static final int WHEEL_SIZE = 8;
+	private static final long TIMEOUT = 5000;
+
+	private final List<Long> firings = new CopyOnWriteArrayList<Long>();
+	private final AtomicInteger serialExecutions = new AtomicInteger();
+	// the callbacks handed over to the executor of the session, when it holds them instead of running them
+	private final List<Runnable> heldSerialExecutions = new CopyOnWriteArrayList<Runnable>();
+	private volatile boolean holdSerialExecutions;
+	private volatile ConcurrencyControlMode concurrencyControlMode = ConcurrencyControlMode.None;
+	private TimingWheelTimerServiceImpl timerService;
+	private MobicentsSipApplicationSession sipApplicationSession;
+
+	public TimingWheelTimerServiceImplTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		final TimerListener timerListener = new TimerListener() {
+			public void timeout(ServletTimer timer) {
+				firings.add(System.currentTimeMillis());
+			}
+		};
+		final SipListeners listeners = fake(SipListeners.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if("getTimerListener".equals(method.getName())) {
+					return timerListener;
+				}
+				return defaultValue(method);
+			}
+		});
+		final SipManager manager = fake(SipManager.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if("getSipApplicationSession".equals(method.getName())) {
+					return sipApplicationSession;
+				}
+				return defaultValue(method);
+			}
+		});
+		final SipContext sipContext = fake(SipContext.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if("getConcurrencyControlMode".equals(method.getName())) {
+					return concurrencyControlMode;
+				}
+				if("getListeners".equals(method.getName())) {
+					return listeners;
+				}
+				if("getSipManager".equals(method.getName())) {
+					return manager;
+				}
+				return defaultValue(method);
+			}
+		});
+		final SipApplicationSessionKey key = new SipApplicationSessionKey("appsessionid", "app", null);
+		sipApplicationSession = fake(MobicentsSipApplicationSession.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if("isValid".equals(method.getName()) || "hasTimerListener".equals(method.getName())) {
+					return Boolean.TRUE;
+				}
+				if("getSipContext".equals(method.getName())) {
+					return sipContext;
+				}
+				if("getKey".equals(method.getName())) {
+					return key;
+				}
+				return defaultValue(method);
+			}
+		});
+		// the executor of the session in the serial concurrency control modes
+		final Executor sessionExecutor = new Executor() {
+			public void execute(Runnable command) {
+				serialExecutions.incrementAndGet();
+				if(holdSerialExecutions) {
+					heldSerialExecutions.add(command);
+				} else {
+					command.run();
+				}
+			}
+		};
+		final SipApplicationDispatcher sipApplicationDispatcher = fake(SipApplicationDispatcher.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if("getConcurrencyModelExecutor".equals(method.getName())) {
+					return sessionExecutor;
+				}
+				return defaultValue(method);
+			}
+		});
+		final SipService sipService = fake(SipService.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if("getTimerServiceThreadPoolSize".equals(method.getName())) {
+					return Integer.valueOf(2);
+				}
+				if("getSipApplicationDispatcher".equals(method.getName())) {
+					return sipApplicationDispatcher;
+				}
+				return defaultValue(method);
+			}
+		});
+		timerService = new TimingWheelTimerServiceImpl(sipService, TICK_DURATION, WHEEL_SIZE);
+		timerService.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		timerService.stop();
+		super.tearDown();
+	}
+
+	public void testTimerFires() throws Exception {
+		final long start = System.currentTimeMillis();
+		// longer than a round of the wheel
+		final ServletTimer timer = timerService.createTimer(sipApplicationSession, 200, false, null);
+		waitForFirings(1);
+		assertTrue(firings.get(0) - start >= 200);
+		assertTrue(firings.get(0) - start < 200 + TICK_DURATION * WHEEL_SIZE);
+		Thread.sleep(100);
+		assertEquals(1, firings.size());
+		assertEquals(0, serialExecutions.get());
+		assertEquals(0, timerService.getTimingWheel().getNumberOfPendingTimeouts());
+		assertTrue(timer.getTimeRemaining() <= 0);
+	}
+
+	public void testCancelledTimerDoesntFire() throws Exception {
+		final ServletTimer timer = timerService.createTimer(sipApplicationSession, 50, false, null);
+		timer.cancel();
+		Thread.sleep(200);
+		assertEquals(0, firings.size());
+		assertEquals(0, timerService.getTimingWheel().getNumberOfPendingTimeouts());
+		assertEquals(1, timerService.getTimingWheel().getNumberOfCancelledTimeouts());
+	}
+
+	public void testTimerCancelledOnceHandedOverDoesntFire() throws Exception {
+		concurrencyControlMode = ConcurrencyControlMode.SipSessionSerial;
+		holdSerialExecutions = true;
+		final ServletTimer timer = timerService.createTimer(sipApplicationSession, 20, false, null);
+		final long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (heldSerialExecutions.isEmpty() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(1, heldSerialExecutions.size());
+		final Future<?> future = futureOf(timer);
+		// the callback is waiting in the executor of the session when the timer gets cancelled
+		timer.cancel();
+		heldSerialExecutions.get(0).run();
+		assertEquals(0, firings.size());
+		try {
+			future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+			fail("the timer has been cancelled");
+		} catch (CancellationException e) {
+			// expected
+		}
+	}
+
+	public void testRepeatingTimerRescheduledAcrossARound() throws Exception {
+		final long start = System.currentTimeMillis();
+		// the period is longer than a round of the wheel, so each rescheduling lands in a later round
+		final long period = TICK_DURATION * WHEEL_SIZE + 3 * TICK_DURATION;
+		final ServletTimer timer = timerService.createTimer(sipApplicationSession, 20, period, true, false, null);
+		waitForFirings(3);
+		timer.cancel();
+		for (int i = 1; i < 3; i++) {
+			final long interval = firings.get(i) - firings.get(i - 1);
+			assertTrue("interval " + interval, interval >= period);
+			// a rescheduling that fires a round late would take more than a round on top of the period
+			assertTrue("interval " + interval, interval < period + TICK_DURATION * WHEEL_SIZE);
+		}
+		assertTrue(firings.get(2) - start < 20 + 2 * (period + TICK_DURATION * WHEEL_SIZE));
+	}
+
+	public void testSerialModesFireThroughTheSessionExecutor() throws Exception {
+		concurrencyControlMode = ConcurrencyControlMode.SipSessionSerial;
+		timerService.createTimer(sipApplicationSession, 20, false, null);
+		waitForFirings(1);
+		assertEquals(1, serialExecutions.get());
+		concurrencyControlMode = ConcurrencyControlMode.SipApplicationSessionSerial;
+		timerService.createTimer(sipApplicationSession, 20, false, null);
+		waitForFirings(2);
+		assertEquals(2, serialExecutions.get());
+	}
+
+	public void testFutureOfTheTimer() throws Exception {
+		final Future<?> future = futureOf(timerService.createTimer(sipApplicationSession, 30, false, null));
+		try {
+			future.get(1, TimeUnit.MILLISECONDS);
+			fail("the timer is still pending");
+		} catch (TimeoutException e) {
+			// expected
+		}
+		assertNull(future.get(TIMEOUT, TimeUnit.MILLISECONDS));
+		assertTrue(future.isDone());
+		assertEquals(1, firings.size());
+
+		final ServletTimer timer = timerService.createTimer(sipApplicationSession, 1000, false, null);
+		final Future<?> cancelledFuture = futureOf(timer);
+		timer.cancel();
+		try {
+			cancelledFuture.get();
+			fail("the timer has been cancelled");
+		} catch (CancellationException e) {
+			// expected
+		}
+	}
+
+	// the future of the timer is the entry of the timer in the wheel
+	private static Future<?> futureOf(ServletTimer timer) throws Exception {
+		final Field future = timer.getClass().getDeclaredField("future");
+		future.setAccessible(true);
+		return (Future<?>) future.get(timer);
+	}
+
+	private void waitForFirings(int count) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (firings.size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertTrue(firings.size() >= count);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T fake(Class<T> type, final InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(TimingWheelTimerServiceImplTest.class.getClassLoader(), new Class[] {type}, 
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if("hashCode".equals(method.getName())) {
+							return System.identityHashCode(proxy);
+						}
+						if("equals".equals(method.getName())) {
+							return proxy == args[0];
+						}
+						if("toString".equals(method.getName())) {
+							return method.getDeclaringClass().getSimpleName() + "@" + System.identityHashCode(proxy);
+						}
+						return handler.invoke(proxy, method, args);
+					}
+				});
+	}
+
+	private static Object defaultValue(Method method) {
+		final Class<?> returnType = method.getReturnType();
+		if(returnType == boolean.class) {
+			return Boolean.FALSE;
+		}
+		if(returnType == int.class) {
+			return Integer.valueOf(0);
+		}
+		if(returnType == long.class) {
+			return Long.valueOf(0);
+		}
+		return null;
+	}
+}